@@ -0,0 +1,110 @@
+package xyz.froud.saleae.automation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to add several analyzers to one capture, one at a time or all at once with the async methods. The simulated
+ * server adds {@link #latencyMicroseconds} to every reply, standing in for the time Logic 2 takes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AddAnalyzerBenchmark {
+
+    @Param({"1", "8", "32"})
+    public int analyzerCount;
+
+    @Param({"0", "200"})
+    public int latencyMicroseconds;
+
+    private SimulatedLogic2Server server;
+    private Manager manager;
+    private Capture capture;
+    private Capture.AnalyzerSettings settings;
+    private final List<Capture.AnalyzerHandle> handles = new ArrayList<>();
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new SimulatedLogic2Server();
+        server.latency = Duration.ofNanos(latencyMicroseconds * 1000L);
+        manager = new Manager(server.startInProcess());
+
+        final Manager.DeviceConfig deviceConfig = new Manager.DeviceConfig();
+        deviceConfig.digitalChannels = List.of(0, 1, 2, 3);
+        deviceConfig.digitalSampleRate = 10_000_000;
+        capture = manager.startCapture(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, new Manager.CaptureConfigManual());
+        capture.stop();
+
+        settings = new Capture.AnalyzerSettings()
+                .put("Input Channel", 0)
+                .put("Bit Rate (Bits/s)", 115200)
+                .put("Bits per Frame", "8 Bits per Transfer (Standard)")
+                .put("Stop Bits", "1 Stop Bit (Standard)")
+                .put("Parity Bit", "No Parity Bit (Standard)")
+                .put("Significant Bit", "Least Significant Bit Sent First (Standard)")
+                .put("Signal inversion", "Non Inverted (Standard)")
+                .put("Mode", "Normal");
+    }
+
+    /**
+     * Keep the number of analyzers in the capture from growing between invocations.
+     */
+    @TearDown(Level.Invocation)
+    public void removeAnalyzers() {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(handles.size());
+        for (Capture.AnalyzerHandle handle : handles) {
+            futures.add(capture.removeAnalyzerAsync(handle));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).join();
+        handles.clear();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        capture.close();
+        manager.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<Capture.AnalyzerHandle> sequential() {
+        for (int i = 0; i < analyzerCount; i++) {
+            handles.add(capture.addAnalyzer("Async Serial", "Serial " + i, settings));
+        }
+        return handles;
+    }
+
+    @Benchmark
+    public List<Capture.AnalyzerHandle> fanOut() {
+        final List<CompletableFuture<Capture.AnalyzerHandle>> futures = new ArrayList<>(analyzerCount);
+        for (int i = 0; i < analyzerCount; i++) {
+            futures.add(capture.addAnalyzerAsync("Async Serial", "Serial " + i, settings));
+        }
+        for (CompletableFuture<Capture.AnalyzerHandle> future : futures) {
+            handles.add(future.join());
+        }
+        return handles;
+    }
+
+}
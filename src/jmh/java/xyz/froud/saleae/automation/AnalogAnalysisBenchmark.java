@@ -0,0 +1,117 @@
+package xyz.froud.saleae.automation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import saleae.LogicChannels;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time for {@link AnalogAnalysis} to process the analog channels of a binary export, with scalar loops and with the
+ * Vector API, on one thread and on one thread per processor.
+ * <p>
+ * The files are written once per trial by a {@link SimulatedLogic2Server}: 2 analog channels with a 1 kHz sine wave.
+ * With the default parameters that is 20,000,000 samples per channel, or 80 MB per channel.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+@State(Scope.Benchmark)
+public class AnalogAnalysisBenchmark {
+
+    @Param({"1"})
+    public double durationSeconds;
+
+    @Param({"20000000"})
+    public int analogSampleRate;
+
+    @Param({"scalar", "vector"})
+    public String kernels;
+
+    /**
+     * 0 for one thread per processor.
+     */
+    @Param({"1", "0"})
+    public int threads;
+
+    private Path directory;
+    private SortedMap<Integer, RawBinaryReader.AnalogChannel> channels;
+    private ForkJoinPool pool;
+    private AnalogAnalysis analysis;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("analog-analysis-benchmark");
+        try (SimulatedLogic2Server server = new SimulatedLogic2Server();
+             Manager manager = new Manager(server.startInProcess())) {
+            server.analogSignal = SimulatedLogic2Server.sineWave(1000, 1.65, 1.65);
+
+            final Manager.DeviceConfig deviceConfig = new Manager.DeviceConfig();
+            deviceConfig.analogChannels = List.of(0, 1);
+            deviceConfig.analogSampleRate = analogSampleRate;
+            final Manager.CaptureConfigTimed captureConfig = new Manager.CaptureConfigTimed();
+            captureConfig.durationSeconds = durationSeconds;
+            server.timeScale = 0;
+
+            try (Capture capture = manager.startCapture(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, captureConfig)) {
+                capture.waitForCaptureToEnd();
+                capture.exportRawDataBinary(directory.toString(), LogicChannels.getDefaultInstance(), 1);
+            }
+        }
+        channels = RawBinaryReader.mapAnalogDirectory(directory);
+
+        final AnalogKernels analogKernels = kernels.equals("vector") ? AnalogKernels.best() : new AnalogKernels.Scalar();
+        if (kernels.equals("vector") && !analogKernels.isVectorized()) {
+            throw new IllegalStateException("The jdk.incubator.vector module is not present");
+        }
+        pool = new ForkJoinPool(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+        analysis = new AnalogAnalysis(pool, AnalogAnalysis.DEFAULT_CHUNK_SAMPLES, analogKernels);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        channels = null;
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Benchmark
+    public SortedMap<Integer, AnalogAnalysis.Stats> stats() {
+        return analysis.stats(channels);
+    }
+
+    @Benchmark
+    public SortedMap<Integer, AnalogAnalysis.Crossings> crossings() {
+        return analysis.crossings(channels, 1.65f, 0.1f);
+    }
+
+    @Benchmark
+    public SortedMap<Integer, AnalogAnalysis.Peaks> peaks() {
+        return analysis.peaks(channels, 1.65f, 0.1f);
+    }
+
+}
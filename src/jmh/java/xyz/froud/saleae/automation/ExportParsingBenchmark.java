@@ -0,0 +1,154 @@
+package xyz.froud.saleae.automation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import saleae.LogicChannels;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Time to read the files written by ExportRawDataBinary and ExportRawDataCsv.
+ * <p>
+ * The files are written once per trial by a {@link SimulatedLogic2Server}: 16 digital channels where channel 0 toggles
+ * every {@code 1 / (2 * digitalFrequencyHertz)} seconds, and 2 analog channels at 1 MS/s. With the default parameters
+ * that is about 680,000 transitions and 2,000,000 analog samples, or roughly 5 MB of digital .bin, 8 MB of analog .bin,
+ * and 40 MB of CSV. The sizes are printed during setup so throughput can be worked out from the results.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExportParsingBenchmark {
+
+    @Param({"1"})
+    public double durationSeconds;
+
+    @Param({"100000"})
+    public double digitalFrequencyHertz;
+
+    private Path directory;
+
+    @Setup
+    public void setUp() throws Exception {
+        directory = Files.createTempDirectory("export-parsing-benchmark");
+        try (SimulatedLogic2Server server = new SimulatedLogic2Server();
+             Manager manager = new Manager(server.startInProcess())) {
+            server.digitalSignal = SimulatedLogic2Server.squareWave(digitalFrequencyHertz);
+            server.analogSignal = SimulatedLogic2Server.sineWave(1000, 1.65, 1.65);
+
+            final Manager.DeviceConfig deviceConfig = new Manager.DeviceConfig();
+            deviceConfig.digitalChannels = List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+            deviceConfig.analogChannels = List.of(0, 1);
+            deviceConfig.digitalSampleRate = 500_000_000;
+            deviceConfig.analogSampleRate = 1_000_000;
+            final Manager.CaptureConfigTimed captureConfig = new Manager.CaptureConfigTimed();
+            captureConfig.durationSeconds = durationSeconds;
+            server.timeScale = 0;
+
+            try (Capture capture = manager.startCapture(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, captureConfig)) {
+                capture.waitForCaptureToEnd();
+                capture.exportRawDataBinary(directory.toString(), LogicChannels.getDefaultInstance(), 1);
+                capture.exportRawDataCsv(directory.toString(), LogicChannels.getDefaultInstance(), 1, false);
+            }
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            files.sorted().forEach(file -> {
+                try {
+                    System.out.printf("%s: %,d bytes%n", file.getFileName(), Files.size(file));
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Map every digital .bin file and visit every transition with a cursor.
+     */
+    @Benchmark
+    public double digitalBinary() throws IOException {
+        double checksum = 0;
+        for (RawBinaryReader.DigitalChannel channel : RawBinaryReader.mapDigitalDirectory(directory).values()) {
+            final RawBinaryReader.TransitionCursor cursor = channel.cursor();
+            while (cursor.next()) {
+                checksum += cursor.time() + cursor.state();
+            }
+        }
+        return checksum;
+    }
+
+    /**
+     * Map every digital .bin file and build its transition index.
+     */
+    @Benchmark
+    public SortedMap<Integer, DigitalTransitionIndex> digitalBinaryIndex() throws IOException {
+        return DigitalTransitionIndex.forDirectory(directory);
+    }
+
+    /**
+     * Map every analog .bin file and visit every sample.
+     */
+    @Benchmark
+    public double analogBinary() throws IOException {
+        double checksum = 0;
+        for (RawBinaryReader.AnalogChannel channel : RawBinaryReader.mapAnalogDirectory(directory).values()) {
+            for (long i = 0; i < channel.SAMPLE_COUNT; i++) {
+                checksum += channel.sample(i);
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public long digitalCsv() throws IOException {
+        long checksum = 0;
+        try (ExportCsvReader.Digital reader = ExportCsvReader.openDigital(FileChannel.open(directory.resolve("digital.csv")), false)) {
+            while (reader.next()) {
+                checksum += reader.row().states;
+            }
+        }
+        return checksum;
+    }
+
+    @Benchmark
+    public double analogCsv() throws IOException {
+        double checksum = 0;
+        try (ExportCsvReader.Analog reader = ExportCsvReader.openAnalog(FileChannel.open(directory.resolve("analog.csv")), false)) {
+            while (reader.next()) {
+                checksum += reader.row().VOLTS[0];
+            }
+        }
+        return checksum;
+    }
+
+}
@@ -0,0 +1,133 @@
+package xyz.froud.saleae.automation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import saleae.AddAnalyzerRequest;
+import saleae.CaptureConfiguration;
+import saleae.DigitalTriggerType;
+import saleae.LogicDeviceConfiguration;
+import saleae.StartCaptureRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of converting the wrapper classes to gRPC messages, which happens on every StartCapture.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RequestBuildingBenchmark {
+
+    private Manager.DeviceConfig deviceConfig;
+    private Manager.CaptureConfigTimed timedCaptureConfig;
+    private Manager.CaptureConfigDigitalTrigger triggerCaptureConfig;
+    private Capture.AnalyzerSettings analyzerSettings;
+    private CapturePlan plan;
+    private AnalyzerGraph graph;
+
+    @Setup
+    public void setUp() {
+        deviceConfig = new Manager.DeviceConfig();
+        deviceConfig.digitalChannels = List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15);
+        deviceConfig.analogChannels = List.of(0, 1, 2, 3);
+        deviceConfig.digitalSampleRate = 500_000_000;
+        deviceConfig.analogSampleRate = 50_000_000;
+        deviceConfig.digitalThresholdVolts = 3.3;
+        final List<Manager.GlitchFilter> glitchFilters = new ArrayList<>();
+        for (int channel = 0; channel < 4; channel++) {
+            final Manager.GlitchFilter glitchFilter = new Manager.GlitchFilter();
+            glitchFilter.channelIndex = channel;
+            glitchFilter.pulseWidthSeconds = 1e-7;
+            glitchFilters.add(glitchFilter);
+        }
+        deviceConfig.glitchFilters = glitchFilters;
+
+        timedCaptureConfig = new Manager.CaptureConfigTimed();
+        timedCaptureConfig.bufferSizeMegabytes = 1024;
+        timedCaptureConfig.durationSeconds = 1;
+
+        triggerCaptureConfig = new Manager.CaptureConfigDigitalTrigger();
+        triggerCaptureConfig.bufferSizeMegabytes = 1024;
+        triggerCaptureConfig.digitalTriggerType = DigitalTriggerType.DIGITAL_TRIGGER_TYPE_RISING;
+        triggerCaptureConfig.afterTriggerSeconds = 0.1;
+        triggerCaptureConfig.triggerChannelIndex = 3;
+
+        analyzerSettings = new Capture.AnalyzerSettings()
+                .put("Input Channel", 0)
+                .put("Bit Rate (Bits/s)", 115200)
+                .put("Bits per Frame", "8 Bits per Transfer (Standard)")
+                .put("Stop Bits", "1 Stop Bit (Standard)")
+                .put("Parity Bit", "No Parity Bit (Standard)");
+        plan = CapturePlan.builder(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, timedCaptureConfig)
+                .addAnalyzer("Async Serial", "serial", analyzerSettings)
+                .build();
+        graph = new AnalyzerGraph()
+                .addAnalyzer("Async Serial", "serial", analyzerSettings);
+    }
+
+    @Benchmark
+    public LogicDeviceConfiguration deviceConfigToGRPC() {
+        return deviceConfig.toGRPC();
+    }
+
+    @Benchmark
+    public CaptureConfiguration timedCaptureConfigToGRPC() {
+        return timedCaptureConfig.toGRPC();
+    }
+
+    @Benchmark
+    public CaptureConfiguration digitalTriggerCaptureConfigToGRPC() {
+        return triggerCaptureConfig.toGRPC();
+    }
+
+    @Benchmark
+    public StartCaptureRequest startCaptureRequest() {
+        return Manager.startCaptureRequest(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, timedCaptureConfig);
+    }
+
+    /**
+     * Compare with {@link #startCaptureRequest()}.
+     */
+    @Benchmark
+    public StartCaptureRequest capturePlanStartCaptureRequest() {
+        return plan.startCaptureRequest();
+    }
+
+    @Benchmark
+    public AddAnalyzerRequest addAnalyzerRequest() {
+        return AddAnalyzerRequest.newBuilder()
+                .setCaptureId(1)
+                .setAnalyzerName("Async Serial")
+                .setAnalyzerLabel("serial")
+                .putAllSettings(analyzerSettings.toGRPC())
+                .build();
+    }
+
+    /**
+     * Compare with {@link #addAnalyzerRequest()}.
+     */
+    @Benchmark
+    public AddAnalyzerRequest analyzerGraphAddAnalyzerRequest() {
+        return graph.addAnalyzerRequest(0, 1);
+    }
+
+    @Benchmark
+    public int startCaptureRequestSerializedSize() {
+        return Manager.startCaptureRequest(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, timedCaptureConfig)
+                .toByteArray().length;
+    }
+
+}
@@ -0,0 +1,62 @@
+package xyz.froud.saleae.automation;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import saleae.AppInfo;
+import saleae.Device;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client overhead of one round trip to a {@link SimulatedLogic2Server} over the in-process transport. The server replies
+ * immediately, so this measures the library and gRPC, not Logic 2.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RoundTripBenchmark {
+
+    private SimulatedLogic2Server server;
+    private Manager manager;
+
+    @Setup
+    public void setUp() throws Exception {
+        server = new SimulatedLogic2Server();
+        manager = new Manager(server.startInProcess());
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        manager.close();
+        server.close();
+    }
+
+    @Benchmark
+    public AppInfo getAppInfo() {
+        return manager.getAppInfo();
+    }
+
+    @Benchmark
+    public AppInfo getAppInfoAsync() {
+        return manager.getAppInfoAsync().join();
+    }
+
+    @Benchmark
+    public List<Device> getDevices() {
+        return manager.getDevices(true);
+    }
+
+}
@@ -0,0 +1,468 @@
+package xyz.froud.saleae.automation;
+
+import xyz.froud.saleae.automation.RawBinaryReader.AnalogChannel;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+
+/**
+ * Computes statistics, threshold crossings, and peaks of analog channels from a binary export, see
+ * {@link RawBinaryReader#mapAnalogDirectory}.
+ * <p>
+ * Each channel is split into chunks which are processed on a {@link ForkJoinPool}, and the methods taking a map process
+ * all the channels at the same time. Inside a chunk, samples are copied from the mapped file into a small array, then
+ * processed with the incubating Vector API if the JVM was started with {@code --add-modules jdk.incubator.vector}, or
+ * with scalar loops otherwise. The results are the same either way, except for rounding in the sums.
+ */
+public class AnalogAnalysis {
+
+    static final long DEFAULT_CHUNK_SAMPLES = 1 << 20;
+
+    /**
+     * Size of the array that samples are copied into. Small enough to stay in the L1 or L2 cache.
+     */
+    static final int BUFFER_SAMPLES = 1 << 12;
+
+    private final ForkJoinPool POOL;
+    private final long CHUNK_SAMPLES;
+    private final AnalogKernels KERNELS;
+
+    public AnalogAnalysis() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SAMPLES);
+    }
+
+    /**
+     * @param chunkSamples chunks with fewer samples than this are processed without being split further
+     */
+    public AnalogAnalysis(ForkJoinPool pool, long chunkSamples) {
+        this(pool, chunkSamples, AnalogKernels.best());
+    }
+
+    AnalogAnalysis(ForkJoinPool pool, long chunkSamples, AnalogKernels kernels) {
+        if (chunkSamples < 1) {
+            throw new IllegalArgumentException("chunkSamples must be positive");
+        }
+        POOL = pool;
+        CHUNK_SAMPLES = chunkSamples;
+        KERNELS = kernels;
+    }
+
+    /**
+     * @return true if the Vector API is used, false if the jdk.incubator.vector module is not present
+     */
+    public boolean isVectorized() {
+        return KERNELS.isVectorized();
+    }
+
+    public static class Stats {
+        public final long COUNT;
+        /**
+         * Infinity if there are no samples.
+         */
+        public final float MIN;
+        /**
+         * Negative infinity if there are no samples.
+         */
+        public final float MAX;
+        /**
+         * NaN if there are no samples.
+         */
+        public final double MEAN;
+        /**
+         * NaN if there are no samples.
+         */
+        public final double RMS;
+
+        Stats(Accumulator accumulator) {
+            COUNT = accumulator.count;
+            MIN = accumulator.min;
+            MAX = accumulator.max;
+            MEAN = accumulator.sum / accumulator.count;
+            RMS = Math.sqrt(accumulator.sumSquares / accumulator.count);
+        }
+
+        /**
+         * @return population standard deviation
+         */
+        public double standardDeviation() {
+            return Math.sqrt(Math.max(0, RMS * RMS - MEAN * MEAN));
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d min=%f max=%f mean=%f rms=%f", COUNT, MIN, MAX, MEAN, RMS);
+        }
+    }
+
+    /**
+     * Threshold crossings with hysteresis. A rising crossing is the first sample greater than the high threshold after
+     * a sample less than the low threshold, and the other way around for a falling crossing.
+     */
+    public static class Crossings {
+        public final float LOW_THRESHOLD;
+        public final float HIGH_THRESHOLD;
+        /**
+         * Sample indexes, alternating between rising and falling crossings.
+         */
+        public final long[] INDEXES;
+        /**
+         * Whether the first crossing is rising. The signal before it is neither, or not above the high threshold and
+         * not below the low threshold.
+         */
+        public final boolean FIRST_RISING;
+
+        Crossings(float lowThreshold, float highThreshold, long[] indexes, boolean firstRising) {
+            LOW_THRESHOLD = lowThreshold;
+            HIGH_THRESHOLD = highThreshold;
+            INDEXES = indexes;
+            FIRST_RISING = firstRising;
+        }
+
+        public int size() {
+            return INDEXES.length;
+        }
+
+        public boolean isRising(int crossingIndex) {
+            return FIRST_RISING == ((crossingIndex & 1) == 0);
+        }
+    }
+
+    /**
+     * The largest sample of each pulse, from a rising crossing to the next falling crossing or the end of the channel.
+     */
+    public static class Peaks {
+        public final long[] INDEXES;
+        public final float[] VALUES;
+
+        Peaks(long[] indexes, float[] values) {
+            INDEXES = indexes;
+            VALUES = values;
+        }
+
+        public int size() {
+            return INDEXES.length;
+        }
+    }
+
+    public Stats stats(AnalogChannel channel) {
+        return new Stats(POOL.invoke(new ChunkTask<>(0, channel.SAMPLE_COUNT, (from, to) -> accumulate(channel, from, to), Accumulator::merge)));
+    }
+
+    /**
+     * @return map from channel index to stats
+     */
+    public SortedMap<Integer, Stats> stats(Map<Integer, AnalogChannel> channels) {
+        return forEachChannel(channels, this::stats);
+    }
+
+    /**
+     * @param hysteresis distance between the low and high thresholds, centered on the threshold
+     */
+    public Crossings crossings(AnalogChannel channel, float threshold, float hysteresis) {
+        if (!(hysteresis >= 0)) {
+            throw new IllegalArgumentException("hysteresis must not be negative");
+        }
+        final float low = threshold - hysteresis / 2;
+        final float high = threshold + hysteresis / 2;
+        final CrossingPart part = POOL.invoke(new ChunkTask<>(0, channel.SAMPLE_COUNT, (from, to) -> findCrossings(channel, from, to, low, high), CrossingPart::merge));
+        return new Crossings(low, high, Arrays.copyOf(part.indexes, part.size), part.firstIndex < 0 || !part.firstHigh);
+    }
+
+    /**
+     * @return map from channel index to crossings
+     */
+    public SortedMap<Integer, Crossings> crossings(Map<Integer, AnalogChannel> channels, float threshold, float hysteresis) {
+        return forEachChannel(channels, channel -> crossings(channel, threshold, hysteresis));
+    }
+
+    /**
+     * Find the largest sample of each pulse above the threshold.
+     *
+     * @see #crossings(AnalogChannel, float, float)
+     */
+    public Peaks peaks(AnalogChannel channel, float threshold, float hysteresis) {
+        final Crossings crossings = crossings(channel, threshold, hysteresis);
+        final int firstRising = crossings.FIRST_RISING ? 0 : 1;
+        final int pulseCount = (crossings.size() - firstRising + 1) / 2;
+        final long[] starts = new long[pulseCount];
+        final long[] ends = new long[pulseCount];
+        for (int pulse = 0; pulse < pulseCount; pulse++) {
+            final int crossing = firstRising + 2 * pulse;
+            starts[pulse] = crossings.INDEXES[crossing];
+            ends[pulse] = crossing + 1 < crossings.size() ? crossings.INDEXES[crossing + 1] : channel.SAMPLE_COUNT;
+        }
+        if (pulseCount == 0) {
+            return new Peaks(new long[0], new float[0]);
+        }
+        final PeakPart part = POOL.invoke(new ChunkTask<>(starts[0], ends[pulseCount - 1], (from, to) -> findPeaks(channel, starts, ends, from, to), PeakPart::merge));
+        return new Peaks(part.INDEXES, part.VALUES);
+    }
+
+    /**
+     * @return map from channel index to peaks
+     */
+    public SortedMap<Integer, Peaks> peaks(Map<Integer, AnalogChannel> channels, float threshold, float hysteresis) {
+        return forEachChannel(channels, channel -> peaks(channel, threshold, hysteresis));
+    }
+
+    private <R> SortedMap<Integer, R> forEachChannel(Map<Integer, AnalogChannel> channels, Function<AnalogChannel, R> function) {
+        final SortedMap<Integer, ForkJoinTask<R>> tasks = new TreeMap<>();
+        for (Map.Entry<Integer, AnalogChannel> entry : channels.entrySet()) {
+            tasks.put(entry.getKey(), POOL.submit(() -> function.apply(entry.getValue())));
+        }
+        final SortedMap<Integer, R> result = new TreeMap<>();
+        for (Map.Entry<Integer, ForkJoinTask<R>> entry : tasks.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().join());
+        }
+        return result;
+    }
+
+    private interface ChunkFunction<R> {
+        R apply(long fromSample, long toSample);
+    }
+
+    /**
+     * Splits a range of samples in half until it is at most {@link #CHUNK_SAMPLES} long, then merges the results in
+     * order.
+     */
+    private class ChunkTask<R> extends RecursiveTask<R> {
+        final long FROM;
+        final long TO;
+        final ChunkFunction<R> FUNCTION;
+        final BinaryOperator<R> MERGE;
+
+        ChunkTask(long from, long to, ChunkFunction<R> function, BinaryOperator<R> merge) {
+            FROM = from;
+            TO = to;
+            FUNCTION = function;
+            MERGE = merge;
+        }
+
+        @Override
+        protected R compute() {
+            if (TO - FROM <= CHUNK_SAMPLES) {
+                return FUNCTION.apply(FROM, TO);
+            }
+            final long middle = (FROM + TO) >>> 1;
+            final ChunkTask<R> left = new ChunkTask<>(FROM, middle, FUNCTION, MERGE);
+            left.fork();
+            final R right = new ChunkTask<>(middle, TO, FUNCTION, MERGE).compute();
+            return MERGE.apply(left.join(), right);
+        }
+    }
+
+    /**
+     * Copies samples from the mapped segments of a channel.
+     */
+    private static class SampleReader {
+        private final AnalogChannel CHANNEL;
+        private final int SEGMENT_LENGTH = AnalogChannel.segmentLength();
+        private final float[] BUFFER = new float[BUFFER_SAMPLES];
+        private FloatBuffer segment;
+        private int segmentIndex = -1;
+
+        SampleReader(AnalogChannel channel) {
+            CHANNEL = channel;
+        }
+
+        /**
+         * @return the buffer, holding {@code length} samples starting at {@code index}
+         */
+        float[] read(long index, int length) {
+            int done = 0;
+            while (done < length) {
+                final long sample = index + done;
+                final int wantedSegment = (int) (sample / SEGMENT_LENGTH);
+                if (wantedSegment != segmentIndex) {
+                    segment = CHANNEL.segment(wantedSegment);
+                    segmentIndex = wantedSegment;
+                }
+                final int offset = (int) (sample % SEGMENT_LENGTH);
+                final int count = Math.min(length - done, SEGMENT_LENGTH - offset);
+                segment.get(offset, BUFFER, done, count);
+                done += count;
+            }
+            return BUFFER;
+        }
+    }
+
+    static class Accumulator {
+        float min = Float.POSITIVE_INFINITY;
+        float max = Float.NEGATIVE_INFINITY;
+        double sum;
+        double sumSquares;
+        long count;
+
+        Accumulator merge(Accumulator other) {
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            sum += other.sum;
+            sumSquares += other.sumSquares;
+            count += other.count;
+            return this;
+        }
+    }
+
+    private Accumulator accumulate(AnalogChannel channel, long from, long to) {
+        final Accumulator accumulator = new Accumulator();
+        final SampleReader reader = new SampleReader(channel);
+        for (long base = from; base < to; base += BUFFER_SAMPLES) {
+            final int length = (int) Math.min(BUFFER_SAMPLES, to - base);
+            KERNELS.accumulate(reader.read(base, length), length, accumulator);
+        }
+        return accumulator;
+    }
+
+    /**
+     * Crossings inside one chunk. The state at the start of the chunk is not known, so the first sample outside the
+     * thresholds is remembered instead, and {@link #merge} adds a crossing there if the previous chunk ended in the
+     * other state.
+     */
+    private static class CrossingPart {
+        /**
+         * Index of the first sample above the high threshold or below the low threshold, or -1 if there is none.
+         */
+        long firstIndex = -1;
+        boolean firstHigh;
+        boolean lastHigh;
+        long[] indexes = new long[16];
+        int size;
+
+        void add(long index) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = index;
+        }
+
+        CrossingPart merge(CrossingPart right) {
+            if (right.firstIndex < 0) {
+                return this;
+            } else if (firstIndex < 0) {
+                return right;
+            }
+            if (lastHigh != right.firstHigh) {
+                add(right.firstIndex);
+            }
+            if (size + right.size > indexes.length) {
+                indexes = Arrays.copyOf(indexes, size + right.size);
+            }
+            System.arraycopy(right.indexes, 0, indexes, size, right.size);
+            size += right.size;
+            lastHigh = right.lastHigh;
+            return this;
+        }
+    }
+
+    private CrossingPart findCrossings(AnalogChannel channel, long from, long to, float low, float high) {
+        final CrossingPart part = new CrossingPart();
+        final SampleReader reader = new SampleReader(channel);
+        boolean isHigh = false;
+        for (long base = from; base < to; base += BUFFER_SAMPLES) {
+            final int length = (int) Math.min(BUFFER_SAMPLES, to - base);
+            final float[] samples = reader.read(base, length);
+            int i = 0;
+            while (i < length) {
+                if (part.firstIndex < 0) {
+                    final int above = KERNELS.indexAbove(samples, i, length, high);
+                    final int below = KERNELS.indexBelow(samples, i, length, low);
+                    if (above < 0 && below < 0) {
+                        break;
+                    }
+                    isHigh = below < 0 || (above >= 0 && above < below);
+                    i = isHigh ? above : below;
+                    part.firstIndex = base + i;
+                    part.firstHigh = isHigh;
+                } else {
+                    final int next = isHigh ? KERNELS.indexBelow(samples, i, length, low) : KERNELS.indexAbove(samples, i, length, high);
+                    if (next < 0) {
+                        break;
+                    }
+                    i = next;
+                    part.add(base + i);
+                    isHigh = !isHigh;
+                }
+                i++;
+            }
+        }
+        part.lastHigh = isHigh;
+        return part;
+    }
+
+    /**
+     * Peaks of the pulses which overlap one chunk. The first and last pulses may continue into the neighboring chunks,
+     * so {@link #merge} keeps the larger of the two.
+     */
+    private static class PeakPart {
+        final int FIRST_PULSE;
+        final long[] INDEXES;
+        final float[] VALUES;
+
+        PeakPart(int firstPulse, long[] indexes, float[] values) {
+            FIRST_PULSE = firstPulse;
+            INDEXES = indexes;
+            VALUES = values;
+        }
+
+        PeakPart merge(PeakPart right) {
+            if (right.INDEXES.length == 0) {
+                return this;
+            } else if (INDEXES.length == 0) {
+                return right;
+            }
+            final int shared = FIRST_PULSE + INDEXES.length - right.FIRST_PULSE;
+            final long[] mergedIndexes = Arrays.copyOf(INDEXES, INDEXES.length + right.INDEXES.length - shared);
+            final float[] mergedValues = Arrays.copyOf(VALUES, mergedIndexes.length);
+            if (shared == 1 && right.VALUES[0] > VALUES[VALUES.length - 1]) {
+                mergedIndexes[INDEXES.length - 1] = right.INDEXES[0];
+                mergedValues[INDEXES.length - 1] = right.VALUES[0];
+            }
+            System.arraycopy(right.INDEXES, shared, mergedIndexes, INDEXES.length, right.INDEXES.length - shared);
+            System.arraycopy(right.VALUES, shared, mergedValues, INDEXES.length, right.VALUES.length - shared);
+            return new PeakPart(FIRST_PULSE, mergedIndexes, mergedValues);
+        }
+    }
+
+    private PeakPart findPeaks(AnalogChannel channel, long[] starts, long[] ends, long from, long to) {
+        // first pulse which ends after the start of the chunk
+        int pulse = Arrays.binarySearch(ends, from);
+        pulse = pulse < 0 ? -pulse - 1 : pulse + 1;
+        final int firstPulse = pulse;
+        long[] indexes = new long[0];
+        float[] values = new float[0];
+        final SampleReader reader = new SampleReader(channel);
+        for (; pulse < starts.length && starts[pulse] < to; pulse++) {
+            final long pulseFrom = Math.max(from, starts[pulse]);
+            final long pulseTo = Math.min(to, ends[pulse]);
+            long bestIndex = pulseFrom;
+            float bestValue = Float.NEGATIVE_INFINITY;
+            for (long base = pulseFrom; base < pulseTo; base += BUFFER_SAMPLES) {
+                final int length = (int) Math.min(BUFFER_SAMPLES, pulseTo - base);
+                final float[] samples = reader.read(base, length);
+                final int i = KERNELS.indexOfMax(samples, 0, length);
+                if (samples[i] > bestValue) {
+                    bestValue = samples[i];
+                    bestIndex = base + i;
+                }
+            }
+            final int count = pulse - firstPulse;
+            if (count == indexes.length) {
+                indexes = Arrays.copyOf(indexes, Math.max(16, count * 2));
+                values = Arrays.copyOf(values, indexes.length);
+            }
+            indexes[count] = bestIndex;
+            values[count] = bestValue;
+        }
+        final int count = pulse - firstPulse;
+        return new PeakPart(firstPulse, Arrays.copyOf(indexes, count), Arrays.copyOf(values, count));
+    }
+
+}
@@ -0,0 +1,103 @@
+package xyz.froud.saleae.automation;
+
+/**
+ * Inner loops of {@link AnalogAnalysis} over a small array of samples.
+ */
+interface AnalogKernels {
+
+    /**
+     * Add the first {@code length} samples to the accumulator.
+     */
+    void accumulate(float[] samples, int length, AnalogAnalysis.Accumulator accumulator);
+
+    /**
+     * @return index of the first sample in {@code [from, to)} greater than the threshold, or -1 if there is none
+     */
+    int indexAbove(float[] samples, int from, int to, float threshold);
+
+    /**
+     * @return index of the first sample in {@code [from, to)} less than the threshold, or -1 if there is none
+     */
+    int indexBelow(float[] samples, int from, int to, float threshold);
+
+    /**
+     * @return index of the first largest sample in {@code [from, to)}, which must not be empty
+     */
+    int indexOfMax(float[] samples, int from, int to);
+
+    default boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @return {@code VectorAnalogKernels} if the JVM was started with {@code --add-modules jdk.incubator.vector} and
+     * the class is on the class path, otherwise {@link Scalar}
+     */
+    static AnalogKernels best() {
+        // VectorAnalogKernels is compiled in the vector source set, so it is loaded by name
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (AnalogKernels) Class.forName(AnalogKernels.class.getPackageName() + ".VectorAnalogKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError ignore) {
+            }
+        }
+        return new Scalar();
+    }
+
+    final class Scalar implements AnalogKernels {
+
+        @Override
+        public void accumulate(float[] samples, int length, AnalogAnalysis.Accumulator accumulator) {
+            float min = accumulator.min;
+            float max = accumulator.max;
+            double sum = 0;
+            double sumSquares = 0;
+            for (int i = 0; i < length; i++) {
+                final float sample = samples[i];
+                min = Math.min(min, sample);
+                max = Math.max(max, sample);
+                sum += sample;
+                sumSquares += (double) sample * sample;
+            }
+            accumulator.min = min;
+            accumulator.max = max;
+            accumulator.sum += sum;
+            accumulator.sumSquares += sumSquares;
+            accumulator.count += length;
+        }
+
+        @Override
+        public int indexAbove(float[] samples, int from, int to, float threshold) {
+            for (int i = from; i < to; i++) {
+                if (samples[i] > threshold) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int indexBelow(float[] samples, int from, int to, float threshold) {
+            for (int i = from; i < to; i++) {
+                if (samples[i] < threshold) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public int indexOfMax(float[] samples, int from, int to) {
+            int best = from;
+            for (int i = from + 1; i < to; i++) {
+                if (samples[i] > samples[best]) {
+                    best = i;
+                }
+            }
+            return best;
+        }
+    }
+
+}
@@ -0,0 +1,374 @@
+package xyz.froud.saleae.automation;
+
+import saleae.AddAnalyzerReply;
+import saleae.AddAnalyzerRequest;
+import saleae.AddHighLevelAnalyzerReply;
+import saleae.AddHighLevelAnalyzerRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * A set of low level analyzers and high level analyzers (HLAs) which read from them, added to a capture all at once.
+ * <p>
+ * Each analyzer is sent as soon as it can be: analyzers which don't depend on anything are all sent at once, and each
+ * HLA is sent as soon as its input analyzer has been added. Setup takes about as long as the longest chain of
+ * analyzers instead of the sum of all of them. Closing removes the analyzers the same way in reverse, each one after
+ * the HLAs which read from it.
+ * <pre>{@code
+ * AnalyzerGraph graph = new AnalyzerGraph()
+ *         .addAnalyzer("SPI", "spi", spiSettings)
+ *         .addAnalyzer("I2C", "i2c", i2cSettings)
+ *         .addHighLevelAnalyzer(extensionDirectory, "Flash decoder", "flash", "spi", hlaSettings);
+ * try (AnalyzerGraph.Added analyzers = graph.addTo(capture)) {
+ *     capture.legacyExportAnalyzer(filePath, analyzers.handle("flash"), RadixType.RADIX_TYPE_HEXADECIMAL);
+ * }
+ * }</pre>
+ * A graph can be added to many captures, from several threads at once, once it is no longer being changed.
+ */
+public class AnalyzerGraph {
+
+    private final List<Node> NODES = new ArrayList<>();
+    private final Map<String, Integer> NODE_INDEXES = new HashMap<>();
+
+    /**
+     * See {@link Capture#addAnalyzer}. The label identifies the analyzer within the graph, so it must be unique.
+     */
+    public AnalyzerGraph addAnalyzer(String name, String label, Capture.AnalyzerSettings settings) {
+        addNode(new Node(
+                label,
+                AddAnalyzerRequest.newBuilder()
+                        .setAnalyzerName(name)
+                        .setAnalyzerLabel(label)
+                        .putAllSettings(settings.toGRPC())
+                        .build(),
+                null,
+                -1
+        ));
+        return this;
+    }
+
+    /**
+     * See {@link Capture#addHighLevelAnalyzer}.
+     *
+     * @param inputLabel label of an analyzer added earlier to this graph
+     */
+    public AnalyzerGraph addHighLevelAnalyzer(
+            String extensionDirectory,
+            String name,
+            String label,
+            String inputLabel,
+            Capture.HighLevelAnalyzerSettings settings
+    ) {
+        final Integer inputIndex = NODE_INDEXES.get(inputLabel);
+        if (inputIndex == null) {
+            throw new IllegalArgumentException("There is no analyzer labelled " + inputLabel);
+        }
+        addNode(new Node(
+                label,
+                null,
+                AddHighLevelAnalyzerRequest.newBuilder()
+                        .setExtensionDirectory(extensionDirectory)
+                        .setHlaName(name)
+                        .setHlaLabel(label)
+                        .putAllSettings(settings.toGRPC())
+                        .build(),
+                inputIndex
+        ));
+        return this;
+    }
+
+    /**
+     * @return a copy which is not affected by later changes to this graph
+     */
+    AnalyzerGraph copy() {
+        final AnalyzerGraph copy = new AnalyzerGraph();
+        copy.NODES.addAll(NODES);
+        copy.NODE_INDEXES.putAll(NODE_INDEXES);
+        return copy;
+    }
+
+    boolean contains(String label) {
+        return NODE_INDEXES.containsKey(label);
+    }
+
+    /**
+     * @return labels of the analyzers, in the order they were declared
+     */
+    public List<String> labels() {
+        final List<String> labels = new ArrayList<>(NODES.size());
+        for (Node node : NODES) {
+            labels.add(node.LABEL);
+        }
+        return labels;
+    }
+
+    public int size() {
+        return NODES.size();
+    }
+
+    private void addNode(Node node) {
+        if (node.LABEL == null || node.LABEL.isEmpty()) {
+            throw new IllegalArgumentException("Every analyzer in a graph needs a label");
+        }
+        if (NODE_INDEXES.putIfAbsent(node.LABEL, NODES.size()) != null) {
+            throw new IllegalArgumentException("There is already an analyzer labelled " + node.LABEL);
+        }
+        NODES.add(node);
+    }
+
+    /**
+     * @return number of analyzers in the longest chain of HLAs, which is the number of round trips setup takes
+     */
+    public int criticalPathLength() {
+        final int[] depths = new int[NODES.size()];
+        int longest = 0;
+        for (int i = 0; i < depths.length; i++) {
+            final int input = NODES.get(i).INPUT_INDEX;
+            depths[i] = input < 0 ? 1 : depths[input] + 1;
+            longest = Math.max(longest, depths[i]);
+        }
+        return longest;
+    }
+
+    /**
+     * Add every analyzer to the capture. If any analyzer fails, the ones which were added are removed and the first
+     * failure is thrown.
+     */
+    public Added addTo(Capture capture) {
+        try {
+            return addToAsync(capture).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #addTo}.
+     */
+    public CompletableFuture<Added> addToAsync(Capture capture) {
+        final List<Node> nodes = List.copyOf(NODES);
+        final Manager manager = capture.MANAGER;
+        final long startNanos = System.nanoTime();
+        final List<CompletableFuture<Long>> futures = new ArrayList<>(nodes.size());
+        for (Node node : nodes) {
+            if (node.LOW_LEVEL_TEMPLATE != null) {
+                futures.add(FutureAdapter.toCompletableFuture(
+                        manager.futureCall(RpcType.CONTROL, stub -> stub.addAnalyzer(addAnalyzerRequest(node, capture.CAPTURE_ID))),
+                        AddAnalyzerReply::getAnalyzerId
+                ));
+            } else {
+                // the input is earlier in the list because inputs must be declared first
+                futures.add(futures.get(node.INPUT_INDEX).thenCompose(inputAnalyzerID -> FutureAdapter.toCompletableFuture(
+                        manager.futureCall(RpcType.CONTROL, stub -> stub.addHighLevelAnalyzer(addHighLevelAnalyzerRequest(node, capture.CAPTURE_ID, inputAnalyzerID))),
+                        AddHighLevelAnalyzerReply::getAnalyzerId
+                )));
+            }
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).handle((ignored, throwable) -> {
+            final Duration setupTime = Duration.ofNanos(System.nanoTime() - startNanos);
+            final Long[] analyzerIDs = new Long[nodes.size()];
+            for (int i = 0; i < analyzerIDs.length; i++) {
+                if (!futures.get(i).isCompletedExceptionally()) {
+                    analyzerIDs[i] = futures.get(i).join();
+                }
+            }
+            final Added added = new Added(capture, nodes, analyzerIDs, setupTime);
+            if (throwable != null) {
+                // don't leave a half-built graph in the capture
+                added.closeAsync();
+                throw throwable instanceof CompletionException completionException
+                        ? completionException
+                        : new CompletionException(throwable);
+            }
+            return added;
+        });
+    }
+
+    // Copying the template field by field is cheaper than toBuilder(), which copies the settings map twice
+
+    private static AddAnalyzerRequest addAnalyzerRequest(Node node, long captureID) {
+        final AddAnalyzerRequest template = node.LOW_LEVEL_TEMPLATE;
+        return AddAnalyzerRequest.newBuilder()
+                .setCaptureId(captureID)
+                .setAnalyzerName(template.getAnalyzerName())
+                .setAnalyzerLabel(template.getAnalyzerLabel())
+                .putAllSettings(template.getSettingsMap())
+                .build();
+    }
+
+    private static AddHighLevelAnalyzerRequest addHighLevelAnalyzerRequest(Node node, long captureID, long inputAnalyzerID) {
+        final AddHighLevelAnalyzerRequest template = node.HIGH_LEVEL_TEMPLATE;
+        return AddHighLevelAnalyzerRequest.newBuilder()
+                .setCaptureId(captureID)
+                .setExtensionDirectory(template.getExtensionDirectory())
+                .setHlaName(template.getHlaName())
+                .setHlaLabel(template.getHlaLabel())
+                .setInputAnalyzerId(inputAnalyzerID)
+                .putAllSettings(template.getSettingsMap())
+                .build();
+    }
+
+    /**
+     * @return the AddAnalyzer request for the low level analyzer at the index, for the benchmarks
+     */
+    AddAnalyzerRequest addAnalyzerRequest(int index, long captureID) {
+        return addAnalyzerRequest(NODES.get(index), captureID);
+    }
+
+    private static class Node {
+        final String LABEL;
+        final AddAnalyzerRequest LOW_LEVEL_TEMPLATE;
+        final AddHighLevelAnalyzerRequest HIGH_LEVEL_TEMPLATE;
+
+        /**
+         * Index of the input analyzer of an HLA, or -1 for a low level analyzer.
+         */
+        final int INPUT_INDEX;
+
+        Node(String label, AddAnalyzerRequest lowLevelTemplate, AddHighLevelAnalyzerRequest highLevelTemplate, int inputIndex) {
+            LABEL = label;
+            LOW_LEVEL_TEMPLATE = lowLevelTemplate;
+            HIGH_LEVEL_TEMPLATE = highLevelTemplate;
+            INPUT_INDEX = inputIndex;
+        }
+    }
+
+    /**
+     * The analyzers of an {@link AnalyzerGraph} after they were added to one capture. Closing it removes them.
+     */
+    public static class Added implements AutoCloseable {
+
+        private final Capture CAPTURE;
+        private final List<Node> NODES;
+
+        /**
+         * Analyzer ID of each node, or null if it was not added.
+         */
+        private final Long[] ANALYZER_IDS;
+        private final Map<String, Capture.AnalyzerHandle> HANDLES;
+        private final Duration SETUP_TIME;
+
+        Added(Capture capture, List<Node> nodes, Long[] analyzerIDs, Duration setupTime) {
+            CAPTURE = capture;
+            NODES = nodes;
+            ANALYZER_IDS = analyzerIDs;
+            SETUP_TIME = setupTime;
+            final Map<String, Capture.AnalyzerHandle> handles = new LinkedHashMap<>();
+            for (int i = 0; i < nodes.size(); i++) {
+                if (analyzerIDs[i] != null) {
+                    handles.put(nodes.get(i).LABEL, new Capture.AnalyzerHandle(analyzerIDs[i]));
+                }
+            }
+            HANDLES = Collections.unmodifiableMap(handles);
+        }
+
+        /**
+         * @throws IllegalArgumentException if the graph has no analyzer with the label
+         */
+        public Capture.AnalyzerHandle handle(String label) {
+            final Capture.AnalyzerHandle handle = HANDLES.get(label);
+            if (handle == null) {
+                throw new IllegalArgumentException("There is no analyzer labelled " + label);
+            }
+            return handle;
+        }
+
+        /**
+         * @return map from label to handle, in the order the analyzers were declared
+         */
+        public Map<String, Capture.AnalyzerHandle> handles() {
+            return HANDLES;
+        }
+
+        /**
+         * @return time from sending the first request until every analyzer was added
+         */
+        public Duration setupTime() {
+            return SETUP_TIME;
+        }
+
+        /**
+         * Remove every analyzer, even if removing some of them fails.
+         */
+        @Override
+        public void close() {
+            try {
+                closeAsync().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException cause) {
+                    throw cause;
+                }
+                throw e;
+            }
+        }
+
+        /**
+         * Asynchronous version of {@link #close()}. Each analyzer is removed after every HLA which reads from it.
+         */
+        public CompletableFuture<Void> closeAsync() {
+            final int nodeCount = NODES.size();
+            final List<List<CompletableFuture<Void>>> dependentRemovals = new ArrayList<>(nodeCount);
+            for (int i = 0; i < nodeCount; i++) {
+                dependentRemovals.add(new ArrayList<>());
+            }
+            final List<CompletableFuture<Void>> removals = new ArrayList<>(nodeCount);
+
+            // dependents are always declared after their inputs, so walk backwards
+            for (int i = nodeCount - 1; i >= 0; i--) {
+                final Node node = NODES.get(i);
+                final Long analyzerID = ANALYZER_IDS[i];
+                final CompletableFuture<Void> removal;
+                if (analyzerID == null) {
+                    removal = CompletableFuture.allOf(dependentRemovals.get(i).toArray(CompletableFuture[]::new))
+                            .handle((ignored, throwable) -> null);
+                } else {
+                    final Capture.AnalyzerHandle handle = new Capture.AnalyzerHandle(analyzerID);
+                    removal = CompletableFuture.allOf(dependentRemovals.get(i).toArray(CompletableFuture[]::new))
+                            .handle((ignored, throwable) -> null)
+                            .thenCompose(ignored -> node.LOW_LEVEL_TEMPLATE != null
+                                    ? CAPTURE.removeAnalyzerAsync(handle)
+                                    : CAPTURE.removeHighLevelAnalyzerAsync(handle));
+                }
+                if (node.INPUT_INDEX >= 0) {
+                    dependentRemovals.get(node.INPUT_INDEX).add(removal);
+                }
+                removals.add(removal);
+            }
+
+            return CompletableFuture.allOf(removals.toArray(CompletableFuture[]::new)).handle((ignored, throwable) -> {
+                RuntimeException failure = null;
+                for (CompletableFuture<Void> removal : removals) {
+                    try {
+                        removal.join();
+                    } catch (CompletionException | CancellationException e) {
+                        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                        final RuntimeException runtimeException = cause instanceof RuntimeException r ? r : new CompletionException(cause);
+                        if (failure == null) {
+                            failure = runtimeException;
+                        } else {
+                            failure.addSuppressed(runtimeException);
+                        }
+                    }
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                return null;
+            });
+        }
+    }
+
+}
@@ -0,0 +1,122 @@
+package xyz.froud.saleae.automation;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes UART frames like the Logic 2 "Async Serial" analyzer, producing "data" frames.
+ * <p>
+ * Settings, with their default values:
+ * <ul>
+ *     <li>"Input Channel": required</li>
+ *     <li>"Bit Rate (Bits/s)": 9600</li>
+ *     <li>"Bits per Frame": "8 Bits per Transfer (Standard)"</li>
+ *     <li>"Stop Bits": "1 Stop Bit (Standard)"</li>
+ *     <li>"Parity Bit": "No Parity Bit (Standard)", "Even Parity Bit", or "Odd Parity Bit"</li>
+ *     <li>"Significant Bit": "Least Significant Bit Sent First (Standard)" or "Most Significant Bit Sent First"</li>
+ *     <li>"Signal inversion": "Non Inverted (Standard)" or "Inverted (RS-232)"</li>
+ * </ul>
+ * Each bit is sampled in its middle. A chunk for parallel decoding starts at a start bit which follows at least one
+ * frame time of idle line.
+ */
+public class AsyncSerialDecoder extends ProtocolDecoder {
+
+    private final DigitalTransitionIndex INPUT;
+    private final double BIT_SECONDS;
+    private final int DATA_BITS;
+    private final double STOP_BITS;
+    private final int PARITY; // 0 none, 1 even, 2 odd
+    private final boolean MSB_FIRST;
+    private final int IDLE_STATE;
+    private final double FRAME_SECONDS;
+
+    /**
+     * @param channels map from channel index to channel, see {@link DigitalTransitionIndex#forDirectory}
+     */
+    public AsyncSerialDecoder(Capture.AnalyzerSettings settings, Map<Integer, DigitalTransitionIndex> channels) {
+        INPUT = requiredChannel(settings, "Input Channel", channels);
+        final long bitRate = longSetting(settings, "Bit Rate (Bits/s)", 9600);
+        if (bitRate <= 0) {
+            throw new IllegalArgumentException("The \"Bit Rate (Bits/s)\" setting must be positive");
+        }
+        BIT_SECONDS = 1.0 / bitRate;
+        DATA_BITS = (int) leadingNumber("Bits per Frame", stringSetting(settings, "Bits per Frame", "8 Bits per Transfer (Standard)"));
+        if (DATA_BITS < 1 || DATA_BITS > 64) {
+            throw new IllegalArgumentException("The \"Bits per Frame\" setting must be between 1 and 64");
+        }
+        STOP_BITS = leadingNumber("Stop Bits", stringSetting(settings, "Stop Bits", "1 Stop Bit (Standard)"));
+        final String parity = stringSetting(settings, "Parity Bit", "No Parity Bit (Standard)");
+        PARITY = parity.startsWith("Even") ? 1 : parity.startsWith("Odd") ? 2 : 0;
+        MSB_FIRST = stringSetting(settings, "Significant Bit", "Least Significant Bit Sent First (Standard)").startsWith("Most");
+        IDLE_STATE = stringSetting(settings, "Signal inversion", "Non Inverted (Standard)").startsWith("Inverted") ? 0 : 1;
+        FRAME_SECONDS = (1 + DATA_BITS + (PARITY == 0 ? 0 : 1) + STOP_BITS) * BIT_SECONDS;
+    }
+
+    @Override
+    DigitalTransitionIndex primaryChannel() {
+        return INPUT;
+    }
+
+    @Override
+    void decode(double fromSeconds, double toSeconds, List<Frame> frames) {
+        final RawBinaryReader.DigitalChannel channel = INPUT.channel();
+        final Sampler sampler = new Sampler(INPUT, fromSeconds);
+        final int parityBits = PARITY == 0 ? 0 : 1;
+        double searchFrom = fromSeconds;
+        while (true) {
+            long startIndex = sampler.nextTransitionAtOrAfter(searchFrom);
+            if (startIndex < channel.TRANSITION_COUNT && channel.stateAfterTransition(startIndex) == IDLE_STATE) {
+                startIndex++;
+            }
+            if (startIndex >= channel.TRANSITION_COUNT) {
+                return;
+            }
+            final double start = channel.transitionTime(startIndex);
+            if (start >= toSeconds) {
+                return;
+            }
+
+            long data = 0;
+            int ones = 0;
+            for (int bit = 0; bit < DATA_BITS; bit++) {
+                final int value = sampler.stateAt(start + (1.5 + bit) * BIT_SECONDS) ^ IDLE_STATE ^ 1;
+                ones += value;
+                data |= (long) value << (MSB_FIRST ? DATA_BITS - 1 - bit : bit);
+            }
+            int flags = 0;
+            if (PARITY != 0) {
+                final int parityBit = sampler.stateAt(start + (1.5 + DATA_BITS) * BIT_SECONDS) ^ IDLE_STATE ^ 1;
+                if (((ones + parityBit) & 1) != (PARITY == 1 ? 0 : 1)) {
+                    flags |= Frame.PARITY_ERROR;
+                }
+            }
+            final double stopSample = start + (1.5 + DATA_BITS + parityBits) * BIT_SECONDS;
+            if (sampler.stateAt(stopSample) != IDLE_STATE) {
+                flags |= Frame.FRAMING_ERROR;
+            }
+            frames.add(new Frame("data", start, start + FRAME_SECONDS, data, 0, flags));
+            // like Logic 2, look for the next start bit after the middle of the first stop bit
+            searchFrom = stopSample;
+        }
+    }
+
+    @Override
+    double resyncPointAtOrAfter(double seconds, double limitSeconds) {
+        final RawBinaryReader.DigitalChannel channel = INPUT.channel();
+        for (long i = INPUT.countBefore(seconds); i < channel.TRANSITION_COUNT; i++) {
+            final double time = channel.transitionTime(i);
+            if (time >= limitSeconds) {
+                break;
+            }
+            if (channel.stateAfterTransition(i) != IDLE_STATE) {
+                final double idleSince = i == 0 ? channel.BEGIN_TIME : channel.transitionTime(i - 1);
+                final boolean idleBefore = i > 0 || channel.INITIAL_STATE == IDLE_STATE;
+                if (idleBefore && time - idleSince >= FRAME_SECONDS) {
+                    return time;
+                }
+            }
+        }
+        return Double.NaN;
+    }
+
+}
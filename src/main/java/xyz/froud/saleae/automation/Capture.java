@@ -1,5 +1,8 @@
 package xyz.froud.saleae.automation;
 
+import io.grpc.Context;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
 import saleae.AddAnalyzerReply;
 import saleae.AddAnalyzerRequest;
 import saleae.AddHighLevelAnalyzerReply;
@@ -22,9 +25,16 @@ import saleae.SaveCaptureRequest;
 import saleae.StopCaptureRequest;
 import saleae.WaitCaptureRequest;
 
+import java.lang.ref.Cleaner;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
 /**
  * Represents
@@ -34,16 +44,146 @@ import java.util.Map;
  */
 public class Capture implements AutoCloseable {
 
-    private final Manager MANAGER;
-    private final long CAPTURE_ID;
+    /**
+     * Closes the captures which become unreachable without being closed. Captures are long-lived, so one thread is
+     * enough.
+     */
+    private static final Cleaner CLEANER = Cleaner.create();
+
+    /**
+     * Name of the system property which sets the initial value of {@link #setRecordAllocationSites(boolean)}.
+     */
+    public static final String RECORD_ALLOCATION_SITES_PROPERTY = "saleae.automation.recordCaptureAllocationSites";
+
+    private static volatile boolean recordAllocationSites = Boolean.getBoolean(RECORD_ALLOCATION_SITES_PROPERTY);
+
+    private static volatile Consumer<LeakedCapture> leakListener = leak -> System.getLogger(Capture.class.getName()).log(
+            System.Logger.Level.WARNING,
+            leak.ALLOCATION_SITE != null
+                    ? "Capture " + leak.CAPTURE_ID + " was never closed, so it was closed when it was garbage collected"
+                    : "Capture " + leak.CAPTURE_ID + " was never closed, so it was closed when it was garbage collected. "
+                    + "Set the system property " + RECORD_ALLOCATION_SITES_PROPERTY + "=true to log where it was created.",
+            leak.ALLOCATION_SITE
+    );
 
-    Capture(Manager manager, CaptureInfo captureInfo) {
+    final Manager MANAGER;
+    final long CAPTURE_ID;
+
+    private final State STATE;
+
+    private final Cleaner.Cleanable CLEANABLE;
+
+    /**
+     * @param committedMegabytes buffer budget reserved for the capture in the {@link CaptureBudget} of the manager,
+     * which the capture releases when it is closed
+     */
+    Capture(Manager manager, CaptureInfo captureInfo, long committedMegabytes) {
         MANAGER = manager;
         CAPTURE_ID = captureInfo.getCaptureId();
+        STATE = new State(manager, CAPTURE_ID, committedMegabytes);
+        CLEANABLE = CLEANER.register(this, STATE);
+    }
+
+    /**
+     * Set what is called when a capture is garbage collected without being closed. By default, a warning is logged with
+     * {@link System.Logger}. The listener is called on the cleaner thread, so it should return quickly.
+     */
+    public static void setLeakListener(Consumer<LeakedCapture> listener) {
+        leakListener = listener;
+    }
+
+    /**
+     * Whether to record a stack trace when each capture is created, so a leaked capture reports where it came from.
+     * Off by default because it costs a stack walk per capture; leaks are detected either way. The initial value is
+     * read from the system property {@value #RECORD_ALLOCATION_SITES_PROPERTY}.
+     */
+    public static void setRecordAllocationSites(boolean record) {
+        recordAllocationSites = record;
+    }
+
+    /**
+     * A capture which was garbage collected without being closed.
+     */
+    public static class LeakedCapture {
+
+        public final long CAPTURE_ID;
+
+        /**
+         * Buffer budget which was still committed by the capture.
+         */
+        public final long COMMITTED_MEGABYTES;
+
+        /**
+         * Stack trace of where the capture object was created, or null if
+         * {@link Capture#setRecordAllocationSites(boolean) recording} was off.
+         */
+        public final Throwable ALLOCATION_SITE;
+
+        private LeakedCapture(long captureID, long committedMegabytes, Throwable allocationSite) {
+            CAPTURE_ID = captureID;
+            COMMITTED_MEGABYTES = committedMegabytes;
+            ALLOCATION_SITE = allocationSite;
+        }
+
+    }
+
+    /**
+     * What the cleaner needs to close a capture. Must not refer to the Capture, or it would never become unreachable.
+     */
+    private static class State implements Runnable {
+
+        private final Manager MANAGER;
+        private final CaptureBudget BUDGET;
+        private final long CAPTURE_ID;
+        private final long COMMITTED_MEGABYTES;
+        private final Throwable ALLOCATION_SITE;
+
+        private volatile boolean closed;
+
+        private State(Manager manager, long captureID, long committedMegabytes) {
+            MANAGER = manager;
+            BUDGET = manager.getCaptureBudget();
+            CAPTURE_ID = captureID;
+            COMMITTED_MEGABYTES = committedMegabytes;
+            ALLOCATION_SITE = recordAllocationSites ? new Throwable("Capture " + captureID + " was created here") : null;
+        }
+
+        /**
+         * Called once, either by {@link #releaseBudget()} or by the cleaner.
+         */
+        @Override
+        public void run() {
+            if (closed) {
+                BUDGET.release(COMMITTED_MEGABYTES);
+                return;
+            }
+            try {
+                leakListener.accept(new LeakedCapture(CAPTURE_ID, COMMITTED_MEGABYTES, ALLOCATION_SITE));
+            } catch (RuntimeException ignore) {
+            }
+            CompletableFuture<Void> close;
+            try {
+                close = FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.CONTROL, stub -> stub.closeCapture(
+                        CloseCaptureRequest.newBuilder().setCaptureId(CAPTURE_ID).build()
+                )));
+            } catch (RuntimeException e) {
+                close = CompletableFuture.failedFuture(e);
+            }
+            close.whenComplete((v, t) -> BUDGET.release(COMMITTED_MEGABYTES));
+        }
+
+    }
+
+    /**
+     * Release the capture's buffer budget, and stop watching for it to leak. Only the first call has an effect.
+     */
+    private void releaseBudget() {
+        STATE.closed = true;
+        CLEANABLE.clean();
     }
 
     public static class AnalyzerHandle {
-        private final long ANALYZER_ID;
+        final long ANALYZER_ID;
 
         public AnalyzerHandle(long analyzerID) {
             ANALYZER_ID = analyzerID;
@@ -81,6 +221,13 @@ public class Capture implements AutoCloseable {
             return MAP;
         }
 
+        /**
+         * @return the value, or null if the key has not been put
+         */
+        AnalyzerSettingValue get(String key) {
+            return MAP.get(key);
+        }
+
     }
 
     /**
@@ -119,14 +266,31 @@ public class Capture implements AutoCloseable {
             String label,
             AnalyzerSettings settings
     ) {
-        final AddAnalyzerRequest request = AddAnalyzerRequest.newBuilder()
+        final AddAnalyzerReply reply = MANAGER.stub(RpcType.CONTROL).addAnalyzer(addAnalyzerRequest(name, label, settings));
+        return new AnalyzerHandle(reply.getAnalyzerId());
+    }
+
+    /**
+     * Asynchronous version of {@link #addAnalyzer}.
+     */
+    public CompletableFuture<AnalyzerHandle> addAnalyzerAsync(
+            String name,
+            String label,
+            AnalyzerSettings settings
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.CONTROL, stub -> stub.addAnalyzer(addAnalyzerRequest(name, label, settings))),
+                reply -> new AnalyzerHandle(reply.getAnalyzerId())
+        );
+    }
+
+    private AddAnalyzerRequest addAnalyzerRequest(String name, String label, AnalyzerSettings settings) {
+        return AddAnalyzerRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setAnalyzerName(name)
                 .setAnalyzerLabel(label)
                 .putAllSettings(settings.toGRPC())
                 .build();
-        final AddAnalyzerReply reply = MANAGER.STUB.addAnalyzer(request);
-        return new AnalyzerHandle(reply.getAnalyzerId());
     }
 
     /**
@@ -145,7 +309,38 @@ public class Capture implements AutoCloseable {
             AnalyzerHandle inputAnalyzer,
             HighLevelAnalyzerSettings settings
     ) {
-        final AddHighLevelAnalyzerRequest request = AddHighLevelAnalyzerRequest.newBuilder()
+        final AddHighLevelAnalyzerReply reply = MANAGER.stub(RpcType.CONTROL).addHighLevelAnalyzer(
+                addHighLevelAnalyzerRequest(extensionDirectory, name, label, inputAnalyzer, settings)
+        );
+        return new AnalyzerHandle(reply.getAnalyzerId());
+    }
+
+    /**
+     * Asynchronous version of {@link #addHighLevelAnalyzer}.
+     */
+    public CompletableFuture<AnalyzerHandle> addHighLevelAnalyzerAsync(
+            String extensionDirectory,
+            String name,
+            String label,
+            AnalyzerHandle inputAnalyzer,
+            HighLevelAnalyzerSettings settings
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.CONTROL, stub -> stub.addHighLevelAnalyzer(
+                        addHighLevelAnalyzerRequest(extensionDirectory, name, label, inputAnalyzer, settings)
+                )),
+                reply -> new AnalyzerHandle(reply.getAnalyzerId())
+        );
+    }
+
+    private AddHighLevelAnalyzerRequest addHighLevelAnalyzerRequest(
+            String extensionDirectory,
+            String name,
+            String label,
+            AnalyzerHandle inputAnalyzer,
+            HighLevelAnalyzerSettings settings
+    ) {
+        return AddHighLevelAnalyzerRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setExtensionDirectory(extensionDirectory)
                 .setHlaName(name)
@@ -153,29 +348,47 @@ public class Capture implements AutoCloseable {
                 .setInputAnalyzerId(inputAnalyzer.ANALYZER_ID)
                 .putAllSettings(settings.toGRPC())
                 .build();
-        final AddHighLevelAnalyzerReply reply = MANAGER.STUB.addHighLevelAnalyzer(request);
-        return new AnalyzerHandle(reply.getAnalyzerId());
     }
 
     public void removeHighLevelAnalyzer(
             AnalyzerHandle analyzerHandle
     ) {
-        final RemoveHighLevelAnalyzerRequest request = RemoveHighLevelAnalyzerRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.CONTROL).removeHighLevelAnalyzer(removeHighLevelAnalyzerRequest(analyzerHandle));
+    }
+
+    /**
+     * Asynchronous version of {@link #removeHighLevelAnalyzer}.
+     */
+    public CompletableFuture<Void> removeHighLevelAnalyzerAsync(AnalyzerHandle analyzerHandle) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.CONTROL, stub -> stub.removeHighLevelAnalyzer(removeHighLevelAnalyzerRequest(analyzerHandle)))
+        );
+    }
+
+    private RemoveHighLevelAnalyzerRequest removeHighLevelAnalyzerRequest(AnalyzerHandle analyzerHandle) {
+        return RemoveHighLevelAnalyzerRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setAnalyzerId(analyzerHandle.ANALYZER_ID)
                 .build();
+    }
 
+    public void removeAnalyzer(AnalyzerHandle handle) {
         //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.removeHighLevelAnalyzer(request);
+        MANAGER.stub(RpcType.CONTROL).removeAnalyzer(removeAnalyzerRequest(handle));
     }
 
-    public void removeAnalyzer(AnalyzerHandle handle) {
-        final RemoveAnalyzerRequest request = RemoveAnalyzerRequest.newBuilder()
+    /**
+     * Asynchronous version of {@link #removeAnalyzer}.
+     */
+    public CompletableFuture<Void> removeAnalyzerAsync(AnalyzerHandle handle) {
+        return FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.CONTROL, stub -> stub.removeAnalyzer(removeAnalyzerRequest(handle))));
+    }
+
+    private static RemoveAnalyzerRequest removeAnalyzerRequest(AnalyzerHandle handle) {
+        return RemoveAnalyzerRequest.newBuilder()
                 .setAnalyzerId(handle.ANALYZER_ID)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.removeAnalyzer(request);
     }
 
     /**
@@ -183,13 +396,22 @@ public class Capture implements AutoCloseable {
      * function.
      */
     public void save(String filePath) {
-        final SaveCaptureRequest request = SaveCaptureRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.EXPORT).saveCapture(saveCaptureRequest(filePath));
+    }
+
+    /**
+     * Asynchronous version of {@link #save}.
+     */
+    public CompletableFuture<Void> saveAsync(String filePath) {
+        return FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.EXPORT, stub -> stub.saveCapture(saveCaptureRequest(filePath))));
+    }
+
+    private SaveCaptureRequest saveCaptureRequest(String filePath) {
+        return SaveCaptureRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setFilepath(filePath)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.saveCapture(request);
     }
 
     /**
@@ -200,25 +422,68 @@ public class Capture implements AutoCloseable {
             AnalyzerHandle analyzerHandle,
             RadixType radix
     ) {
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.EXPORT).legacyExportAnalyzer(legacyExportAnalyzerRequest(filePath, analyzerHandle, radix));
+    }
+
+    /**
+     * Asynchronous version of {@link #legacyExportAnalyzer}.
+     */
+    public CompletableFuture<Void> legacyExportAnalyzerAsync(
+            String filePath,
+            AnalyzerHandle analyzerHandle,
+            RadixType radix
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.EXPORT, stub -> stub.legacyExportAnalyzer(legacyExportAnalyzerRequest(filePath, analyzerHandle, radix)))
+        );
+    }
 
-        final LegacyExportAnalyzerRequest request = LegacyExportAnalyzerRequest.newBuilder()
+    private static LegacyExportAnalyzerRequest legacyExportAnalyzerRequest(
+            String filePath,
+            AnalyzerHandle analyzerHandle,
+            RadixType radix
+    ) {
+        return LegacyExportAnalyzerRequest.newBuilder()
                 .setFilepath(filePath)
                 .setAnalyzerId(analyzerHandle.ANALYZER_ID)
                 .setRadixType(radix)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.legacyExportAnalyzer(request);
     }
 
+    /**
+     * Closes the capture in Logic 2 and releases its buffer budget. The budget is released even if the call fails.
+     */
     @Override
     public void close() {
-        final CloseCaptureRequest request = CloseCaptureRequest.newBuilder()
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            MANAGER.stub(RpcType.CONTROL).closeCapture(closeCaptureRequest());
+        } finally {
+            releaseBudget();
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #close()}.
+     */
+    public CompletableFuture<Void> closeAsync() {
+        STATE.closed = true;
+        final CompletableFuture<Void> close;
+        try {
+            close = FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.CONTROL, stub -> stub.closeCapture(closeCaptureRequest())));
+        } catch (RuntimeException e) {
+            releaseBudget();
+            throw e;
+        }
+        close.whenComplete((v, t) -> releaseBudget());
+        return close;
+    }
+
+    private CloseCaptureRequest closeCaptureRequest() {
+        return CloseCaptureRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.closeCapture(request);
     }
 
     /**
@@ -234,12 +499,21 @@ public class Capture implements AutoCloseable {
      * will be raised by this function.
      */
     public void stop() {
-        final StopCaptureRequest request = StopCaptureRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.CONTROL).stopCapture(stopCaptureRequest());
+    }
+
+    /**
+     * Asynchronous version of {@link #stop()}.
+     */
+    public CompletableFuture<Void> stopAsync() {
+        return FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.CONTROL, stub -> stub.stopCapture(stopCaptureRequest())));
+    }
+
+    private StopCaptureRequest stopCaptureRequest() {
+        return StopCaptureRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.stopCapture(request);
     }
 
     /**
@@ -257,12 +531,109 @@ public class Capture implements AutoCloseable {
      * Can't use the name {@code wait()} because it is already {@link java.lang.Object#wait}
      */
     public void waitForCaptureToEnd() {
-        final WaitCaptureRequest request = WaitCaptureRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.WAIT_CAPTURE).waitCapture(waitCaptureRequest());
+    }
+
+    /**
+     * Asynchronous version of {@link #waitForCaptureToEnd()}. Does not park a thread while the capture is running.
+     * Cancelling the returned future cancels the WaitCapture request but does not stop the capture.
+     */
+    public CompletableFuture<Void> waitForCaptureToEndAsync() {
+        return FutureAdapter.toCompletableFuture(MANAGER.futureCall(RpcType.WAIT_CAPTURE, stub -> stub.waitCapture(waitCaptureRequest())));
+    }
+
+    /**
+     * Like {@link #waitForCaptureToEnd()}, but gives up after the timeout, for example when a digital trigger never
+     * fires. The capture is then stopped and closed so Logic 2 releases its memory, and this Capture can't be used
+     * anymore.
+     *
+     * @throws TimeoutException if the capture did not end within the timeout
+     */
+    public void waitForCaptureToEnd(Duration timeout) throws TimeoutException {
+        try {
+            //noinspection ResultOfMethodCallIgnored
+            MANAGER.stub(RpcType.WAIT_CAPTURE)
+                    .withDeadlineAfter(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                    .waitCapture(waitCaptureRequest());
+        } catch (StatusRuntimeException e) {
+            if (e.getStatus().getCode() != Status.Code.DEADLINE_EXCEEDED) {
+                throw e;
+            }
+            // the deadline may have come from the caller's context, so don't let it cancel the cleanup too
+            Context.current().fork().run(this::stopAndClose);
+            throw timeoutException(timeout, e);
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #waitForCaptureToEnd(Duration)}. If the timeout is reached, the returned future
+     * fails with a {@link TimeoutException} after the capture has been stopped and closed.
+     * <p>
+     * Cancelling the returned future cancels the WaitCapture request but does not stop the capture.
+     */
+    public CompletableFuture<Void> waitForCaptureToEndAsync(Duration timeout) {
+        final CompletableFuture<Void> waitCall = FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.WAIT_CAPTURE, stub -> stub
+                        .withDeadlineAfter(timeout.toNanos(), TimeUnit.NANOSECONDS)
+                        .waitCapture(waitCaptureRequest()))
+        );
+        final CompletableFuture<Void> result = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                waitCall.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        waitCall.exceptionallyCompose(throwable -> {
+            final Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null
+                    ? throwable.getCause()
+                    : throwable;
+            if (Status.fromThrowable(cause).getCode() != Status.Code.DEADLINE_EXCEEDED) {
+                return CompletableFuture.failedFuture(cause);
+            }
+            return stopAsync()
+                    .handle((ignored, stopFailure) -> null)
+                    .thenCompose(ignored -> closeAsync())
+                    .handle((ignored, closeFailure) -> {
+                        throw new CompletionException(timeoutException(timeout, cause));
+                    });
+        }).whenComplete((ignored, throwable) -> {
+            if (throwable == null) {
+                result.complete(null);
+            } else {
+                result.completeExceptionally(throwable);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Stop and close, ignoring failures, for example if the capture already ended.
+     */
+    private void stopAndClose() {
+        try {
+            stop();
+        } catch (StatusRuntimeException ignore) {
+        }
+        try {
+            close();
+        } catch (StatusRuntimeException ignore) {
+        }
+    }
+
+    private TimeoutException timeoutException(Duration timeout, Throwable cause) {
+        final TimeoutException timeoutException = new TimeoutException(
+                "Capture " + CAPTURE_ID + " did not end within " + timeout + ", so it was stopped and closed"
+        );
+        timeoutException.initCause(cause);
+        return timeoutException;
+    }
+
+    private WaitCaptureRequest waitCaptureRequest() {
+        return WaitCaptureRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.waitCapture(request);
     }
 
     /**
@@ -284,15 +655,34 @@ public class Capture implements AutoCloseable {
             LogicChannels channels,
             long analogDownsampleRatio
     ) {
-        final ExportRawDataBinaryRequest request = ExportRawDataBinaryRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.EXPORT).exportRawDataBinary(exportRawDataBinaryRequest(directory, channels, analogDownsampleRatio));
+    }
+
+    /**
+     * Asynchronous version of {@link #exportRawDataBinary}.
+     */
+    public CompletableFuture<Void> exportRawDataBinaryAsync(
+            String directory,
+            LogicChannels channels,
+            long analogDownsampleRatio
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.EXPORT, stub -> stub.exportRawDataBinary(exportRawDataBinaryRequest(directory, channels, analogDownsampleRatio)))
+        );
+    }
+
+    private ExportRawDataBinaryRequest exportRawDataBinaryRequest(
+            String directory,
+            LogicChannels channels,
+            long analogDownsampleRatio
+    ) {
+        return ExportRawDataBinaryRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setDirectory(directory)
                 .setLogicChannels(channels)
                 .setAnalogDownsampleRatio(analogDownsampleRatio)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.exportRawDataBinary(request);
     }
 
     /**
@@ -316,16 +706,41 @@ public class Capture implements AutoCloseable {
             long analogDownsampleRatio,
             boolean useISO8601Timestamps
     ) {
-        final ExportRawDataCsvRequest request = ExportRawDataCsvRequest.newBuilder()
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.EXPORT).exportRawDataCsv(
+                exportRawDataCsvRequest(directory, channels, analogDownsampleRatio, useISO8601Timestamps)
+        );
+    }
+
+    /**
+     * Asynchronous version of {@link #exportRawDataCsv}.
+     */
+    public CompletableFuture<Void> exportRawDataCsvAsync(
+            String directory,
+            LogicChannels channels,
+            long analogDownsampleRatio,
+            boolean useISO8601Timestamps
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.EXPORT, stub -> stub.exportRawDataCsv(
+                        exportRawDataCsvRequest(directory, channels, analogDownsampleRatio, useISO8601Timestamps)
+                ))
+        );
+    }
+
+    private ExportRawDataCsvRequest exportRawDataCsvRequest(
+            String directory,
+            LogicChannels channels,
+            long analogDownsampleRatio,
+            boolean useISO8601Timestamps
+    ) {
+        return ExportRawDataCsvRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setDirectory(directory)
                 .setLogicChannels(channels)
                 .setAnalogDownsampleRatio(analogDownsampleRatio)
                 .setIso8601Timestamp(useISO8601Timestamps)
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.exportRawDataCsv(request);
     }
 
     /**
@@ -371,8 +786,37 @@ public class Capture implements AutoCloseable {
             List<String> columns,
             DataTableFilterWrapper filter
     ) {
+        //noinspection ResultOfMethodCallIgnored
+        MANAGER.stub(RpcType.EXPORT).exportDataTableCsv(
+                exportDataTableCsvRequest(filePath, analyzers, timestampInISO8601Format, columns, filter)
+        );
+    }
 
-        final ExportDataTableCsvRequest request = ExportDataTableCsvRequest.newBuilder()
+    /**
+     * Asynchronous version of {@link #exportDataTableCsv}.
+     */
+    public CompletableFuture<Void> exportDataTableCsvAsync(
+            String filePath,
+            List<DataTableAnalyzerConfig> analyzers,
+            boolean timestampInISO8601Format,
+            List<String> columns,
+            DataTableFilterWrapper filter
+    ) {
+        return FutureAdapter.toCompletableFuture(
+                MANAGER.futureCall(RpcType.EXPORT, stub -> stub.exportDataTableCsv(
+                        exportDataTableCsvRequest(filePath, analyzers, timestampInISO8601Format, columns, filter)
+                ))
+        );
+    }
+
+    private ExportDataTableCsvRequest exportDataTableCsvRequest(
+            String filePath,
+            List<DataTableAnalyzerConfig> analyzers,
+            boolean timestampInISO8601Format,
+            List<String> columns,
+            DataTableFilterWrapper filter
+    ) {
+        return ExportDataTableCsvRequest.newBuilder()
                 .setCaptureId(CAPTURE_ID)
                 .setFilepath(filePath)
                 .addAllAnalyzers(analyzers.stream().map(DataTableAnalyzerConfig::toGRPC).toList())
@@ -380,10 +824,6 @@ public class Capture implements AutoCloseable {
                 .addAllExportColumns(columns)
                 .setFilter(filter.toGRPC())
                 .build();
-
-        //noinspection ResultOfMethodCallIgnored
-        MANAGER.STUB.exportDataTableCsv(request);
-
     }
 
 }
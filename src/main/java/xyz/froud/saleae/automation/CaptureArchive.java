@@ -0,0 +1,959 @@
+package xyz.froud.saleae.automation;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Directory of compressed captures which can be searched by time without loading them into Logic 2.
+ * <p>
+ * Each capture is added from the .bin files written by {@link Capture#exportRawDataBinary} and stored in its own file:
+ * <ul>
+ *     <li>Digital transitions are converted to sample ticks and stored as varint-encoded differences, in blocks of
+ *     {@value #DIGITAL_BLOCK_TRANSITIONS} transitions. Most transitions take one or two bytes instead of eight.</li>
+ *     <li>Analog samples are stored in blocks of {@value #ANALOG_BLOCK_SAMPLES}, with the bytes of each float split
+ *     into four planes and then deflated.</li>
+ *     <li>A footer lists every block with its time range, and for analog blocks the minimum and maximum voltage.</li>
+ * </ul>
+ * A query reads the footer, then reads and decodes only the blocks which overlap the time range. The archive's
+ * manifest.tsv lists every capture with its device, start time, sample rates, and channels, so captures outside a
+ * query can be skipped without opening their files.
+ * <p>
+ * Times within a capture are in the export's time base, where 0 is the trigger for a digital trigger capture, so they
+ * can be negative. The capture's start time is the wall clock time of its earliest sample, and
+ * {@link Entry#instant(double)} and {@link Entry#exportTime(Instant)} convert between the two.
+ * <p>
+ * Appending is thread-safe. Queries can run concurrently with each other and with appends.
+ */
+public class CaptureArchive {
+
+    static final int DIGITAL_BLOCK_TRANSITIONS = 4096;
+    static final int ANALOG_BLOCK_SAMPLES = 1 << 16;
+
+    private static final byte[] MAGIC = "SALARCH\0".getBytes(StandardCharsets.US_ASCII);
+    private static final int VERSION = 1;
+    private static final String MANIFEST_FILE_NAME = "manifest.tsv";
+    private static final String MANIFEST_HEADER = "name\tdevice_id\tstart_time\ttime_origin_seconds\tduration_seconds\tdigital_sample_rate\tanalog_sample_rate\tdigital_channels\tanalog_channels";
+    private static final String FILE_EXTENSION = ".sca";
+    private static final Pattern NAME = Pattern.compile("[A-Za-z0-9._-]+");
+
+    private final Path DIRECTORY;
+    private final List<Entry> ENTRIES = new ArrayList<>();
+
+    /**
+     * Names of the entries plus the captures which are being appended.
+     */
+    private final Set<String> NAMES = new HashSet<>();
+
+    private CaptureArchive(Path directory) {
+        DIRECTORY = directory;
+    }
+
+    /**
+     * Open an archive, creating the directory if it does not exist.
+     */
+    public static CaptureArchive open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        final CaptureArchive archive = new CaptureArchive(directory);
+        final Path manifest = directory.resolve(MANIFEST_FILE_NAME);
+        if (Files.exists(manifest)) {
+            final List<String> lines = Files.readAllLines(manifest, StandardCharsets.UTF_8);
+            for (int i = 1; i < lines.size(); i++) {
+                if (!lines.get(i).isEmpty()) {
+                    final Entry entry = archive.parseManifestLine(lines.get(i));
+                    archive.ENTRIES.add(entry);
+                    archive.NAMES.add(entry.NAME);
+                }
+            }
+        }
+        return archive;
+    }
+
+    /**
+     * Compress the .bin files in a directory written by {@link Capture#exportRawDataBinary} and add them to the
+     * archive.
+     *
+     * @param name         unique name of the capture, made of letters, digits, '.', '_', and '-'
+     * @param deviceConfig the configuration the capture was started with. The digital sample rate is needed to store
+     *                     transitions as ticks.
+     * @param startTime    wall clock time when the capture started, which is the time of its earliest sample. It is
+     *                     used to find captures by time.
+     */
+    public Entry append(String name, String deviceID, Manager.DeviceConfig deviceConfig, Instant startTime, Path exportDirectory) throws IOException {
+        return append(name, deviceID, deviceConfig, startTime,
+                RawBinaryReader.mapDigitalDirectory(exportDirectory), RawBinaryReader.mapAnalogDirectory(exportDirectory));
+    }
+
+    /**
+     * Like {@link #append(String, String, Manager.DeviceConfig, Instant, Path)}, for channels which are already mapped.
+     */
+    public Entry append(
+            String name,
+            String deviceID,
+            Manager.DeviceConfig deviceConfig,
+            Instant startTime,
+            SortedMap<Integer, RawBinaryReader.DigitalChannel> digitalChannels,
+            SortedMap<Integer, RawBinaryReader.AnalogChannel> analogChannels
+    ) throws IOException {
+        if (!NAME.matcher(name).matches()) {
+            throw new IllegalArgumentException("Capture name must only contain letters, digits, '.', '_', and '-': " + name);
+        }
+        if (!digitalChannels.isEmpty() && deviceConfig.digitalSampleRate <= 0) {
+            throw new IllegalArgumentException("The digital sample rate is required to archive digital channels");
+        }
+        synchronized (this) {
+            if (!NAMES.add(name)) {
+                throw new IllegalArgumentException("The archive already has a capture named " + name);
+            }
+        }
+        try {
+            return write(name, deviceID, deviceConfig, startTime, digitalChannels, analogChannels);
+        } catch (IOException | RuntimeException e) {
+            synchronized (this) {
+                NAMES.remove(name);
+            }
+            throw e;
+        }
+    }
+
+    private Entry write(
+            String name,
+            String deviceID,
+            Manager.DeviceConfig deviceConfig,
+            Instant startTime,
+            SortedMap<Integer, RawBinaryReader.DigitalChannel> digitalChannels,
+            SortedMap<Integer, RawBinaryReader.AnalogChannel> analogChannels
+    ) throws IOException {
+        final Path file = DIRECTORY.resolve(name + FILE_EXTENSION);
+        final Path temporaryFile = DIRECTORY.resolve(name + FILE_EXTENSION + ".tmp");
+        final Footer footer;
+        try (FileChannel fileChannel = FileChannel.open(temporaryFile, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            footer = new Writer(fileChannel).write(deviceConfig.digitalSampleRate, digitalChannels, analogChannels);
+        }
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        // a digital trigger capture starts before time 0
+        double beginTime = Double.POSITIVE_INFINITY;
+        double endTime = Double.NEGATIVE_INFINITY;
+        for (DigitalIndex channel : footer.DIGITAL.values()) {
+            beginTime = Math.min(beginTime, channel.BEGIN_TIME);
+            endTime = Math.max(endTime, channel.END_TIME);
+        }
+        for (AnalogIndex channel : footer.ANALOG.values()) {
+            beginTime = Math.min(beginTime, channel.BEGIN_TIME);
+            endTime = Math.max(endTime, channel.sampleTime(channel.SAMPLE_COUNT));
+        }
+        if (beginTime > endTime) {
+            // no channels
+            beginTime = 0;
+            endTime = 0;
+        }
+        final Entry entry = new Entry(
+                name, deviceID, startTime, beginTime, endTime - beginTime, deviceConfig.digitalSampleRate, deviceConfig.analogSampleRate,
+                List.copyOf(digitalChannels.keySet()), List.copyOf(analogChannels.keySet())
+        );
+        entry.footer = footer;
+
+        synchronized (this) {
+            final Path manifest = DIRECTORY.resolve(MANIFEST_FILE_NAME);
+            final boolean newManifest = !Files.exists(manifest);
+            try (BufferedWriter writer = Files.newBufferedWriter(manifest, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                if (newManifest) {
+                    writer.write(MANIFEST_HEADER);
+                    writer.newLine();
+                }
+                writer.write(entry.manifestLine());
+                writer.newLine();
+            }
+            ENTRIES.add(entry);
+        }
+        return entry;
+    }
+
+    /**
+     * @return every capture, in the order they were added
+     */
+    public synchronized List<Entry> entries() {
+        return List.copyOf(ENTRIES);
+    }
+
+    /**
+     * @return captures which were recording at any time in the range
+     */
+    public synchronized List<Entry> entries(Instant from, Instant to) {
+        return ENTRIES.stream().filter(entry -> entry.overlaps(from, to)).toList();
+    }
+
+    /**
+     * @return the capture with the name, or null if there is none
+     */
+    public synchronized Entry entry(String name) {
+        for (Entry entry : ENTRIES) {
+            if (entry.NAME.equals(name)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Visit every transition on a digital channel in a wall clock time range, across all captures which match the
+     * filter and recorded that channel. Captures are visited in the order they were added.
+     */
+    public void forEachTransition(int channelIndex, Instant from, Instant to, Predicate<Entry> filter, ArchiveTransitionVisitor visitor) throws IOException {
+        for (Entry entry : entries(from, to)) {
+            if (filter.test(entry) && entry.DIGITAL_CHANNELS.contains(channelIndex)) {
+                entry.forEachTransition(channelIndex, from, to, (time, newState) -> visitor.transition(entry, time, newState));
+            }
+        }
+    }
+
+    private Entry parseManifestLine(String line) throws IOException {
+        final String[] fields = line.split("\t", -1);
+        if (fields.length != 9) {
+            throw new IOException("Bad line in " + DIRECTORY.resolve(MANIFEST_FILE_NAME) + ": " + line);
+        }
+        return new Entry(
+                fields[0],
+                fields[1],
+                Instant.parse(fields[2]),
+                Double.parseDouble(fields[3]),
+                Double.parseDouble(fields[4]),
+                Integer.parseInt(fields[5]),
+                Integer.parseInt(fields[6]),
+                parseChannels(fields[7]),
+                parseChannels(fields[8])
+        );
+    }
+
+    private static List<Integer> parseChannels(String field) {
+        return field.isEmpty()
+                ? Collections.emptyList()
+                : Arrays.stream(field.split(",")).map(Integer::valueOf).toList();
+    }
+
+    private static String formatChannels(List<Integer> channels) {
+        return channels.stream().map(String::valueOf).collect(Collectors.joining(","));
+    }
+
+    /**
+     * Receives digital transitions from a query on one capture.
+     */
+    @FunctionalInterface
+    public interface TransitionVisitor {
+        /**
+         * @param time     export time in seconds, see {@link Entry#instant(double)}
+         * @param newState 0 or 1, the state of the channel after the transition
+         */
+        void transition(double time, int newState);
+    }
+
+    /**
+     * Receives digital transitions from a query across captures.
+     */
+    @FunctionalInterface
+    public interface ArchiveTransitionVisitor {
+        /**
+         * @param time     export time in seconds within the entry, see {@link Entry#instant(double)}
+         * @param newState 0 or 1, the state of the channel after the transition
+         */
+        void transition(Entry entry, double time, int newState);
+    }
+
+    /**
+     * One capture in the archive.
+     */
+    public class Entry {
+        public final String NAME;
+        public final String DEVICE_ID;
+        /**
+         * Wall clock time of the earliest sample.
+         */
+        public final Instant START_TIME;
+        /**
+         * Export time of the earliest sample, which is negative for a digital trigger capture.
+         */
+        public final double TIME_ORIGIN_SECONDS;
+        /**
+         * Time from the earliest sample until the end of the latest channel.
+         */
+        public final double DURATION_SECONDS;
+        public final int DIGITAL_SAMPLE_RATE;
+        public final int ANALOG_SAMPLE_RATE;
+        public final List<Integer> DIGITAL_CHANNELS;
+        public final List<Integer> ANALOG_CHANNELS;
+
+        private volatile Footer footer;
+
+        private Entry(
+                String name,
+                String deviceID,
+                Instant startTime,
+                double timeOriginSeconds,
+                double durationSeconds,
+                int digitalSampleRate,
+                int analogSampleRate,
+                List<Integer> digitalChannels,
+                List<Integer> analogChannels
+        ) {
+            NAME = name;
+            DEVICE_ID = deviceID;
+            START_TIME = startTime;
+            TIME_ORIGIN_SECONDS = timeOriginSeconds;
+            DURATION_SECONDS = durationSeconds;
+            DIGITAL_SAMPLE_RATE = digitalSampleRate;
+            ANALOG_SAMPLE_RATE = analogSampleRate;
+            DIGITAL_CHANNELS = digitalChannels;
+            ANALOG_CHANNELS = analogChannels;
+        }
+
+        public Instant endTime() {
+            return START_TIME.plusNanos((long) (DURATION_SECONDS * 1e9));
+        }
+
+        /**
+         * @return seconds from the start of the capture until the instant
+         */
+        public double secondsSinceStart(Instant instant) {
+            return (instant.getEpochSecond() - START_TIME.getEpochSecond()) + (instant.getNano() - START_TIME.getNano()) / 1e9;
+        }
+
+        /**
+         * @return export time of the instant, which can be passed to the queries which take seconds
+         */
+        public double exportTime(Instant instant) {
+            return TIME_ORIGIN_SECONDS + secondsSinceStart(instant);
+        }
+
+        /**
+         * @param exportTime time in seconds as returned by the queries on this entry
+         * @return wall clock time of the export time
+         */
+        public Instant instant(double exportTime) {
+            return START_TIME.plusNanos(Math.round((exportTime - TIME_ORIGIN_SECONDS) * 1e9));
+        }
+
+        boolean overlaps(Instant from, Instant to) {
+            return START_TIME.isBefore(to) && endTime().isAfter(from);
+        }
+
+        public Path file() {
+            return DIRECTORY.resolve(NAME + FILE_EXTENSION);
+        }
+
+        /**
+         * @return total compressed size of the channel's blocks in bytes
+         */
+        public long compressedBytes(boolean digital, int channelIndex) throws IOException {
+            long bytes = 0;
+            if (digital) {
+                for (DigitalBlock block : footer().digital(channelIndex).BLOCKS) {
+                    bytes += block.LENGTH;
+                }
+            } else {
+                for (AnalogBlock block : footer().analog(channelIndex).BLOCKS) {
+                    bytes += block.LENGTH;
+                }
+            }
+            return bytes;
+        }
+
+        /**
+         * Like {@link #forEachTransition(int, double, double, TransitionVisitor)} with wall clock times.
+         */
+        public void forEachTransition(int channelIndex, Instant from, Instant to, TransitionVisitor visitor) throws IOException {
+            forEachTransition(channelIndex, exportTime(from), exportTime(to), visitor);
+        }
+
+        /**
+         * Visit every transition with {@code fromSeconds <= time < toSeconds}, in order. Only the blocks which overlap
+         * the range are read.
+         */
+        public void forEachTransition(int channelIndex, double fromSeconds, double toSeconds, TransitionVisitor visitor) throws IOException {
+            final DigitalIndex channel = footer().digital(channelIndex);
+            final DigitalBlock[] blocks = channel.BLOCKS;
+            // first block which ends at or after the start of the range
+            int low = 0;
+            int high = blocks.length;
+            while (low < high) {
+                final int middle = (low + high) >>> 1;
+                if (channel.tickTime(blocks[middle].LAST_TICK) < fromSeconds) {
+                    low = middle + 1;
+                } else {
+                    high = middle;
+                }
+            }
+            try (FileChannel fileChannel = FileChannel.open(file(), StandardOpenOption.READ)) {
+                ByteBuffer buffer = null;
+                for (int i = low; i < blocks.length; i++) {
+                    final DigitalBlock block = blocks[i];
+                    if (channel.tickTime(block.FIRST_TICK) >= toSeconds) {
+                        break;
+                    }
+                    buffer = read(fileChannel, block.OFFSET, block.LENGTH, buffer);
+                    long tick = block.FIRST_TICK;
+                    for (int j = 0; j < block.COUNT; j++) {
+                        if (j > 0) {
+                            tick += readVarint(buffer);
+                        }
+                        final double time = channel.tickTime(tick);
+                        if (time >= toSeconds) {
+                            return;
+                        } else if (time >= fromSeconds) {
+                            visitor.transition(time, channel.stateAfterTransition(block.FIRST_INDEX + j));
+                        }
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return analog samples with {@code fromSeconds <= time < toSeconds}. Only the blocks which overlap the range
+         * are read and decompressed.
+         */
+        public AnalogSamples analogSamples(int channelIndex, double fromSeconds, double toSeconds) throws IOException {
+            final AnalogIndex channel = footer().analog(channelIndex);
+            final long first = channel.firstSampleAtOrAfter(fromSeconds);
+            final long end = channel.firstSampleAtOrAfter(toSeconds);
+            final float[] samples = new float[(int) Math.max(0, end - first)];
+            try (FileChannel fileChannel = FileChannel.open(file(), StandardOpenOption.READ)) {
+                final Inflater inflater = new Inflater();
+                try {
+                    ByteBuffer buffer = null;
+                    float[] blockSamples = null;
+                    for (AnalogBlock block : channel.blocksBetween(first, end)) {
+                        buffer = read(fileChannel, block.OFFSET, block.LENGTH, buffer);
+                        blockSamples = inflate(inflater, buffer, block.COUNT, blockSamples);
+                        final long copyFrom = Math.max(first, block.FIRST_SAMPLE);
+                        final long copyTo = Math.min(end, block.FIRST_SAMPLE + block.COUNT);
+                        System.arraycopy(blockSamples, (int) (copyFrom - block.FIRST_SAMPLE), samples, (int) (copyFrom - first), (int) (copyTo - copyFrom));
+                    }
+                } finally {
+                    inflater.end();
+                }
+            }
+            return new AnalogSamples(channel.sampleTime(first), channel.effectiveSampleRate(), samples);
+        }
+
+        /**
+         * @return lowest and highest voltage with {@code fromSeconds <= time < toSeconds}. Blocks entirely inside the
+         * range are answered from the footer, so at most two blocks are decompressed.
+         */
+        public MinMax analogMinMax(int channelIndex, double fromSeconds, double toSeconds) throws IOException {
+            final AnalogIndex channel = footer().analog(channelIndex);
+            final long first = channel.firstSampleAtOrAfter(fromSeconds);
+            final long end = channel.firstSampleAtOrAfter(toSeconds);
+            float min = Float.POSITIVE_INFINITY;
+            float max = Float.NEGATIVE_INFINITY;
+            for (AnalogBlock block : channel.blocksBetween(first, end)) {
+                if (block.FIRST_SAMPLE >= first && block.FIRST_SAMPLE + block.COUNT <= end) {
+                    min = Math.min(min, block.MIN);
+                    max = Math.max(max, block.MAX);
+                } else {
+                    final AnalogSamples samples = analogSamples(channelIndex,
+                            channel.sampleTime(Math.max(first, block.FIRST_SAMPLE)),
+                            channel.sampleTime(Math.min(end, block.FIRST_SAMPLE + block.COUNT)));
+                    for (float sample : samples.SAMPLES) {
+                        min = Math.min(min, sample);
+                        max = Math.max(max, sample);
+                    }
+                }
+            }
+            return new MinMax(min, max);
+        }
+
+        private Footer footer() throws IOException {
+            Footer footer = this.footer;
+            if (footer == null) {
+                try (FileChannel fileChannel = FileChannel.open(file(), StandardOpenOption.READ)) {
+                    footer = Footer.read(fileChannel, file());
+                }
+                this.footer = footer;
+            }
+            return footer;
+        }
+
+        String manifestLine() {
+            return String.join("\t",
+                    NAME,
+                    DEVICE_ID,
+                    START_TIME.toString(),
+                    Double.toString(TIME_ORIGIN_SECONDS),
+                    Double.toString(DURATION_SECONDS),
+                    Integer.toString(DIGITAL_SAMPLE_RATE),
+                    Integer.toString(ANALOG_SAMPLE_RATE),
+                    formatChannels(DIGITAL_CHANNELS),
+                    formatChannels(ANALOG_CHANNELS)
+            );
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: device %s, %s for %.3f s, digital %s, analog %s",
+                    NAME, DEVICE_ID, START_TIME, DURATION_SECONDS, DIGITAL_CHANNELS, ANALOG_CHANNELS);
+        }
+    }
+
+    /**
+     * Consecutive analog samples returned by {@link Entry#analogSamples}.
+     */
+    public static class AnalogSamples {
+        /**
+         * Export time of {@code SAMPLES[0]}, see {@link Entry#instant(double)}.
+         */
+        public final double FIRST_SAMPLE_TIME;
+        /**
+         * Samples per second, after downsampling.
+         */
+        public final double SAMPLE_RATE;
+        public final float[] SAMPLES;
+
+        AnalogSamples(double firstSampleTime, double sampleRate, float[] samples) {
+            FIRST_SAMPLE_TIME = firstSampleTime;
+            SAMPLE_RATE = sampleRate;
+            SAMPLES = samples;
+        }
+    }
+
+    /**
+     * Result of {@link Entry#analogMinMax}. Both are NaN if the range has no samples.
+     */
+    public static class MinMax {
+        public final float MIN;
+        public final float MAX;
+
+        MinMax(float min, float max) {
+            MIN = min == Float.POSITIVE_INFINITY ? Float.NaN : min;
+            MAX = max == Float.NEGATIVE_INFINITY ? Float.NaN : max;
+        }
+
+        @Override
+        public String toString() {
+            return "min=" + MIN + " max=" + MAX;
+        }
+    }
+
+    /**
+     * Writes the blocks and footer of one capture file.
+     */
+    private static class Writer {
+        final FileChannel FILE_CHANNEL;
+        long position;
+
+        Writer(FileChannel fileChannel) {
+            FILE_CHANNEL = fileChannel;
+        }
+
+        Footer write(
+                int digitalSampleRate,
+                SortedMap<Integer, RawBinaryReader.DigitalChannel> digitalChannels,
+                SortedMap<Integer, RawBinaryReader.AnalogChannel> analogChannels
+        ) throws IOException {
+            write(ByteBuffer.allocate(MAGIC.length + Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).put(MAGIC).putInt(VERSION).flip());
+
+            final Footer footer = new Footer();
+            for (Map.Entry<Integer, RawBinaryReader.DigitalChannel> entry : digitalChannels.entrySet()) {
+                footer.DIGITAL.put(entry.getKey(), writeDigital(entry.getValue(), digitalSampleRate));
+            }
+            final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            try {
+                for (Map.Entry<Integer, RawBinaryReader.AnalogChannel> entry : analogChannels.entrySet()) {
+                    footer.ANALOG.put(entry.getKey(), writeAnalog(entry.getValue(), deflater));
+                }
+            } finally {
+                deflater.end();
+            }
+
+            final long footerOffset = position;
+            write(footer.toBytes());
+            write(ByteBuffer.allocate(Long.BYTES + MAGIC.length).order(ByteOrder.LITTLE_ENDIAN).putLong(footerOffset).put(MAGIC).flip());
+            return footer;
+        }
+
+        private DigitalIndex writeDigital(RawBinaryReader.DigitalChannel channel, int sampleRate) throws IOException {
+            final int blockCount = (int) ((channel.TRANSITION_COUNT + DIGITAL_BLOCK_TRANSITIONS - 1) / DIGITAL_BLOCK_TRANSITIONS);
+            final DigitalBlock[] blocks = new DigitalBlock[blockCount];
+            final ByteBuffer buffer = ByteBuffer.allocate(DIGITAL_BLOCK_TRANSITIONS * 10);
+            final RawBinaryReader.TransitionCursor cursor = channel.cursor();
+            long previousTick = 0;
+            for (int b = 0; b < blockCount; b++) {
+                final long firstIndex = (long) b * DIGITAL_BLOCK_TRANSITIONS;
+                final int count = (int) Math.min(DIGITAL_BLOCK_TRANSITIONS, channel.TRANSITION_COUNT - firstIndex);
+                buffer.clear();
+                long firstTick = 0;
+                for (int j = 0; j < count; j++) {
+                    cursor.next();
+                    final long tick = Math.round((cursor.time() - channel.BEGIN_TIME) * sampleRate);
+                    if (tick < previousTick) {
+                        throw new IllegalArgumentException(String.format(
+                                "Transition %d at %f s is before the previous one", cursor.index(), cursor.time()));
+                    }
+                    if (j == 0) {
+                        firstTick = tick;
+                    } else {
+                        writeVarint(buffer, tick - previousTick);
+                    }
+                    previousTick = tick;
+                }
+                blocks[b] = new DigitalBlock(firstTick, previousTick, firstIndex, count, position, buffer.position());
+                write(buffer.flip());
+            }
+            return new DigitalIndex(channel.INITIAL_STATE, channel.BEGIN_TIME, channel.END_TIME, sampleRate, channel.TRANSITION_COUNT, blocks);
+        }
+
+        private AnalogIndex writeAnalog(RawBinaryReader.AnalogChannel channel, Deflater deflater) throws IOException {
+            final int blockCount = (int) ((channel.SAMPLE_COUNT + ANALOG_BLOCK_SAMPLES - 1) / ANALOG_BLOCK_SAMPLES);
+            final AnalogBlock[] blocks = new AnalogBlock[blockCount];
+            final byte[] planes = new byte[ANALOG_BLOCK_SAMPLES * Float.BYTES];
+            final byte[] compressed = new byte[planes.length + 1024];
+            for (int b = 0; b < blockCount; b++) {
+                final long firstSample = (long) b * ANALOG_BLOCK_SAMPLES;
+                final int count = (int) Math.min(ANALOG_BLOCK_SAMPLES, channel.SAMPLE_COUNT - firstSample);
+                float min = Float.POSITIVE_INFINITY;
+                float max = Float.NEGATIVE_INFINITY;
+                for (int j = 0; j < count; j++) {
+                    final float sample = channel.sample(firstSample + j);
+                    min = Math.min(min, sample);
+                    max = Math.max(max, sample);
+                    // byte planes: similar samples share their high bytes, which then compress well
+                    final int bits = Float.floatToRawIntBits(sample);
+                    planes[j] = (byte) bits;
+                    planes[count + j] = (byte) (bits >>> 8);
+                    planes[2 * count + j] = (byte) (bits >>> 16);
+                    planes[3 * count + j] = (byte) (bits >>> 24);
+                }
+                deflater.reset();
+                deflater.setInput(planes, 0, count * Float.BYTES);
+                deflater.finish();
+                int length = 0;
+                while (!deflater.finished()) {
+                    length += deflater.deflate(compressed, length, compressed.length - length);
+                }
+                blocks[b] = new AnalogBlock(firstSample, count, min, max, position, length);
+                write(ByteBuffer.wrap(compressed, 0, length));
+            }
+            return new AnalogIndex(channel.BEGIN_TIME, channel.SAMPLE_RATE, channel.DOWNSAMPLE, channel.SAMPLE_COUNT, blocks);
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += FILE_CHANNEL.write(buffer, position);
+            }
+        }
+    }
+
+    private static void writeVarint(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    private static long readVarint(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while (b < 0);
+        return value;
+    }
+
+    /**
+     * @param reuse returned if it is big enough
+     * @return buffer holding the bytes, positioned at the start
+     */
+    private static ByteBuffer read(FileChannel fileChannel, long offset, int length, ByteBuffer reuse) throws IOException {
+        final ByteBuffer buffer = reuse != null && reuse.capacity() >= length
+                ? reuse.clear().limit(length)
+                : ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (fileChannel.read(buffer, offset + buffer.position()) < 0) {
+                throw new IOException("Archive file is truncated");
+            }
+        }
+        return buffer.flip();
+    }
+
+    private static float[] inflate(Inflater inflater, ByteBuffer compressed, int count, float[] reuse) throws IOException {
+        final byte[] planes = new byte[count * Float.BYTES];
+        inflater.reset();
+        inflater.setInput(compressed.array(), compressed.arrayOffset(), compressed.limit());
+        try {
+            int length = 0;
+            while (length < planes.length && !inflater.finished()) {
+                final int inflated = inflater.inflate(planes, length, planes.length - length);
+                if (inflated == 0 && inflater.needsInput()) {
+                    throw new IOException("Archive analog block is truncated");
+                }
+                length += inflated;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Archive analog block is corrupt", e);
+        }
+        final float[] samples = reuse != null && reuse.length >= count ? reuse : new float[count];
+        for (int j = 0; j < count; j++) {
+            samples[j] = Float.intBitsToFloat((planes[j] & 0xFF)
+                    | (planes[count + j] & 0xFF) << 8
+                    | (planes[2 * count + j] & 0xFF) << 16
+                    | (planes[3 * count + j] & 0xFF) << 24);
+        }
+        return samples;
+    }
+
+    /**
+     * Block index of every channel in one capture file.
+     */
+    private static class Footer {
+        final SortedMap<Integer, DigitalIndex> DIGITAL = new TreeMap<>();
+        final SortedMap<Integer, AnalogIndex> ANALOG = new TreeMap<>();
+
+        DigitalIndex digital(int channelIndex) {
+            final DigitalIndex index = DIGITAL.get(channelIndex);
+            if (index == null) {
+                throw new IllegalArgumentException("Digital channel " + channelIndex + " was not archived");
+            }
+            return index;
+        }
+
+        AnalogIndex analog(int channelIndex) {
+            final AnalogIndex index = ANALOG.get(channelIndex);
+            if (index == null) {
+                throw new IllegalArgumentException("Analog channel " + channelIndex + " was not archived");
+            }
+            return index;
+        }
+
+        ByteBuffer toBytes() {
+            int size = 2 * Integer.BYTES;
+            for (DigitalIndex channel : DIGITAL.values()) {
+                size += DigitalIndex.BYTES + channel.BLOCKS.length * DigitalBlock.BYTES;
+            }
+            for (AnalogIndex channel : ANALOG.values()) {
+                size += AnalogIndex.BYTES + channel.BLOCKS.length * AnalogBlock.BYTES;
+            }
+            final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(DIGITAL.size());
+            DIGITAL.forEach((channelIndex, channel) -> {
+                buffer.putInt(channelIndex)
+                        .putInt(channel.INITIAL_STATE)
+                        .putDouble(channel.BEGIN_TIME)
+                        .putDouble(channel.END_TIME)
+                        .putInt(channel.SAMPLE_RATE)
+                        .putLong(channel.TRANSITION_COUNT)
+                        .putInt(channel.BLOCKS.length);
+                for (DigitalBlock block : channel.BLOCKS) {
+                    buffer.putLong(block.FIRST_TICK)
+                            .putLong(block.LAST_TICK)
+                            .putLong(block.FIRST_INDEX)
+                            .putInt(block.COUNT)
+                            .putLong(block.OFFSET)
+                            .putInt(block.LENGTH);
+                }
+            });
+            buffer.putInt(ANALOG.size());
+            ANALOG.forEach((channelIndex, channel) -> {
+                buffer.putInt(channelIndex)
+                        .putDouble(channel.BEGIN_TIME)
+                        .putLong(channel.SAMPLE_RATE)
+                        .putLong(channel.DOWNSAMPLE)
+                        .putLong(channel.SAMPLE_COUNT)
+                        .putInt(channel.BLOCKS.length);
+                for (AnalogBlock block : channel.BLOCKS) {
+                    buffer.putLong(block.FIRST_SAMPLE)
+                            .putInt(block.COUNT)
+                            .putFloat(block.MIN)
+                            .putFloat(block.MAX)
+                            .putLong(block.OFFSET)
+                            .putInt(block.LENGTH);
+                }
+            });
+            return buffer.flip();
+        }
+
+        static Footer read(FileChannel fileChannel, Path file) throws IOException {
+            final long size = fileChannel.size();
+            final int trailerBytes = Long.BYTES + MAGIC.length;
+            if (size < MAGIC.length + Integer.BYTES + trailerBytes) {
+                throw new IOException(file + " is too short to be a capture archive file");
+            }
+            final ByteBuffer trailer = CaptureArchive.read(fileChannel, size - trailerBytes, trailerBytes, null);
+            final long footerOffset = trailer.getLong();
+            final byte[] magic = new byte[MAGIC.length];
+            trailer.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || footerOffset < 0 || footerOffset > size - trailerBytes) {
+                throw new IOException(file + " is not a capture archive file, or is truncated");
+            }
+            final ByteBuffer buffer = CaptureArchive.read(fileChannel, footerOffset, (int) (size - trailerBytes - footerOffset), null);
+
+            final Footer footer = new Footer();
+            final int digitalCount = buffer.getInt();
+            for (int i = 0; i < digitalCount; i++) {
+                final int channelIndex = buffer.getInt();
+                final int initialState = buffer.getInt();
+                final double beginTime = buffer.getDouble();
+                final double endTime = buffer.getDouble();
+                final int sampleRate = buffer.getInt();
+                final long transitionCount = buffer.getLong();
+                final DigitalBlock[] blocks = new DigitalBlock[buffer.getInt()];
+                for (int b = 0; b < blocks.length; b++) {
+                    blocks[b] = new DigitalBlock(buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getInt(), buffer.getLong(), buffer.getInt());
+                }
+                footer.DIGITAL.put(channelIndex, new DigitalIndex(initialState, beginTime, endTime, sampleRate, transitionCount, blocks));
+            }
+            final int analogCount = buffer.getInt();
+            for (int i = 0; i < analogCount; i++) {
+                final int channelIndex = buffer.getInt();
+                final double beginTime = buffer.getDouble();
+                final long sampleRate = buffer.getLong();
+                final long downsample = buffer.getLong();
+                final long sampleCount = buffer.getLong();
+                final AnalogBlock[] blocks = new AnalogBlock[buffer.getInt()];
+                for (int b = 0; b < blocks.length; b++) {
+                    blocks[b] = new AnalogBlock(buffer.getLong(), buffer.getInt(), buffer.getFloat(), buffer.getFloat(), buffer.getLong(), buffer.getInt());
+                }
+                footer.ANALOG.put(channelIndex, new AnalogIndex(beginTime, sampleRate, downsample, sampleCount, blocks));
+            }
+            return footer;
+        }
+    }
+
+    private static class DigitalIndex {
+        static final int BYTES = 4 + 4 + 8 + 8 + 4 + 8 + 4;
+
+        final int INITIAL_STATE;
+        final double BEGIN_TIME;
+        final double END_TIME;
+        final int SAMPLE_RATE;
+        final long TRANSITION_COUNT;
+        final DigitalBlock[] BLOCKS;
+
+        DigitalIndex(int initialState, double beginTime, double endTime, int sampleRate, long transitionCount, DigitalBlock[] blocks) {
+            INITIAL_STATE = initialState;
+            BEGIN_TIME = beginTime;
+            END_TIME = endTime;
+            SAMPLE_RATE = sampleRate;
+            TRANSITION_COUNT = transitionCount;
+            BLOCKS = blocks;
+        }
+
+        double tickTime(long tick) {
+            return BEGIN_TIME + (double) tick / SAMPLE_RATE;
+        }
+
+        int stateAfterTransition(long index) {
+            return INITIAL_STATE ^ (int) ((index + 1) & 1);
+        }
+    }
+
+    private static class DigitalBlock {
+        static final int BYTES = 8 + 8 + 8 + 4 + 8 + 4;
+
+        final long FIRST_TICK;
+        final long LAST_TICK;
+        final long FIRST_INDEX;
+        final int COUNT;
+        final long OFFSET;
+        final int LENGTH;
+
+        DigitalBlock(long firstTick, long lastTick, long firstIndex, int count, long offset, int length) {
+            FIRST_TICK = firstTick;
+            LAST_TICK = lastTick;
+            FIRST_INDEX = firstIndex;
+            COUNT = count;
+            OFFSET = offset;
+            LENGTH = length;
+        }
+    }
+
+    private static class AnalogIndex {
+        static final int BYTES = 4 + 8 + 8 + 8 + 8 + 4;
+
+        final double BEGIN_TIME;
+        final long SAMPLE_RATE;
+        final long DOWNSAMPLE;
+        final long SAMPLE_COUNT;
+        final AnalogBlock[] BLOCKS;
+
+        AnalogIndex(double beginTime, long sampleRate, long downsample, long sampleCount, AnalogBlock[] blocks) {
+            BEGIN_TIME = beginTime;
+            SAMPLE_RATE = sampleRate;
+            DOWNSAMPLE = downsample;
+            SAMPLE_COUNT = sampleCount;
+            BLOCKS = blocks;
+        }
+
+        double effectiveSampleRate() {
+            return (double) SAMPLE_RATE / DOWNSAMPLE;
+        }
+
+        double sampleTime(long index) {
+            return BEGIN_TIME + (double) (index * DOWNSAMPLE) / SAMPLE_RATE;
+        }
+
+        /**
+         * @return index of the first sample at or after the time, between 0 and {@link #SAMPLE_COUNT}
+         */
+        long firstSampleAtOrAfter(double seconds) {
+            final double index = Math.ceil((seconds - BEGIN_TIME) * effectiveSampleRate());
+            return (long) Math.max(0, Math.min(SAMPLE_COUNT, index));
+        }
+
+        /**
+         * @return blocks holding any sample with index in [first, end)
+         */
+        List<AnalogBlock> blocksBetween(long first, long end) {
+            if (first >= end) {
+                return Collections.emptyList();
+            }
+            return Arrays.asList(BLOCKS).subList((int) (first / ANALOG_BLOCK_SAMPLES), (int) ((end - 1) / ANALOG_BLOCK_SAMPLES) + 1);
+        }
+    }
+
+    private static class AnalogBlock {
+        static final int BYTES = 8 + 4 + 4 + 4 + 8 + 4;
+
+        final long FIRST_SAMPLE;
+        final int COUNT;
+        final float MIN;
+        final float MAX;
+        final long OFFSET;
+        final int LENGTH;
+
+        AnalogBlock(long firstSample, int count, float min, float max, long offset, int length) {
+            FIRST_SAMPLE = firstSample;
+            COUNT = count;
+            MIN = min;
+            MAX = max;
+            OFFSET = offset;
+            LENGTH = length;
+        }
+    }
+
+}
@@ -0,0 +1,298 @@
+package xyz.froud.saleae.automation;
+
+import io.grpc.Status;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for the capture buffers of one Logic 2 instance, shared by every {@link Manager} connected to it.
+ * <p>
+ * Each open {@link Capture} commits its {@link Manager.CaptureConfig#bufferSizeMegabytes} until it is closed. A new
+ * capture which would take the committed total above the ceiling waits until enough captures are closed: the blocking
+ * methods of Manager, {@link CaptureGroup}, and {@link CapturePlan} block, and the {@code ...Async()} methods return a
+ * future which completes after the capture is admitted and started. Captures are admitted in the order they asked, so
+ * a large capture is not starved by smaller ones. Loaded captures commit {@link #loadCaptureMegabytes}.
+ * <p>
+ * There is no ceiling until {@link #setCeilingMegabytes(long)} is called. The public fields may be changed at any
+ * time.
+ */
+public class CaptureBudget {
+
+    private static final ConcurrentHashMap<String, CaptureBudget> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    /**
+     * Longest time a capture waits to be admitted, or null to wait indefinitely. A capture which waits longer fails
+     * with a {@link io.grpc.StatusRuntimeException} with status {@code RESOURCE_EXHAUSTED}.
+     */
+    public volatile Duration maxWait;
+
+    /**
+     * Megabytes committed by each capture opened with {@link Manager#loadCapture}, since a .sal file has no buffer
+     * size.
+     */
+    public volatile int loadCaptureMegabytes;
+
+    private final String ENDPOINT;
+
+    /**
+     * Guarded by this.
+     */
+    private final ArrayDeque<Waiter> WAITING = new ArrayDeque<>();
+
+    /**
+     * Guarded by this.
+     */
+    private long ceilingMegabytes = Long.MAX_VALUE;
+
+    /**
+     * Guarded by this.
+     */
+    private long committedMegabytes;
+
+    private CaptureBudget(String endpoint) {
+        ENDPOINT = endpoint;
+    }
+
+    /**
+     * @param endpoint the authority of the channel, usually host:port
+     */
+    public static CaptureBudget forEndpoint(String endpoint) {
+        return BY_ENDPOINT.computeIfAbsent(endpoint, CaptureBudget::new);
+    }
+
+    public String endpoint() {
+        return ENDPOINT;
+    }
+
+    /**
+     * @param ceilingMegabytes largest total of buffer sizes of open captures, or {@link Long#MAX_VALUE} for no ceiling
+     */
+    public void setCeilingMegabytes(long ceilingMegabytes) {
+        if (ceilingMegabytes < 0) {
+            throw new IllegalArgumentException("The ceiling must not be negative");
+        }
+        final List<Waiter> admitted;
+        synchronized (this) {
+            this.ceilingMegabytes = ceilingMegabytes;
+            admitted = admitWaiting();
+        }
+        complete(admitted);
+    }
+
+    public synchronized long getCeilingMegabytes() {
+        return ceilingMegabytes;
+    }
+
+    /**
+     * @return total buffer size of the open captures and of the ones which have been admitted and are starting
+     */
+    public synchronized long getCommittedMegabytes() {
+        return committedMegabytes;
+    }
+
+    /**
+     * @return number of captures waiting to be admitted
+     */
+    public synchronized int getWaitingCount() {
+        return WAITING.size();
+    }
+
+    /**
+     * Reserve the budget, blocking until it is available, then make the call. The budget is released if the call
+     * throws, and otherwise belongs to what the call returns.
+     */
+    <T> T admit(long megabytes, Supplier<T> call) {
+        final CompletableFuture<Void> admission = reserveAsync(megabytes);
+        try {
+            admission.get();
+        } catch (InterruptedException e) {
+            if (!admission.cancel(false) && !admission.isCompletedExceptionally()) {
+                release(megabytes);
+            }
+            Thread.currentThread().interrupt();
+            throw Status.CANCELLED.withDescription("Interrupted while waiting for capture buffer budget").withCause(e).asRuntimeException();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+        try {
+            return call.get();
+        } catch (RuntimeException e) {
+            release(megabytes);
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #admit}. Cancelling the returned future stops waiting for the budget, or cancels
+     * the call if it has been made.
+     *
+     * @param discard closes a result which arrives after the returned future was cancelled. It runs on the thread
+     *                which completed the call, so it must not block.
+     */
+    <T> CompletableFuture<T> admitAsync(long megabytes, Supplier<CompletableFuture<T>> call, Consumer<T> discard) {
+        final CompletableFuture<Void> admission = reserveAsync(megabytes);
+        final AtomicReference<CompletableFuture<T>> callFuture = new AtomicReference<>();
+        final CompletableFuture<T> result = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                admission.cancel(mayInterruptIfRunning);
+                final CompletableFuture<T> inFlight = callFuture.get();
+                if (inFlight != null) {
+                    inFlight.cancel(mayInterruptIfRunning);
+                }
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+        admission.whenComplete((ignored, admissionError) -> {
+            if (admissionError != null) {
+                result.completeExceptionally(admissionError);
+                return;
+            }
+            final CompletableFuture<T> inFlight;
+            try {
+                inFlight = call.get();
+            } catch (RuntimeException e) {
+                release(megabytes);
+                result.completeExceptionally(e);
+                return;
+            }
+            callFuture.set(inFlight);
+            if (result.isCancelled()) {
+                inFlight.cancel(false);
+            }
+            inFlight.whenComplete((value, callError) -> {
+                if (callError != null) {
+                    release(megabytes);
+                    result.completeExceptionally(callError);
+                } else if (!result.complete(value)) {
+                    // cancelled while the call was in flight, so nobody else will close it
+                    discard.accept(value);
+                }
+            });
+        });
+        return result;
+    }
+
+    /**
+     * @return completes when the budget has been reserved. Cancelling it before then stops waiting.
+     */
+    CompletableFuture<Void> reserveAsync(long megabytes) {
+        if (megabytes < 0) {
+            throw new IllegalArgumentException("The buffer size must not be negative");
+        }
+        final Waiter waiter = new Waiter(megabytes);
+        synchronized (this) {
+            if (megabytes > ceilingMegabytes) {
+                throw new IllegalArgumentException(String.format(
+                        "A buffer of %d MB is larger than the ceiling of %d MB for %s", megabytes, ceilingMegabytes, ENDPOINT
+                ));
+            }
+            if (WAITING.isEmpty() && committedMegabytes + megabytes <= ceilingMegabytes) {
+                committedMegabytes += megabytes;
+                return CompletableFuture.completedFuture(null);
+            }
+            WAITING.add(waiter);
+        }
+        // a waiter which is cancelled or times out gives up its place in the queue
+        waiter.ADMITTED.whenComplete((ignored, error) -> {
+            if (error != null) {
+                remove(waiter);
+            }
+        });
+        final Duration timeout = maxWait;
+        if (timeout != null) {
+            CompletableFuture.delayedExecutor(timeout.toNanos(), TimeUnit.NANOSECONDS).execute(() ->
+                    waiter.ADMITTED.completeExceptionally(Status.RESOURCE_EXHAUSTED
+                            .withDescription(String.format(
+                                    "Waited %s for %d MB of capture buffer budget on %s", timeout, megabytes, ENDPOINT
+                            ))
+                            .asRuntimeException())
+            );
+        }
+        return waiter.ADMITTED;
+    }
+
+    void release(long megabytes) {
+        final List<Waiter> admitted;
+        synchronized (this) {
+            committedMegabytes -= megabytes;
+            admitted = admitWaiting();
+        }
+        complete(admitted);
+    }
+
+    private void remove(Waiter waiter) {
+        final List<Waiter> admitted;
+        synchronized (this) {
+            if (!WAITING.remove(waiter)) {
+                return;
+            }
+            // the waiter may have been holding back smaller ones behind it
+            admitted = admitWaiting();
+        }
+        complete(admitted);
+    }
+
+    /**
+     * Must hold the lock. The returned waiters are completed after the lock is released, because completing them runs
+     * their callers' callbacks.
+     */
+    private List<Waiter> admitWaiting() {
+        List<Waiter> admitted = null;
+        while (!WAITING.isEmpty()) {
+            final Waiter head = WAITING.peek();
+            if (head.ADMITTED.isDone()) {
+                WAITING.poll();
+                continue;
+            }
+            if (committedMegabytes + head.MEGABYTES > ceilingMegabytes) {
+                break;
+            }
+            WAITING.poll();
+            committedMegabytes += head.MEGABYTES;
+            if (admitted == null) {
+                admitted = new ArrayList<>();
+            }
+            admitted.add(head);
+        }
+        return admitted;
+    }
+
+    private void complete(List<Waiter> admitted) {
+        if (admitted == null) {
+            return;
+        }
+        for (Waiter waiter : admitted) {
+            if (!waiter.ADMITTED.complete(null)) {
+                // cancelled or timed out after it was admitted
+                release(waiter.MEGABYTES);
+            }
+        }
+    }
+
+    private static class Waiter {
+
+        private final long MEGABYTES;
+
+        private final CompletableFuture<Void> ADMITTED = new CompletableFuture<>();
+
+        private Waiter(long megabytes) {
+            MEGABYTES = megabytes;
+        }
+
+    }
+
+}
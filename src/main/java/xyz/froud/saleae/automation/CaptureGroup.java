@@ -0,0 +1,251 @@
+package xyz.froud.saleae.automation;
+
+import saleae.StartCaptureRequest;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+
+/**
+ * Several captures, one per device, which were started at the same time by {@link Manager#startCaptureGroup}.
+ * <p>
+ * All StartCapture requests are built before any of them is sent, then sent together without waiting for replies, so
+ * the devices start within a fraction of one round trip of each other. The methods which act on the whole group send
+ * one request per capture and then wait for all the replies.
+ */
+public class CaptureGroup implements AutoCloseable {
+
+    private final Map<String, Capture> CAPTURES;
+    private final Map<String, Duration> START_LATENCIES;
+    private final Duration START_SKEW;
+    private final Duration START_WALL_TIME;
+
+    private CaptureGroup(Map<String, Capture> captures, Map<String, Duration> startLatencies, Duration startSkew, Duration startWallTime) {
+        CAPTURES = Collections.unmodifiableMap(captures);
+        START_LATENCIES = Collections.unmodifiableMap(startLatencies);
+        START_SKEW = startSkew;
+        START_WALL_TIME = startWallTime;
+    }
+
+    static CompletableFuture<CaptureGroup> startAsync(Manager manager, Map<String, Manager.DeviceConfig> deviceConfigs, Manager.CaptureConfig captureConfig) {
+        if (deviceConfigs.isEmpty()) {
+            throw new IllegalArgumentException("At least one device is required");
+        }
+
+        final Map<String, StartCaptureRequest> requests = new LinkedHashMap<>();
+        deviceConfigs.forEach((deviceID, deviceConfig) ->
+                requests.put(deviceID, Manager.startCaptureRequest(deviceID, deviceConfig, captureConfig))
+        );
+
+        // the whole group is admitted at once, so the devices still start together
+        final int bufferSizeMegabytes = captureConfig.bufferSizeMegabytes;
+        final CaptureBudget budget = manager.getCaptureBudget();
+        return budget.reserveAsync((long) bufferSizeMegabytes * requests.size())
+                .thenCompose(ignored -> send(manager, budget, requests, bufferSizeMegabytes));
+    }
+
+    private static CompletableFuture<CaptureGroup> send(Manager manager, CaptureBudget budget, Map<String, StartCaptureRequest> requests, int bufferSizeMegabytes) {
+        final int deviceCount = requests.size();
+        final String[] deviceIDs = new String[deviceCount];
+        final long[] replyNanos = new long[deviceCount];
+        final List<CompletableFuture<Capture>> futures = new ArrayList<>(deviceCount);
+
+        final long issueNanos = System.nanoTime();
+        int i = 0;
+        for (Map.Entry<String, StartCaptureRequest> entry : requests.entrySet()) {
+            final int deviceIndex = i++;
+            deviceIDs[deviceIndex] = entry.getKey();
+            final CompletableFuture<Capture> future = FutureAdapter.toCompletableFuture(
+                    manager.futureCall(RpcType.START_CAPTURE, stub -> stub.startCapture(entry.getValue())),
+                    reply -> {
+                        replyNanos[deviceIndex] = System.nanoTime();
+                        return new Capture(manager, reply.getCaptureInfo(), bufferSizeMegabytes);
+                    }
+            );
+            // a capture which started owns its part of the budget
+            future.whenComplete((capture, throwable) -> {
+                if (throwable != null) {
+                    budget.release(bufferSizeMegabytes);
+                }
+            });
+            futures.add(future);
+        }
+
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).handle((ignored, throwable) -> {
+            if (throwable != null) {
+                // don't leave the captures which did start running in Logic 2
+                for (CompletableFuture<Capture> future : futures) {
+                    if (!future.isCompletedExceptionally()) {
+                        final Capture capture = future.join();
+                        capture.stopAsync().handle((v, t) -> null).thenCompose(v -> capture.closeAsync());
+                    }
+                }
+                throw throwable instanceof CompletionException completionException
+                        ? completionException
+                        : new CompletionException(throwable);
+            }
+
+            final Map<String, Capture> captures = new LinkedHashMap<>();
+            final Map<String, Duration> latencies = new LinkedHashMap<>();
+            long firstReply = Long.MAX_VALUE;
+            long lastReply = Long.MIN_VALUE;
+            for (int j = 0; j < deviceCount; j++) {
+                captures.put(deviceIDs[j], futures.get(j).join());
+                latencies.put(deviceIDs[j], Duration.ofNanos(replyNanos[j] - issueNanos));
+                firstReply = Math.min(firstReply, replyNanos[j]);
+                lastReply = Math.max(lastReply, replyNanos[j]);
+            }
+            return new CaptureGroup(
+                    captures,
+                    latencies,
+                    Duration.ofNanos(lastReply - firstReply),
+                    Duration.ofNanos(lastReply - issueNanos)
+            );
+        });
+    }
+
+    /**
+     * @return map from device ID to capture, in the order the devices were given
+     */
+    public Map<String, Capture> captures() {
+        return CAPTURES;
+    }
+
+    public Capture capture(String deviceID) {
+        return CAPTURES.get(deviceID);
+    }
+
+    /**
+     * @return map from device ID to the time between sending its StartCapture request and receiving the reply
+     */
+    public Map<String, Duration> startLatencies() {
+        return START_LATENCIES;
+    }
+
+    /**
+     * @return time between the first and last StartCapture reply
+     */
+    public Duration startSkew() {
+        return START_SKEW;
+    }
+
+    /**
+     * @return time between sending the first StartCapture request and receiving the last reply
+     */
+    public Duration startWallTime() {
+        return START_WALL_TIME;
+    }
+
+    /**
+     * Waits for every capture to end. See {@link Capture#waitForCaptureToEnd()}.
+     */
+    public void waitForCaptureToEnd() {
+        awaitAll(forEachCapture(Capture::waitForCaptureToEndAsync));
+    }
+
+    public CompletableFuture<Void> waitForCaptureToEndAsync() {
+        return allOf(forEachCapture(Capture::waitForCaptureToEndAsync));
+    }
+
+    /**
+     * Stops every capture. See {@link Capture#stop()}.
+     */
+    public void stop() {
+        awaitAll(forEachCapture(Capture::stopAsync));
+    }
+
+    public CompletableFuture<Void> stopAsync() {
+        return allOf(forEachCapture(Capture::stopAsync));
+    }
+
+    /**
+     * Saves every capture to its own .sal file.
+     *
+     * @param filePathForDevice gives the .sal file path for each device ID
+     */
+    public void save(Function<String, String> filePathForDevice) {
+        awaitAll(saveFutures(filePathForDevice));
+    }
+
+    public CompletableFuture<Void> saveAsync(Function<String, String> filePathForDevice) {
+        return allOf(saveFutures(filePathForDevice));
+    }
+
+    private List<CompletableFuture<Void>> saveFutures(Function<String, String> filePathForDevice) {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(CAPTURES.size());
+        CAPTURES.forEach((deviceID, capture) -> futures.add(capture.saveAsync(filePathForDevice.apply(deviceID))));
+        return futures;
+    }
+
+    /**
+     * Closes every capture, even if closing some of them fails.
+     */
+    @Override
+    public void close() {
+        awaitAll(forEachCapture(Capture::closeAsync));
+    }
+
+    public CompletableFuture<Void> closeAsync() {
+        return allOf(forEachCapture(Capture::closeAsync));
+    }
+
+    /**
+     * Applies the action to every capture, even if it throws for some of them.
+     */
+    private List<CompletableFuture<Void>> forEachCapture(Function<Capture, CompletableFuture<Void>> action) {
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(CAPTURES.size());
+        for (Capture capture : CAPTURES.values()) {
+            try {
+                futures.add(action.apply(capture));
+            } catch (RuntimeException e) {
+                futures.add(CompletableFuture.failedFuture(e));
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Completes after every future, exceptionally with the first failure with the others added as suppressed
+     * exceptions.
+     */
+    private static CompletableFuture<Void> allOf(List<CompletableFuture<Void>> futures) {
+        return CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).handle((ignored, throwable) -> {
+            if (throwable != null) {
+                // every future is done, so this does not block
+                awaitAll(futures);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Waits for every future, then throws the first failure with the others added as suppressed exceptions.
+     */
+    private static void awaitAll(List<CompletableFuture<Void>> futures) {
+        RuntimeException failure = null;
+        for (CompletableFuture<Void> future : futures) {
+            try {
+                future.join();
+            } catch (CompletionException | CancellationException e) {
+                final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                final RuntimeException runtimeException = cause instanceof RuntimeException r ? r : new CompletionException(cause);
+                if (failure == null) {
+                    failure = runtimeException;
+                } else {
+                    failure.addSuppressed(runtimeException);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+}
@@ -0,0 +1,340 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Runs capture jobs while making sure each physical device only runs one job at a time.
+ * <p>
+ * Every device ID has its own queue. A job starts when its device is idle and fewer than {@code maxRunningJobs} jobs
+ * are running in total. When several jobs could start, the one with the highest priority starts first, and jobs with
+ * the same priority start in the order they were submitted, no matter which device they are for.
+ * <p>
+ * A queued job is only a small object in a queue. A thread is not used until the job starts, and jobs run on virtual
+ * threads when the JVM supports them.
+ */
+public class CaptureJobScheduler implements AutoCloseable {
+
+    /**
+     * Work which uses one device, for example start a capture, wait for it to end, and export.
+     */
+    @FunctionalInterface
+    public interface Job<T> {
+        T run() throws Exception;
+    }
+
+    private final int MAX_RUNNING_JOBS;
+    private final ExecutorService EXECUTOR;
+    private final Map<String, DeviceQueue> DEVICE_QUEUES = new HashMap<>();
+
+    /**
+     * Devices which are idle and have at least one queued job.
+     */
+    private final Set<DeviceQueue> READY_DEVICES = new LinkedHashSet<>();
+
+    private long nextSequenceNumber;
+    private int runningJobs;
+    private int queuedJobs;
+    private boolean closed;
+    private Consumer<ScheduledJob<?>> listener = job -> {
+    };
+
+    /**
+     * @param maxRunningJobs maximum number of jobs running at once, across all devices
+     */
+    public CaptureJobScheduler(int maxRunningJobs) {
+        this(maxRunningJobs, VirtualThreads.newThreadPerTaskExecutor("capture-job"));
+    }
+
+    /**
+     * The scheduler takes ownership of the executor and shuts it down when the scheduler is closed.
+     *
+     * @param maxRunningJobs maximum number of jobs running at once, across all devices
+     */
+    public CaptureJobScheduler(int maxRunningJobs, ExecutorService executor) {
+        if (maxRunningJobs < 1) {
+            throw new IllegalArgumentException("maxRunningJobs must be at least 1");
+        }
+        MAX_RUNNING_JOBS = maxRunningJobs;
+        EXECUTOR = executor;
+    }
+
+    /**
+     * @param listener called on the job's thread after each job finishes, for example to record its wait and run time
+     */
+    public synchronized void setListener(Consumer<ScheduledJob<?>> listener) {
+        this.listener = listener;
+    }
+
+    public <T> ScheduledJob<T> submit(String deviceID, Job<T> job) {
+        return submit(deviceID, 0, job);
+    }
+
+    /**
+     * @param priority jobs with a higher priority start before jobs with a lower priority
+     */
+    public synchronized <T> ScheduledJob<T> submit(String deviceID, int priority, Job<T> job) {
+        if (closed) {
+            throw new RejectedExecutionException("The scheduler is closed");
+        }
+        final DeviceQueue deviceQueue = DEVICE_QUEUES.computeIfAbsent(deviceID, DeviceQueue::new);
+        final ScheduledJob<T> scheduledJob = new ScheduledJob<>(this, deviceQueue, priority, nextSequenceNumber++, job);
+        deviceQueue.QUEUE.add(scheduledJob);
+        queuedJobs++;
+        if (!deviceQueue.busy) {
+            READY_DEVICES.add(deviceQueue);
+        }
+        dispatch();
+        return scheduledJob;
+    }
+
+    /**
+     * @return number of jobs waiting for the device, not including a running job
+     */
+    public synchronized int queueDepth(String deviceID) {
+        final DeviceQueue deviceQueue = DEVICE_QUEUES.get(deviceID);
+        return deviceQueue == null ? 0 : deviceQueue.QUEUE.size();
+    }
+
+    /**
+     * @return number of jobs waiting for any device
+     */
+    public synchronized int queueDepth() {
+        return queuedJobs;
+    }
+
+    public synchronized int runningJobs() {
+        return runningJobs;
+    }
+
+    /**
+     * Start as many queued jobs as the limits allow. Must hold the lock.
+     */
+    private void dispatch() {
+        while (runningJobs < MAX_RUNNING_JOBS && !READY_DEVICES.isEmpty()) {
+            DeviceQueue best = null;
+            for (DeviceQueue deviceQueue : READY_DEVICES) {
+                if (best == null || deviceQueue.QUEUE.peek().compareTo(best.QUEUE.peek()) < 0) {
+                    best = deviceQueue;
+                }
+            }
+            READY_DEVICES.remove(best);
+            final ScheduledJob<?> job = best.QUEUE.poll();
+            queuedJobs--;
+            best.busy = true;
+            runningJobs++;
+            job.startNanos = System.nanoTime();
+            try {
+                // execute() instead of submit(), so run() and finished() still happen if the job is cancelled first
+                EXECUTOR.execute(job::run);
+            } catch (RejectedExecutionException e) {
+                job.FUTURE.completeExceptionally(e);
+                // the loop moves on to the next job, instead of finished() calling back into this method
+                release(job);
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized void finished(ScheduledJob<?> job) {
+        release(job);
+        dispatch();
+        notifyAll();
+    }
+
+    /**
+     * Free the job's device and its running slot. Must hold the lock.
+     */
+    private void release(ScheduledJob<?> job) {
+        final DeviceQueue deviceQueue = job.DEVICE_QUEUE;
+        deviceQueue.busy = false;
+        runningJobs--;
+        if (!deviceQueue.QUEUE.isEmpty()) {
+            READY_DEVICES.add(deviceQueue);
+        }
+    }
+
+    /**
+     * @return true if the job was still queued and has been removed
+     */
+    private synchronized boolean removeQueued(ScheduledJob<?> job) {
+        if (job.startNanos != 0 || !job.DEVICE_QUEUE.QUEUE.remove(job)) {
+            return false;
+        }
+        queuedJobs--;
+        if (job.DEVICE_QUEUE.QUEUE.isEmpty()) {
+            READY_DEVICES.remove(job.DEVICE_QUEUE);
+        }
+        notifyAll();
+        return true;
+    }
+
+    /**
+     * Stops accepting jobs, waits for every queued and running job to finish, then shuts down the executor.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            closed = true;
+            while (queuedJobs > 0 || runningJobs > 0) {
+                wait();
+            }
+        }
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    private static class DeviceQueue {
+        final String DEVICE_ID;
+        final PriorityQueue<ScheduledJob<?>> QUEUE = new PriorityQueue<>();
+        boolean busy;
+
+        DeviceQueue(String deviceID) {
+            DEVICE_ID = deviceID;
+        }
+    }
+
+    /**
+     * A job which was submitted to a {@link CaptureJobScheduler}.
+     */
+    public static class ScheduledJob<T> implements Comparable<ScheduledJob<?>> {
+
+        private final CaptureJobScheduler SCHEDULER;
+        private final DeviceQueue DEVICE_QUEUE;
+        private final int PRIORITY;
+        private final long SEQUENCE_NUMBER;
+        private final Job<T> JOB;
+        private final int QUEUE_DEPTH_AT_SUBMIT;
+        private final long SUBMIT_NANOS = System.nanoTime();
+        private final CompletableFuture<T> FUTURE = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                final boolean cancelled = super.cancel(mayInterruptIfRunning);
+                if (cancelled && !SCHEDULER.removeQueued(ScheduledJob.this) && mayInterruptIfRunning) {
+                    synchronized (ScheduledJob.this) {
+                        if (runner != null) {
+                            runner.interrupt();
+                        }
+                    }
+                }
+                return cancelled;
+            }
+        };
+
+        // guarded by the scheduler's lock until the job starts
+        private long startNanos;
+        // guarded by this job's lock
+        private Thread runner;
+        private volatile long endNanos;
+
+        ScheduledJob(CaptureJobScheduler scheduler, DeviceQueue deviceQueue, int priority, long sequenceNumber, Job<T> job) {
+            SCHEDULER = scheduler;
+            DEVICE_QUEUE = deviceQueue;
+            PRIORITY = priority;
+            SEQUENCE_NUMBER = sequenceNumber;
+            JOB = job;
+            QUEUE_DEPTH_AT_SUBMIT = deviceQueue.QUEUE.size();
+        }
+
+        private void run() {
+            try {
+                synchronized (this) {
+                    if (FUTURE.isDone()) {
+                        return;
+                    }
+                    runner = Thread.currentThread();
+                }
+                FUTURE.complete(JOB.run());
+            } catch (Throwable t) {
+                FUTURE.completeExceptionally(t);
+            } finally {
+                synchronized (this) {
+                    runner = null;
+                    // clear an interrupt from a cancel which arrived as the job was finishing
+                    //noinspection ResultOfMethodCallIgnored
+                    Thread.interrupted();
+                }
+                endNanos = System.nanoTime();
+                SCHEDULER.finished(this);
+                final Consumer<ScheduledJob<?>> listener;
+                synchronized (SCHEDULER) {
+                    listener = SCHEDULER.listener;
+                }
+                listener.accept(this);
+            }
+        }
+
+        /**
+         * Cancelling this future removes the job from its queue, or interrupts it if it is already running.
+         */
+        public CompletableFuture<T> future() {
+            return FUTURE;
+        }
+
+        public String deviceID() {
+            return DEVICE_QUEUE.DEVICE_ID;
+        }
+
+        public int priority() {
+            return PRIORITY;
+        }
+
+        /**
+         * @return number of jobs already waiting for the same device when this job was submitted
+         */
+        public int queueDepthAtSubmit() {
+            return QUEUE_DEPTH_AT_SUBMIT;
+        }
+
+        /**
+         * @return time from submit until the job started, or until now if it has not started
+         */
+        public Duration waitTime() {
+            final long start;
+            synchronized (SCHEDULER) {
+                start = startNanos;
+            }
+            return Duration.ofNanos((start == 0 ? System.nanoTime() : start) - SUBMIT_NANOS);
+        }
+
+        /**
+         * @return time the job spent running, or {@link Duration#ZERO} if it has not started
+         */
+        public Duration runTime() {
+            final long start;
+            synchronized (SCHEDULER) {
+                start = startNanos;
+            }
+            if (start == 0) {
+                return Duration.ZERO;
+            }
+            final long end = endNanos;
+            return Duration.ofNanos((end == 0 ? System.nanoTime() : end) - start);
+        }
+
+        @Override
+        public int compareTo(ScheduledJob<?> other) {
+            if (PRIORITY != other.PRIORITY) {
+                return PRIORITY > other.PRIORITY ? -1 : 1;
+            }
+            return Long.compare(SEQUENCE_NUMBER, other.SEQUENCE_NUMBER);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("job %d on device %s: priority %d, queue depth %d, waited %s, ran %s",
+                    SEQUENCE_NUMBER, deviceID(), PRIORITY, QUEUE_DEPTH_AT_SUBMIT, waitTime(), runTime());
+        }
+    }
+
+}
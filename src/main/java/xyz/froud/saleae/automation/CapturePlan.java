@@ -0,0 +1,421 @@
+package xyz.froud.saleae.automation;
+
+import saleae.DataTableAnalyzerConfiguration;
+import saleae.DigitalTriggerCaptureMode;
+import saleae.DigitalTriggerLinkedChannel;
+import saleae.DigitalTriggerType;
+import saleae.ExportDataTableCsvRequest;
+import saleae.ExportRawDataBinaryRequest;
+import saleae.ExportRawDataCsvRequest;
+import saleae.GlitchFilterEntry;
+import saleae.LogicChannels;
+import saleae.LogicDeviceConfiguration;
+import saleae.RadixType;
+import saleae.StartCaptureReply;
+import saleae.StartCaptureRequest;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A capture configuration, analyzers, and exports which are checked and converted to gRPC requests once, then run many
+ * times.
+ * <p>
+ * The wrapper classes like {@link Manager.DeviceConfig} are converted to protobuf messages on every call. In a loop
+ * which runs the same capture thousands of times, a plan does that work once: starting a capture sends a prebuilt
+ * request, and the analyzer and export requests are templates where only the capture ID, analyzer IDs, and output path
+ * are filled in.
+ * <pre>{@code
+ * CapturePlan plan = CapturePlan.builder(deviceID, deviceConfig, captureConfig)
+ *         .addAnalyzer("SPI", "spi", spiSettings)
+ *         .dataTableCsvExport(Map.of("spi", RadixType.RADIX_TYPE_HEXADECIMAL), false, List.of())
+ *         .build();
+ * for (int i = 0; i < 1000; i++) {
+ *     try (CapturePlan.Execution execution = plan.start(manager)) {
+ *         execution.capture().waitForCaptureToEnd();
+ *         execution.addAnalyzers();
+ *         execution.exportDataTableCsv(directory + "/table" + i + ".csv");
+ *     }
+ * }
+ * }</pre>
+ * A plan is immutable and can be started from several threads at once. Changing the wrapper objects after
+ * {@link Builder#build()} does not change the plan.
+ */
+public final class CapturePlan {
+
+    private final StartCaptureRequest START_CAPTURE_REQUEST;
+    private final AnalyzerGraph ANALYZERS;
+    private final ExportRawDataBinaryRequest RAW_DATA_BINARY_TEMPLATE;
+    private final ExportRawDataCsvRequest RAW_DATA_CSV_TEMPLATE;
+    private final ExportDataTableCsvRequest DATA_TABLE_CSV_TEMPLATE;
+
+    /**
+     * Label of each analyzer in the data table export, in the same order as the template's analyzers.
+     */
+    private final String[] DATA_TABLE_ANALYZER_LABELS;
+
+    private CapturePlan(Builder builder) {
+        START_CAPTURE_REQUEST = builder.START_CAPTURE_REQUEST;
+        ANALYZERS = builder.ANALYZERS.copy();
+        RAW_DATA_BINARY_TEMPLATE = builder.rawDataBinaryTemplate;
+        RAW_DATA_CSV_TEMPLATE = builder.rawDataCsvTemplate;
+        DATA_TABLE_CSV_TEMPLATE = builder.dataTableCsvTemplate;
+        DATA_TABLE_ANALYZER_LABELS = builder.dataTableAnalyzerLabels;
+    }
+
+    /**
+     * The wrapper objects are converted to gRPC messages immediately, so they can be reused or changed afterwards.
+     *
+     * @throws IllegalArgumentException if the device or capture configuration is not valid, for example a trigger or
+     * glitch filter on a channel which is not enabled
+     */
+    public static Builder builder(String deviceID, Manager.DeviceConfig deviceConfig, Manager.CaptureConfig captureConfig) {
+        return new Builder(deviceID, deviceConfig, captureConfig);
+    }
+
+    /**
+     * @return the StartCapture request which is sent every time the plan is started
+     */
+    public StartCaptureRequest startCaptureRequest() {
+        return START_CAPTURE_REQUEST;
+    }
+
+    /**
+     * @return labels of the plan's analyzers, in the order they are added
+     */
+    public List<String> analyzerLabels() {
+        return ANALYZERS.labels();
+    }
+
+    /**
+     * Blocks until the capture's buffer size fits in the {@link CaptureBudget} of the Logic 2 instance.
+     */
+    public Execution start(Manager manager) {
+        final int bufferSizeMegabytes = START_CAPTURE_REQUEST.getCaptureConfiguration().getBufferSizeMegabytes();
+        return manager.getCaptureBudget().admit(bufferSizeMegabytes, () -> {
+            final StartCaptureReply reply = manager.stub(RpcType.START_CAPTURE).startCapture(START_CAPTURE_REQUEST);
+            return new Execution(this, new Capture(manager, reply.getCaptureInfo(), bufferSizeMegabytes));
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #start}. Cancelling the returned future stops waiting for the budget, or cancels
+     * the StartCapture request.
+     */
+    public CompletableFuture<Execution> startAsync(Manager manager) {
+        final int bufferSizeMegabytes = START_CAPTURE_REQUEST.getCaptureConfiguration().getBufferSizeMegabytes();
+        return manager.getCaptureBudget().admitAsync(bufferSizeMegabytes, () -> FutureAdapter.toCompletableFuture(
+                manager.futureCall(RpcType.START_CAPTURE, stub -> stub.startCapture(START_CAPTURE_REQUEST)),
+                reply -> new Execution(this, new Capture(manager, reply.getCaptureInfo(), bufferSizeMegabytes))
+        ), execution -> execution.capture().closeAsync());
+    }
+
+    /**
+     * Validates the configuration and builds the requests for a {@link CapturePlan}.
+     */
+    public static class Builder {
+
+        private final StartCaptureRequest START_CAPTURE_REQUEST;
+        private final Set<Integer> DIGITAL_CHANNELS;
+        private final Set<Integer> ANALOG_CHANNELS;
+        private final AnalyzerGraph ANALYZERS = new AnalyzerGraph();
+        private ExportRawDataBinaryRequest rawDataBinaryTemplate;
+        private ExportRawDataCsvRequest rawDataCsvTemplate;
+        private ExportDataTableCsvRequest dataTableCsvTemplate;
+        private String[] dataTableAnalyzerLabels;
+
+        private Builder(String deviceID, Manager.DeviceConfig deviceConfig, Manager.CaptureConfig captureConfig) {
+            if (deviceID == null || deviceID.isEmpty()) {
+                throw new IllegalArgumentException("The device ID is required");
+            }
+            START_CAPTURE_REQUEST = Manager.startCaptureRequest(deviceID, deviceConfig, captureConfig);
+            final LogicDeviceConfiguration device = START_CAPTURE_REQUEST.getLogicDeviceConfiguration();
+            DIGITAL_CHANNELS = uniqueChannels("digital", device.getLogicChannels().getDigitalChannelsList());
+            ANALOG_CHANNELS = uniqueChannels("analog", device.getLogicChannels().getAnalogChannelsList());
+            validateDevice(device);
+            validateCapture();
+        }
+
+        private static Set<Integer> uniqueChannels(String kind, List<Integer> channels) {
+            final Set<Integer> unique = new HashSet<>();
+            for (int channel : channels) {
+                if (channel < 0) {
+                    throw new IllegalArgumentException("Negative " + kind + " channel index " + channel);
+                }
+                if (!unique.add(channel)) {
+                    throw new IllegalArgumentException("The " + kind + " channel " + channel + " is listed more than once");
+                }
+            }
+            return unique;
+        }
+
+        private void validateDevice(LogicDeviceConfiguration device) {
+            if (DIGITAL_CHANNELS.isEmpty() && ANALOG_CHANNELS.isEmpty()) {
+                throw new IllegalArgumentException("At least one digital or analog channel is required");
+            }
+            if (!DIGITAL_CHANNELS.isEmpty() && device.getDigitalSampleRate() <= 0) {
+                throw new IllegalArgumentException("The digital sample rate is required when digital channels are enabled");
+            }
+            if (!ANALOG_CHANNELS.isEmpty() && device.getAnalogSampleRate() <= 0) {
+                throw new IllegalArgumentException("The analog sample rate is required when analog channels are enabled");
+            }
+            for (GlitchFilterEntry glitchFilter : device.getGlitchFiltersList()) {
+                requireDigitalChannel("Glitch filter", glitchFilter.getChannelIndex());
+                if (!(glitchFilter.getPulseWidthSeconds() > 0)) {
+                    throw new IllegalArgumentException("The glitch filter on channel " + glitchFilter.getChannelIndex() + " needs a positive pulse width");
+                }
+            }
+        }
+
+        private void validateCapture() {
+            final saleae.CaptureConfiguration capture = START_CAPTURE_REQUEST.getCaptureConfiguration();
+            if (capture.getBufferSizeMegabytes() < 0) {
+                throw new IllegalArgumentException("The buffer size can't be negative");
+            }
+            switch (capture.getCaptureModeCase()) {
+                case TIMED_CAPTURE_MODE -> {
+                    if (!(capture.getTimedCaptureMode().getDurationSeconds() > 0)) {
+                        throw new IllegalArgumentException("The timed capture duration must be positive");
+                    }
+                }
+                case DIGITAL_CAPTURE_MODE -> {
+                    final DigitalTriggerCaptureMode trigger = capture.getDigitalCaptureMode();
+                    if (trigger.getTriggerType() == DigitalTriggerType.DIGITAL_TRIGGER_TYPE_UNSPECIFIED) {
+                        throw new IllegalArgumentException("The digital trigger type is required");
+                    }
+                    requireDigitalChannel("Trigger", trigger.getTriggerChannelIndex());
+                    if (trigger.getAfterTriggerSeconds() < 0) {
+                        throw new IllegalArgumentException("The time after the trigger can't be negative");
+                    }
+                    final boolean pulse = trigger.getTriggerType() == DigitalTriggerType.DIGITAL_TRIGGER_TYPE_PULSE_HIGH
+                            || trigger.getTriggerType() == DigitalTriggerType.DIGITAL_TRIGGER_TYPE_PULSE_LOW;
+                    if (pulse && trigger.getMinPulseWidthSeconds() > trigger.getMaxPulseWidthSeconds()) {
+                        throw new IllegalArgumentException("The minimum pulse width is greater than the maximum pulse width");
+                    }
+                    for (DigitalTriggerLinkedChannel linkedChannel : trigger.getLinkedChannelsList()) {
+                        requireDigitalChannel("Linked", linkedChannel.getChannelIndex());
+                        if (linkedChannel.getChannelIndex() == trigger.getTriggerChannelIndex()) {
+                            throw new IllegalArgumentException("The trigger channel can't also be a linked channel");
+                        }
+                    }
+                }
+                default -> {
+                }
+            }
+        }
+
+        private void requireDigitalChannel(String what, int channel) {
+            if (!DIGITAL_CHANNELS.contains(channel)) {
+                throw new IllegalArgumentException(what + " channel " + channel + " is not one of the enabled digital channels");
+            }
+        }
+
+        private void requireChannels(LogicChannels channels) {
+            for (int channel : channels.getDigitalChannelsList()) {
+                requireDigitalChannel("Export", channel);
+            }
+            for (int channel : channels.getAnalogChannelsList()) {
+                if (!ANALOG_CHANNELS.contains(channel)) {
+                    throw new IllegalArgumentException("Export channel " + channel + " is not one of the enabled analog channels");
+                }
+            }
+        }
+
+        /**
+         * See {@link Capture#addAnalyzer}. The label identifies the analyzer within the plan, so it must be unique.
+         */
+        public Builder addAnalyzer(String name, String label, Capture.AnalyzerSettings settings) {
+            ANALYZERS.addAnalyzer(name, label, settings);
+            return this;
+        }
+
+        /**
+         * See {@link Capture#addHighLevelAnalyzer}.
+         *
+         * @param inputLabel label of an analyzer added earlier to this plan
+         */
+        public Builder addHighLevelAnalyzer(
+                String extensionDirectory,
+                String name,
+                String label,
+                String inputLabel,
+                Capture.HighLevelAnalyzerSettings settings
+        ) {
+            ANALYZERS.addHighLevelAnalyzer(extensionDirectory, name, label, inputLabel, settings);
+            return this;
+        }
+
+        /**
+         * See {@link Capture#exportRawDataBinary}. The directory is given each time the export runs.
+         */
+        public Builder rawDataBinaryExport(LogicChannels channels, long analogDownsampleRatio) {
+            requireChannels(channels);
+            rawDataBinaryTemplate = ExportRawDataBinaryRequest.newBuilder()
+                    .setLogicChannels(channels)
+                    .setAnalogDownsampleRatio(analogDownsampleRatio)
+                    .build();
+            return this;
+        }
+
+        /**
+         * See {@link Capture#exportRawDataCsv}. The directory is given each time the export runs.
+         */
+        public Builder rawDataCsvExport(LogicChannels channels, long analogDownsampleRatio, boolean useISO8601Timestamps) {
+            requireChannels(channels);
+            rawDataCsvTemplate = ExportRawDataCsvRequest.newBuilder()
+                    .setLogicChannels(channels)
+                    .setAnalogDownsampleRatio(analogDownsampleRatio)
+                    .setIso8601Timestamp(useISO8601Timestamps)
+                    .build();
+            return this;
+        }
+
+        /**
+         * See {@link Capture#exportDataTableCsv}. The file path is given each time the export runs.
+         *
+         * @param analyzers map from the label of an analyzer in this plan to the radix to export it with. The analyzers
+         * are exported in the map's iteration order.
+         */
+        public Builder dataTableCsvExport(Map<String, RadixType> analyzers, boolean timestampInISO8601Format, List<String> columns) {
+            return dataTableCsvExport(analyzers, timestampInISO8601Format, columns, null);
+        }
+
+        /**
+         * @param filter null for no filter
+         * @see #dataTableCsvExport(Map, boolean, List)
+         */
+        public Builder dataTableCsvExport(
+                Map<String, RadixType> analyzers,
+                boolean timestampInISO8601Format,
+                List<String> columns,
+                Capture.DataTableFilterWrapper filter
+        ) {
+            if (analyzers.isEmpty()) {
+                throw new IllegalArgumentException("At least one analyzer is required");
+            }
+            final ExportDataTableCsvRequest.Builder template = ExportDataTableCsvRequest.newBuilder()
+                    .setIso8601Timestamp(timestampInISO8601Format)
+                    .addAllExportColumns(columns);
+            if (filter != null) {
+                template.setFilter(filter.toGRPC());
+            }
+            final String[] labels = new String[analyzers.size()];
+            int i = 0;
+            for (Map.Entry<String, RadixType> entry : new LinkedHashMap<>(analyzers).entrySet()) {
+                if (!ANALYZERS.contains(entry.getKey())) {
+                    throw new IllegalArgumentException("There is no analyzer labelled " + entry.getKey());
+                }
+                labels[i++] = entry.getKey();
+                template.addAnalyzers(DataTableAnalyzerConfiguration.newBuilder().setRadixType(entry.getValue()));
+            }
+            dataTableCsvTemplate = template.build();
+            dataTableAnalyzerLabels = labels;
+            return this;
+        }
+
+        public CapturePlan build() {
+            return new CapturePlan(this);
+        }
+    }
+
+    /**
+     * One capture started from a {@link CapturePlan}. Closing it closes the capture.
+     * <p>
+     * Not thread safe.
+     */
+    public static class Execution implements AutoCloseable {
+
+        private final CapturePlan PLAN;
+        private final Capture CAPTURE;
+
+        private AnalyzerGraph.Added analyzers;
+
+        Execution(CapturePlan plan, Capture capture) {
+            PLAN = plan;
+            CAPTURE = capture;
+        }
+
+        public Capture capture() {
+            return CAPTURE;
+        }
+
+        /**
+         * Add every analyzer in the plan. Analyzers which don't depend on each other are added at the same time, see
+         * {@link AnalyzerGraph}.
+         */
+        public void addAnalyzers() {
+            analyzers = PLAN.ANALYZERS.addTo(CAPTURE);
+        }
+
+        /**
+         * @return handle of the analyzer with the given label
+         * @throws IllegalStateException if the analyzers have not been added
+         */
+        public Capture.AnalyzerHandle analyzer(String label) {
+            requireAnalyzersAdded();
+            return analyzers.handle(label);
+        }
+
+        /**
+         * Run the plan's raw binary export.
+         */
+        public void exportRawDataBinary(String directory) {
+            if (PLAN.RAW_DATA_BINARY_TEMPLATE == null) {
+                throw new IllegalStateException("The plan has no raw binary export");
+            }
+            //noinspection ResultOfMethodCallIgnored
+            CAPTURE.MANAGER.stub(RpcType.EXPORT).exportRawDataBinary(PLAN.RAW_DATA_BINARY_TEMPLATE.toBuilder()
+                    .setCaptureId(CAPTURE.CAPTURE_ID)
+                    .setDirectory(directory)
+                    .build());
+        }
+
+        /**
+         * Run the plan's raw CSV export.
+         */
+        public void exportRawDataCsv(String directory) {
+            if (PLAN.RAW_DATA_CSV_TEMPLATE == null) {
+                throw new IllegalStateException("The plan has no raw CSV export");
+            }
+            //noinspection ResultOfMethodCallIgnored
+            CAPTURE.MANAGER.stub(RpcType.EXPORT).exportRawDataCsv(PLAN.RAW_DATA_CSV_TEMPLATE.toBuilder()
+                    .setCaptureId(CAPTURE.CAPTURE_ID)
+                    .setDirectory(directory)
+                    .build());
+        }
+
+        /**
+         * Run the plan's data table export. {@link #addAnalyzers()} must have been called.
+         */
+        public void exportDataTableCsv(String filePath) {
+            if (PLAN.DATA_TABLE_CSV_TEMPLATE == null) {
+                throw new IllegalStateException("The plan has no data table export");
+            }
+            requireAnalyzersAdded();
+            final ExportDataTableCsvRequest.Builder request = PLAN.DATA_TABLE_CSV_TEMPLATE.toBuilder()
+                    .setCaptureId(CAPTURE.CAPTURE_ID)
+                    .setFilepath(filePath);
+            for (int i = 0; i < PLAN.DATA_TABLE_ANALYZER_LABELS.length; i++) {
+                request.getAnalyzersBuilder(i).setAnalyzerId(analyzers.handle(PLAN.DATA_TABLE_ANALYZER_LABELS[i]).ANALYZER_ID);
+            }
+            //noinspection ResultOfMethodCallIgnored
+            CAPTURE.MANAGER.stub(RpcType.EXPORT).exportDataTableCsv(request.build());
+        }
+
+        private void requireAnalyzersAdded() {
+            if (analyzers == null) {
+                throw new IllegalStateException("The analyzers have not been added yet");
+            }
+        }
+
+        @Override
+        public void close() {
+            CAPTURE.close();
+        }
+    }
+
+}
@@ -0,0 +1,434 @@
+package xyz.froud.saleae.automation;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A file written by {@link Capture#exportDataTableCsv}, loaded into memory one column at a time so it can be queried
+ * many times without exporting again.
+ * <p>
+ * Export the table once with every analyzer and column and an empty query, then use {@link #filter} for each query.
+ * Start times and durations are stored as primitive arrays. The name, type, and value columns are dictionary-encoded:
+ * each distinct string is stored once, each row stores an int code, and each code has a sorted list of the rows which
+ * have it. A query looks at every distinct string once instead of every row, then uses those lists when few rows
+ * match.
+ * <p>
+ * The table is immutable once loaded, so it can be queried from several threads.
+ */
+public class ColumnarDataTable {
+
+    private final int ROW_COUNT;
+    private final boolean ISO8601_TIMESTAMPS;
+    /**
+     * Capture-relative start times, or null for ISO 8601 timestamps.
+     */
+    private final double[] START_SECONDS;
+    /**
+     * Wall clock start times, or null for capture-relative timestamps.
+     */
+    private final long[] START_EPOCH_NANOS;
+    private final double[] DURATION_SECONDS;
+    private final Column NAME;
+    private final Column TYPE;
+    private final List<String> VALUE_COLUMN_NAMES;
+    private final Column[] VALUE_COLUMNS;
+
+    /**
+     * One dictionary-encoded column.
+     */
+    private static class Column {
+        final String[] DICTIONARY;
+        final Map<String, Integer> CODE_BY_VALUE;
+        final String[] LOWER_CASE_DICTIONARY;
+        final int[] CODES;
+        /**
+         * The rows with code {@code c} are {@code ROWS[ROWS_START[c]]} up to {@code ROWS[ROWS_START[c + 1]]}.
+         */
+        final int[] ROWS_START;
+        final int[] ROWS;
+
+        Column(List<String> dictionary, Map<String, Integer> codeByValue, int[] codes) {
+            DICTIONARY = dictionary.toArray(new String[0]);
+            CODE_BY_VALUE = codeByValue;
+            LOWER_CASE_DICTIONARY = new String[DICTIONARY.length];
+            for (int i = 0; i < DICTIONARY.length; i++) {
+                LOWER_CASE_DICTIONARY[i] = DICTIONARY[i].toLowerCase(Locale.ROOT);
+            }
+            CODES = codes;
+
+            ROWS_START = new int[DICTIONARY.length + 1];
+            for (int code : codes) {
+                ROWS_START[code + 1]++;
+            }
+            for (int i = 0; i < DICTIONARY.length; i++) {
+                ROWS_START[i + 1] += ROWS_START[i];
+            }
+            ROWS = new int[codes.length];
+            final int[] next = Arrays.copyOf(ROWS_START, DICTIONARY.length);
+            for (int row = 0; row < codes.length; row++) {
+                ROWS[next[codes[row]]++] = row;
+            }
+        }
+
+        /**
+         * @param lowerCaseQuery not empty
+         * @return for each code, whether its string contains the query ignoring case
+         */
+        boolean[] codesContaining(String lowerCaseQuery) {
+            final boolean[] result = new boolean[DICTIONARY.length];
+            for (int code = 0; code < DICTIONARY.length; code++) {
+                result[code] = LOWER_CASE_DICTIONARY[code].contains(lowerCaseQuery);
+            }
+            return result;
+        }
+
+        /**
+         * @return the code of the value, or -1 if no row has it
+         */
+        int code(String value) {
+            return CODE_BY_VALUE.getOrDefault(value, -1);
+        }
+    }
+
+    /**
+     * Builds a {@link Column} while the file is read.
+     */
+    private static class ColumnBuilder {
+        final Map<String, Integer> CODE_BY_VALUE = new HashMap<>();
+        final List<String> DICTIONARY = new ArrayList<>();
+        int[] codes = new int[1024];
+
+        void add(int row, String value) {
+            Integer code = CODE_BY_VALUE.get(value);
+            if (code == null) {
+                code = DICTIONARY.size();
+                DICTIONARY.add(value);
+                CODE_BY_VALUE.put(value, code);
+            }
+            if (row == codes.length) {
+                codes = Arrays.copyOf(codes, row * 2);
+            }
+            codes[row] = code;
+        }
+
+        Column build(int rowCount) {
+            return new Column(DICTIONARY, CODE_BY_VALUE, Arrays.copyOf(codes, rowCount));
+        }
+    }
+
+    private ColumnarDataTable(ExportCsvReader.DataTable reader, boolean iso8601Timestamps) throws IOException {
+        ISO8601_TIMESTAMPS = iso8601Timestamps;
+        final String[] header = reader.header();
+        final int nameColumn = reader.columnIndex("name");
+        final int typeColumn = reader.columnIndex("type");
+        final int startTimeColumn = reader.columnIndex("start_time");
+        final int durationColumn = reader.columnIndex("duration");
+        final List<String> valueColumnNames = new ArrayList<>();
+        final List<Integer> valueColumnIndexes = new ArrayList<>();
+        for (int i = 0; i < header.length; i++) {
+            if (i != nameColumn && i != typeColumn && i != startTimeColumn && i != durationColumn) {
+                valueColumnNames.add(header[i]);
+                valueColumnIndexes.add(i);
+            }
+        }
+
+        final ColumnBuilder names = new ColumnBuilder();
+        final ColumnBuilder types = new ColumnBuilder();
+        final ColumnBuilder[] values = new ColumnBuilder[valueColumnIndexes.size()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = new ColumnBuilder();
+        }
+        double[] startSeconds = new double[1024];
+        long[] startEpochNanos = new long[1024];
+        double[] durationSeconds = new double[1024];
+
+        int row = 0;
+        while (reader.next()) {
+            if (row == durationSeconds.length) {
+                startSeconds = Arrays.copyOf(startSeconds, row * 2);
+                startEpochNanos = Arrays.copyOf(startEpochNanos, row * 2);
+                durationSeconds = Arrays.copyOf(durationSeconds, row * 2);
+            }
+            names.add(row, nameColumn < 0 ? "" : reader.columnAsString(nameColumn));
+            types.add(row, typeColumn < 0 ? "" : reader.columnAsString(typeColumn));
+            if (iso8601Timestamps) {
+                startEpochNanos[row] = reader.startEpochNanos();
+            } else {
+                startSeconds[row] = reader.startTimeSeconds();
+            }
+            durationSeconds[row] = reader.durationSeconds();
+            for (int i = 0; i < values.length; i++) {
+                values[i].add(row, reader.columnAsString(valueColumnIndexes.get(i)));
+            }
+            row++;
+        }
+
+        ROW_COUNT = row;
+        START_SECONDS = iso8601Timestamps ? null : Arrays.copyOf(startSeconds, row);
+        START_EPOCH_NANOS = iso8601Timestamps ? Arrays.copyOf(startEpochNanos, row) : null;
+        DURATION_SECONDS = Arrays.copyOf(durationSeconds, row);
+        NAME = names.build(row);
+        TYPE = types.build(row);
+        VALUE_COLUMN_NAMES = Collections.unmodifiableList(valueColumnNames);
+        VALUE_COLUMNS = new Column[values.length];
+        for (int i = 0; i < values.length; i++) {
+            VALUE_COLUMNS[i] = values[i].build(row);
+        }
+    }
+
+    /**
+     * Load a file written by {@link Capture#exportDataTableCsv}.
+     *
+     * @param iso8601Timestamps must match the {@code timestampInISO8601Format} argument used for the export
+     */
+    public static ColumnarDataTable load(Path csvFile, boolean iso8601Timestamps) throws IOException {
+        try (ExportCsvReader.DataTable reader = ExportCsvReader.openDataTable(FileChannel.open(csvFile, StandardOpenOption.READ), iso8601Timestamps)) {
+            return new ColumnarDataTable(reader, iso8601Timestamps);
+        }
+    }
+
+    public int rowCount() {
+        return ROW_COUNT;
+    }
+
+    /**
+     * @return names of the columns other than name, type, start_time, and duration, in the order of the file
+     */
+    public List<String> valueColumns() {
+        return VALUE_COLUMN_NAMES;
+    }
+
+    public String name(int row) {
+        return NAME.DICTIONARY[NAME.CODES[row]];
+    }
+
+    public String type(int row) {
+        return TYPE.DICTIONARY[TYPE.CODES[row]];
+    }
+
+    /**
+     * @return capture-relative start time in seconds, or {@link Double#NaN} for ISO 8601 timestamps
+     */
+    public double startTimeSeconds(int row) {
+        return ISO8601_TIMESTAMPS ? Double.NaN : START_SECONDS[row];
+    }
+
+    /**
+     * @return wall clock start time in nanoseconds since the epoch, or {@link Long#MIN_VALUE} for capture-relative
+     * timestamps
+     */
+    public long startEpochNanos(int row) {
+        return ISO8601_TIMESTAMPS ? START_EPOCH_NANOS[row] : Long.MIN_VALUE;
+    }
+
+    /**
+     * @return duration in seconds, or {@link Double#NaN} if there is no duration
+     */
+    public double durationSeconds(int row) {
+        return DURATION_SECONDS[row];
+    }
+
+    /**
+     * @param valueColumn index in {@link #valueColumns()}
+     * @return the value, or an empty string if the row has no value in the column
+     */
+    public String value(int row, int valueColumn) {
+        final Column column = VALUE_COLUMNS[valueColumn];
+        return column.DICTIONARY[column.CODES[row]];
+    }
+
+    /**
+     * @return every row
+     */
+    public Selection all() {
+        final int[] rows = new int[ROW_COUNT];
+        for (int i = 0; i < ROW_COUNT; i++) {
+            rows[i] = i;
+        }
+        return new Selection(rows);
+    }
+
+    /**
+     * Same as the filter of {@link Capture#exportDataTableCsv}.
+     */
+    public Selection filter(Capture.DataTableFilterWrapper filter) {
+        return filter(filter.query, filter.columns == null ? List.of() : filter.columns);
+    }
+
+    /**
+     * Find the rows where any of the columns contains the query, ignoring case, like the search box of the Logic 2
+     * data table.
+     *
+     * @param queryColumns names of the columns to search, or empty to search the name, type, and every value column
+     */
+    public Selection filter(String query, List<String> queryColumns) {
+        return new Selection(search(null, query, queryColumns));
+    }
+
+    /**
+     * Find the rows where a column is exactly equal to a value, using the list of rows stored for each value.
+     *
+     * @param columnName "name", "type", or one of {@link #valueColumns()}
+     */
+    public Selection whereEquals(String columnName, String value) {
+        final Column column = column(columnName);
+        final int code = column.code(value);
+        if (code < 0) {
+            return new Selection(new int[0]);
+        }
+        return new Selection(Arrays.copyOfRange(column.ROWS, column.ROWS_START[code], column.ROWS_START[code + 1]));
+    }
+
+    private Column column(String columnName) {
+        if (columnName.equals("name")) {
+            return NAME;
+        } else if (columnName.equals("type")) {
+            return TYPE;
+        }
+        final int index = VALUE_COLUMN_NAMES.indexOf(columnName);
+        if (index < 0) {
+            throw new IllegalArgumentException("No such column: " + columnName);
+        }
+        return VALUE_COLUMNS[index];
+    }
+
+    /**
+     * @param candidates rows to look at in increasing order, or null for every row
+     * @return rows which match, in increasing order
+     */
+    private int[] search(int[] candidates, String query, List<String> queryColumns) {
+        final String lowerCaseQuery = query == null ? "" : query.toLowerCase(Locale.ROOT);
+        if (lowerCaseQuery.isEmpty()) {
+            return candidates == null ? all().ROWS : candidates;
+        }
+
+        final List<Column> columns = new ArrayList<>();
+        if (queryColumns.isEmpty() || queryColumns.contains("name")) {
+            columns.add(NAME);
+        }
+        if (queryColumns.isEmpty() || queryColumns.contains("type")) {
+            columns.add(TYPE);
+        }
+        for (int i = 0; i < VALUE_COLUMNS.length; i++) {
+            if (queryColumns.isEmpty() || queryColumns.contains(VALUE_COLUMN_NAMES.get(i))) {
+                columns.add(VALUE_COLUMNS[i]);
+            }
+        }
+        final boolean[][] matchingCodes = new boolean[columns.size()][];
+        long matchingRowCount = 0;
+        for (int i = 0; i < columns.size(); i++) {
+            final Column column = columns.get(i);
+            matchingCodes[i] = column.codesContaining(lowerCaseQuery);
+            for (int code = 0; code < matchingCodes[i].length; code++) {
+                if (matchingCodes[i][code]) {
+                    matchingRowCount += column.ROWS_START[code + 1] - column.ROWS_START[code];
+                }
+            }
+        }
+
+        if (candidates == null && matchingRowCount < ROW_COUNT / 16) {
+            // few matches, so mark the rows in the lists of the matching codes
+            final long[] bits = new long[(ROW_COUNT + 63) >>> 6];
+            for (int i = 0; i < columns.size(); i++) {
+                final Column column = columns.get(i);
+                for (int code = 0; code < matchingCodes[i].length; code++) {
+                    if (matchingCodes[i][code]) {
+                        for (int j = column.ROWS_START[code]; j < column.ROWS_START[code + 1]; j++) {
+                            bits[column.ROWS[j] >>> 6] |= 1L << column.ROWS[j];
+                        }
+                    }
+                }
+            }
+            int count = 0;
+            for (long word : bits) {
+                count += Long.bitCount(word);
+            }
+            final int[] result = new int[count];
+            int next = 0;
+            for (int word = 0; word < bits.length; word++) {
+                for (long remaining = bits[word]; remaining != 0; remaining &= remaining - 1) {
+                    result[next++] = (word << 6) + Long.numberOfTrailingZeros(remaining);
+                }
+            }
+            return result;
+        }
+
+        final int candidateCount = candidates == null ? ROW_COUNT : candidates.length;
+        final int[] result = new int[candidateCount];
+        int count = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            final int row = candidates == null ? i : candidates[i];
+            for (int c = 0; c < matchingCodes.length; c++) {
+                if (matchingCodes[c][columns.get(c).CODES[row]]) {
+                    result[count++] = row;
+                    break;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Rows of the table, in the order of the file. Use the accessors of {@link ColumnarDataTable} with
+     * {@link #row(int)}.
+     */
+    public class Selection {
+        private final int[] ROWS;
+
+        private Selection(int[] rows) {
+            ROWS = rows;
+        }
+
+        public int size() {
+            return ROWS.length;
+        }
+
+        /**
+         * @return row index in the table
+         */
+        public int row(int index) {
+            return ROWS[index];
+        }
+
+        /**
+         * @return a copy of the row indexes
+         */
+        public int[] rows() {
+            return ROWS.clone();
+        }
+
+        /**
+         * @return the rows of this selection which also match the query
+         * @see ColumnarDataTable#filter(String, List)
+         */
+        public Selection filter(String query, List<String> queryColumns) {
+            return new Selection(search(ROWS, query, queryColumns));
+        }
+
+        /**
+         * @return the rows of this selection where the column is exactly equal to the value
+         */
+        public Selection whereEquals(String columnName, String value) {
+            final Column column = column(columnName);
+            final int code = column.code(value);
+            final int[] result = new int[ROWS.length];
+            int count = 0;
+            for (int row : ROWS) {
+                if (column.CODES[row] == code) {
+                    result[count++] = row;
+                }
+            }
+            return new Selection(Arrays.copyOf(result, count));
+        }
+    }
+
+}
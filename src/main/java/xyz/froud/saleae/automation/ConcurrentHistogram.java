@@ -0,0 +1,121 @@
+package xyz.froud.saleae.automation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative long values, like latencies in nanoseconds or sizes in bytes, which many threads can record
+ * to without locking.
+ * <p>
+ * The buckets are log-linear: each power of two is split into {@value #SUB_BUCKET_COUNT} equal buckets, so a percentile
+ * is at most about 6% above the true value. Recording is one bucket calculation and a few atomic increments, and the
+ * memory used does not depend on how many values are recorded.
+ */
+public final class ConcurrentHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray COUNTS = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder SUM = new LongAdder();
+    private final AtomicLong MAX = new AtomicLong();
+
+    /**
+     * @param value negative values are recorded as zero
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        COUNTS.incrementAndGet(bucketIndex(value));
+        SUM.add(value);
+        long max = MAX.get();
+        while (value > max && !MAX.compareAndSet(max, value)) {
+            max = MAX.get();
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return the largest value which goes in the bucket
+     */
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lowerBound = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        return lowerBound + (1L << shift) - 1;
+    }
+
+    /**
+     * The snapshot is not atomic: values recorded while it is being taken may be partly included.
+     */
+    public Snapshot snapshot() {
+        final long[] counts = new long[BUCKET_COUNT];
+        // counted from the copied buckets, so the percentiles agree with the count
+        long count = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = COUNTS.get(i);
+            count += counts[i];
+        }
+        return new Snapshot(counts, count, SUM.sum(), MAX.get());
+    }
+
+    /**
+     * Copy of a {@link ConcurrentHistogram} at one point in time.
+     */
+    public static class Snapshot {
+        private final long[] COUNTS;
+        public final long COUNT;
+        public final long SUM;
+        public final long MAX;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            COUNTS = counts;
+            COUNT = count;
+            SUM = sum;
+            MAX = max;
+        }
+
+        /**
+         * @param quantile between 0 and 1, for example 0.99 for the 99th percentile
+         * @return the upper bound of the bucket holding the value at the quantile, or 0 if nothing was recorded
+         */
+        public long percentile(double quantile) {
+            if (COUNT == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * COUNT));
+            long seen = 0;
+            for (int i = 0; i < COUNTS.length; i++) {
+                seen += COUNTS[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), MAX);
+                }
+            }
+            return MAX;
+        }
+
+        public double mean() {
+            return COUNT == 0 ? 0 : (double) SUM / COUNT;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0f p50=%d p99=%d p999=%d max=%d",
+                    COUNT, mean(), percentile(0.5), percentile(0.99), percentile(0.999), MAX);
+        }
+    }
+
+}
@@ -0,0 +1,181 @@
+package xyz.froud.saleae.automation;
+
+import saleae.Device;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Device lists returned by GetDevices, shared by every {@link Manager} connected to the same endpoint, so a process
+ * which opens a Manager per job only asks the Logic 2 software for its devices once per {@link #timeToLive}.
+ * <p>
+ * A list older than {@link #refreshAfter} is still returned, and is replaced in the background by a new one fetched
+ * through the Manager which asked for it. A list older than {@link #timeToLive} is not returned; the caller waits for a
+ * new one. Concurrent callers share one GetDevices call, and if the Manager making it is closed before it finishes,
+ * the callers whose Manager is still open make another one.
+ * <p>
+ * The public fields may be changed at any time.
+ */
+public class DeviceListCache {
+
+    private static final ConcurrentHashMap<String, DeviceListCache> BY_ENDPOINT = new ConcurrentHashMap<>();
+
+    /**
+     * Age after which a cached list is refreshed in the background.
+     */
+    public volatile Duration refreshAfter = Duration.ofSeconds(10);
+
+    /**
+     * Age after which a cached list is no longer returned.
+     */
+    public volatile Duration timeToLive = Duration.ofSeconds(60);
+
+    private final String ENDPOINT;
+
+    private final Slot WITH_SIMULATION_DEVICES = new Slot();
+
+    private final Slot WITHOUT_SIMULATION_DEVICES = new Slot();
+
+    private DeviceListCache(String endpoint) {
+        ENDPOINT = endpoint;
+    }
+
+    /**
+     * @param endpoint the authority of the channel, usually host:port
+     */
+    public static DeviceListCache forEndpoint(String endpoint) {
+        return BY_ENDPOINT.computeIfAbsent(endpoint, DeviceListCache::new);
+    }
+
+    public String endpoint() {
+        return ENDPOINT;
+    }
+
+    /**
+     * Get the cached list, or fetch it through the given Manager if there is none or it has expired.
+     *
+     * @param includeSimulationDevices whether to include devices which are simulated inside Logic2.
+     */
+    public List<Device> get(Manager manager, boolean includeSimulationDevices) {
+        final CompletableFuture<List<Device>> future = getAsync(manager, includeSimulationDevices);
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Asynchronous version of {@link #get(Manager, boolean)}. The returned future is already complete if the cached
+     * list has not expired.
+     */
+    public CompletableFuture<List<Device>> getAsync(Manager manager, boolean includeSimulationDevices) {
+        final Slot slot = slot(includeSimulationDevices);
+        final Entry entry = slot.ENTRY.get();
+        if (entry != null) {
+            final long ageNanos = System.nanoTime() - entry.FETCHED_NANOS;
+            if (ageNanos < timeToLive.toNanos()) {
+                if (ageNanos >= refreshAfter.toNanos()) {
+                    refresh(manager, slot, includeSimulationDevices);
+                }
+                return CompletableFuture.completedFuture(entry.DEVICES);
+            }
+        }
+        return refresh(manager, slot, includeSimulationDevices).copy();
+    }
+
+    /**
+     * Forget the cached lists, for example after a device was connected or disconnected.
+     */
+    public void invalidate() {
+        WITH_SIMULATION_DEVICES.ENTRY.set(null);
+        WITHOUT_SIMULATION_DEVICES.ENTRY.set(null);
+    }
+
+    private Slot slot(boolean includeSimulationDevices) {
+        return includeSimulationDevices ? WITH_SIMULATION_DEVICES : WITHOUT_SIMULATION_DEVICES;
+    }
+
+    private static CompletableFuture<List<Device>> refresh(Manager manager, Slot slot, boolean includeSimulationDevices) {
+        while (true) {
+            final InFlight inFlight = slot.IN_FLIGHT.get();
+            if (inFlight != null) {
+                if (inFlight.MANAGER == manager) {
+                    return inFlight.DEVICES;
+                }
+                return inFlight.DEVICES.exceptionallyCompose(error ->
+                        inFlight.MANAGER.isClosed() && !manager.isClosed()
+                                ? refresh(manager, slot, includeSimulationDevices)
+                                : CompletableFuture.failedFuture(error)
+                );
+            }
+            final InFlight created = new InFlight(manager);
+            if (slot.IN_FLIGHT.compareAndSet(null, created)) {
+                final CompletableFuture<List<Device>> call;
+                try {
+                    call = manager.getDevicesAsync(includeSimulationDevices);
+                } catch (RuntimeException e) {
+                    slot.IN_FLIGHT.set(null);
+                    created.DEVICES.completeExceptionally(e);
+                    return created.DEVICES;
+                }
+                call.whenComplete((devices, error) -> {
+                    if (error == null) {
+                        slot.ENTRY.set(new Entry(devices, System.nanoTime()));
+                    }
+                    slot.IN_FLIGHT.set(null);
+                    if (error == null) {
+                        created.DEVICES.complete(devices);
+                    } else {
+                        created.DEVICES.completeExceptionally(error);
+                    }
+                });
+                return created.DEVICES;
+            }
+        }
+    }
+
+    private static class Slot {
+
+        private final AtomicReference<Entry> ENTRY = new AtomicReference<>();
+
+        private final AtomicReference<InFlight> IN_FLIGHT = new AtomicReference<>();
+
+    }
+
+    /**
+     * A GetDevices call, and the Manager it was made through.
+     */
+    private static class InFlight {
+
+        private final Manager MANAGER;
+
+        private final CompletableFuture<List<Device>> DEVICES = new CompletableFuture<>();
+
+        private InFlight(Manager manager) {
+            MANAGER = manager;
+        }
+
+    }
+
+    private static class Entry {
+
+        private final List<Device> DEVICES;
+
+        private final long FETCHED_NANOS;
+
+        private Entry(List<Device> devices, long fetchedNanos) {
+            DEVICES = devices;
+            FETCHED_NANOS = fetchedNanos;
+        }
+
+    }
+
+}
@@ -0,0 +1,143 @@
+package xyz.froud.saleae.automation;
+
+import xyz.froud.saleae.automation.RawBinaryReader.DigitalChannel;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Answers time-based questions about one digital channel from a binary export in logarithmic time.
+ * <p>
+ * The transition times stay in the memory-mapped file from {@link RawBinaryReader}. This class adds a sparse summary
+ * holding the first transition time of every block of {@value #BLOCK_SIZE} transitions, stored in a direct buffer
+ * outside the Java heap. A lookup binary-searches the summary, then binary-searches inside one block, so only a couple
+ * of pages of the mapped file are touched.
+ */
+public class DigitalTransitionIndex {
+
+    static final int BLOCK_SIZE = 1024;
+
+    private final DigitalChannel CHANNEL;
+    private final DoubleBuffer BLOCK_FIRST_TIMES;
+    private final int BLOCK_COUNT;
+
+    public DigitalTransitionIndex(DigitalChannel channel) {
+        CHANNEL = channel;
+
+        final long blockCount = (channel.TRANSITION_COUNT + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        if (blockCount > Integer.MAX_VALUE / Double.BYTES) {
+            throw new IllegalArgumentException("Too many transitions: " + channel.TRANSITION_COUNT);
+        }
+        BLOCK_COUNT = (int) blockCount;
+        BLOCK_FIRST_TIMES = ByteBuffer.allocateDirect(BLOCK_COUNT * Double.BYTES)
+                .order(ByteOrder.nativeOrder())
+                .asDoubleBuffer();
+        for (int block = 0; block < BLOCK_COUNT; block++) {
+            BLOCK_FIRST_TIMES.put(block, channel.transitionTime((long) block * BLOCK_SIZE));
+        }
+    }
+
+    /**
+     * Memory-maps and indexes every digital_N.bin file in a directory written by {@link Capture#exportRawDataBinary}.
+     *
+     * @return map from channel index to index
+     */
+    public static SortedMap<Integer, DigitalTransitionIndex> forDirectory(Path directory) throws IOException {
+        final SortedMap<Integer, DigitalTransitionIndex> result = new TreeMap<>();
+        for (Map.Entry<Integer, DigitalChannel> entry : RawBinaryReader.mapDigitalDirectory(directory).entrySet()) {
+            result.put(entry.getKey(), new DigitalTransitionIndex(entry.getValue()));
+        }
+        return result;
+    }
+
+    public DigitalChannel channel() {
+        return CHANNEL;
+    }
+
+    /**
+     * @return 0 or 1, the state of the channel at the given time. A transition exactly at {@code timeSeconds} has
+     * already happened.
+     */
+    public int stateAt(double timeSeconds) {
+        return CHANNEL.INITIAL_STATE ^ (int) (countAtOrBefore(timeSeconds) & 1);
+    }
+
+    /**
+     * @return number of transitions with {@code startSeconds <= time < endSeconds}
+     */
+    public long edgesBetween(double startSeconds, double endSeconds) {
+        if (endSeconds <= startSeconds) {
+            return 0;
+        }
+        return countBefore(endSeconds) - countBefore(startSeconds);
+    }
+
+    /**
+     * @return time of the first transition strictly after {@code timeSeconds}, or {@link Double#NaN} if there is none
+     */
+    public double nextEdgeAfter(double timeSeconds) {
+        final long index = countAtOrBefore(timeSeconds);
+        return index < CHANNEL.TRANSITION_COUNT ? CHANNEL.transitionTime(index) : Double.NaN;
+    }
+
+    /**
+     * @return number of transitions with {@code time <= timeSeconds}, which is also the index of the first transition
+     * after {@code timeSeconds}
+     */
+    public long countAtOrBefore(double timeSeconds) {
+        return search(timeSeconds, true);
+    }
+
+    /**
+     * @return number of transitions with {@code time < timeSeconds}, which is also the index of the first transition
+     * at or after {@code timeSeconds}
+     */
+    public long countBefore(double timeSeconds) {
+        return search(timeSeconds, false);
+    }
+
+    /**
+     * @return index of the first transition whose time is greater than (or, if not inclusive, greater than or equal
+     * to) the given time
+     */
+    private long search(double timeSeconds, boolean inclusive) {
+        // find the first block which starts after the time
+        int lowBlock = 0;
+        int highBlock = BLOCK_COUNT;
+        while (lowBlock < highBlock) {
+            final int middle = (lowBlock + highBlock) >>> 1;
+            if (isBeforeOrAt(BLOCK_FIRST_TIMES.get(middle), timeSeconds, inclusive)) {
+                lowBlock = middle + 1;
+            } else {
+                highBlock = middle;
+            }
+        }
+        if (lowBlock == 0) {
+            return 0;
+        }
+
+        // the answer is inside the block before that one
+        long low = (long) (lowBlock - 1) * BLOCK_SIZE + 1;
+        long high = Math.min((long) lowBlock * BLOCK_SIZE, CHANNEL.TRANSITION_COUNT);
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (isBeforeOrAt(CHANNEL.transitionTime(middle), timeSeconds, inclusive)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static boolean isBeforeOrAt(double transitionTime, double timeSeconds, boolean inclusive) {
+        return inclusive ? transitionTime <= timeSeconds : transitionTime < timeSeconds;
+    }
+
+}
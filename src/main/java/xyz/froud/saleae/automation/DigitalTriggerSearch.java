@@ -0,0 +1,349 @@
+package xyz.froud.saleae.automation;
+
+import saleae.DigitalTriggerLinkedChannelState;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.Consumer;
+
+/**
+ * Finds every place in a binary export where a {@link Manager.CaptureConfigDigitalTrigger} would have triggered, so one
+ * long capture can be searched instead of re-arming a trigger capture many times.
+ * <p>
+ * The {@link Manager.GlitchFilter}s are applied while reading the transitions: a transition is kept only if the channel
+ * then stays in the new state for at least the pulse width, so shorter pulses disappear. The transitions are read from
+ * the memory-mapped files in one pass, so the export can be longer than the Java heap.
+ * <p>
+ * The trigger and linked channel conditions are the same as in Logic 2:
+ * <ul>
+ *     <li>For an edge trigger, each linked channel must be in its state at the time of the trigger edge.</li>
+ *     <li>For a pulse trigger, the pulse width must be between the minimum and maximum, and each linked channel must
+ *     be in its state for the whole pulse. A maximum of zero means there is no maximum.</li>
+ * </ul>
+ * {@link #findAllParallel()} splits the export into time chunks which are searched on a {@link ForkJoinPool}. The
+ * glitch-filtered state at the start of a chunk is worked out by looking back from it, so the matches are the same as
+ * from {@link #findAll()}.
+ */
+public class DigitalTriggerSearch {
+
+    /**
+     * Chunks with fewer transitions on the trigger channel than this are not split further.
+     */
+    static final long DEFAULT_MIN_CHUNK_TRANSITIONS = 1 << 16;
+
+    public static class Match {
+        /**
+         * Time of the edge which met the trigger condition: the trigger edge, or the end of the pulse.
+         */
+        public final double TIME;
+        /**
+         * Start of the pulse, or the same as {@link #TIME} for an edge trigger.
+         */
+        public final double START_TIME;
+
+        Match(double time, double startTime) {
+            TIME = time;
+            START_TIME = startTime;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%.9f-%.9f", START_TIME, TIME);
+        }
+    }
+
+    private final DigitalTransitionIndex TRIGGER_CHANNEL;
+    private final double TRIGGER_GLITCH_SECONDS;
+    private final boolean IS_PULSE;
+    /**
+     * State after the trigger edge, or the state during the pulse.
+     */
+    private final int TRIGGER_STATE;
+    private final double MIN_PULSE_WIDTH_SECONDS;
+    private final double MAX_PULSE_WIDTH_SECONDS;
+
+    private final DigitalTransitionIndex[] LINKED_CHANNELS;
+    private final double[] LINKED_GLITCH_SECONDS;
+    private final int[] LINKED_STATES;
+
+    /**
+     * @param glitchFilters for example {@link Manager.DeviceConfig#glitchFilters}
+     * @param channels      map from channel index to channel, see {@link DigitalTransitionIndex#forDirectory}
+     */
+    public DigitalTriggerSearch(Manager.CaptureConfigDigitalTrigger trigger, List<Manager.GlitchFilter> glitchFilters, Map<Integer, DigitalTransitionIndex> channels) {
+        final Map<Integer, Double> glitchSeconds = new HashMap<>();
+        for (Manager.GlitchFilter glitchFilter : glitchFilters) {
+            glitchSeconds.put(glitchFilter.channelIndex, glitchFilter.pulseWidthSeconds);
+        }
+
+        TRIGGER_CHANNEL = channel(channels, trigger.triggerChannelIndex);
+        TRIGGER_GLITCH_SECONDS = glitchSeconds.getOrDefault(trigger.triggerChannelIndex, 0.0);
+        if (trigger.digitalTriggerType == null) {
+            throw new IllegalArgumentException("digitalTriggerType is required");
+        }
+        switch (trigger.digitalTriggerType) {
+            case DIGITAL_TRIGGER_TYPE_RISING -> {
+                IS_PULSE = false;
+                TRIGGER_STATE = 1;
+            }
+            case DIGITAL_TRIGGER_TYPE_FALLING -> {
+                IS_PULSE = false;
+                TRIGGER_STATE = 0;
+            }
+            case DIGITAL_TRIGGER_TYPE_PULSE_HIGH -> {
+                IS_PULSE = true;
+                TRIGGER_STATE = 1;
+            }
+            case DIGITAL_TRIGGER_TYPE_PULSE_LOW -> {
+                IS_PULSE = true;
+                TRIGGER_STATE = 0;
+            }
+            default -> throw new IllegalArgumentException("Unsupported trigger type: " + trigger.digitalTriggerType);
+        }
+        if (IS_PULSE && (trigger.minPulseWidthSeconds < 0 || (trigger.maxPulseWidthSeconds > 0 && trigger.maxPulseWidthSeconds < trigger.minPulseWidthSeconds))) {
+            throw new IllegalArgumentException("Invalid pulse width range");
+        }
+        MIN_PULSE_WIDTH_SECONDS = trigger.minPulseWidthSeconds;
+        MAX_PULSE_WIDTH_SECONDS = trigger.maxPulseWidthSeconds > 0 ? trigger.maxPulseWidthSeconds : Double.POSITIVE_INFINITY;
+
+        final int linkedCount = trigger.linkedChannels.size();
+        LINKED_CHANNELS = new DigitalTransitionIndex[linkedCount];
+        LINKED_GLITCH_SECONDS = new double[linkedCount];
+        LINKED_STATES = new int[linkedCount];
+        for (int i = 0; i < linkedCount; i++) {
+            final Manager.CaptureConfigDigitalTrigger.LinkedChannel linked = trigger.linkedChannels.get(i);
+            LINKED_CHANNELS[i] = channel(channels, linked.channelIndex);
+            LINKED_GLITCH_SECONDS[i] = glitchSeconds.getOrDefault(linked.channelIndex, 0.0);
+            if (linked.state == DigitalTriggerLinkedChannelState.DIGITAL_TRIGGER_LINKED_CHANNEL_STATE_HIGH) {
+                LINKED_STATES[i] = 1;
+            } else if (linked.state == DigitalTriggerLinkedChannelState.DIGITAL_TRIGGER_LINKED_CHANNEL_STATE_LOW) {
+                LINKED_STATES[i] = 0;
+            } else {
+                throw new IllegalArgumentException("Unsupported state for linked channel " + linked.channelIndex + ": " + linked.state);
+            }
+        }
+    }
+
+    private static DigitalTransitionIndex channel(Map<Integer, DigitalTransitionIndex> channels, int channelIndex) {
+        final DigitalTransitionIndex channel = channels.get(channelIndex);
+        if (channel == null) {
+            throw new IllegalArgumentException("Channel " + channelIndex + " is not in the export");
+        }
+        return channel;
+    }
+
+    /**
+     * Search the whole export on this thread, without keeping the matches.
+     */
+    public void forEachMatch(Consumer<Match> consumer) {
+        search(TRIGGER_CHANNEL.channel().BEGIN_TIME, Double.POSITIVE_INFINITY, consumer);
+    }
+
+    /**
+     * Search the whole export on this thread.
+     */
+    public List<Match> findAll() {
+        final List<Match> matches = new ArrayList<>();
+        forEachMatch(matches::add);
+        return matches;
+    }
+
+    /**
+     * Search the whole export in parallel on the common {@link ForkJoinPool}.
+     */
+    public List<Match> findAllParallel() {
+        return findAllParallel(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_TRANSITIONS);
+    }
+
+    /**
+     * @param minChunkTransitions chunks with fewer transitions than this on the trigger channel are searched without
+     *                            being split further
+     */
+    public List<Match> findAllParallel(ForkJoinPool pool, long minChunkTransitions) {
+        return pool.invoke(new SearchTask(TRIGGER_CHANNEL.channel().BEGIN_TIME, Double.POSITIVE_INFINITY, minChunkTransitions));
+    }
+
+    private class SearchTask extends RecursiveTask<List<Match>> {
+        final double FROM;
+        final double TO;
+        final long MIN_CHUNK_TRANSITIONS;
+
+        SearchTask(double from, double to, long minChunkTransitions) {
+            FROM = from;
+            TO = to;
+            MIN_CHUNK_TRANSITIONS = minChunkTransitions;
+        }
+
+        @Override
+        protected List<Match> compute() {
+            final long first = TRIGGER_CHANNEL.countBefore(FROM);
+            final long end = TO == Double.POSITIVE_INFINITY ? TRIGGER_CHANNEL.channel().TRANSITION_COUNT : TRIGGER_CHANNEL.countBefore(TO);
+            if (end - first >= 2 * MIN_CHUNK_TRANSITIONS) {
+                // any time works as a split point
+                final double split = TRIGGER_CHANNEL.channel().transitionTime((first + end) >>> 1);
+                if (split > FROM && split < TO) {
+                    final SearchTask left = new SearchTask(FROM, split, MIN_CHUNK_TRANSITIONS);
+                    left.fork();
+                    final List<Match> right = new SearchTask(split, TO, MIN_CHUNK_TRANSITIONS).compute();
+                    final List<Match> matches = left.join();
+                    matches.addAll(right);
+                    return matches;
+                }
+            }
+            final List<Match> matches = new ArrayList<>();
+            search(FROM, TO, matches::add);
+            return matches;
+        }
+    }
+
+    /**
+     * Find the matches whose {@link Match#TIME} is at or after {@code fromSeconds} and before {@code toSeconds}.
+     */
+    private void search(double fromSeconds, double toSeconds, Consumer<Match> consumer) {
+        final GlitchFilterCursor trigger = new GlitchFilterCursor(TRIGGER_CHANNEL, TRIGGER_GLITCH_SECONDS, fromSeconds);
+        // a pulse which ends in this chunk can start before it
+        final double linkedFrom = IS_PULSE && !Double.isNaN(trigger.time) ? Math.min(fromSeconds, trigger.time) : fromSeconds;
+        final GlitchFilterCursor[] linked = new GlitchFilterCursor[LINKED_CHANNELS.length];
+        for (int i = 0; i < linked.length; i++) {
+            linked[i] = new GlitchFilterCursor(LINKED_CHANNELS[i], LINKED_GLITCH_SECONDS[i], linkedFrom);
+        }
+
+        while (trigger.nextTime < toSeconds) {
+            final double previousTime = trigger.time;
+            trigger.consume();
+            final double time = trigger.time;
+            if (!IS_PULSE) {
+                if (trigger.state == TRIGGER_STATE && linkedMatch(linked, time, time)) {
+                    consumer.accept(new Match(time, time));
+                }
+            } else if (trigger.state != TRIGGER_STATE && !Double.isNaN(previousTime)) {
+                final double width = time - previousTime;
+                if (width >= MIN_PULSE_WIDTH_SECONDS && width <= MAX_PULSE_WIDTH_SECONDS && linkedMatch(linked, previousTime, time)) {
+                    consumer.accept(new Match(time, previousTime));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if every linked channel is in its state at {@code startSeconds} and does not change before
+     * {@code endSeconds}
+     */
+    private boolean linkedMatch(GlitchFilterCursor[] linked, double startSeconds, double endSeconds) {
+        for (int i = 0; i < linked.length; i++) {
+            if (linked[i].stateAt(startSeconds) != LINKED_STATES[i] || linked[i].nextTime < endSeconds) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the glitch-filtered transitions of one channel in order.
+     * <p>
+     * A raw transition is kept if it changes the filtered state and the next raw transition, or the end of the
+     * channel, is at least the pulse width later. So the filtered state after a stable stretch is always the raw state,
+     * which lets a cursor start anywhere by looking back for the last stable stretch.
+     */
+    static class GlitchFilterCursor {
+        private final RawBinaryReader.DigitalChannel CHANNEL;
+        private final double WIDTH_SECONDS;
+
+        /**
+         * Index of the next raw transition to look at.
+         */
+        private long rawIndex;
+        /**
+         * Filtered state after the transition at {@link #nextTime}.
+         */
+        private int nextState;
+
+        /**
+         * Filtered state after the transitions which have been consumed.
+         */
+        int state;
+        /**
+         * Time of the last filtered transition which has been consumed, or NaN if there is none.
+         */
+        double time = Double.NaN;
+        /**
+         * Time of the next filtered transition, or infinity if there is none.
+         */
+        double nextTime;
+
+        GlitchFilterCursor(DigitalTransitionIndex index, double widthSeconds, double fromSeconds) {
+            CHANNEL = index.channel();
+            WIDTH_SECONDS = widthSeconds;
+            rawIndex = index.countBefore(fromSeconds);
+
+            state = CHANNEL.INITIAL_STATE;
+            final long stable = stableBefore(rawIndex);
+            if (stable >= 0) {
+                state = CHANNEL.stateAfterTransition(stable);
+                // the kept transition is the first stable one since the last stable one with the other state
+                long kept = stable;
+                long earlier = stableBefore(stable);
+                while (earlier >= 0 && CHANNEL.stateAfterTransition(earlier) == state) {
+                    kept = earlier;
+                    earlier = stableBefore(earlier);
+                }
+                if (earlier >= 0 || state != CHANNEL.INITIAL_STATE) {
+                    time = CHANNEL.transitionTime(kept);
+                }
+            }
+            nextState = state;
+            findNext();
+        }
+
+        private boolean isStable(long rawTransition) {
+            final double next = rawTransition + 1 < CHANNEL.TRANSITION_COUNT ? CHANNEL.transitionTime(rawTransition + 1) : CHANNEL.END_TIME;
+            return next - CHANNEL.transitionTime(rawTransition) >= WIDTH_SECONDS;
+        }
+
+        /**
+         * @return index of the last stable raw transition before the given index, or -1 if there is none
+         */
+        private long stableBefore(long rawTransition) {
+            for (long i = rawTransition - 1; i >= 0; i--) {
+                if (isStable(i)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        private void findNext() {
+            while (rawIndex < CHANNEL.TRANSITION_COUNT) {
+                final long i = rawIndex++;
+                if (CHANNEL.stateAfterTransition(i) != nextState && isStable(i)) {
+                    nextState ^= 1;
+                    nextTime = CHANNEL.transitionTime(i);
+                    return;
+                }
+            }
+            nextTime = Double.POSITIVE_INFINITY;
+        }
+
+        void consume() {
+            time = nextTime;
+            state = nextState;
+            findNext();
+        }
+
+        /**
+         * @return the filtered state, where a transition exactly at the time has already happened. The time must not
+         * decrease between calls.
+         */
+        int stateAt(double seconds) {
+            while (nextTime <= seconds) {
+                consume();
+            }
+            return state;
+        }
+    }
+
+}
@@ -0,0 +1,768 @@
+package xyz.froud.saleae.automation;
+
+import saleae.RadixType;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Streaming parser for the CSV files written by {@link Capture#exportRawDataCsv} and
+ * {@link Capture#exportDataTableCsv}.
+ * <p>
+ * Bytes are read from a {@link ReadableByteChannel} into one reusable buffer and decoded straight into a reusable
+ * row object, so no objects are allocated per row or per cell. The row object is overwritten by every call to
+ * {@link #next()}.
+ * <pre>{@code
+ * try (ExportCsvReader.Digital reader = ExportCsvReader.openDigital(Files.newByteChannel(path), false)) {
+ *     ExportCsvReader.DigitalRow row = reader.row();
+ *     while (reader.next()) {
+ *         if (row.state(3) == 1) { ... row.timeSeconds ... }
+ *     }
+ * }
+ * }</pre>
+ */
+public abstract class ExportCsvReader implements AutoCloseable {
+
+    private static final int DEFAULT_BUFFER_BYTES = 1 << 20;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_SIGNIFICAND = 1L << 53;
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    /**
+     * Bytes which {@link #nextRecord()} needs to look at. Checking this table first means ordinary bytes only take
+     * one branch.
+     */
+    private static final boolean[] IS_SPECIAL = new boolean[256];
+
+    static {
+        IS_SPECIAL['"'] = true;
+        IS_SPECIAL[','] = true;
+        IS_SPECIAL['\n'] = true;
+    }
+
+    private final ReadableByteChannel CHANNEL;
+    private byte[] buffer;
+    private ByteBuffer bufferWrapper;
+    private int position;
+    private int limit;
+    private boolean endOfInput;
+
+    /**
+     * Start (inclusive) and end (exclusive) in {@link #buffer} of each field of the current record.
+     */
+    int[] fieldStart = new int[16];
+    int[] fieldEnd = new int[16];
+    int fieldCount;
+
+    /**
+     * Column names from the header line.
+     */
+    final String[] HEADER;
+
+    final boolean ISO8601_TIMESTAMPS;
+
+    ExportCsvReader(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+        CHANNEL = channel;
+        ISO8601_TIMESTAMPS = iso8601Timestamps;
+        buffer = new byte[DEFAULT_BUFFER_BYTES];
+        bufferWrapper = ByteBuffer.wrap(buffer);
+        if (!nextRecord()) {
+            throw new IOException("The CSV file is empty");
+        }
+        if (fieldEnd[0] - fieldStart[0] >= 3 && buffer[fieldStart[0]] == (byte) 0xEF
+                && buffer[fieldStart[0] + 1] == (byte) 0xBB && buffer[fieldStart[0] + 2] == (byte) 0xBF) {
+            fieldStart[0] += 3; // UTF-8 byte order mark
+        }
+        HEADER = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            HEADER[i] = fieldAsString(i);
+        }
+    }
+
+    /**
+     * Parse a digital.csv file written by {@link Capture#exportRawDataCsv}.
+     *
+     * @param iso8601Timestamps must match the {@code useISO8601Timestamps} argument used for the export
+     */
+    public static Digital openDigital(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+        return new Digital(channel, iso8601Timestamps);
+    }
+
+    /**
+     * Parse an analog.csv file written by {@link Capture#exportRawDataCsv}.
+     *
+     * @param iso8601Timestamps must match the {@code useISO8601Timestamps} argument used for the export
+     */
+    public static Analog openAnalog(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+        return new Analog(channel, iso8601Timestamps);
+    }
+
+    /**
+     * Parse a file written by {@link Capture#exportDataTableCsv}.
+     *
+     * @param iso8601Timestamps must match the {@code timestampInISO8601Format} argument used for the export
+     */
+    public static DataTable openDataTable(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+        return new DataTable(channel, iso8601Timestamps);
+    }
+
+    /**
+     * @return a copy of the column names from the header line
+     */
+    public String[] header() {
+        return HEADER.clone();
+    }
+
+    /**
+     * Read the next line into the row object.
+     *
+     * @return false at the end of the file
+     */
+    public boolean next() throws IOException {
+        while (nextRecord()) {
+            if (fieldCount == 1 && fieldStart[0] == fieldEnd[0]) {
+                continue; // blank line
+            }
+            decodeRow();
+            return true;
+        }
+        return false;
+    }
+
+    abstract void decodeRow() throws IOException;
+
+    @Override
+    public void close() throws IOException {
+        CHANNEL.close();
+    }
+
+    /**
+     * Splits the next record into fields. Commas and line breaks inside double quotes do not end a field.
+     *
+     * @return false at the end of the input
+     */
+    private boolean nextRecord() throws IOException {
+        while (true) {
+            fieldCount = 0;
+            int fieldBegin = position;
+            boolean quoted = false;
+            for (int i = position; i < limit; i++) {
+                final byte b = buffer[i];
+                if (!IS_SPECIAL[b & 0xFF]) {
+                    continue;
+                }
+                if (b == '"') {
+                    quoted = !quoted;
+                } else if (!quoted) {
+                    if (b == ',') {
+                        addField(fieldBegin, i);
+                        fieldBegin = i + 1;
+                    } else if (b == '\n') {
+                        addField(fieldBegin, i > fieldBegin && buffer[i - 1] == '\r' ? i - 1 : i);
+                        position = i + 1;
+                        unquoteFields();
+                        return true;
+                    }
+                }
+            }
+            if (endOfInput) {
+                if (position == limit) {
+                    return false;
+                }
+                // last line has no line break
+                addField(fieldBegin, limit);
+                position = limit;
+                unquoteFields();
+                return true;
+            }
+            fill();
+        }
+    }
+
+    private void addField(int start, int end) {
+        if (fieldCount == fieldStart.length) {
+            fieldStart = Arrays.copyOf(fieldStart, fieldCount * 2);
+            fieldEnd = Arrays.copyOf(fieldEnd, fieldCount * 2);
+        }
+        fieldStart[fieldCount] = start;
+        fieldEnd[fieldCount] = end;
+        fieldCount++;
+    }
+
+    /**
+     * Removes the surrounding quotes from quoted fields and replaces each doubled quote with a single quote, in
+     * place. Only called once the whole record is in the buffer, because it modifies the buffer.
+     */
+    private void unquoteFields() {
+        for (int field = 0; field < fieldCount; field++) {
+            final int start = fieldStart[field];
+            final int end = fieldEnd[field];
+            if (end - start < 2 || buffer[start] != '"' || buffer[end - 1] != '"') {
+                continue;
+            }
+            int write = start + 1;
+            for (int read = start + 1; read < end - 1; read++) {
+                buffer[write++] = buffer[read];
+                if (buffer[read] == '"' && read + 1 < end - 1 && buffer[read + 1] == '"') {
+                    read++;
+                }
+            }
+            fieldStart[field] = start + 1;
+            fieldEnd[field] = write;
+        }
+    }
+
+    /**
+     * Move the unread bytes to the start of the buffer, growing it if one record fills the whole buffer, then read
+     * more bytes from the channel.
+     */
+    private void fill() throws IOException {
+        final int unread = limit - position;
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, unread);
+        } else if (unread == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            bufferWrapper = ByteBuffer.wrap(buffer);
+        }
+        position = 0;
+        limit = unread;
+
+        bufferWrapper.clear().position(limit);
+        int bytesRead;
+        do {
+            bytesRead = CHANNEL.read(bufferWrapper);
+        } while (bytesRead == 0);
+        if (bytesRead < 0) {
+            endOfInput = true;
+        } else {
+            limit += bytesRead;
+        }
+    }
+
+    String fieldAsString(int field) {
+        return new String(buffer, fieldStart[field], fieldEnd[field] - fieldStart[field], StandardCharsets.UTF_8);
+    }
+
+    boolean fieldIsEmpty(int field) {
+        return field >= fieldCount || fieldStart[field] == fieldEnd[field];
+    }
+
+    double fieldAsDouble(int field) {
+        return parseDouble(buffer, fieldStart[field], fieldEnd[field]);
+    }
+
+    long fieldAsIso8601EpochNanos(int field) {
+        return parseIso8601(buffer, fieldStart[field], fieldEnd[field]);
+    }
+
+    /**
+     * Parses the field as an integer written with any of the radixes in {@link RadixType}: {@code 0x41},
+     * {@code 0b01000001}, {@code 65}, or a single ASCII character. A single digit is ambiguous, and is read as a
+     * decimal number; use {@link #fieldAsLong(int, RadixType)} to read it as an ASCII character.
+     */
+    long fieldAsLong(int field) {
+        final int start = fieldStart[field];
+        final int end = fieldEnd[field];
+        if (end - start > 2 && buffer[start] == '0' && (buffer[start + 1] == 'x' || buffer[start + 1] == 'X')) {
+            long value = 0;
+            for (int i = start + 2; i < end; i++) {
+                value = (value << 4) | hexDigit(buffer[i]);
+            }
+            return value;
+        }
+        if (end - start > 2 && buffer[start] == '0' && (buffer[start + 1] == 'b' || buffer[start + 1] == 'B')) {
+            long value = 0;
+            for (int i = start + 2; i < end; i++) {
+                value = (value << 1) | (buffer[i] - '0');
+            }
+            return value;
+        }
+        if (end - start == 1 && (buffer[start] < '0' || buffer[start] > '9')) {
+            return buffer[start] & 0xFF;
+        }
+        boolean negative = false;
+        int i = start;
+        if (i < end && (buffer[i] == '-' || buffer[i] == '+')) {
+            negative = buffer[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("Not an integer: " + fieldAsString(field));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            final int digit = buffer[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Not an integer: " + fieldAsString(field));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Like {@link #fieldAsLong(int)}, but a single character is read as ASCII if the data was exported with
+     * {@link RadixType#RADIX_TYPE_ASCII}, so {@code 5} is 0x35 instead of 5.
+     */
+    long fieldAsLong(int field, RadixType radix) {
+        if (radix == RadixType.RADIX_TYPE_ASCII && fieldEnd[field] - fieldStart[field] == 1) {
+            return buffer[fieldStart[field]] & 0xFF;
+        }
+        return fieldAsLong(field);
+    }
+
+    /**
+     * Compares without allocating when {@code text} is ASCII.
+     */
+    boolean fieldEquals(int field, String text) {
+        final int start = fieldStart[field];
+        final int length = fieldEnd[field] - start;
+        boolean equal = length == text.length();
+        for (int i = 0; i < text.length(); i++) {
+            final char c = text.charAt(i);
+            if (c > 0x7F) {
+                return fieldAsString(field).equals(text);
+            }
+            if (equal && buffer[start + i] != c) {
+                equal = false;
+            }
+        }
+        return equal;
+    }
+
+    byte fieldFirstByte(int field) {
+        return fieldStart[field] < fieldEnd[field] ? buffer[fieldStart[field]] : 0;
+    }
+
+    private static int hexDigit(byte b) {
+        if (b >= '0' && b <= '9') {
+            return b - '0';
+        } else if (b >= 'a' && b <= 'f') {
+            return b - 'a' + 10;
+        } else if (b >= 'A' && b <= 'F') {
+            return b - 'A' + 10;
+        }
+        throw new NumberFormatException("Not a hexadecimal digit: " + (char) b);
+    }
+
+    /**
+     * Parses a decimal number such as {@code 0.000012500} or {@code 8.68e-05} without allocating.
+     * <p>
+     * Uses the exact fast path when the significand fits in a double without rounding and the power of ten is at most
+     * 22, which covers the timestamps and voltages written by Logic 2. Anything else falls back to {@link Double#parseDouble}.
+     */
+    static double parseDouble(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i] == '-';
+            i++;
+        }
+        long significand = 0;
+        final int integerStart = i;
+        for (; i < end; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                break;
+            }
+            significand = significand * 10 + digit;
+        }
+        int digitCount = i - integerStart;
+        int exponent = 0;
+        if (i < end && bytes[i] == '.') {
+            i++;
+            final int fractionStart = i;
+            for (; i < end; i++) {
+                final int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9) {
+                    break;
+                }
+                significand = significand * 10 + digit;
+            }
+            exponent = fractionStart - i;
+            digitCount += i - fractionStart;
+        }
+        if (digitCount == 0 || digitCount > 18) {
+            // no digits, or the significand may have overflowed
+            return slowParseDouble(bytes, start, end);
+        }
+        if (i < end) {
+            if (bytes[i] != 'e' && bytes[i] != 'E') {
+                return slowParseDouble(bytes, start, end);
+            }
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+                negativeExponent = bytes[i] == '-';
+                i++;
+            }
+            if (i == end) {
+                return slowParseDouble(bytes, start, end);
+            }
+            int explicitExponent = 0;
+            for (; i < end; i++) {
+                final int digit = bytes[i] - '0';
+                if (digit < 0 || digit > 9 || explicitExponent > 10_000) {
+                    return slowParseDouble(bytes, start, end);
+                }
+                explicitExponent = explicitExponent * 10 + digit;
+            }
+            exponent += negativeExponent ? -explicitExponent : explicitExponent;
+        }
+
+        final double value;
+        if (significand == 0) {
+            value = 0;
+        } else if (significand > MAX_EXACT_SIGNIFICAND || exponent < -22 || exponent > 22) {
+            return slowParseDouble(bytes, start, end);
+        } else if (exponent < 0) {
+            value = significand / POWERS_OF_TEN[-exponent];
+        } else {
+            value = significand * POWERS_OF_TEN[exponent];
+        }
+        return negative ? -value : value;
+    }
+
+    private static double slowParseDouble(byte[] bytes, int start, int end) {
+        return Double.parseDouble(new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+    }
+
+    /**
+     * Parses a timestamp such as {@code 2024-05-06T17:01:02.123456789+00:00} or {@code 2024-05-06T17:01:02.5Z}.
+     * Fractional digits past nanoseconds are ignored. A timestamp without an offset is treated as UTC.
+     *
+     * @return nanoseconds since 1970-01-01T00:00:00Z
+     */
+    static long parseIso8601(byte[] bytes, int start, int end) {
+        if (end - start < 19 || bytes[start + 4] != '-' || bytes[start + 7] != '-'
+                || (bytes[start + 10] != 'T' && bytes[start + 10] != ' ')
+                || bytes[start + 13] != ':' || bytes[start + 16] != ':') {
+            throw new NumberFormatException("Not an ISO 8601 timestamp: " + new String(bytes, start, end - start, StandardCharsets.ISO_8859_1));
+        }
+        final int year = digits(bytes, start, 4);
+        final int month = digits(bytes, start + 5, 2);
+        final int day = digits(bytes, start + 8, 2);
+        final int hour = digits(bytes, start + 11, 2);
+        final int minute = digits(bytes, start + 14, 2);
+        final int second = digits(bytes, start + 17, 2);
+
+        int i = start + 19;
+        long nanos = 0;
+        if (i < end && (bytes[i] == '.' || bytes[i] == ',')) {
+            i++;
+            int fractionDigits = 0;
+            while (i < end && bytes[i] >= '0' && bytes[i] <= '9') {
+                if (fractionDigits < 9) {
+                    nanos = nanos * 10 + (bytes[i] - '0');
+                    fractionDigits++;
+                }
+                i++;
+            }
+            for (; fractionDigits < 9; fractionDigits++) {
+                nanos *= 10;
+            }
+        }
+
+        int offsetSeconds = 0;
+        if (i < end && (bytes[i] == '+' || bytes[i] == '-')) {
+            final int sign = bytes[i] == '-' ? -1 : 1;
+            final int offsetHours = digits(bytes, i + 1, 2);
+            final int offsetMinutes = end - i >= 6 && bytes[i + 3] == ':' ? digits(bytes, i + 4, 2)
+                    : end - i >= 5 ? digits(bytes, i + 3, 2) : 0;
+            offsetSeconds = sign * (offsetHours * 3600 + offsetMinutes * 60);
+        }
+
+        final long epochSeconds = daysFromCivil(year, month, day) * 86_400L
+                + hour * 3600L + minute * 60L + second - offsetSeconds;
+        return epochSeconds * NANOS_PER_SECOND + nanos;
+    }
+
+    private static int digits(byte[] bytes, int start, int count) {
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            final int digit = bytes[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Expected a digit at offset " + i);
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * Days since 1970-01-01 in the proleptic Gregorian calendar.
+     *
+     * @see <a href="https://howardhinnant.github.io/date_algorithms.html#days_from_civil">days_from_civil</a>
+     */
+    private static long daysFromCivil(int year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        final int era = (year >= 0 ? year : year - 399) / 400;
+        final int yearOfEra = year - era * 400;
+        final int dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146_097L + dayOfEra - 719_468L;
+    }
+
+    /**
+     * One line of digital.csv. Reused for every line.
+     */
+    public static class DigitalRow {
+        /**
+         * Capture-relative time in seconds, or {@link Double#NaN} for ISO 8601 timestamps.
+         */
+        public double timeSeconds;
+        /**
+         * Wall clock time in nanoseconds since the epoch, or {@link Long#MIN_VALUE} for capture-relative timestamps.
+         */
+        public long epochNanos;
+        /**
+         * Bit {@code i} holds the state of the channel in column {@code i + 1}.
+         */
+        public long states;
+
+        /**
+         * @param channelColumn zero-based index of the channel column, not counting the time column
+         * @return 0 or 1
+         */
+        public int state(int channelColumn) {
+            return (int) (states >>> channelColumn) & 1;
+        }
+    }
+
+    /**
+     * One line of analog.csv. Reused for every line.
+     */
+    public static class AnalogRow {
+        /**
+         * Capture-relative time in seconds, or {@link Double#NaN} for ISO 8601 timestamps.
+         */
+        public double timeSeconds;
+        /**
+         * Wall clock time in nanoseconds since the epoch, or {@link Long#MIN_VALUE} for capture-relative timestamps.
+         */
+        public long epochNanos;
+        /**
+         * Element {@code i} holds the voltage of the channel in column {@code i + 1}.
+         */
+        public final float[] VOLTS;
+
+        AnalogRow(int channelCount) {
+            VOLTS = new float[channelCount];
+        }
+    }
+
+    /**
+     * Reader for digital.csv. The header is {@code Time [s],Channel 0,Channel 1,...} and each cell is 0 or 1.
+     */
+    public static class Digital extends ExportCsvReader {
+
+        private final DigitalRow ROW = new DigitalRow();
+        private final int CHANNEL_COUNT;
+
+        Digital(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+            super(channel, iso8601Timestamps);
+            CHANNEL_COUNT = HEADER.length - 1;
+            if (CHANNEL_COUNT > Long.SIZE) {
+                throw new IOException("At most " + Long.SIZE + " digital channels are supported");
+            }
+        }
+
+        /**
+         * @return names of the channel columns, not including the time column
+         */
+        public String[] channelNames() {
+            return Arrays.copyOfRange(HEADER, 1, HEADER.length);
+        }
+
+        public DigitalRow row() {
+            return ROW;
+        }
+
+        @Override
+        void decodeRow() throws IOException {
+            if (fieldCount != CHANNEL_COUNT + 1) {
+                throw new IOException(String.format("Expected %d columns but found %d", CHANNEL_COUNT + 1, fieldCount));
+            }
+            decodeTime();
+            long states = 0;
+            for (int channel = 0; channel < CHANNEL_COUNT; channel++) {
+                if (fieldFirstByte(channel + 1) == '1') {
+                    states |= 1L << channel;
+                }
+            }
+            ROW.states = states;
+        }
+
+        private void decodeTime() {
+            if (ISO8601_TIMESTAMPS) {
+                ROW.epochNanos = fieldAsIso8601EpochNanos(0);
+                ROW.timeSeconds = Double.NaN;
+            } else {
+                ROW.timeSeconds = fieldAsDouble(0);
+                ROW.epochNanos = Long.MIN_VALUE;
+            }
+        }
+    }
+
+    /**
+     * Reader for analog.csv. The header is {@code Time [s],Channel 0,Channel 1,...} and each cell is a voltage.
+     */
+    public static class Analog extends ExportCsvReader {
+
+        private final AnalogRow ROW;
+
+        Analog(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+            super(channel, iso8601Timestamps);
+            ROW = new AnalogRow(HEADER.length - 1);
+        }
+
+        /**
+         * @return names of the channel columns, not including the time column
+         */
+        public String[] channelNames() {
+            return Arrays.copyOfRange(HEADER, 1, HEADER.length);
+        }
+
+        public AnalogRow row() {
+            return ROW;
+        }
+
+        @Override
+        void decodeRow() throws IOException {
+            if (fieldCount != ROW.VOLTS.length + 1) {
+                throw new IOException(String.format("Expected %d columns but found %d", ROW.VOLTS.length + 1, fieldCount));
+            }
+            if (ISO8601_TIMESTAMPS) {
+                ROW.epochNanos = fieldAsIso8601EpochNanos(0);
+                ROW.timeSeconds = Double.NaN;
+            } else {
+                ROW.timeSeconds = fieldAsDouble(0);
+                ROW.epochNanos = Long.MIN_VALUE;
+            }
+            for (int channel = 0; channel < ROW.VOLTS.length; channel++) {
+                ROW.VOLTS[channel] = (float) fieldAsDouble(channel + 1);
+            }
+        }
+    }
+
+    /**
+     * Reader for an analyzer data table export. The header is {@code name,type,start_time,duration} followed by one
+     * column per exported analyzer field. The reader itself is the row object: after {@link #next()} returns true,
+     * use the accessor methods to read the current row.
+     */
+    public static class DataTable extends ExportCsvReader {
+
+        private final int NAME_COLUMN;
+        private final int TYPE_COLUMN;
+        private final int START_TIME_COLUMN;
+        private final int DURATION_COLUMN;
+
+        DataTable(ReadableByteChannel channel, boolean iso8601Timestamps) throws IOException {
+            super(channel, iso8601Timestamps);
+            NAME_COLUMN = columnIndex("name");
+            TYPE_COLUMN = columnIndex("type");
+            START_TIME_COLUMN = columnIndex("start_time");
+            DURATION_COLUMN = columnIndex("duration");
+            if (START_TIME_COLUMN < 0) {
+                throw new IOException("The data table has no start_time column");
+            }
+        }
+
+        /**
+         * @return index of the column with the given header name, or -1 if there is no such column
+         */
+        public int columnIndex(String name) {
+            for (int i = 0; i < HEADER.length; i++) {
+                if (HEADER[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        public int columnCount() {
+            return HEADER.length;
+        }
+
+        @Override
+        void decodeRow() {
+            // fields are decoded lazily by the accessors
+        }
+
+        /**
+         * @return capture-relative start time in seconds, or {@link Double#NaN} for ISO 8601 timestamps
+         */
+        public double startTimeSeconds() {
+            return ISO8601_TIMESTAMPS ? Double.NaN : fieldAsDouble(START_TIME_COLUMN);
+        }
+
+        /**
+         * @return wall clock start time in nanoseconds since the epoch, or {@link Long#MIN_VALUE} for capture-relative
+         * timestamps
+         */
+        public long startEpochNanos() {
+            return ISO8601_TIMESTAMPS ? fieldAsIso8601EpochNanos(START_TIME_COLUMN) : Long.MIN_VALUE;
+        }
+
+        /**
+         * @return duration in seconds, or {@link Double#NaN} if there is no duration column
+         */
+        public double durationSeconds() {
+            return DURATION_COLUMN < 0 || fieldIsEmpty(DURATION_COLUMN) ? Double.NaN : fieldAsDouble(DURATION_COLUMN);
+        }
+
+        public boolean nameEquals(String analyzerName) {
+            return NAME_COLUMN >= 0 && fieldEquals(NAME_COLUMN, analyzerName);
+        }
+
+        public boolean typeEquals(String frameType) {
+            return TYPE_COLUMN >= 0 && fieldEquals(TYPE_COLUMN, frameType);
+        }
+
+        public boolean isEmpty(int column) {
+            return fieldIsEmpty(column);
+        }
+
+        public boolean columnEquals(int column, String text) {
+            return column < fieldCount && fieldEquals(column, text);
+        }
+
+        /**
+         * Decodes a value written with any radix: hexadecimal ({@code 0x41}), binary ({@code 0b01000001}), decimal
+         * ({@code 65}), or ASCII (a single character). A single digit is read as a decimal number, so use
+         * {@link #columnAsLong(int, RadixType)} for data exported with {@link RadixType#RADIX_TYPE_ASCII}.
+         */
+        public long columnAsLong(int column) {
+            return fieldAsLong(column);
+        }
+
+        /**
+         * @param radix the radix the data table was exported with, which decides whether a single digit is a decimal
+         *              number or an ASCII character
+         */
+        public long columnAsLong(int column, RadixType radix) {
+            return fieldAsLong(column, radix);
+        }
+
+        public double columnAsDouble(int column) {
+            return fieldAsDouble(column);
+        }
+
+        /**
+         * Allocates a new String. Prefer {@link #columnEquals} in hot loops.
+         */
+        public String columnAsString(int column) {
+            return column < fieldCount ? fieldAsString(column) : "";
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Saves, exports, and closes finished captures in the background, so the device can start its next capture right
+ * away.
+ * <p>
+ * At most {@code maxInFlight} captures are exported at once. When that many are already in flight,
+ * {@link #submit(Capture, ExportStep...)} blocks until one finishes. This pushes back on the loop which produces
+ * captures when the disk falls behind, instead of letting open captures pile up in Logic 2's memory.
+ * <pre>{@code
+ * try (ExportPipeline pipeline = new ExportPipeline(2)) {
+ *     while (running) {
+ *         final Capture capture = manager.startCapture(deviceID, deviceConfig, captureConfig);
+ *         capture.waitForCaptureToEnd();
+ *         pipeline.submit(capture,
+ *                 c -> c.save(dir + "/capture.sal"),
+ *                 c -> c.exportRawDataBinary(dir, channels, 1));
+ *     }
+ * }
+ * }</pre>
+ */
+public class ExportPipeline implements AutoCloseable {
+
+    /**
+     * One step of exporting a capture, for example {@code capture -> capture.save(path)}.
+     */
+    @FunctionalInterface
+    public interface ExportStep {
+        void run(Capture capture) throws Exception;
+    }
+
+    private final int MAX_IN_FLIGHT;
+    private final Semaphore IN_FLIGHT;
+    private final ExecutorService EXECUTOR;
+    private final ConcurrentHistogram BLOCKED_NANOS = new ConcurrentHistogram();
+    private final ConcurrentHistogram EXPORT_NANOS = new ConcurrentHistogram();
+    private final LongAdder FAILED = new LongAdder();
+
+    private volatile boolean closed;
+
+    /**
+     * @param maxInFlight maximum number of captures being exported at once
+     */
+    public ExportPipeline(int maxInFlight) {
+        this(maxInFlight, VirtualThreads.newThreadPerTaskExecutor("export-pipeline"));
+    }
+
+    /**
+     * The pipeline takes ownership of the executor and shuts it down when the pipeline is closed.
+     *
+     * @param maxInFlight maximum number of captures being exported at once
+     */
+    public ExportPipeline(int maxInFlight, ExecutorService executor) {
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be at least 1");
+        }
+        MAX_IN_FLIGHT = maxInFlight;
+        IN_FLIGHT = new Semaphore(maxInFlight);
+        EXECUTOR = executor;
+    }
+
+    /**
+     * Run the steps on the capture in order, then close it. Blocks while {@code maxInFlight} captures are already being
+     * exported.
+     * <p>
+     * If a step throws, the remaining steps are skipped. The capture is always closed.
+     *
+     * @return completes when the capture has been closed. Cancelling it before the steps start skips them.
+     * @throws RejectedExecutionException if the pipeline is closed or the executor rejects the export, after starting
+     *                                    to close the capture
+     */
+    public CompletableFuture<Void> submit(Capture capture, ExportStep... steps) throws InterruptedException {
+        final long startNanos = System.nanoTime();
+        IN_FLIGHT.acquire();
+        BLOCKED_NANOS.record(System.nanoTime() - startNanos);
+        return dispatch(capture, List.of(steps));
+    }
+
+    /**
+     * Like {@link #submit(Capture, ExportStep...)}, but gives up if the capture can't be admitted before the timeout.
+     * The capture is not closed when this returns null.
+     *
+     * @return null if {@code maxInFlight} captures were still being exported after the timeout
+     */
+    public CompletableFuture<Void> trySubmit(Capture capture, Duration timeout, ExportStep... steps) throws InterruptedException {
+        final long startNanos = System.nanoTime();
+        if (!IN_FLIGHT.tryAcquire(timeout.toNanos(), TimeUnit.NANOSECONDS)) {
+            return null;
+        }
+        BLOCKED_NANOS.record(System.nanoTime() - startNanos);
+        return dispatch(capture, List.of(steps));
+    }
+
+    /**
+     * Must hold a permit of {@link #IN_FLIGHT}, which is released when the capture has been closed.
+     */
+    private CompletableFuture<Void> dispatch(Capture capture, List<ExportStep> steps) {
+        if (closed) {
+            IN_FLIGHT.release();
+            throw rejected(capture, new RejectedExecutionException("The pipeline is closed"));
+        }
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            EXECUTOR.execute(() -> export(capture, steps, future));
+        } catch (RejectedExecutionException e) {
+            IN_FLIGHT.release();
+            throw rejected(capture, e);
+        }
+        return future;
+    }
+
+    /**
+     * A capture which is rejected is still closed, without waiting for the reply.
+     */
+    private static RejectedExecutionException rejected(Capture capture, RejectedExecutionException e) {
+        try {
+            capture.closeAsync();
+        } catch (RuntimeException closeException) {
+            e.addSuppressed(closeException);
+        }
+        return e;
+    }
+
+    private void export(Capture capture, List<ExportStep> steps, CompletableFuture<Void> future) {
+        final long startNanos = System.nanoTime();
+        Throwable failure = null;
+        try {
+            for (ExportStep step : steps) {
+                if (future.isDone()) {
+                    break;
+                }
+                step.run(capture);
+            }
+        } catch (Throwable t) {
+            failure = t;
+        }
+        try {
+            capture.close();
+        } catch (Throwable t) {
+            if (failure == null) {
+                failure = t;
+            } else {
+                failure.addSuppressed(t);
+            }
+        }
+        EXPORT_NANOS.record(System.nanoTime() - startNanos);
+        IN_FLIGHT.release();
+        if (failure == null) {
+            future.complete(null);
+        } else {
+            FAILED.increment();
+            future.completeExceptionally(failure);
+        }
+    }
+
+    /**
+     * @return number of captures being exported or closed
+     */
+    public int inFlight() {
+        return MAX_IN_FLIGHT - IN_FLIGHT.availablePermits();
+    }
+
+    /**
+     * Time each {@code submit} call waited for a free slot, in nanoseconds. A high percentile means the exports are
+     * slower than the captures.
+     */
+    public ConcurrentHistogram.Snapshot blockedNanos() {
+        return BLOCKED_NANOS.snapshot();
+    }
+
+    /**
+     * Time to run every step and close the capture, in nanoseconds.
+     */
+    public ConcurrentHistogram.Snapshot exportNanos() {
+        return EXPORT_NANOS.snapshot();
+    }
+
+    /**
+     * @return number of captures where a step or CloseCapture threw
+     */
+    public long failedCount() {
+        return FAILED.sum();
+    }
+
+    /**
+     * Stops accepting captures, waits for every capture in flight to be exported and closed, then shuts down the
+     * executor.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        closed = true;
+        IN_FLIGHT.acquire(MAX_IN_FLIGHT);
+        IN_FLIGHT.release(MAX_IN_FLIGHT);
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+}
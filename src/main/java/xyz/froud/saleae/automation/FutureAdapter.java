@@ -0,0 +1,52 @@
+package xyz.froud.saleae.automation;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Function;
+
+/**
+ * Converts the {@link ListenableFuture}s returned by {@link saleae.ManagerGrpc.ManagerFutureStub} into
+ * {@link CompletableFuture}s.
+ */
+final class FutureAdapter {
+
+    private FutureAdapter() {
+    }
+
+    /**
+     * The returned future is completed on the gRPC thread that delivered the reply, so {@code mapper} must be cheap.
+     * <p>
+     * Cancelling the returned future cancels the gRPC call.
+     */
+    static <R, T> CompletableFuture<T> toCompletableFuture(ListenableFuture<R> listenableFuture, Function<R, T> mapper) {
+        final CompletableFuture<T> completableFuture = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                listenableFuture.cancel(mayInterruptIfRunning);
+                return super.cancel(mayInterruptIfRunning);
+            }
+        };
+
+        listenableFuture.addListener(() -> {
+            try {
+                completableFuture.complete(mapper.apply(listenableFuture.get()));
+            } catch (ExecutionException e) {
+                completableFuture.completeExceptionally(e.getCause());
+            } catch (CancellationException e) {
+                completableFuture.cancel(false);
+            } catch (Throwable t) {
+                completableFuture.completeExceptionally(t);
+            }
+        }, Runnable::run);
+
+        return completableFuture;
+    }
+
+    static <R> CompletableFuture<Void> toCompletableFuture(ListenableFuture<R> listenableFuture) {
+        return toCompletableFuture(listenableFuture, reply -> null);
+    }
+
+}
@@ -0,0 +1,129 @@
+package xyz.froud.saleae.automation;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes I2C like the Logic 2 "I2C" analyzer, producing "start", "address", "data", and "stop" frames. An "address"
+ * frame has the 7-bit address in {@link Frame#DATA} and the {@link Frame#READ} flag for a read. A byte which was not
+ * acknowledged has the {@link Frame#NAK} flag.
+ * <p>
+ * Settings:
+ * <ul>
+ *     <li>"SDA": required</li>
+ *     <li>"SCL": required</li>
+ * </ul>
+ * A chunk for parallel decoding starts at a start or repeated start condition, where SDA falls while SCL is high. When
+ * SCL and SDA change at the same time, the SCL change is treated as happening first.
+ */
+public class I2cDecoder extends ProtocolDecoder {
+
+    private final DigitalTransitionIndex SDA;
+    private final DigitalTransitionIndex SCL;
+
+    /**
+     * @param channels map from channel index to channel, see {@link DigitalTransitionIndex#forDirectory}
+     */
+    public I2cDecoder(Capture.AnalyzerSettings settings, Map<Integer, DigitalTransitionIndex> channels) {
+        SDA = requiredChannel(settings, "SDA", channels);
+        SCL = requiredChannel(settings, "SCL", channels);
+    }
+
+    @Override
+    DigitalTransitionIndex primaryChannel() {
+        return SCL;
+    }
+
+    @Override
+    void decode(double fromSeconds, double toSeconds, List<Frame> frames) {
+        final RawBinaryReader.DigitalChannel scl = SCL.channel();
+        final RawBinaryReader.DigitalChannel sda = SDA.channel();
+        long sclIndex = SCL.countBefore(fromSeconds);
+        long sdaIndex = SDA.countBefore(fromSeconds);
+
+        boolean inTransaction = false;
+        boolean isAddress = false;
+        int bitCount = 0;
+        long value = 0;
+        double byteStart = 0;
+        while (true) {
+            final double sclTime = sclIndex < scl.TRANSITION_COUNT ? scl.transitionTime(sclIndex) : Double.POSITIVE_INFINITY;
+            final double sdaTime = sdaIndex < sda.TRANSITION_COUNT ? sda.transitionTime(sdaIndex) : Double.POSITIVE_INFINITY;
+            if (sclTime == Double.POSITIVE_INFINITY && sdaTime == Double.POSITIVE_INFINITY) {
+                return;
+            }
+            if (!inTransaction && Math.min(sclTime, sdaTime) >= toSeconds) {
+                return;
+            }
+
+            if (sclTime <= sdaTime) {
+                final int sclState = scl.stateAfterTransition(sclIndex);
+                sclIndex++;
+                if (!inTransaction || sclState == 0) {
+                    continue;
+                }
+                // data is sampled on the rising edge of SCL
+                final int sdaState = sda.INITIAL_STATE ^ (int) (sdaIndex & 1);
+                if (bitCount < 8) {
+                    if (bitCount == 0) {
+                        byteStart = sclTime;
+                    }
+                    value = (value << 1) | sdaState;
+                    bitCount++;
+                } else {
+                    // ninth bit is the acknowledge, SDA low means ACK
+                    int flags = sdaState == 1 ? Frame.NAK : 0;
+                    if (isAddress) {
+                        if ((value & 1) != 0) {
+                            flags |= Frame.READ;
+                        }
+                        frames.add(new Frame("address", byteStart, sclTime, value >> 1, 0, flags));
+                        isAddress = false;
+                    } else {
+                        frames.add(new Frame("data", byteStart, sclTime, value, 0, flags));
+                    }
+                    bitCount = 0;
+                    value = 0;
+                }
+            } else {
+                final int sdaState = sda.stateAfterTransition(sdaIndex);
+                sdaIndex++;
+                final int sclState = scl.INITIAL_STATE ^ (int) (sclIndex & 1);
+                if (sclState == 0) {
+                    continue;
+                }
+                if (sdaState == 0) {
+                    // start or repeated start
+                    if (sdaTime >= toSeconds) {
+                        return;
+                    }
+                    frames.add(new Frame("start", sdaTime, sdaTime, 0, 0, 0));
+                    inTransaction = true;
+                    isAddress = true;
+                    bitCount = 0;
+                    value = 0;
+                } else if (inTransaction) {
+                    frames.add(new Frame("stop", sdaTime, sdaTime, 0, 0, 0));
+                    inTransaction = false;
+                }
+            }
+        }
+    }
+
+    @Override
+    double resyncPointAtOrAfter(double seconds, double limitSeconds) {
+        final RawBinaryReader.DigitalChannel sda = SDA.channel();
+        final RawBinaryReader.DigitalChannel scl = SCL.channel();
+        for (long i = SDA.countBefore(seconds); i < sda.TRANSITION_COUNT; i++) {
+            final double time = sda.transitionTime(i);
+            if (time >= limitSeconds) {
+                break;
+            }
+            if (sda.stateAfterTransition(i) == 0 && (scl.INITIAL_STATE ^ (int) (SCL.countAtOrBefore(time) & 1)) == 1) {
+                return time;
+            }
+        }
+        return Double.NaN;
+    }
+
+}
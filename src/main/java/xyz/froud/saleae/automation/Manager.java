@@ -1,7 +1,11 @@
 package xyz.froud.saleae.automation;
 
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import io.grpc.Channel;
+import io.grpc.ClientInterceptors;
 import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
+import io.grpc.Status;
 import saleae.AppInfo;
 import saleae.CaptureConfiguration;
 import saleae.Device;
@@ -20,15 +24,24 @@ import saleae.LogicChannels;
 import saleae.LogicDeviceConfiguration;
 import saleae.ManagerGrpc;
 import saleae.ManagerGrpc.ManagerBlockingStub;
+import saleae.ManagerGrpc.ManagerFutureStub;
 import saleae.ManualCaptureMode;
 import saleae.StartCaptureReply;
 import saleae.StartCaptureRequest;
 import saleae.ThisApiVersion;
 import saleae.TimedCaptureMode;
 
+import java.time.Duration;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Function;
 
 /**
  * Java port of <a
@@ -41,7 +54,18 @@ public class Manager implements AutoCloseable {
 
     private final ManagedChannel CHANNEL;
 
-    final ManagerBlockingStub STUB;
+    private final RpcMetrics METRICS = new RpcMetrics();
+
+    private final ManagerBlockingStub STUB;
+
+    private final ManagerFutureStub FUTURE_STUB;
+
+    private final AtomicReferenceArray<Duration> DEFAULT_DEADLINES = new AtomicReferenceArray<>(RpcType.values().length);
+
+    /**
+     * Replaced when the check fails without an answer from the app, so it is tried again.
+     */
+    private final AtomicReference<CompletableFuture<AppInfo>> VERSION_CHECK;
 
     /**
      * Try to connect to a running instance of the Logic 2 software using the default host and port.
@@ -51,23 +75,234 @@ public class Manager implements AutoCloseable {
     }
 
     /**
-     * Try to connect to a running instance of the Logic 2 software using the specified host and port.
+     * Try to connect to a running instance of the Logic 2 software using the specified host and port, with a default
+     * {@link TransportProfile}.
      */
     public Manager(String host, int port) throws IncompatibleApiVersionException {
-        CHANNEL = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-        STUB = ManagerGrpc.newBlockingStub(CHANNEL);
+        this(host, port, new TransportProfile());
+    }
 
-        final AppInfo appInfo = getAppInfo();
-        final saleae.Version appApiVersion = appInfo.getApiVersion();
-        if (ThisApiVersion.THIS_API_VERSION_MAJOR.getNumber() != appApiVersion.getMajor()) {
+    /**
+     * Try to connect to a running instance of the Logic 2 software using the specified host and port. The connections
+     * are shared with every other Manager with the same host, port, and an equal profile, and shut down when the last
+     * of them is closed.
+     */
+    public Manager(String host, int port, TransportProfile profile) throws IncompatibleApiVersionException {
+        this(SharedChannel.acquire(host, port, profile));
+    }
+
+    /**
+     * Try to connect to a running instance of the Logic 2 software, or to a {@code SimulatedLogic2Server} from the test
+     * fixtures, using an existing channel. The Manager takes ownership of the channel and shuts it down in {@link #close()}.
+     */
+    public Manager(ManagedChannel channel) throws IncompatibleApiVersionException {
+        this(channel, false);
+    }
+
+    /**
+     * @param lazy whether to return before the API version has been checked, instead of waiting for the check and
+     * closing the Manager if it fails
+     */
+    private Manager(ManagedChannel channel, boolean lazy) throws IncompatibleApiVersionException {
+        CHANNEL = channel;
+        for (RpcType type : RpcType.values()) {
+            DEFAULT_DEADLINES.set(type.ordinal(), type.DEFAULT_DEADLINE);
+        }
+        final Channel interceptedChannel = ClientInterceptors.intercept(CHANNEL, METRICS);
+        STUB = ManagerGrpc.newBlockingStub(interceptedChannel);
+        FUTURE_STUB = ManagerGrpc.newFutureStub(interceptedChannel);
+        final CompletableFuture<AppInfo> versionCheck = new CompletableFuture<>();
+        VERSION_CHECK = new AtomicReference<>(versionCheck);
+        startVersionCheck(versionCheck);
+        if (lazy) {
+            return;
+        }
+        try {
+            versionCheck.join();
+        } catch (CompletionException e) {
             try {
                 close();
             } catch (InterruptedException ignore) {
             }
-            throw new IncompatibleApiVersionException(appApiVersion);
+            if (e.getCause() instanceof IncompatibleApiVersionException incompatible) {
+                throw incompatible;
+            }
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
         }
-        //System.out.printf("Connected to Logic version %s with PID %d.\n", appInfo.getApplicationVersion(), appInfo.getLaunchPid());
+    }
+
+    /**
+     * Like {@link #Manager()}, but returns without waiting for the Logic 2 software.
+     *
+     * @see #connectLazily(ManagedChannel)
+     */
+    public static Manager connectLazily() {
+        return connectLazily(DEFAULT_GRPC_ADDRESS, DEFAULT_GRPC_PORT);
+    }
+
+    /**
+     * Like {@link #Manager(String, int)}, but returns without waiting for the Logic 2 software.
+     *
+     * @see #connectLazily(ManagedChannel)
+     */
+    public static Manager connectLazily(String host, int port) {
+        return connectLazily(host, port, new TransportProfile());
+    }
 
+    /**
+     * Like {@link #Manager(String, int, TransportProfile)}, but returns without waiting for the Logic 2 software.
+     *
+     * @see #connectLazily(ManagedChannel)
+     */
+    public static Manager connectLazily(String host, int port, TransportProfile profile) {
+        return connectLazily(SharedChannel.acquire(host, port, profile));
+    }
+
+    /**
+     * Like {@link #Manager(ManagedChannel)}, but returns immediately and checks the API version in the background, so
+     * the round trip overlaps with whatever the caller does before its first call.
+     * <p>
+     * A blocking call made before the check is finished waits for it, and an {@code ...Async()} call is sent when it
+     * finishes, without blocking the caller. If the app has an incompatible API version, that call and every later one
+     * fail with a {@link io.grpc.StatusRuntimeException} with status {@code FAILED_PRECONDITION} caused by an
+     * {@link IncompatibleApiVersionException}. If the app could not be reached, the call fails with the error from the
+     * check, and the check is tried again for the next call. Use {@link #getVersionCheck()} to wait for the check
+     * explicitly.
+     */
+    public static Manager connectLazily(ManagedChannel channel) {
+        try {
+            return new Manager(channel, true);
+        } catch (IncompatibleApiVersionException e) {
+            // only thrown when waiting for the check
+            throw new AssertionError(e);
+        }
+    }
+
+    private void startVersionCheck(CompletableFuture<AppInfo> result) {
+        final GetAppInfoRequest request = GetAppInfoRequest.newBuilder().build();
+        final Duration deadline = DEFAULT_DEADLINES.get(RpcType.CONTROL.ordinal());
+        final ManagerFutureStub stub = deadline == null ? FUTURE_STUB : FUTURE_STUB.withDeadlineAfter(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        FutureAdapter.toCompletableFuture(stub.getAppInfo(request), GetAppInfoReply::getAppInfo).whenComplete((appInfo, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else if (ThisApiVersion.THIS_API_VERSION_MAJOR.getNumber() != appInfo.getApiVersion().getMajor()) {
+                result.completeExceptionally(new IncompatibleApiVersionException(appInfo.getApiVersion()));
+            } else {
+                result.complete(appInfo);
+            }
+        });
+    }
+
+    /**
+     * @return completes with information about the Logic 2 instance once its API version has been checked, or
+     * exceptionally with an {@link IncompatibleApiVersionException} or the error from the check
+     */
+    public CompletableFuture<AppInfo> getVersionCheck() {
+        return VERSION_CHECK.get().copy();
+    }
+
+    private void awaitVersionCheck() {
+        final CompletableFuture<AppInfo> check = VERSION_CHECK.get();
+        if (check.isDone() && !check.isCompletedExceptionally()) {
+            return;
+        }
+        try {
+            check.join();
+        } catch (CompletionException e) {
+            throw versionCheckFailed(check, e.getCause());
+        }
+    }
+
+    /**
+     * Starts the check again if the app may not have been running yet.
+     *
+     * @return the exception for the call which was waiting for the check
+     */
+    private RuntimeException versionCheckFailed(CompletableFuture<AppInfo> check, Throwable cause) {
+        if (cause instanceof CompletionException && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+        if (cause instanceof IncompatibleApiVersionException) {
+            return Status.FAILED_PRECONDITION.withDescription(cause.toString()).withCause(cause).asRuntimeException();
+        }
+        // the app may not have been running yet
+        final CompletableFuture<AppInfo> retry = new CompletableFuture<>();
+        if (VERSION_CHECK.compareAndSet(check, retry)) {
+            startVersionCheck(retry);
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            return runtimeException;
+        }
+        return new CompletionException(cause);
+    }
+
+    /**
+     * Set the deadline used by every call of the given type made through this Manager and its captures, unless the
+     * method takes its own timeout. If a call is not finished by its deadline, it fails with a
+     * {@link io.grpc.StatusRuntimeException} with status {@code DEADLINE_EXCEEDED}.
+     * <p>
+     * Blocking calls can also be cancelled by interrupting the calling thread, or by cancelling the gRPC
+     * {@link io.grpc.Context} they were made in, which also applies the context's deadline if it is sooner. Cancelling
+     * the future returned by an {@code ...Async()} method cancels its call.
+     *
+     * @param deadline time allowed for each call, or null for no deadline
+     */
+    public void setDefaultDeadline(RpcType type, Duration deadline) {
+        DEFAULT_DEADLINES.set(type.ordinal(), deadline);
+    }
+
+    /**
+     * @return the deadline for each call of the given type, or null if there is none
+     */
+    public Duration getDefaultDeadline(RpcType type) {
+        return DEFAULT_DEADLINES.get(type.ordinal());
+    }
+
+    ManagerBlockingStub stub(RpcType type) {
+        awaitVersionCheck();
+        final Duration deadline = DEFAULT_DEADLINES.get(type.ordinal());
+        return deadline == null ? STUB : STUB.withDeadlineAfter(deadline.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Make an asynchronous call without blocking. If the API version has not been checked yet, the call is made when
+     * the check finishes, and the time spent waiting counts against the deadline. Cancelling the returned future
+     * cancels the call, or stops it from being made.
+     */
+    <R> ListenableFuture<R> futureCall(RpcType type, Function<ManagerFutureStub, ListenableFuture<R>> call) {
+        final Duration deadline = DEFAULT_DEADLINES.get(type.ordinal());
+        final ManagerFutureStub stub = deadline == null ? FUTURE_STUB : FUTURE_STUB.withDeadlineAfter(deadline.toNanos(), TimeUnit.NANOSECONDS);
+        final CompletableFuture<AppInfo> check = VERSION_CHECK.get();
+        if (check.isDone() && !check.isCompletedExceptionally()) {
+            return call.apply(stub);
+        }
+        final SettableFuture<R> result = SettableFuture.create();
+        check.whenComplete((appInfo, error) -> {
+            if (result.isDone()) {
+                return;
+            }
+            if (error != null) {
+                result.setException(versionCheckFailed(check, error));
+                return;
+            }
+            try {
+                // cancelling the result now cancels the call
+                result.setFuture(call.apply(stub));
+            } catch (RuntimeException e) {
+                result.setException(e);
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Latency, error, and payload size metrics of every gRPC call made through this Manager and its captures.
+     */
+    public RpcMetrics getMetrics() {
+        return METRICS;
     }
 
     /**
@@ -75,21 +310,57 @@ public class Manager implements AutoCloseable {
      */
     public AppInfo getAppInfo() {
         final GetAppInfoRequest request = GetAppInfoRequest.newBuilder().build();
-        final GetAppInfoReply reply = STUB.getAppInfo(request);
+        final GetAppInfoReply reply = stub(RpcType.CONTROL).getAppInfo(request);
         return reply.getAppInfo();
     }
 
+    /**
+     * Asynchronous version of {@link #getAppInfo()}.
+     */
+    public CompletableFuture<AppInfo> getAppInfoAsync() {
+        final GetAppInfoRequest request = GetAppInfoRequest.newBuilder().build();
+        return FutureAdapter.toCompletableFuture(futureCall(RpcType.CONTROL, stub -> stub.getAppInfo(request)), GetAppInfoReply::getAppInfo);
+    }
+
     /**
      * Returns a list of devices connected to the Logic 2 instance.
      *
      * @param includeSimulationDevices whether to include devices which are simulated inside Logic2.
      */
     public List<Device> getDevices(boolean includeSimulationDevices) {
-        final GetDevicesRequest request = GetDevicesRequest.newBuilder()
+        final GetDevicesReply reply = stub(RpcType.CONTROL).getDevices(getDevicesRequest(includeSimulationDevices));
+        return reply.getDevicesList();
+    }
+
+    /**
+     * Asynchronous version of {@link #getDevices(boolean)}.
+     */
+    public CompletableFuture<List<Device>> getDevicesAsync(boolean includeSimulationDevices) {
+        return FutureAdapter.toCompletableFuture(
+                futureCall(RpcType.CONTROL, stub -> stub.getDevices(getDevicesRequest(includeSimulationDevices))),
+                GetDevicesReply::getDevicesList
+        );
+    }
+
+    /**
+     * Like {@link #getDevices(boolean)}, but returns the list from the {@link DeviceListCache} shared by every Manager
+     * connected to the same endpoint if it has not expired.
+     */
+    public List<Device> getDevicesCached(boolean includeSimulationDevices) {
+        return getDeviceListCache().get(this, includeSimulationDevices);
+    }
+
+    /**
+     * The device lists shared by every Manager connected to the same endpoint as this one.
+     */
+    public DeviceListCache getDeviceListCache() {
+        return DeviceListCache.forEndpoint(CHANNEL.authority());
+    }
+
+    private static GetDevicesRequest getDevicesRequest(boolean includeSimulationDevices) {
+        return GetDevicesRequest.newBuilder()
                 .setIncludeSimulationDevices(includeSimulationDevices)
                 .build();
-        final GetDevicesReply reply = STUB.getDevices(request);
-        return reply.getDevicesList();
     }
 
 
@@ -134,7 +405,7 @@ public class Manager implements AutoCloseable {
          */
         public List<GlitchFilter> glitchFilters = Collections.emptyList();
 
-        private LogicDeviceConfiguration toGRPC() {
+        LogicDeviceConfiguration toGRPC() {
             return LogicDeviceConfiguration.newBuilder()
                     .setLogicChannels(
                             LogicChannels.newBuilder()
@@ -167,7 +438,7 @@ public class Manager implements AutoCloseable {
         public int channelIndex;
         public double pulseWidthSeconds;
 
-        private GlitchFilterEntry toGRPC() {
+        GlitchFilterEntry toGRPC() {
             return GlitchFilterEntry.newBuilder()
                     .setChannelIndex(channelIndex)
                     .setPulseWidthSeconds(pulseWidthSeconds)
@@ -330,23 +601,84 @@ public class Manager implements AutoCloseable {
 
     /**
      * The existing software settings, like selected device or added analyzers, are ignored.
+     * <p>
+     * Blocks until the capture's buffer size fits in the {@link CaptureBudget} of the Logic 2 instance.
      */
     public Capture startCapture(String deviceID, Manager.DeviceConfig deviceConfig, CaptureConfig captureConfig) {
+        final StartCaptureRequest request = startCaptureRequest(deviceID, deviceConfig, captureConfig);
+        final int bufferSizeMegabytes = captureConfig.bufferSizeMegabytes;
 
-        final StartCaptureRequest request = StartCaptureRequest.newBuilder()
+        return getCaptureBudget().admit(bufferSizeMegabytes, () -> {
+            final StartCaptureReply reply = stub(RpcType.START_CAPTURE).startCapture(request);
+            return new Capture(this, reply.getCaptureInfo(), bufferSizeMegabytes);
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #startCapture}. The request is sent once the capture's buffer size fits in the
+     * {@link CaptureBudget}. Cancelling the returned future stops waiting for the budget, or cancels the StartCapture
+     * request.
+     */
+    public CompletableFuture<Capture> startCaptureAsync(String deviceID, Manager.DeviceConfig deviceConfig, CaptureConfig captureConfig) {
+        final StartCaptureRequest request = startCaptureRequest(deviceID, deviceConfig, captureConfig);
+        final int bufferSizeMegabytes = captureConfig.bufferSizeMegabytes;
+
+        return getCaptureBudget().admitAsync(bufferSizeMegabytes, () -> FutureAdapter.toCompletableFuture(
+                futureCall(RpcType.START_CAPTURE, stub -> stub.startCapture(request)),
+                reply -> new Capture(this, reply.getCaptureInfo(), bufferSizeMegabytes)
+        ), Capture::closeAsync);
+    }
+
+    static StartCaptureRequest startCaptureRequest(String deviceID, Manager.DeviceConfig deviceConfig, CaptureConfig captureConfig) {
+        return StartCaptureRequest.newBuilder()
                 .setDeviceId(deviceID)
                 .setLogicDeviceConfiguration(deviceConfig.toGRPC())
                 .setCaptureConfiguration(captureConfig.toGRPC())
                 .build();
+    }
 
-        final StartCaptureReply reply = STUB.startCapture(request);
+    /**
+     * Starts one capture on each of several devices at the same time, using the same configuration for all of them.
+     *
+     * @see CaptureGroup
+     */
+    public CaptureGroup startCaptureGroup(List<String> deviceIDs, Manager.DeviceConfig deviceConfig, CaptureConfig captureConfig) {
+        final Map<String, DeviceConfig> deviceConfigs = new LinkedHashMap<>();
+        for (String deviceID : deviceIDs) {
+            deviceConfigs.put(deviceID, deviceConfig);
+        }
+        return startCaptureGroup(deviceConfigs, captureConfig);
+    }
 
-        return new Capture(this, reply.getCaptureInfo());
+    /**
+     * Starts one capture on each of several devices at the same time.
+     *
+     * @param deviceConfigs map from device ID to the configuration for that device
+     * @see CaptureGroup
+     */
+    public CaptureGroup startCaptureGroup(Map<String, DeviceConfig> deviceConfigs, CaptureConfig captureConfig) {
+        try {
+            return startCaptureGroupAsync(deviceConfigs, captureConfig).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw e;
+        }
+    }
 
+    /**
+     * Asynchronous version of {@link #startCaptureGroup(Map, CaptureConfig)}. If any device fails to start, the
+     * captures which did start are stopped and closed.
+     */
+    public CompletableFuture<CaptureGroup> startCaptureGroupAsync(Map<String, DeviceConfig> deviceConfigs, CaptureConfig captureConfig) {
+        return CaptureGroup.startAsync(this, deviceConfigs, captureConfig);
     }
 
     /**
      * Loads a .sal file. The returned Capture object will be fully loaded, you do not need to call wait_until_done.
+     * <p>
+     * Blocks until {@link CaptureBudget#loadCaptureMegabytes} fits in the {@link CaptureBudget} of the Logic 2 instance.
      */
     public Capture loadCapture(
             String filePath
@@ -354,10 +686,36 @@ public class Manager implements AutoCloseable {
         final LoadCaptureRequest request = LoadCaptureRequest.newBuilder()
                 .setFilepath(filePath)
                 .build();
+        final CaptureBudget budget = getCaptureBudget();
+        final int committedMegabytes = budget.loadCaptureMegabytes;
+
+        return budget.admit(committedMegabytes, () -> {
+            final LoadCaptureReply reply = stub(RpcType.EXPORT).loadCapture(request);
+            return new Capture(this, reply.getCaptureInfo(), committedMegabytes);
+        });
+    }
+
+    /**
+     * Asynchronous version of {@link #loadCapture}.
+     */
+    public CompletableFuture<Capture> loadCaptureAsync(String filePath) {
+        final LoadCaptureRequest request = LoadCaptureRequest.newBuilder()
+                .setFilepath(filePath)
+                .build();
+        final CaptureBudget budget = getCaptureBudget();
+        final int committedMegabytes = budget.loadCaptureMegabytes;
 
-        final LoadCaptureReply reply = STUB.loadCapture(request);
+        return budget.admitAsync(committedMegabytes, () -> FutureAdapter.toCompletableFuture(
+                futureCall(RpcType.EXPORT, stub -> stub.loadCapture(request)),
+                reply -> new Capture(this, reply.getCaptureInfo(), committedMegabytes)
+        ), Capture::closeAsync);
+    }
 
-        return new Capture(this, reply.getCaptureInfo());
+    /**
+     * The buffer budget shared by every Manager connected to the same endpoint as this one.
+     */
+    public CaptureBudget getCaptureBudget() {
+        return CaptureBudget.forEndpoint(CHANNEL.authority());
     }
 
     @Override
@@ -366,6 +724,14 @@ public class Manager implements AutoCloseable {
         // resources the channel should be shut down when it will no longer be used. If it may be used
         // again leave it running.
         CHANNEL.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        METRICS.unregisterMBeans();
+    }
+
+    /**
+     * @return whether {@link #close()} has been called
+     */
+    boolean isClosed() {
+        return CHANNEL.isShutdown();
     }
 
     public static class IncompatibleApiVersionException extends Exception {
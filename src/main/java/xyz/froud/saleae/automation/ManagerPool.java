@@ -0,0 +1,278 @@
+package xyz.froud.saleae.automation;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs capture jobs on several instances of the Logic 2 software, which may be on different hosts.
+ * <p>
+ * Each job is sent to the least-loaded instance. Load is the number of jobs in flight on the instance, with ties
+ * broken by the sum of {@link Manager.CaptureConfig#bufferSizeMegabytes} committed by those jobs.
+ * <pre>{@code
+ * try (ManagerPool pool = ManagerPool.connect(List.of(
+ *         new InetSocketAddress("rig-a", 10430),
+ *         new InetSocketAddress("rig-b", 10430)))) {
+ *     CompletableFuture<Void> result = pool.submit(captureConfig, manager -> {
+ *         try (Capture capture = manager.startCapture(deviceID, deviceConfig, captureConfig)) {
+ *             capture.waitForCaptureToEnd();
+ *             capture.exportRawDataBinary(directory, channels, 1);
+ *         }
+ *         return null;
+ *     });
+ * }
+ * }</pre>
+ */
+public class ManagerPool implements AutoCloseable {
+
+    /**
+     * Work to do with one Logic 2 instance, for example start a capture, add analyzers, and export.
+     */
+    @FunctionalInterface
+    public interface Job<T> {
+        T run(Manager manager) throws Exception;
+    }
+
+    private final List<Instance> INSTANCES;
+    private final ExecutorService EXECUTOR;
+
+    /**
+     * The pool takes ownership of the managers and closes them when the pool is closed.
+     */
+    public ManagerPool(List<Manager> managers) {
+        this(managers, Executors.newCachedThreadPool());
+    }
+
+    /**
+     * The pool takes ownership of the managers and the executor and closes them when the pool is closed.
+     *
+     * @param executor runs the jobs. It should have at least as many threads as the number of jobs expected to be in
+     * flight at once.
+     */
+    public ManagerPool(List<Manager> managers, ExecutorService executor) {
+        if (managers.isEmpty()) {
+            throw new IllegalArgumentException("At least one manager is required");
+        }
+        final List<Instance> instances = new ArrayList<>(managers.size());
+        for (int i = 0; i < managers.size(); i++) {
+            instances.add(new Instance(i, managers.get(i)));
+        }
+        INSTANCES = List.copyOf(instances);
+        EXECUTOR = executor;
+    }
+
+    /**
+     * Connect to every endpoint. If any connection fails, the ones which succeeded are closed.
+     */
+    public static ManagerPool connect(List<InetSocketAddress> endpoints) throws Manager.IncompatibleApiVersionException {
+        return connect(endpoints, new TransportProfile());
+    }
+
+    /**
+     * Connect to every endpoint with the given transport settings. If any connection fails, the ones which succeeded
+     * are closed.
+     */
+    public static ManagerPool connect(List<InetSocketAddress> endpoints, TransportProfile profile) throws Manager.IncompatibleApiVersionException {
+        final List<Manager> managers = new ArrayList<>(endpoints.size());
+        try {
+            for (InetSocketAddress endpoint : endpoints) {
+                managers.add(new Manager(endpoint.getHostString(), endpoint.getPort(), profile));
+            }
+        } catch (Manager.IncompatibleApiVersionException | RuntimeException e) {
+            for (Manager manager : managers) {
+                try {
+                    manager.close();
+                } catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            throw e;
+        }
+        return new ManagerPool(managers);
+    }
+
+    /**
+     * Run a job on the least-loaded instance.
+     *
+     * @param captureConfig the capture configuration the job will use. Its buffer size counts toward the instance's
+     * load while the job runs.
+     */
+    public <T> CompletableFuture<T> submit(Manager.CaptureConfig captureConfig, Job<T> job) {
+        return submit(captureConfig.bufferSizeMegabytes, job);
+    }
+
+    /**
+     * Run a job on the least-loaded instance.
+     * <p>
+     * Cancelling the returned future skips the job if it has not started, or interrupts it if it is running. The job's
+     * load is released once its executor task returns.
+     *
+     * @param bufferSizeMegabytes counts toward the instance's load while the job runs
+     */
+    public <T> CompletableFuture<T> submit(int bufferSizeMegabytes, Job<T> job) {
+        final Instance instance = acquireLeastLoaded(bufferSizeMegabytes);
+        final JobFuture<T> future = new JobFuture<>();
+        try {
+            EXECUTOR.execute(() -> {
+                boolean started = false;
+                try {
+                    if (future.start()) {
+                        started = true;
+                        future.complete(job.run(instance.MANAGER));
+                    }
+                } catch (Throwable t) {
+                    future.completeExceptionally(t);
+                } finally {
+                    if (started) {
+                        future.finish();
+                    }
+                    release(instance, bufferSizeMegabytes, started);
+                }
+            });
+        } catch (RuntimeException e) {
+            release(instance, bufferSizeMegabytes, false);
+            throw e;
+        }
+        return future;
+    }
+
+    private synchronized Instance acquireLeastLoaded(int bufferSizeMegabytes) {
+        Instance best = INSTANCES.get(0);
+        for (Instance instance : INSTANCES) {
+            if (instance.inFlightJobs < best.inFlightJobs
+                    || (instance.inFlightJobs == best.inFlightJobs && instance.committedMegabytes < best.committedMegabytes)) {
+                best = instance;
+            }
+        }
+        best.inFlightJobs++;
+        best.committedMegabytes += bufferSizeMegabytes;
+        return best;
+    }
+
+    /**
+     * @param ran false if the job was rejected by the executor or cancelled before it started, so it does not count as
+     * completed
+     */
+    private synchronized void release(Instance instance, int bufferSizeMegabytes, boolean ran) {
+        instance.inFlightJobs--;
+        instance.committedMegabytes -= bufferSizeMegabytes;
+        if (ran) {
+            instance.completedJobs++;
+        }
+    }
+
+    /**
+     * @return the current load of each instance, in the order the managers were given
+     */
+    public synchronized List<InstanceLoad> loads() {
+        final List<InstanceLoad> loads = new ArrayList<>(INSTANCES.size());
+        for (Instance instance : INSTANCES) {
+            loads.add(new InstanceLoad(instance.INDEX, instance.inFlightJobs, instance.committedMegabytes, instance.completedJobs));
+        }
+        return loads;
+    }
+
+    public int size() {
+        return INSTANCES.size();
+    }
+
+    /**
+     * Waits for running jobs to finish, then closes every manager.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        for (Instance instance : INSTANCES) {
+            instance.MANAGER.close();
+        }
+    }
+
+    /**
+     * Interrupts the job's thread when cancelled while the job is running.
+     */
+    private static class JobFuture<T> extends CompletableFuture<T> {
+
+        /**
+         * Guarded by this.
+         */
+        private Thread runner;
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            final boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && mayInterruptIfRunning) {
+                synchronized (this) {
+                    if (runner != null) {
+                        runner.interrupt();
+                    }
+                }
+            }
+            return cancelled;
+        }
+
+        /**
+         * @return false if the future was cancelled before the job started
+         */
+        private synchronized boolean start() {
+            if (isDone()) {
+                return false;
+            }
+            runner = Thread.currentThread();
+            return true;
+        }
+
+        private synchronized void finish() {
+            runner = null;
+            // clear an interrupt from a cancel which arrived as the job was finishing, so it does not leak into the
+            // executor's next task
+            //noinspection ResultOfMethodCallIgnored
+            Thread.interrupted();
+        }
+    }
+
+    /**
+     * Load of one Logic 2 instance at the time {@link #loads()} was called.
+     */
+    public static class InstanceLoad {
+        /**
+         * Index of the instance in the list of managers given to the pool.
+         */
+        public final int INDEX;
+        public final int IN_FLIGHT_JOBS;
+        public final long COMMITTED_MEGABYTES;
+        public final long COMPLETED_JOBS;
+
+        InstanceLoad(int index, int inFlightJobs, long committedMegabytes, long completedJobs) {
+            INDEX = index;
+            IN_FLIGHT_JOBS = inFlightJobs;
+            COMMITTED_MEGABYTES = committedMegabytes;
+            COMPLETED_JOBS = completedJobs;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("instance %d: %d in flight, %d MB committed, %d completed",
+                    INDEX, IN_FLIGHT_JOBS, COMMITTED_MEGABYTES, COMPLETED_JOBS);
+        }
+    }
+
+    private static class Instance {
+        final int INDEX;
+        final Manager MANAGER;
+        int inFlightJobs;
+        long committedMegabytes;
+        long completedJobs;
+
+        Instance(int index, Manager manager) {
+            INDEX = index;
+            MANAGER = manager;
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package xyz.froud.saleae.automation;
+
+import saleae.AnalyzerSettingValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Decodes a protocol from the digital channels of a binary export, without adding an analyzer in Logic 2 and exporting
+ * its data table.
+ * <p>
+ * Each decoder reads the same settings as the Logic 2 analyzer with the same name, so one
+ * {@link Capture.AnalyzerSettings} can be used for both. The channels come from
+ * {@link DigitalTransitionIndex#forDirectory}.
+ * <p>
+ * {@link #decodeParallel()} splits a long capture into chunks at resync points, where the protocol is known to be
+ * between frames, and decodes the chunks on a {@link ForkJoinPool}. Because every chunk starts at a point the
+ * sequential decoder would also pass through in the idle state, the frames are the same as from {@link #decode()}.
+ */
+public abstract class ProtocolDecoder {
+
+    /**
+     * Chunks with fewer transitions on the {@link #primaryChannel()} than this are not split further.
+     */
+    static final long DEFAULT_MIN_CHUNK_TRANSITIONS = 1 << 16;
+
+    /**
+     * One decoded frame. The types and fields match the frames of the Logic 2 analyzer with the same name.
+     */
+    public static class Frame {
+        public static final int PARITY_ERROR = 1;
+        public static final int FRAMING_ERROR = 1 << 1;
+        /**
+         * I2C address or data byte which was not acknowledged.
+         */
+        public static final int NAK = 1 << 2;
+        /**
+         * I2C address for a read.
+         */
+        public static final int READ = 1 << 3;
+
+        /**
+         * For example "data", "result", "address", "start", or "stop".
+         */
+        public final String TYPE;
+        public final double START_TIME;
+        public final double END_TIME;
+        /**
+         * Async Serial data, SPI MOSI, I2C data, or the 7-bit I2C address.
+         */
+        public final long DATA;
+        /**
+         * SPI MISO. Zero for other protocols.
+         */
+        public final long MISO;
+        /**
+         * Bitwise OR of {@link #PARITY_ERROR}, {@link #FRAMING_ERROR}, {@link #NAK}, and {@link #READ}.
+         */
+        public final int FLAGS;
+
+        Frame(String type, double startTime, double endTime, long data, long miso, int flags) {
+            TYPE = type;
+            START_TIME = startTime;
+            END_TIME = endTime;
+            DATA = data;
+            MISO = miso;
+            FLAGS = flags;
+        }
+
+        public boolean hasFlag(int flag) {
+            return (FLAGS & flag) != 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s %.9f-%.9f data=0x%X miso=0x%X flags=%d", TYPE, START_TIME, END_TIME, DATA, MISO, FLAGS);
+        }
+    }
+
+    /**
+     * Channel whose transitions are used to balance the chunks, for example the clock.
+     */
+    abstract DigitalTransitionIndex primaryChannel();
+
+    /**
+     * Decode the frames which start at or after {@code fromSeconds} and before {@code toSeconds}. A frame which
+     * starts before {@code toSeconds} is decoded to its end.
+     *
+     * @param fromSeconds the start of the capture, or a time returned by {@link #resyncPointAtOrAfter}
+     */
+    abstract void decode(double fromSeconds, double toSeconds, List<Frame> frames);
+
+    /**
+     * @return the first time at or after {@code seconds} and before {@code limitSeconds} where decoding can start as if
+     * from the start of the capture, or NaN if there is none
+     */
+    abstract double resyncPointAtOrAfter(double seconds, double limitSeconds);
+
+    /**
+     * Decode the whole capture on this thread.
+     */
+    public List<Frame> decode() {
+        final List<Frame> frames = new ArrayList<>();
+        decode(primaryChannel().channel().BEGIN_TIME, Double.POSITIVE_INFINITY, frames);
+        return frames;
+    }
+
+    /**
+     * Decode the whole capture in parallel on the common {@link ForkJoinPool}.
+     */
+    public List<Frame> decodeParallel() {
+        return decodeParallel(ForkJoinPool.commonPool(), DEFAULT_MIN_CHUNK_TRANSITIONS);
+    }
+
+    /**
+     * @param minChunkTransitions chunks with fewer transitions than this on the primary channel are decoded without
+     *                            being split further
+     */
+    public List<Frame> decodeParallel(ForkJoinPool pool, long minChunkTransitions) {
+        return pool.invoke(new DecodeTask(primaryChannel().channel().BEGIN_TIME, Double.POSITIVE_INFINITY, minChunkTransitions));
+    }
+
+    private class DecodeTask extends RecursiveTask<List<Frame>> {
+        final double FROM;
+        final double TO;
+        final long MIN_CHUNK_TRANSITIONS;
+
+        DecodeTask(double from, double to, long minChunkTransitions) {
+            FROM = from;
+            TO = to;
+            MIN_CHUNK_TRANSITIONS = minChunkTransitions;
+        }
+
+        @Override
+        protected List<Frame> compute() {
+            final DigitalTransitionIndex primary = primaryChannel();
+            final long first = primary.countBefore(FROM);
+            final long end = TO == Double.POSITIVE_INFINITY ? primary.channel().TRANSITION_COUNT : primary.countBefore(TO);
+            if (end - first >= 2 * MIN_CHUNK_TRANSITIONS) {
+                final double split = resyncPointAtOrAfter(primary.channel().transitionTime((first + end) >>> 1), TO);
+                if (split > FROM && split < TO) {
+                    final DecodeTask left = new DecodeTask(FROM, split, MIN_CHUNK_TRANSITIONS);
+                    left.fork();
+                    final List<Frame> right = new DecodeTask(split, TO, MIN_CHUNK_TRANSITIONS).compute();
+                    final List<Frame> frames = left.join();
+                    frames.addAll(right);
+                    return frames;
+                }
+            }
+            final List<Frame> frames = new ArrayList<>();
+            decode(FROM, TO, frames);
+            return frames;
+        }
+    }
+
+    /**
+     * Reads the state of a channel at increasing times. Each call is amortized constant time.
+     */
+    static class Sampler {
+        private final RawBinaryReader.DigitalChannel CHANNEL;
+
+        /**
+         * Index of the first transition which has not been passed.
+         */
+        private long next;
+
+        Sampler(DigitalTransitionIndex index, double fromSeconds) {
+            CHANNEL = index.channel();
+            next = index.countBefore(fromSeconds);
+        }
+
+        /**
+         * @return 0 or 1. A transition exactly at the time has already happened.
+         */
+        int stateAt(double seconds) {
+            while (next < CHANNEL.TRANSITION_COUNT && CHANNEL.transitionTime(next) <= seconds) {
+                next++;
+            }
+            return CHANNEL.INITIAL_STATE ^ (int) (next & 1);
+        }
+
+        /**
+         * @return index of the first transition at or after the time which has not been passed, or the transition
+         * count if there is none
+         */
+        long nextTransitionAtOrAfter(double seconds) {
+            while (next < CHANNEL.TRANSITION_COUNT && CHANNEL.transitionTime(next) < seconds) {
+                next++;
+            }
+            return next;
+        }
+    }
+
+    /**
+     * @return the channel index, or -1 if the setting is missing or is not a number, like "None"
+     */
+    static int channelSetting(Capture.AnalyzerSettings settings, String key) {
+        final AnalyzerSettingValue value = settings.get(key);
+        if (value == null) {
+            return -1;
+        }
+        return switch (value.getValueCase()) {
+            case INT64_VALUE -> (int) value.getInt64Value();
+            case DOUBLE_VALUE -> (int) value.getDoubleValue();
+            default -> -1;
+        };
+    }
+
+    static DigitalTransitionIndex requiredChannel(Capture.AnalyzerSettings settings, String key, Map<Integer, DigitalTransitionIndex> channels) {
+        final DigitalTransitionIndex channel = optionalChannel(settings, key, channels);
+        if (channel == null) {
+            throw new IllegalArgumentException("The \"" + key + "\" setting is required");
+        }
+        return channel;
+    }
+
+    /**
+     * @return null if the setting is missing or not a channel number
+     */
+    static DigitalTransitionIndex optionalChannel(Capture.AnalyzerSettings settings, String key, Map<Integer, DigitalTransitionIndex> channels) {
+        final int channelIndex = channelSetting(settings, key);
+        if (channelIndex < 0) {
+            return null;
+        }
+        final DigitalTransitionIndex channel = channels.get(channelIndex);
+        if (channel == null) {
+            throw new IllegalArgumentException(String.format("The \"%s\" setting is channel %d, which is not in the export", key, channelIndex));
+        }
+        return channel;
+    }
+
+    static long longSetting(Capture.AnalyzerSettings settings, String key, long defaultValue) {
+        final AnalyzerSettingValue value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        }
+        return switch (value.getValueCase()) {
+            case INT64_VALUE -> value.getInt64Value();
+            case DOUBLE_VALUE -> (long) value.getDoubleValue();
+            default -> throw new IllegalArgumentException("The \"" + key + "\" setting must be a number");
+        };
+    }
+
+    static String stringSetting(Capture.AnalyzerSettings settings, String key, String defaultValue) {
+        final AnalyzerSettingValue value = settings.get(key);
+        if (value == null) {
+            return defaultValue;
+        } else if (value.getValueCase() != AnalyzerSettingValue.ValueCase.STRING_VALUE) {
+            throw new IllegalArgumentException("The \"" + key + "\" setting must be a string");
+        }
+        return value.getStringValue();
+    }
+
+    /**
+     * @return the number at the start of a setting like "8 Bits per Transfer (Standard)" or "1.5 Stop Bits"
+     */
+    static double leadingNumber(String key, String value) {
+        int end = 0;
+        while (end < value.length() && (Character.isDigit(value.charAt(end)) || value.charAt(end) == '.')) {
+            end++;
+        }
+        if (end == 0) {
+            throw new IllegalArgumentException("The \"" + key + "\" setting does not start with a number: " + value);
+        }
+        return Double.parseDouble(value.substring(0, end));
+    }
+
+}
@@ -0,0 +1,267 @@
+package xyz.froud.saleae.automation;
+
+import saleae.LogicChannels;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs {@link Capture#exportRawDataBinary} and hands each channel's .bin file to a consumer as soon as that file has
+ * been completely written, instead of after the whole export has finished.
+ * <p>
+ * Logic 2 writes one file per channel. The directory is watched with a {@link WatchService}, and a file is complete
+ * when its size matches the size given by its header and has not changed for {@link #settleTime}. When the export
+ * request returns, every remaining file is complete. Each complete file is memory-mapped with {@link RawBinaryReader}
+ * and passed to the consumer on its own thread, so channels are processed in parallel with each other and with the
+ * rest of the export.
+ * <p>
+ * The directory should be empty, because a .bin file left over from an earlier export looks complete.
+ */
+public class RawBinaryExportWatcher implements AutoCloseable {
+
+    /**
+     * Processes one channel of an export.
+     */
+    @FunctionalInterface
+    public interface ChannelConsumer<T> {
+        void accept(int channelIndex, T channel) throws Exception;
+    }
+
+    /**
+     * How long a file's size must match its header before it is treated as complete. Only matters for files which are
+     * still being written when the header happens to match, for example a digital file with no transitions.
+     */
+    public volatile Duration settleTime = Duration.ofMillis(50);
+
+    /**
+     * How often files are checked when there are no file system events.
+     */
+    public volatile Duration pollInterval = Duration.ofMillis(10);
+
+    private final ExecutorService EXECUTOR;
+
+    public RawBinaryExportWatcher() {
+        this(VirtualThreads.newThreadPerTaskExecutor("export-watcher"));
+    }
+
+    /**
+     * The watcher takes ownership of the executor and shuts it down when the watcher is closed. It needs one thread per
+     * export being watched plus one per channel being consumed.
+     */
+    public RawBinaryExportWatcher(ExecutorService executor) {
+        EXECUTOR = executor;
+    }
+
+    /**
+     * Export the channels and consume each one as soon as its file is complete.
+     *
+     * @param channels              if no channels are specified, all channels will be exported
+     * @param digitalConsumer       called once for each digital channel
+     * @param analogConsumer        called once for each analog channel
+     * @return completes when the export request has returned and every consumer has finished. Completes exceptionally
+     * with the first failure of the export or of a consumer. If the export fails, consumers which have not started are
+     * skipped, and the future completes once the ones which had started have returned.
+     */
+    public CompletableFuture<Void> exportRawDataBinary(
+            Capture capture,
+            Path directory,
+            LogicChannels channels,
+            long analogDownsampleRatio,
+            ChannelConsumer<RawBinaryReader.DigitalChannel> digitalConsumer,
+            ChannelConsumer<RawBinaryReader.AnalogChannel> analogConsumer
+    ) throws IOException {
+        // register before the export starts so no file is missed
+        final WatchService watchService = directory.getFileSystem().newWatchService();
+        try {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException | RuntimeException e) {
+            watchService.close();
+            throw e;
+        }
+        final Watch watch = new Watch(directory, channels, digitalConsumer, analogConsumer);
+        final CompletableFuture<Void> export = capture.exportRawDataBinaryAsync(directory.toString(), channels, analogDownsampleRatio);
+        return CompletableFuture.runAsync(() -> {
+            try (watchService) {
+                watch.run(watchService, export);
+            } catch (IOException e) {
+                throw new CompletionException(e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CompletionException(e);
+            }
+        }, EXECUTOR).handle((ignored, watchFailure) -> watchFailure).thenCompose(watchFailure -> {
+            // the watching thread has finished, so CONSUMERS no longer changes
+            final CompletableFuture<Void> consumers = CompletableFuture.allOf(watch.CONSUMERS.toArray(CompletableFuture[]::new));
+            if (watchFailure == null) {
+                return consumers;
+            }
+            watch.failed = true;
+            return consumers.handle((alsoIgnored, consumerFailure) -> {
+                throw watchFailure instanceof CompletionException completionException
+                        ? completionException
+                        : new CompletionException(watchFailure);
+            });
+        });
+    }
+
+    /**
+     * Waits for every watch and consumer to finish, then shuts down the executor.
+     */
+    @Override
+    public void close() throws InterruptedException {
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * State of one export being watched. Only used by the watching thread, except for {@link #failed}.
+     */
+    private class Watch {
+        final Path DIRECTORY;
+        final Set<Integer> DIGITAL_CHANNELS;
+        final Set<Integer> ANALOG_CHANNELS;
+        final boolean ALL_CHANNELS;
+        final ChannelConsumer<RawBinaryReader.DigitalChannel> DIGITAL_CONSUMER;
+        final ChannelConsumer<RawBinaryReader.AnalogChannel> ANALOG_CONSUMER;
+
+        /**
+         * Files which have appeared but have not been handed to a consumer, with when their size last matched the
+         * header, or -1 if it doesn't match.
+         */
+        final Map<Path, Long> PENDING = new HashMap<>();
+        final Set<Path> DISPATCHED = new HashSet<>();
+        final List<CompletableFuture<Void>> CONSUMERS = new ArrayList<>();
+
+        /**
+         * Set when the export or the watch failed, so consumers which have not started yet are skipped.
+         */
+        volatile boolean failed;
+
+        Watch(
+                Path directory,
+                LogicChannels channels,
+                ChannelConsumer<RawBinaryReader.DigitalChannel> digitalConsumer,
+                ChannelConsumer<RawBinaryReader.AnalogChannel> analogConsumer
+        ) {
+            DIRECTORY = directory;
+            DIGITAL_CHANNELS = new HashSet<>(channels.getDigitalChannelsList());
+            ANALOG_CHANNELS = new HashSet<>(channels.getAnalogChannelsList());
+            ALL_CHANNELS = DIGITAL_CHANNELS.isEmpty() && ANALOG_CHANNELS.isEmpty();
+            DIGITAL_CONSUMER = digitalConsumer;
+            ANALOG_CONSUMER = analogConsumer;
+        }
+
+        void run(WatchService watchService, CompletableFuture<Void> export) throws IOException, InterruptedException {
+            final long pollNanos = pollInterval.toNanos();
+            final long settleNanos = settleTime.toNanos();
+            while (!export.isDone()) {
+                final WatchKey key = watchService.poll(pollNanos, TimeUnit.NANOSECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            scanDirectory();
+                        } else if (event.context() instanceof Path fileName) {
+                            addIfExpected(DIRECTORY.resolve(fileName));
+                        }
+                    }
+                    key.reset();
+                }
+                checkPending(settleNanos);
+            }
+
+            // the export has finished, so everything on disk is complete
+            try {
+                export.join();
+            } catch (CompletionException e) {
+                failed = true;
+                throw e;
+            }
+            scanDirectory();
+            for (Path file : new ArrayList<>(PENDING.keySet())) {
+                dispatch(file);
+            }
+        }
+
+        private void scanDirectory() throws IOException {
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(DIRECTORY, "*.bin")) {
+                for (Path file : stream) {
+                    addIfExpected(file);
+                }
+            }
+        }
+
+        private void addIfExpected(Path file) {
+            if (DISPATCHED.contains(file) || PENDING.containsKey(file)) {
+                return;
+            }
+            final int digitalIndex = RawBinaryReader.digitalChannelIndex(file);
+            final int analogIndex = RawBinaryReader.analogChannelIndex(file);
+            if ((digitalIndex >= 0 && (ALL_CHANNELS || DIGITAL_CHANNELS.contains(digitalIndex)))
+                    || (analogIndex >= 0 && (ALL_CHANNELS || ANALOG_CHANNELS.contains(analogIndex)))) {
+                PENDING.put(file, -1L);
+            }
+        }
+
+        private void checkPending(long settleNanos) throws IOException {
+            final long now = System.nanoTime();
+            for (Path file : new ArrayList<>(PENDING.keySet())) {
+                boolean sizeMatches;
+                try {
+                    final long expectedSize = RawBinaryReader.expectedFileSize(file);
+                    sizeMatches = expectedSize >= 0 && expectedSize == Files.size(file);
+                } catch (IOException e) {
+                    // not created yet, or the header is still being written. A file which is really malformed fails
+                    // in its consumer once the export request has returned.
+                    sizeMatches = false;
+                }
+                final long matchingSince = PENDING.get(file);
+                if (!sizeMatches) {
+                    PENDING.put(file, -1L);
+                } else if (matchingSince < 0) {
+                    PENDING.put(file, now);
+                } else if (now - matchingSince >= settleNanos) {
+                    dispatch(file);
+                }
+            }
+        }
+
+        private void dispatch(Path file) {
+            PENDING.remove(file);
+            DISPATCHED.add(file);
+            final int digitalIndex = RawBinaryReader.digitalChannelIndex(file);
+            CONSUMERS.add(CompletableFuture.runAsync(() -> {
+                if (failed) {
+                    return;
+                }
+                try {
+                    if (digitalIndex >= 0) {
+                        DIGITAL_CONSUMER.accept(digitalIndex, RawBinaryReader.mapDigital(file));
+                    } else {
+                        ANALOG_CONSUMER.accept(RawBinaryReader.analogChannelIndex(file), RawBinaryReader.mapAnalog(file));
+                    }
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, EXECUTOR));
+        }
+    }
+
+}
@@ -0,0 +1,435 @@
+package xyz.froud.saleae.automation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the .bin files written by {@link Capture#exportRawDataBinary}.
+ * <p>
+ * The files are memory-mapped, so the transition times and analog samples are never copied onto the Java heap. Files
+ * larger than 2 GB are mapped as several segments of at most {@value #SEGMENT_BYTES} bytes each.
+ *
+ * @see <a
+ * href="https://support.saleae.com/faq/technical-faq/binary-export-format-logic-2">https://support.saleae.com/faq/technical-faq/binary-export-format-logic-2</a>
+ */
+public final class RawBinaryReader {
+
+    private static final byte[] IDENTIFIER = "<SALEAE>".getBytes(StandardCharsets.US_ASCII);
+    private static final int SUPPORTED_VERSION = 0;
+    private static final int TYPE_DIGITAL = 0;
+    private static final int TYPE_ANALOG = 1;
+
+    /**
+     * identifier, version, type, initial_state, begin_time, end_time, num_transitions
+     */
+    private static final int DIGITAL_HEADER_BYTES = 8 + 4 + 4 + 4 + 8 + 8 + 8;
+
+    /**
+     * identifier, version, type, begin_time, sample_rate, downsample, num_samples
+     */
+    private static final int ANALOG_HEADER_BYTES = 8 + 4 + 4 + 8 + 8 + 8 + 8;
+
+    static final int SEGMENT_BYTES = 1 << 30;
+
+    private static final Pattern DIGITAL_FILE_NAME = Pattern.compile("digital_(\\d+)\\.bin");
+    private static final Pattern ANALOG_FILE_NAME = Pattern.compile("analog_(\\d+)\\.bin");
+
+    private RawBinaryReader() {
+    }
+
+    /**
+     * Memory-maps one digital_N.bin file.
+     */
+    public static DigitalChannel mapDigital(Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = readHeader(fileChannel, file, DIGITAL_HEADER_BYTES, TYPE_DIGITAL);
+            final int initialState = header.getInt();
+            final double beginTime = header.getDouble();
+            final double endTime = header.getDouble();
+            final long transitionCount = header.getLong();
+
+            final MappedByteBuffer[] segments = mapSegments(fileChannel, file, DIGITAL_HEADER_BYTES, transitionCount, Double.BYTES);
+            final DoubleBuffer[] doubleSegments = new DoubleBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                doubleSegments[i] = segments[i].order(ByteOrder.LITTLE_ENDIAN).asDoubleBuffer();
+            }
+            return new DigitalChannel(initialState, beginTime, endTime, transitionCount, doubleSegments);
+        }
+    }
+
+    /**
+     * Memory-maps one analog_N.bin file.
+     */
+    public static AnalogChannel mapAnalog(Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = readHeader(fileChannel, file, ANALOG_HEADER_BYTES, TYPE_ANALOG);
+            final double beginTime = header.getDouble();
+            final long sampleRate = header.getLong();
+            final long downsample = header.getLong();
+            final long sampleCount = header.getLong();
+
+            final MappedByteBuffer[] segments = mapSegments(fileChannel, file, ANALOG_HEADER_BYTES, sampleCount, Float.BYTES);
+            final FloatBuffer[] floatSegments = new FloatBuffer[segments.length];
+            for (int i = 0; i < segments.length; i++) {
+                floatSegments[i] = segments[i].order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer();
+            }
+            return new AnalogChannel(beginTime, sampleRate, downsample, sampleCount, floatSegments);
+        }
+    }
+
+    /**
+     * Memory-maps every digital_N.bin file in a directory written by {@link Capture#exportRawDataBinary}.
+     *
+     * @return map from channel index to channel data
+     */
+    public static SortedMap<Integer, DigitalChannel> mapDigitalDirectory(Path directory) throws IOException {
+        final SortedMap<Integer, DigitalChannel> result = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "digital_*.bin")) {
+            for (Path file : stream) {
+                final int channelIndex = digitalChannelIndex(file);
+                if (channelIndex >= 0) {
+                    result.put(channelIndex, mapDigital(file));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Memory-maps every analog_N.bin file in a directory written by {@link Capture#exportRawDataBinary}.
+     *
+     * @return map from channel index to channel data
+     */
+    public static SortedMap<Integer, AnalogChannel> mapAnalogDirectory(Path directory) throws IOException {
+        final SortedMap<Integer, AnalogChannel> result = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "analog_*.bin")) {
+            for (Path file : stream) {
+                final int channelIndex = analogChannelIndex(file);
+                if (channelIndex >= 0) {
+                    result.put(channelIndex, mapAnalog(file));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the channel index from a file named digital_N.bin, or -1 if the file is not named like that
+     */
+    static int digitalChannelIndex(Path file) {
+        return channelIndex(DIGITAL_FILE_NAME, file);
+    }
+
+    /**
+     * @return the channel index from a file named analog_N.bin, or -1 if the file is not named like that
+     */
+    static int analogChannelIndex(Path file) {
+        return channelIndex(ANALOG_FILE_NAME, file);
+    }
+
+    private static int channelIndex(Pattern pattern, Path file) {
+        final Matcher matcher = pattern.matcher(file.getFileName().toString());
+        return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+    }
+
+    /**
+     * Works for digital and analog files. While Logic 2 is writing a file, its size does not match the header, either
+     * because the data has not all been written yet or because the header still has a placeholder count.
+     *
+     * @return the size in bytes the file will have once it has been completely written, according to its header, or -1
+     * if the header has not been completely written yet
+     * @throws IOException if the file is not a Saleae binary export file
+     */
+    static long expectedFileSize(Path file) throws IOException {
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.READ)) {
+            final ByteBuffer header = ByteBuffer.allocate(Math.max(DIGITAL_HEADER_BYTES, ANALOG_HEADER_BYTES)).order(ByteOrder.LITTLE_ENDIAN);
+            while (header.hasRemaining()) {
+                if (fileChannel.read(header, header.position()) <= 0) {
+                    // the rest has not been written yet
+                    break;
+                }
+            }
+            if (header.position() < IDENTIFIER.length + 8) {
+                return -1;
+            }
+            final byte[] identifier = new byte[IDENTIFIER.length];
+            header.get(0, identifier);
+            if (!Arrays.equals(identifier, IDENTIFIER)) {
+                throw new IOException(file + " is not a Saleae binary export file");
+            }
+            final int type = header.getInt(IDENTIFIER.length + 4);
+            final int headerBytes = type == TYPE_DIGITAL ? DIGITAL_HEADER_BYTES : ANALOG_HEADER_BYTES;
+            if (type != TYPE_DIGITAL && type != TYPE_ANALOG) {
+                throw new IOException(String.format("%s has unknown type %d", file, type));
+            } else if (header.position() < headerBytes) {
+                return -1;
+            }
+            final long elementCount = header.getLong(headerBytes - Long.BYTES);
+            return headerBytes + elementCount * (type == TYPE_DIGITAL ? Double.BYTES : Float.BYTES);
+        }
+    }
+
+    /**
+     * Reads the header and checks the identifier, version, and type.
+     *
+     * @return buffer positioned after the type field
+     */
+    private static ByteBuffer readHeader(FileChannel fileChannel, Path file, int headerBytes, int expectedType) throws IOException {
+        final ByteBuffer header = ByteBuffer.allocate(headerBytes).order(ByteOrder.LITTLE_ENDIAN);
+        while (header.hasRemaining()) {
+            if (fileChannel.read(header, header.position()) < 0) {
+                throw new IOException(file + " is too short to contain a header");
+            }
+        }
+        header.flip();
+
+        final byte[] identifier = new byte[IDENTIFIER.length];
+        header.get(identifier);
+        if (!Arrays.equals(identifier, IDENTIFIER)) {
+            throw new IOException(file + " is not a Saleae binary export file");
+        }
+        final int version = header.getInt();
+        if (version != SUPPORTED_VERSION) {
+            throw new IOException(String.format("%s has binary format version %d, only version %d is supported",
+                    file, version, SUPPORTED_VERSION));
+        }
+        final int type = header.getInt();
+        if (type != expectedType) {
+            throw new IOException(String.format("%s has type %d, expected %d", file, type, expectedType));
+        }
+        return header;
+    }
+
+    private static MappedByteBuffer[] mapSegments(FileChannel fileChannel, Path file, long dataOffset, long elementCount, int elementBytes) throws IOException {
+        final long dataBytes = elementCount * elementBytes;
+        if (elementCount < 0 || fileChannel.size() < dataOffset + dataBytes) {
+            throw new IOException(String.format("%s is truncated: header says %d values but the file is %d bytes",
+                    file, elementCount, fileChannel.size()));
+        }
+        final int segmentCount = (int) Math.max(1, (dataBytes + SEGMENT_BYTES - 1) / SEGMENT_BYTES);
+        final MappedByteBuffer[] segments = new MappedByteBuffer[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            final long segmentOffset = (long) i * SEGMENT_BYTES;
+            final long segmentBytes = Math.min(SEGMENT_BYTES, dataBytes - segmentOffset);
+            segments[i] = fileChannel.map(FileChannel.MapMode.READ_ONLY, dataOffset + segmentOffset, segmentBytes);
+        }
+        return segments;
+    }
+
+    /**
+     * Contents of one digital_N.bin file. The transition times are in seconds and are sorted.
+     */
+    public static class DigitalChannel {
+
+        private static final int SEGMENT_SHIFT = Integer.numberOfTrailingZeros(SEGMENT_BYTES / Double.BYTES);
+        private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+        /**
+         * 0 for low, 1 for high.
+         */
+        public final int INITIAL_STATE;
+        public final double BEGIN_TIME;
+        public final double END_TIME;
+        public final long TRANSITION_COUNT;
+
+        private final DoubleBuffer[] SEGMENTS;
+
+        DigitalChannel(int initialState, double beginTime, double endTime, long transitionCount, DoubleBuffer[] segments) {
+            INITIAL_STATE = initialState;
+            BEGIN_TIME = beginTime;
+            END_TIME = endTime;
+            TRANSITION_COUNT = transitionCount;
+            SEGMENTS = segments;
+        }
+
+        public double transitionTime(long index) {
+            return SEGMENTS[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+        }
+
+        /**
+         * @return 0 or 1, the state of the channel after the transition with the given index
+         */
+        public int stateAfterTransition(long index) {
+            return INITIAL_STATE ^ (int) ((index + 1) & 1);
+        }
+
+        public int segmentCount() {
+            return SEGMENTS.length;
+        }
+
+        /**
+         * @return read-only view of the transition times in one mapped segment. Segment {@code i} starts at
+         * transition index {@code i * segmentLength()}.
+         */
+        public DoubleBuffer segment(int segmentIndex) {
+            return SEGMENTS[segmentIndex].asReadOnlyBuffer();
+        }
+
+        /**
+         * @return maximum number of transitions in each segment
+         */
+        public static int segmentLength() {
+            return 1 << SEGMENT_SHIFT;
+        }
+
+        public TransitionCursor cursor() {
+            return new TransitionCursor(this);
+        }
+    }
+
+    /**
+     * Iterates over the transitions of a {@link DigitalChannel} without boxing.
+     * <pre>{@code
+     * TransitionCursor cursor = channel.cursor();
+     * while (cursor.next()) {
+     *     double t = cursor.time();
+     *     int newState = cursor.state();
+     * }
+     * }</pre>
+     */
+    public static class TransitionCursor {
+        private final DigitalChannel CHANNEL;
+        private long index = -1;
+        private double time = Double.NaN;
+
+        TransitionCursor(DigitalChannel channel) {
+            CHANNEL = channel;
+        }
+
+        /**
+         * Advance to the next transition.
+         *
+         * @return false if there are no more transitions
+         */
+        public boolean next() {
+            if (index + 1 >= CHANNEL.TRANSITION_COUNT) {
+                index = CHANNEL.TRANSITION_COUNT;
+                time = Double.NaN;
+                return false;
+            }
+            index++;
+            time = CHANNEL.transitionTime(index);
+            return true;
+        }
+
+        /**
+         * Position the cursor so the next call to {@link #next()} moves to the transition with the given index.
+         */
+        public void seek(long nextIndex) {
+            index = nextIndex - 1;
+            time = Double.NaN;
+        }
+
+        /**
+         * @return index of the current transition
+         */
+        public long index() {
+            return index;
+        }
+
+        /**
+         * @return time of the current transition, in seconds
+         */
+        public double time() {
+            return time;
+        }
+
+        /**
+         * @return 0 or 1, the state of the channel after the current transition
+         */
+        public int state() {
+            return CHANNEL.stateAfterTransition(index);
+        }
+    }
+
+    /**
+     * Contents of one analog_N.bin file. The samples are in volts.
+     */
+    public static class AnalogChannel {
+
+        private static final int SEGMENT_SHIFT = Integer.numberOfTrailingZeros(SEGMENT_BYTES / Float.BYTES);
+        private static final int SEGMENT_MASK = (1 << SEGMENT_SHIFT) - 1;
+
+        public final double BEGIN_TIME;
+        /**
+         * Sample rate of the capture, before downsampling.
+         */
+        public final long SAMPLE_RATE;
+        public final long DOWNSAMPLE;
+        public final long SAMPLE_COUNT;
+
+        private final FloatBuffer[] SEGMENTS;
+
+        AnalogChannel(double beginTime, long sampleRate, long downsample, long sampleCount, FloatBuffer[] segments) {
+            BEGIN_TIME = beginTime;
+            SAMPLE_RATE = sampleRate;
+            DOWNSAMPLE = downsample;
+            SAMPLE_COUNT = sampleCount;
+            SEGMENTS = segments;
+        }
+
+        public float sample(long index) {
+            return SEGMENTS[(int) (index >>> SEGMENT_SHIFT)].get((int) (index & SEGMENT_MASK));
+        }
+
+        /**
+         * @return time of the sample with the given index, in seconds
+         */
+        public double sampleTime(long index) {
+            return BEGIN_TIME + (double) (index * DOWNSAMPLE) / SAMPLE_RATE;
+        }
+
+        /**
+         * @return sample rate of the exported data, after downsampling
+         */
+        public double effectiveSampleRate() {
+            return (double) SAMPLE_RATE / DOWNSAMPLE;
+        }
+
+        public int segmentCount() {
+            return SEGMENTS.length;
+        }
+
+        /**
+         * @return read-only view of the samples in one mapped segment. Segment {@code i} starts at sample index
+         * {@code i * segmentLength()}.
+         */
+        public FloatBuffer segment(int segmentIndex) {
+            return SEGMENTS[segmentIndex].asReadOnlyBuffer();
+        }
+
+        /**
+         * @return maximum number of samples in each segment
+         */
+        public static int segmentLength() {
+            return 1 << SEGMENT_SHIFT;
+        }
+
+        /**
+         * @return read-only view of all samples
+         * @throws IllegalStateException if the file is too big to fit in one segment
+         */
+        public FloatBuffer samples() {
+            if (SEGMENTS.length != 1) {
+                throw new IllegalStateException("Too many samples for one FloatBuffer, use segment(int) instead");
+            }
+            return segment(0);
+        }
+    }
+
+}
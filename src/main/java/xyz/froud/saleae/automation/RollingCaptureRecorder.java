@@ -0,0 +1,380 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Records for hours as a series of manual captures, called segments, which each last about the same time.
+ * <p>
+ * A single manual capture with {@code trimDataSeconds} loses everything older than the trim window, and stopping,
+ * saving, and starting again leaves a gap as long as the save. Instead, when a segment ends the next segment is started
+ * right away, and the previous segment is passed to a {@link SegmentHandler} (for example to save or export it) and
+ * then closed on another thread while the next one records.
+ * <p>
+ * With more than one device, segments alternate between the devices. The next segment is started early by the last
+ * StartCapture latency, so it is already recording when the previous segment is stopped and the segments overlap
+ * slightly. With one device the previous segment has to be stopped first, so there is a gap of about one StartCapture
+ * round trip.
+ * <p>
+ * The gap before each segment is recorded in {@link #deadTimeNanos()}. It is measured on this side of the gRPC
+ * connection, from sending StopCapture for the previous segment until the StartCapture reply for the next one, so it is
+ * an upper bound on the time which no device recorded. It is zero when the segments overlap.
+ */
+public class RollingCaptureRecorder implements AutoCloseable {
+
+    /**
+     * What to do with each segment after it has stopped.
+     */
+    @FunctionalInterface
+    public interface SegmentHandler {
+        /**
+         * Called on its own thread while the next segment records. The segment's capture is closed after this returns
+         * or throws, so everything which is needed must be saved or exported here.
+         */
+        void handle(Segment segment) throws Exception;
+    }
+
+    private final Manager MANAGER;
+    private final List<String> DEVICE_IDS;
+    private final Manager.DeviceConfig DEVICE_CONFIG;
+    private final Manager.CaptureConfigManual CAPTURE_CONFIG;
+    private final long SEGMENT_NANOS;
+    private final SegmentHandler HANDLER;
+    private final int MAX_PENDING_SEGMENTS;
+
+    /**
+     * One permit per segment which may be stopped but not yet closed.
+     */
+    private final Semaphore PENDING_SEGMENTS;
+    private final ExecutorService EXECUTOR = VirtualThreads.newThreadPerTaskExecutor("rolling-capture");
+    private final ConcurrentHistogram DEAD_TIME_NANOS = new ConcurrentHistogram();
+    private final ConcurrentHistogram START_LATENCY_NANOS = new ConcurrentHistogram();
+    private final LongAdder FAILED_SEGMENTS = new LongAdder();
+
+    private Future<?> loop;
+    private volatile boolean stopping;
+    private volatile long lastStartLatencyNanos;
+    private volatile long lastDeadTimeNanos;
+    private volatile long segmentCount;
+    private volatile Consumer<Segment> listener = segment -> {
+    };
+
+    /**
+     * @param deviceIDs          segments use these devices in turn
+     * @param captureConfig      the buffer size applies to each segment
+     * @param segmentLength      how long each segment records
+     * @param maxPendingSegments maximum number of stopped segments which are being handled or closed. When the handler
+     *                           falls this far behind, the current segment keeps recording until one finishes, so no
+     *                           data is lost but segments get longer.
+     */
+    public RollingCaptureRecorder(
+            Manager manager,
+            List<String> deviceIDs,
+            Manager.DeviceConfig deviceConfig,
+            Manager.CaptureConfigManual captureConfig,
+            Duration segmentLength,
+            int maxPendingSegments,
+            SegmentHandler handler
+    ) {
+        if (deviceIDs.isEmpty()) {
+            throw new IllegalArgumentException("At least one device is required");
+        }
+        if (segmentLength.isNegative() || segmentLength.isZero()) {
+            throw new IllegalArgumentException("segmentLength must be positive");
+        }
+        if (maxPendingSegments < 1) {
+            throw new IllegalArgumentException("maxPendingSegments must be at least 1");
+        }
+        MANAGER = manager;
+        DEVICE_IDS = List.copyOf(deviceIDs);
+        DEVICE_CONFIG = deviceConfig;
+        CAPTURE_CONFIG = captureConfig;
+        SEGMENT_NANOS = segmentLength.toNanos();
+        MAX_PENDING_SEGMENTS = maxPendingSegments;
+        PENDING_SEGMENTS = new Semaphore(maxPendingSegments);
+        HANDLER = handler;
+    }
+
+    /**
+     * @param listener called on the handler's thread after each segment has been handled and closed, for example to
+     *                 alert when {@link Segment#deadTimeBefore()} is too long or {@link Segment#error()} is not null
+     */
+    public void setListener(Consumer<Segment> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Start the first segment. Returns right away; segments keep rolling until {@link #close()}.
+     */
+    public synchronized void start() {
+        if (loop != null) {
+            throw new IllegalStateException("The recorder has already been started");
+        }
+        loop = EXECUTOR.submit(() -> {
+            run();
+            return null;
+        });
+    }
+
+    private void run() throws InterruptedException {
+        Segment current = startSegment(0);
+        Segment next = null;
+        boolean holdingPermit = false;
+        try {
+            final boolean alternate = DEVICE_IDS.size() > 1;
+            while (sleepUntil(current.START_NANOS + SEGMENT_NANOS - (alternate ? lastStartLatencyNanos : 0))) {
+                PENDING_SEGMENTS.acquire();
+                holdingPermit = true;
+                final long stopNanos;
+                if (alternate) {
+                    next = startSegment(current.INDEX + 1);
+                    sleepUntil(current.START_NANOS + SEGMENT_NANOS);
+                    stopNanos = System.nanoTime();
+                    current.CAPTURE.stop();
+                } else {
+                    stopNanos = System.nanoTime();
+                    current.CAPTURE.stop();
+                    next = startSegment(current.INDEX + 1);
+                }
+                next.deadTimeBeforeNanos = Math.max(0, next.START_NANOS - stopNanos);
+                DEAD_TIME_NANOS.record(next.deadTimeBeforeNanos);
+                lastDeadTimeNanos = next.deadTimeBeforeNanos;
+                handOff(current, stopNanos);
+                holdingPermit = false;
+                current = next;
+                next = null;
+            }
+            PENDING_SEGMENTS.acquire();
+            holdingPermit = true;
+            final long stopNanos = System.nanoTime();
+            current.CAPTURE.stop();
+            handOff(current, stopNanos);
+        } catch (RuntimeException | InterruptedException e) {
+            // still hand off the segments which were recording so their data is not lost
+            for (Segment segment : next == null ? List.of(current) : List.of(current, next)) {
+                try {
+                    segment.CAPTURE.stop();
+                } catch (RuntimeException stopException) {
+                    e.addSuppressed(stopException);
+                }
+                if (!holdingPermit) {
+                    PENDING_SEGMENTS.acquireUninterruptibly();
+                }
+                handOff(segment, System.nanoTime());
+                holdingPermit = false;
+            }
+            throw e;
+        }
+    }
+
+    private Segment startSegment(long index) {
+        final String deviceID = DEVICE_IDS.get((int) (index % DEVICE_IDS.size()));
+        final long sendNanos = System.nanoTime();
+        final Capture capture = MANAGER.startCapture(deviceID, DEVICE_CONFIG, CAPTURE_CONFIG);
+        final long replyNanos = System.nanoTime();
+        lastStartLatencyNanos = replyNanos - sendNanos;
+        START_LATENCY_NANOS.record(replyNanos - sendNanos);
+        segmentCount = index + 1;
+        return new Segment(index, deviceID, capture, replyNanos);
+    }
+
+    /**
+     * Handle and close the segment on another thread. Releases a permit of {@link #PENDING_SEGMENTS} when done.
+     */
+    private void handOff(Segment segment, long stopNanos) {
+        segment.stopNanos = stopNanos;
+        EXECUTOR.execute(() -> {
+            try {
+                HANDLER.handle(segment);
+            } catch (Throwable t) {
+                segment.error = t;
+            }
+            try {
+                segment.CAPTURE.close();
+            } catch (Throwable t) {
+                if (segment.error == null) {
+                    segment.error = t;
+                } else {
+                    segment.error.addSuppressed(t);
+                }
+            }
+            segment.handleTimeNanos = System.nanoTime() - stopNanos;
+            if (segment.error != null) {
+                FAILED_SEGMENTS.increment();
+            }
+            PENDING_SEGMENTS.release();
+            listener.accept(segment);
+        });
+    }
+
+    /**
+     * @return false if the recorder was closed before the deadline
+     */
+    private synchronized boolean sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining;
+        while (!stopping && (remaining = deadlineNanos - System.nanoTime()) > 0) {
+            TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+        return !stopping;
+    }
+
+    /**
+     * Gap before each segment after the first, in nanoseconds. See the class description for how it is measured.
+     */
+    public ConcurrentHistogram.Snapshot deadTimeNanos() {
+        return DEAD_TIME_NANOS.snapshot();
+    }
+
+    /**
+     * @return gap before the latest segment, or {@link Duration#ZERO} if only the first segment has started
+     */
+    public Duration lastDeadTime() {
+        return Duration.ofNanos(lastDeadTimeNanos);
+    }
+
+    /**
+     * Round trip time of each StartCapture request, in nanoseconds.
+     */
+    public ConcurrentHistogram.Snapshot startLatencyNanos() {
+        return START_LATENCY_NANOS.snapshot();
+    }
+
+    /**
+     * @return number of segments started so far
+     */
+    public long segmentCount() {
+        return segmentCount;
+    }
+
+    /**
+     * @return number of segments whose handler or CloseCapture threw
+     */
+    public long failedSegmentCount() {
+        return FAILED_SEGMENTS.sum();
+    }
+
+    /**
+     * @return number of stopped segments which are still being handled or closed
+     */
+    public int pendingSegmentCount() {
+        return MAX_PENDING_SEGMENTS - PENDING_SEGMENTS.availablePermits();
+    }
+
+    /**
+     * Stop the segment which is recording, then wait until every segment has been handled and closed.
+     *
+     * @throws RuntimeException the exception which stopped the recorder early, for example if StartCapture failed
+     */
+    @Override
+    public void close() throws InterruptedException {
+        final Future<?> loop;
+        synchronized (this) {
+            stopping = true;
+            notifyAll();
+            loop = this.loop;
+        }
+        Throwable failure = null;
+        if (loop != null) {
+            try {
+                loop.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        }
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (failure != null) {
+            throw new CompletionException(failure);
+        }
+    }
+
+    /**
+     * One capture of a {@link RollingCaptureRecorder}.
+     */
+    public static class Segment {
+        private final long INDEX;
+        private final String DEVICE_ID;
+        private final Capture CAPTURE;
+        private final long START_NANOS;
+
+        // written by the recorder thread before the segment is handed off
+        private long deadTimeBeforeNanos;
+        private long stopNanos;
+
+        // written by the handler thread before the listener is called
+        private long handleTimeNanos;
+        private Throwable error;
+
+        Segment(long index, String deviceID, Capture capture, long startNanos) {
+            INDEX = index;
+            DEVICE_ID = deviceID;
+            CAPTURE = capture;
+            START_NANOS = startNanos;
+        }
+
+        /**
+         * @return 0 for the first segment, 1 for the next, and so on
+         */
+        public long index() {
+            return INDEX;
+        }
+
+        public String deviceID() {
+            return DEVICE_ID;
+        }
+
+        /**
+         * The capture has stopped. It is closed after the {@link SegmentHandler} returns.
+         */
+        public Capture capture() {
+            return CAPTURE;
+        }
+
+        /**
+         * @return gap between the previous segment and this one, or {@link Duration#ZERO} for the first segment
+         */
+        public Duration deadTimeBefore() {
+            return Duration.ofNanos(deadTimeBeforeNanos);
+        }
+
+        /**
+         * @return time from the StartCapture reply until StopCapture was sent
+         */
+        public Duration recordTime() {
+            return Duration.ofNanos(stopNanos - START_NANOS);
+        }
+
+        /**
+         * @return time from StopCapture until the segment was handled and closed. Only valid in the listener.
+         */
+        public Duration handleTime() {
+            return Duration.ofNanos(handleTimeNanos);
+        }
+
+        /**
+         * @return what the handler or CloseCapture threw, or null if the segment was handled successfully. Only valid
+         * in the listener.
+         */
+        public Throwable error() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("segment %d on device %s: dead time before %s, recorded %s, handled in %s%s",
+                    INDEX, DEVICE_ID, deadTimeBefore(), recordTime(), handleTime(), error == null ? "" : ", failed: " + error);
+        }
+    }
+
+}
@@ -0,0 +1,376 @@
+package xyz.froud.saleae.automation;
+
+import com.google.protobuf.MessageLite;
+import io.grpc.CallOptions;
+import io.grpc.Channel;
+import io.grpc.ClientCall;
+import io.grpc.ClientInterceptor;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import saleae.ManagerGrpc;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Client interceptor which records metrics for every gRPC method: a latency histogram, error counts by status code, the
+ * number of calls in flight, and request and reply sizes.
+ * <p>
+ * Every {@link Manager} installs one on its channel, see {@link Manager#getMetrics()}. Recording only uses atomic
+ * counters, so it is cheap enough to leave on. The metrics can be read with {@link #snapshot()}, or published to JMX
+ * with {@link #registerMBeans(String)}.
+ */
+public class RpcMetrics implements ClientInterceptor {
+
+    private static final Status.Code[] STATUS_CODES = Status.Code.values();
+
+    private final Map<String, MethodMetrics> METHODS = new ConcurrentHashMap<>();
+    private final List<ObjectName> REGISTERED_MBEANS = new ArrayList<>();
+
+    public RpcMetrics() {
+        // create every Logic 2 method up front so the snapshot and JMX list them before they are first called
+        for (MethodDescriptor<?, ?> method : ManagerGrpc.getServiceDescriptor().getMethods()) {
+            methodMetrics(method);
+        }
+    }
+
+    private MethodMetrics methodMetrics(MethodDescriptor<?, ?> method) {
+        final MethodMetrics existing = METHODS.get(method.getFullMethodName());
+        return existing != null
+                ? existing
+                : METHODS.computeIfAbsent(method.getFullMethodName(), ignored -> new MethodMetrics(method.getBareMethodName()));
+    }
+
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> interceptCall(MethodDescriptor<ReqT, RespT> method, CallOptions callOptions, Channel next) {
+        final MethodMetrics metrics = methodMetrics(method);
+        return new ForwardingClientCall.SimpleForwardingClientCall<>(next.newCall(method, callOptions)) {
+            @Override
+            public void start(Listener<RespT> responseListener, Metadata headers) {
+                final long startNanos = System.nanoTime();
+                metrics.IN_FLIGHT.incrementAndGet();
+                try {
+                    super.start(new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                        @Override
+                        public void onMessage(RespT message) {
+                            if (message instanceof MessageLite messageLite) {
+                                metrics.RESPONSE_BYTES.record(messageLite.getSerializedSize());
+                            }
+                            super.onMessage(message);
+                        }
+
+                        @Override
+                        public void onClose(Status status, Metadata trailers) {
+                            metrics.callEnded(System.nanoTime() - startNanos, status);
+                            super.onClose(status, trailers);
+                        }
+                    }, headers);
+                } catch (RuntimeException e) {
+                    metrics.callEnded(System.nanoTime() - startNanos, Status.fromThrowable(e));
+                    throw e;
+                }
+            }
+
+            @Override
+            public void sendMessage(ReqT message) {
+                if (message instanceof MessageLite messageLite) {
+                    metrics.REQUEST_BYTES.record(messageLite.getSerializedSize());
+                }
+                super.sendMessage(message);
+            }
+        };
+    }
+
+    /**
+     * @return map from method name, like "StartCapture", to its metrics, in alphabetical order
+     */
+    public Map<String, MethodSnapshot> snapshot() {
+        final Map<String, MethodSnapshot> snapshots = new LinkedHashMap<>();
+        METHODS.values().stream()
+                .sorted((a, b) -> a.NAME.compareTo(b.NAME))
+                .forEach(metrics -> snapshots.put(metrics.NAME, metrics.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * @param methodName for example "StartCapture"
+     * @return the method's metrics, or null if no method has that name
+     */
+    public MethodSnapshot snapshot(String methodName) {
+        for (MethodMetrics metrics : METHODS.values()) {
+            if (metrics.NAME.equals(methodName)) {
+                return metrics.snapshot();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Register one MXBean per method with the platform MBean server, named
+     * {@code xyz.froud.saleae.automation:type=RpcMetrics,name=<name>,method=<method>}.
+     *
+     * @param name distinguishes this instance from others in the same JVM, for example the Logic 2 host and port
+     */
+    public synchronized void registerMBeans(String name) throws JMException {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (MethodMetrics metrics : METHODS.values()) {
+            final ObjectName objectName = new ObjectName(String.format(
+                    "xyz.froud.saleae.automation:type=RpcMetrics,name=%s,method=%s",
+                    ObjectName.quote(name), metrics.NAME
+            ));
+            try {
+                server.registerMBean(metrics, objectName);
+            } catch (InstanceAlreadyExistsException e) {
+                unregisterMBeans();
+                throw e;
+            }
+            REGISTERED_MBEANS.add(objectName);
+        }
+    }
+
+    /**
+     * Unregister the MXBeans registered by {@link #registerMBeans(String)}. Does nothing if there are none.
+     */
+    public synchronized void unregisterMBeans() {
+        final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName objectName : REGISTERED_MBEANS) {
+            try {
+                server.unregisterMBean(objectName);
+            } catch (InstanceNotFoundException ignore) {
+            } catch (JMException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        REGISTERED_MBEANS.clear();
+    }
+
+    /**
+     * JMX view of one method's metrics. Times are in microseconds.
+     */
+    public interface MethodMXBean {
+        long getCalls();
+
+        int getInFlight();
+
+        long getErrors();
+
+        /**
+         * @return map from status code name, like "DEADLINE_EXCEEDED", to the number of calls which ended with it
+         */
+        Map<String, Long> getErrorsByStatusCode();
+
+        double getLatencyMeanMicros();
+
+        long getLatencyP50Micros();
+
+        long getLatencyP99Micros();
+
+        long getLatencyP999Micros();
+
+        long getLatencyMaxMicros();
+
+        long getRequestBytesTotal();
+
+        long getRequestBytesMax();
+
+        long getResponseBytesTotal();
+
+        long getResponseBytesMax();
+    }
+
+    private static class MethodMetrics implements MethodMXBean {
+        final String NAME;
+        final ConcurrentHistogram LATENCY_NANOS = new ConcurrentHistogram();
+        final ConcurrentHistogram REQUEST_BYTES = new ConcurrentHistogram();
+        final ConcurrentHistogram RESPONSE_BYTES = new ConcurrentHistogram();
+        final AtomicInteger IN_FLIGHT = new AtomicInteger();
+        final AtomicLongArray ERRORS = new AtomicLongArray(STATUS_CODES.length);
+        final LongAdder ERROR_TOTAL = new LongAdder();
+
+        MethodMetrics(String name) {
+            NAME = name;
+        }
+
+        void callEnded(long latencyNanos, Status status) {
+            IN_FLIGHT.decrementAndGet();
+            LATENCY_NANOS.record(latencyNanos);
+            if (!status.isOk()) {
+                ERRORS.incrementAndGet(status.getCode().ordinal());
+                ERROR_TOTAL.increment();
+            }
+        }
+
+        MethodSnapshot snapshot() {
+            final Map<Status.Code, Long> errors = new LinkedHashMap<>();
+            for (Status.Code code : STATUS_CODES) {
+                final long count = ERRORS.get(code.ordinal());
+                if (count != 0) {
+                    errors.put(code, count);
+                }
+            }
+            return new MethodSnapshot(
+                    NAME,
+                    IN_FLIGHT.get(),
+                    Collections.unmodifiableMap(errors),
+                    LATENCY_NANOS.snapshot(),
+                    REQUEST_BYTES.snapshot(),
+                    RESPONSE_BYTES.snapshot()
+            );
+        }
+
+        @Override
+        public long getCalls() {
+            return LATENCY_NANOS.snapshot().COUNT;
+        }
+
+        @Override
+        public int getInFlight() {
+            return IN_FLIGHT.get();
+        }
+
+        @Override
+        public long getErrors() {
+            return ERROR_TOTAL.sum();
+        }
+
+        @Override
+        public Map<String, Long> getErrorsByStatusCode() {
+            final Map<String, Long> errors = new LinkedHashMap<>();
+            snapshot().ERRORS.forEach((code, count) -> errors.put(code.name(), count));
+            return errors;
+        }
+
+        @Override
+        public double getLatencyMeanMicros() {
+            return LATENCY_NANOS.snapshot().mean() / 1000;
+        }
+
+        @Override
+        public long getLatencyP50Micros() {
+            return LATENCY_NANOS.snapshot().percentile(0.5) / 1000;
+        }
+
+        @Override
+        public long getLatencyP99Micros() {
+            return LATENCY_NANOS.snapshot().percentile(0.99) / 1000;
+        }
+
+        @Override
+        public long getLatencyP999Micros() {
+            return LATENCY_NANOS.snapshot().percentile(0.999) / 1000;
+        }
+
+        @Override
+        public long getLatencyMaxMicros() {
+            return LATENCY_NANOS.snapshot().MAX / 1000;
+        }
+
+        @Override
+        public long getRequestBytesTotal() {
+            return REQUEST_BYTES.snapshot().SUM;
+        }
+
+        @Override
+        public long getRequestBytesMax() {
+            return REQUEST_BYTES.snapshot().MAX;
+        }
+
+        @Override
+        public long getResponseBytesTotal() {
+            return RESPONSE_BYTES.snapshot().SUM;
+        }
+
+        @Override
+        public long getResponseBytesMax() {
+            return RESPONSE_BYTES.snapshot().MAX;
+        }
+    }
+
+    /**
+     * Metrics of one gRPC method at the time {@link #snapshot()} was called.
+     */
+    public static class MethodSnapshot {
+        /**
+         * For example "StartCapture".
+         */
+        public final String METHOD;
+        public final int IN_FLIGHT;
+
+        /**
+         * Number of calls which ended with each non-OK status code. Codes with no calls are left out.
+         */
+        public final Map<Status.Code, Long> ERRORS;
+
+        /**
+         * Time from starting the call until it closed, in nanoseconds. Includes calls which failed.
+         */
+        public final ConcurrentHistogram.Snapshot LATENCY_NANOS;
+
+        /**
+         * Serialized size of each request message.
+         */
+        public final ConcurrentHistogram.Snapshot REQUEST_BYTES;
+
+        /**
+         * Serialized size of each reply message.
+         */
+        public final ConcurrentHistogram.Snapshot RESPONSE_BYTES;
+
+        MethodSnapshot(
+                String method,
+                int inFlight,
+                Map<Status.Code, Long> errors,
+                ConcurrentHistogram.Snapshot latencyNanos,
+                ConcurrentHistogram.Snapshot requestBytes,
+                ConcurrentHistogram.Snapshot responseBytes
+        ) {
+            METHOD = method;
+            IN_FLIGHT = inFlight;
+            ERRORS = errors;
+            LATENCY_NANOS = latencyNanos;
+            REQUEST_BYTES = requestBytes;
+            RESPONSE_BYTES = responseBytes;
+        }
+
+        /**
+         * @return number of calls which have ended, successfully or not
+         */
+        public long calls() {
+            return LATENCY_NANOS.COUNT;
+        }
+
+        public long errors() {
+            long errors = 0;
+            for (long count : ERRORS.values()) {
+                errors += count;
+            }
+            return errors;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: %d calls, %d errors %s, %d in flight, latency us p50=%.1f p99=%.1f p999=%.1f max=%.1f, request bytes max=%d, response bytes max=%d",
+                    METHOD, calls(), errors(), ERRORS, IN_FLIGHT,
+                    LATENCY_NANOS.percentile(0.5) / 1e3, LATENCY_NANOS.percentile(0.99) / 1e3,
+                    LATENCY_NANOS.percentile(0.999) / 1e3, LATENCY_NANOS.MAX / 1e3,
+                    REQUEST_BYTES.MAX, RESPONSE_BYTES.MAX);
+        }
+    }
+
+}
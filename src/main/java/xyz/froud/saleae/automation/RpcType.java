@@ -0,0 +1,37 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+
+/**
+ * Groups of gRPC methods which share a default deadline. See {@link Manager#setDefaultDeadline}.
+ */
+public enum RpcType {
+
+    /**
+     * GetAppInfo, GetDevices, StopCapture, CloseCapture, and adding or removing analyzers. These should reply quickly.
+     */
+    CONTROL(Duration.ofSeconds(30)),
+
+    /**
+     * StartCapture. Can take a few seconds while Logic 2 connects to the device.
+     */
+    START_CAPTURE(Duration.ofSeconds(60)),
+
+    /**
+     * WaitCapture. There is no default deadline because a timed or triggered capture can legitimately run for a long
+     * time. Use {@link Capture#waitForCaptureToEnd(Duration)} to bound one wait.
+     */
+    WAIT_CAPTURE(null),
+
+    /**
+     * LoadCapture, SaveCapture, and every export. These take time proportional to the amount of data.
+     */
+    EXPORT(Duration.ofMinutes(10));
+
+    final Duration DEFAULT_DEADLINE;
+
+    RpcType(Duration defaultDeadline) {
+        DEFAULT_DEADLINE = defaultDeadline;
+    }
+
+}
@@ -0,0 +1,399 @@
+package xyz.froud.saleae.automation;
+
+import io.grpc.CallOptions;
+import io.grpc.ClientCall;
+import io.grpc.ConnectivityState;
+import io.grpc.ForwardingClientCall;
+import io.grpc.ForwardingClientCallListener;
+import io.grpc.ManagedChannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.netty.shaded.io.grpc.netty.NettyChannelBuilder;
+import io.grpc.netty.shaded.io.netty.channel.EventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.Epoll;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.epoll.EpollSocketChannel;
+import io.grpc.netty.shaded.io.netty.channel.nio.NioEventLoopGroup;
+import io.grpc.netty.shaded.io.netty.channel.socket.nio.NioSocketChannel;
+import io.grpc.netty.shaded.io.netty.util.concurrent.DefaultThreadFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One Manager's reference to the connections shared by every Manager with the same host, port, and
+ * {@link TransportProfile}. Shutting it down releases the reference, and the connections, event loop threads, and
+ * executor are shut down with the last reference, so closing one Manager does not cancel the calls of the others.
+ * <p>
+ * Each reference keeps track of the calls started through it, so {@link #shutdownNow()} cancels this Manager's calls
+ * and {@link #awaitTermination} waits for them to close even while other Managers keep the connections open.
+ */
+final class SharedChannel extends ManagedChannel {
+
+    /**
+     * Guarded by SharedChannel.class.
+     */
+    private static final Map<Key, Connections> SHARED = new HashMap<>();
+
+    private final Connections CONNECTIONS;
+
+    private final ManagedChannel DELEGATE;
+
+    /**
+     * Guarded by SharedChannel.class.
+     */
+    private boolean released;
+
+    /**
+     * Whether releasing this reference shut down the connections. Guarded by SharedChannel.class.
+     */
+    private boolean releasedLast;
+
+    /**
+     * Calls started through this reference which have not closed yet. Guarded by itself.
+     */
+    private final Set<TrackedCall<?, ?>> ACTIVE_CALLS = new HashSet<>();
+
+    private SharedChannel(Connections connections, ManagedChannel delegate) {
+        CONNECTIONS = connections;
+        DELEGATE = delegate;
+    }
+
+    static synchronized SharedChannel acquire(String host, int port, TransportProfile profile) {
+        profile.validate();
+        final Key key = new Key(host, port, profile.copy());
+        Connections connections = SHARED.get(key);
+        if (connections == null) {
+            connections = new Connections(key);
+            SHARED.put(key, connections);
+        }
+        connections.references++;
+        final ManagedChannel delegate = connections.CHANNELS[connections.nextChannel];
+        connections.nextChannel = (connections.nextChannel + 1) % connections.CHANNELS.length;
+        return new SharedChannel(connections, delegate);
+    }
+
+    private void release(boolean now) {
+        synchronized (SharedChannel.class) {
+            if (released) {
+                return;
+            }
+            released = true;
+            if (--CONNECTIONS.references > 0) {
+                return;
+            }
+            releasedLast = true;
+            SHARED.remove(CONNECTIONS.KEY);
+        }
+        CONNECTIONS.shutDown(now);
+    }
+
+    private boolean releasedLast() {
+        synchronized (SharedChannel.class) {
+            return releasedLast;
+        }
+    }
+
+    /**
+     * After this reference is released, calls fail like they would on a shut down channel, even if other Managers
+     * still use the connections.
+     */
+    @Override
+    public <ReqT, RespT> ClientCall<ReqT, RespT> newCall(MethodDescriptor<ReqT, RespT> methodDescriptor, CallOptions callOptions) {
+        if (isShutdown()) {
+            return new FailingCall<>(Status.UNAVAILABLE.withDescription("Channel shutdown invoked"));
+        }
+        return new TrackedCall<>(DELEGATE.newCall(methodDescriptor, callOptions));
+    }
+
+    @Override
+    public String authority() {
+        return DELEGATE.authority();
+    }
+
+    @Override
+    public ManagedChannel shutdown() {
+        release(false);
+        synchronized (ACTIVE_CALLS) {
+            ACTIVE_CALLS.notifyAll();
+        }
+        return this;
+    }
+
+    /**
+     * Cancels the calls started through this reference, but not the calls of other Managers using the same connections.
+     */
+    @Override
+    public ManagedChannel shutdownNow() {
+        release(true);
+        final List<TrackedCall<?, ?>> calls;
+        synchronized (ACTIVE_CALLS) {
+            calls = new ArrayList<>(ACTIVE_CALLS);
+            ACTIVE_CALLS.notifyAll();
+        }
+        for (TrackedCall<?, ?> call : calls) {
+            call.cancel("Channel shutdownNow invoked", null);
+        }
+        return this;
+    }
+
+    @Override
+    public boolean isShutdown() {
+        synchronized (SharedChannel.class) {
+            return released;
+        }
+    }
+
+    @Override
+    public boolean isTerminated() {
+        synchronized (ACTIVE_CALLS) {
+            if (!ACTIVE_CALLS.isEmpty()) {
+                return false;
+            }
+        }
+        return isShutdown() && (!releasedLast() || CONNECTIONS.isTerminated());
+    }
+
+    @Override
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        synchronized (ACTIVE_CALLS) {
+            while (!isShutdown() || !ACTIVE_CALLS.isEmpty()) {
+                final long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+                TimeUnit.NANOSECONDS.timedWait(ACTIVE_CALLS, remaining);
+            }
+        }
+        return !releasedLast() || CONNECTIONS.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public ConnectivityState getState(boolean requestConnection) {
+        return DELEGATE.getState(requestConnection);
+    }
+
+    @Override
+    public void notifyWhenStateChanged(ConnectivityState source, Runnable callback) {
+        DELEGATE.notifyWhenStateChanged(source, callback);
+    }
+
+    @Override
+    public void resetConnectBackoff() {
+        DELEGATE.resetConnectBackoff();
+    }
+
+    @Override
+    public void enterIdle() {
+        DELEGATE.enterIdle();
+    }
+
+    /**
+     * Adds itself to {@link #ACTIVE_CALLS} when it starts and removes itself when it closes.
+     */
+    private class TrackedCall<ReqT, RespT> extends ForwardingClientCall.SimpleForwardingClientCall<ReqT, RespT> {
+
+        private TrackedCall(ClientCall<ReqT, RespT> delegate) {
+            super(delegate);
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            final Listener<RespT> listener = new ForwardingClientCallListener.SimpleForwardingClientCallListener<>(responseListener) {
+                @Override
+                public void onClose(Status status, Metadata trailers) {
+                    synchronized (ACTIVE_CALLS) {
+                        ACTIVE_CALLS.remove(TrackedCall.this);
+                        ACTIVE_CALLS.notifyAll();
+                    }
+                    super.onClose(status, trailers);
+                }
+            };
+            // started while holding the lock, so shutdownNow() can't cancel the call before it has started
+            synchronized (ACTIVE_CALLS) {
+                if (!isShutdown()) {
+                    ACTIVE_CALLS.add(this);
+                    super.start(listener, headers);
+                    return;
+                }
+            }
+            responseListener.onClose(Status.UNAVAILABLE.withDescription("Channel shutdown invoked"), new Metadata());
+        }
+
+    }
+
+    /**
+     * Closes with the status as soon as it is started, without sending anything.
+     */
+    private static class FailingCall<ReqT, RespT> extends ClientCall<ReqT, RespT> {
+
+        private final Status STATUS;
+
+        private FailingCall(Status status) {
+            STATUS = status;
+        }
+
+        @Override
+        public void start(Listener<RespT> responseListener, Metadata headers) {
+            responseListener.onClose(STATUS, new Metadata());
+        }
+
+        @Override
+        public void request(int numMessages) {
+        }
+
+        @Override
+        public void cancel(String message, Throwable cause) {
+        }
+
+        @Override
+        public void halfClose() {
+        }
+
+        @Override
+        public void sendMessage(ReqT message) {
+        }
+
+    }
+
+    private static class Key {
+
+        private final String HOST;
+        private final int PORT;
+        private final TransportProfile PROFILE;
+
+        private Key(String host, int port, TransportProfile profile) {
+            HOST = host;
+            PORT = port;
+            PROFILE = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && HOST.equals(other.HOST) && PORT == other.PORT && PROFILE.equals(other.PROFILE);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(HOST, PORT, PROFILE);
+        }
+
+    }
+
+    private static class Connections {
+
+        private final Key KEY;
+
+        private final ManagedChannel[] CHANNELS;
+
+        /**
+         * Null if the channels use the event loop group shared by every channel in the process.
+         */
+        private final EventLoopGroup EVENT_LOOP_GROUP;
+
+        /**
+         * Null if the executor is not owned by the connections.
+         */
+        private final ExecutorService EXECUTOR;
+
+        /**
+         * Guarded by SharedChannel.class.
+         */
+        private int references;
+
+        /**
+         * Guarded by SharedChannel.class.
+         */
+        private int nextChannel;
+
+        private Connections(Key key) {
+            KEY = key;
+            final TransportProfile profile = key.PROFILE;
+            EXECUTOR = profile.executorType == TransportProfile.ExecutorType.VIRTUAL_THREADS
+                    ? VirtualThreads.newThreadPerTaskExecutor("saleae-grpc-callback")
+                    : null;
+            if (profile.eventLoopThreads == 0) {
+                EVENT_LOOP_GROUP = null;
+            } else {
+                // same transport gRPC picks for its shared group, which also supports the TCP_USER_TIMEOUT used by keepalive
+                final DefaultThreadFactory threadFactory = new DefaultThreadFactory("saleae-grpc-" + key.HOST + ':' + key.PORT, true);
+                EVENT_LOOP_GROUP = Epoll.isAvailable()
+                        ? new EpollEventLoopGroup(profile.eventLoopThreads, threadFactory)
+                        : new NioEventLoopGroup(profile.eventLoopThreads, threadFactory);
+            }
+
+            CHANNELS = new ManagedChannel[profile.connections];
+            for (int i = 0; i < CHANNELS.length; i++) {
+                final NettyChannelBuilder builder = NettyChannelBuilder.forAddress(key.HOST, key.PORT)
+                        .usePlaintext()
+                        .maxInboundMessageSize(profile.maxInboundMessageBytes);
+                if (profile.flowControlWindowBytes > 0) {
+                    builder.flowControlWindow(profile.flowControlWindowBytes);
+                }
+                if (profile.keepAliveTime != null) {
+                    builder.keepAliveTime(profile.keepAliveTime.toNanos(), TimeUnit.NANOSECONDS)
+                            .keepAliveTimeout(profile.keepAliveTimeout.toNanos(), TimeUnit.NANOSECONDS)
+                            .keepAliveWithoutCalls(profile.keepAliveWithoutCalls);
+                }
+                if (EVENT_LOOP_GROUP != null) {
+                    builder.eventLoopGroup(EVENT_LOOP_GROUP).channelType(Epoll.isAvailable() ? EpollSocketChannel.class : NioSocketChannel.class);
+                }
+                switch (profile.executorType) {
+                    case DIRECT -> builder.directExecutor();
+                    case VIRTUAL_THREADS -> builder.executor(EXECUTOR);
+                    case CUSTOM -> builder.executor(profile.customExecutor);
+                    case DEFAULT -> {
+                    }
+                }
+                CHANNELS[i] = builder.build();
+            }
+        }
+
+        private void shutDown(boolean now) {
+            for (ManagedChannel channel : CHANNELS) {
+                if (now) {
+                    channel.shutdownNow();
+                } else {
+                    channel.shutdown();
+                }
+            }
+            if (EVENT_LOOP_GROUP != null) {
+                // still runs the tasks already queued to close the connections
+                EVENT_LOOP_GROUP.shutdownGracefully(0, 5, TimeUnit.SECONDS);
+            }
+            if (EXECUTOR != null) {
+                EXECUTOR.shutdown();
+            }
+        }
+
+        private boolean isTerminated() {
+            for (ManagedChannel channel : CHANNELS) {
+                if (!channel.isTerminated()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+            final long deadline = System.nanoTime() + unit.toNanos(timeout);
+            for (ManagedChannel channel : CHANNELS) {
+                if (!channel.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)) {
+                    return false;
+                }
+            }
+            return EVENT_LOOP_GROUP == null || EVENT_LOOP_GROUP.awaitTermination(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        }
+
+    }
+
+}
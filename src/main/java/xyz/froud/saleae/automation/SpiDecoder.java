@@ -0,0 +1,158 @@
+package xyz.froud.saleae.automation;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes SPI like the Logic 2 "SPI" analyzer, producing "enable", "result", and "disable" frames. A "result" frame
+ * has the MOSI word in {@link Frame#DATA} and the MISO word in {@link Frame#MISO}.
+ * <p>
+ * Settings, with their default values:
+ * <ul>
+ *     <li>"Clock": required</li>
+ *     <li>"MOSI", "MISO", "Enable": optional, missing or "None" if not used</li>
+ *     <li>"Significant Bit": "Most Significant Bit First (Standard)" or "Least Significant Bit First"</li>
+ *     <li>"Bits per Transfer": "8 Bits per Transfer (Standard)"</li>
+ *     <li>"Clock State": "Clock is Low when inactive (CPOL = 0)" or "Clock is High when inactive (CPOL = 1)"</li>
+ *     <li>"Clock Phase": "Data is Valid on Clock Leading Edge (CPHA = 0)" or
+ *     "Data is Valid on Clock Trailing Edge (CPHA = 1)"</li>
+ *     <li>"Enable Line": "Enable line is Active Low (Standard)" or "Enable line is Active High"</li>
+ * </ul>
+ * With an enable line, a chunk for parallel decoding starts where the enable line becomes active. Without one, words
+ * are counted from the first sampling edge of the capture, so a chunk can start anywhere: the number of sampling edges
+ * before it is found from the clock transition count.
+ */
+public class SpiDecoder extends ProtocolDecoder {
+
+    private final DigitalTransitionIndex CLOCK;
+    private final DigitalTransitionIndex MOSI;
+    private final DigitalTransitionIndex MISO;
+    private final DigitalTransitionIndex ENABLE;
+    private final boolean MSB_FIRST;
+    private final int BITS_PER_TRANSFER;
+
+    /**
+     * Clock state after a sampling edge.
+     */
+    private final int SAMPLE_STATE;
+    private final int ENABLE_ACTIVE_STATE;
+
+    /**
+     * @param channels map from channel index to channel, see {@link DigitalTransitionIndex#forDirectory}
+     */
+    public SpiDecoder(Capture.AnalyzerSettings settings, Map<Integer, DigitalTransitionIndex> channels) {
+        CLOCK = requiredChannel(settings, "Clock", channels);
+        MOSI = optionalChannel(settings, "MOSI", channels);
+        MISO = optionalChannel(settings, "MISO", channels);
+        ENABLE = optionalChannel(settings, "Enable", channels);
+        MSB_FIRST = !stringSetting(settings, "Significant Bit", "Most Significant Bit First (Standard)").startsWith("Least");
+        BITS_PER_TRANSFER = (int) leadingNumber("Bits per Transfer", stringSetting(settings, "Bits per Transfer", "8 Bits per Transfer (Standard)"));
+        if (BITS_PER_TRANSFER < 1 || BITS_PER_TRANSFER > 64) {
+            throw new IllegalArgumentException("The \"Bits per Transfer\" setting must be between 1 and 64");
+        }
+        final int cpol = stringSetting(settings, "Clock State", "Clock is Low when inactive (CPOL = 0)").contains("CPOL = 1") ? 1 : 0;
+        final int cpha = stringSetting(settings, "Clock Phase", "Data is Valid on Clock Leading Edge (CPHA = 0)").contains("CPHA = 1") ? 1 : 0;
+        // the leading edge leaves the idle state; CPHA = 1 samples on the trailing edge, which returns to it
+        SAMPLE_STATE = cpha == 0 ? cpol ^ 1 : cpol;
+        ENABLE_ACTIVE_STATE = stringSetting(settings, "Enable Line", "Enable line is Active Low (Standard)").contains("Active High") ? 1 : 0;
+    }
+
+    @Override
+    DigitalTransitionIndex primaryChannel() {
+        return CLOCK;
+    }
+
+    @Override
+    void decode(double fromSeconds, double toSeconds, List<Frame> frames) {
+        final Sampler mosi = MOSI == null ? null : new Sampler(MOSI, fromSeconds);
+        final Sampler miso = MISO == null ? null : new Sampler(MISO, fromSeconds);
+        if (ENABLE == null) {
+            // words are counted from the first sampling edge of the capture
+            final RawBinaryReader.DigitalChannel clock = CLOCK.channel();
+            final long firstSampleIndex = clock.TRANSITION_COUNT > 0 && clock.stateAfterTransition(0) == SAMPLE_STATE ? 0 : 1;
+            final long wordTransitions = 2L * BITS_PER_TRANSFER;
+            final long firstWord = Math.max(0, (CLOCK.countBefore(fromSeconds) - firstSampleIndex + wordTransitions - 1) / wordTransitions);
+            decodeWords(firstSampleIndex + firstWord * wordTransitions, toSeconds, Double.POSITIVE_INFINITY, mosi, miso, frames);
+            return;
+        }
+
+        final RawBinaryReader.DigitalChannel enable = ENABLE.channel();
+        long i = ENABLE.countBefore(fromSeconds);
+        // the enable line may already be active at the start of the capture
+        boolean active = (enable.INITIAL_STATE ^ (int) (i & 1)) == ENABLE_ACTIVE_STATE;
+        double activeFrom = fromSeconds;
+        while (true) {
+            if (!active) {
+                if (i < enable.TRANSITION_COUNT && enable.stateAfterTransition(i) != ENABLE_ACTIVE_STATE) {
+                    i++;
+                }
+                if (i >= enable.TRANSITION_COUNT || enable.transitionTime(i) >= toSeconds) {
+                    return;
+                }
+                activeFrom = enable.transitionTime(i);
+                frames.add(new Frame("enable", activeFrom, activeFrom, 0, 0, 0));
+                i++;
+            }
+            final double activeTo = i < enable.TRANSITION_COUNT ? enable.transitionTime(i) : Double.POSITIVE_INFINITY;
+            long firstIndex = CLOCK.countAtOrBefore(activeFrom);
+            if (firstIndex < CLOCK.channel().TRANSITION_COUNT && CLOCK.channel().stateAfterTransition(firstIndex) != SAMPLE_STATE) {
+                firstIndex++;
+            }
+            decodeWords(firstIndex, activeTo, activeTo, mosi, miso, frames);
+            if (i >= enable.TRANSITION_COUNT) {
+                return;
+            }
+            frames.add(new Frame("disable", activeTo, activeTo, 0, 0, 0));
+            i++;
+            active = false;
+        }
+    }
+
+    /**
+     * Decode consecutive words. Incomplete words are dropped.
+     *
+     * @param firstIndex        clock transition index of the first sampling edge of the first word
+     * @param startLimitSeconds stop at the first word which starts at or after this time
+     * @param endLimitSeconds   stop at the first word which ends at or after this time
+     */
+    private void decodeWords(long firstIndex, double startLimitSeconds, double endLimitSeconds, Sampler mosi, Sampler miso, List<Frame> frames) {
+        final RawBinaryReader.DigitalChannel clock = CLOCK.channel();
+        // sampling edges are every other transition
+        for (long i = firstIndex; i < clock.TRANSITION_COUNT && clock.transitionTime(i) < startLimitSeconds; i += 2L * BITS_PER_TRANSFER) {
+            final long lastIndex = i + 2L * (BITS_PER_TRANSFER - 1);
+            if (lastIndex >= clock.TRANSITION_COUNT || clock.transitionTime(lastIndex) >= endLimitSeconds) {
+                return;
+            }
+            long mosiWord = 0;
+            long misoWord = 0;
+            for (int bit = 0; bit < BITS_PER_TRANSFER; bit++) {
+                final double time = clock.transitionTime(i + 2L * bit);
+                final int shift = MSB_FIRST ? BITS_PER_TRANSFER - 1 - bit : bit;
+                if (mosi != null) {
+                    mosiWord |= (long) mosi.stateAt(time) << shift;
+                }
+                if (miso != null) {
+                    misoWord |= (long) miso.stateAt(time) << shift;
+                }
+            }
+            frames.add(new Frame("result", clock.transitionTime(i), clock.transitionTime(lastIndex), mosiWord, misoWord, 0));
+        }
+    }
+
+    @Override
+    double resyncPointAtOrAfter(double seconds, double limitSeconds) {
+        if (ENABLE == null) {
+            return seconds < limitSeconds ? seconds : Double.NaN;
+        }
+        final RawBinaryReader.DigitalChannel enable = ENABLE.channel();
+        long i = ENABLE.countBefore(seconds);
+        if (i < enable.TRANSITION_COUNT && enable.stateAfterTransition(i) != ENABLE_ACTIVE_STATE) {
+            i++;
+        }
+        if (i >= enable.TRANSITION_COUNT || enable.transitionTime(i) >= limitSeconds) {
+            return Double.NaN;
+        }
+        return enable.transitionTime(i);
+    }
+
+}
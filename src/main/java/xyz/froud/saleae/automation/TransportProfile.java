@@ -0,0 +1,133 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Settings for the gRPC connections to one Logic 2 instance, used by {@link Manager#Manager(String, int,
+ * TransportProfile)} and {@link Manager#connectLazily(String, int, TransportProfile)}.
+ * <p>
+ * Managers with the same host, port, and an equal profile share connections, which are shut down when the last of
+ * those Managers is closed. Changing a profile after it was used only affects connections opened later.
+ */
+public class TransportProfile {
+
+    /**
+     * Where gRPC runs the callbacks for replies, including the completion of the futures returned by the
+     * {@code ...Async()} methods.
+     */
+    public enum ExecutorType {
+        /**
+         * gRPC's cached thread pool, shared by every channel in the process.
+         */
+        DEFAULT,
+        /**
+         * The Netty event loop thread which received the reply. Only use this if the callbacks never block.
+         */
+        DIRECT,
+        /**
+         * A new virtual thread for each callback, or a cached pool of daemon threads if the JVM does not support
+         * virtual threads.
+         */
+        VIRTUAL_THREADS,
+        /**
+         * {@link #customExecutor}, which is not shut down with the connections.
+         */
+        CUSTOM
+    }
+
+    /**
+     * Number of connections to open to the endpoint. Each Manager uses one of them, in turn, so Managers exporting at
+     * the same time do not all share one HTTP/2 connection.
+     */
+    public int connections = 1;
+
+    /**
+     * HTTP/2 flow control window for each call, in bytes. Zero for gRPC's default, which starts at 1 MiB and grows
+     * with the measured bandwidth-delay product.
+     */
+    public int flowControlWindowBytes;
+
+    /**
+     * Largest reply which can be received, in bytes.
+     */
+    public int maxInboundMessageBytes = 4 * 1024 * 1024;
+
+    /**
+     * Time without reads after which a keepalive ping is sent, or null to not send keepalive pings.
+     */
+    public Duration keepAliveTime;
+
+    /**
+     * Time to wait for the reply to a keepalive ping before closing the connection.
+     */
+    public Duration keepAliveTimeout = Duration.ofSeconds(20);
+
+    /**
+     * Whether to send keepalive pings when there are no calls in flight.
+     */
+    public boolean keepAliveWithoutCalls;
+
+    public ExecutorType executorType = ExecutorType.DEFAULT;
+
+    /**
+     * Used when {@link #executorType} is {@link ExecutorType#CUSTOM}.
+     */
+    public Executor customExecutor;
+
+    /**
+     * Number of Netty event loop threads for the connections, or zero to use the event loop group shared by every
+     * channel in the process.
+     */
+    public int eventLoopThreads;
+
+    TransportProfile copy() {
+        final TransportProfile copy = new TransportProfile();
+        copy.connections = connections;
+        copy.flowControlWindowBytes = flowControlWindowBytes;
+        copy.maxInboundMessageBytes = maxInboundMessageBytes;
+        copy.keepAliveTime = keepAliveTime;
+        copy.keepAliveTimeout = keepAliveTimeout;
+        copy.keepAliveWithoutCalls = keepAliveWithoutCalls;
+        copy.executorType = executorType;
+        copy.customExecutor = customExecutor;
+        copy.eventLoopThreads = eventLoopThreads;
+        return copy;
+    }
+
+    void validate() {
+        if (connections < 1) {
+            throw new IllegalArgumentException("At least one connection is required");
+        }
+        if (flowControlWindowBytes < 0 || maxInboundMessageBytes < 0 || eventLoopThreads < 0) {
+            throw new IllegalArgumentException("Sizes must not be negative");
+        }
+        if (executorType == ExecutorType.CUSTOM && customExecutor == null) {
+            throw new IllegalArgumentException("customExecutor is required when executorType is CUSTOM");
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof TransportProfile other)) {
+            return false;
+        }
+        return connections == other.connections
+                && flowControlWindowBytes == other.flowControlWindowBytes
+                && maxInboundMessageBytes == other.maxInboundMessageBytes
+                && Objects.equals(keepAliveTime, other.keepAliveTime)
+                && Objects.equals(keepAliveTimeout, other.keepAliveTimeout)
+                && keepAliveWithoutCalls == other.keepAliveWithoutCalls
+                && executorType == other.executorType
+                && customExecutor == other.customExecutor
+                && eventLoopThreads == other.eventLoopThreads;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(connections, flowControlWindowBytes, maxInboundMessageBytes, keepAliveTime, keepAliveTimeout,
+                keepAliveWithoutCalls, executorType, System.identityHashCode(customExecutor), eventLoopThreads);
+    }
+
+}
@@ -0,0 +1,576 @@
+package xyz.froud.saleae.automation;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Catches intermittent events by running digital trigger captures back to back on one device, and publishes each
+ * capture which triggered.
+ * <p>
+ * Looping over startCapture, waitForCaptureToEnd, export, and close leaves the device blind while the capture is
+ * exported. Instead, as soon as a capture ends the next one is started, and only then is the finished capture handed to
+ * the subscribers, which export and close it on their own threads while the next capture is armed.
+ * <p>
+ * Each capture holds its buffer in Logic 2 until it is closed, so at most {@code maxBufferedCaptures} captures are
+ * buffered for a subscriber which has not requested them. When a subscriber falls that far behind, publishing blocks
+ * and the next capture is only re-armed after it triggers and ends. {@link #close()} does not wait for such a
+ * subscriber: the capture is dropped for it and released. Subscribers must close every
+ * {@link TriggeredCapture} they receive. Captures which a subscriber does not receive, because it cancelled, its
+ * {@code onNext} threw, or the publisher failed or was closed first, are released for it.
+ * <p>
+ * The gap before each re-arm is recorded in {@link #rearmGapNanos()}. It is measured on this side of the gRPC
+ * connection, from the WaitCapture reply for one capture until the StartCapture reply for the next, so it is an upper
+ * bound on the time in which the device was not armed. {@link #triggerToRearmNanos()} adds the capture's
+ * {@code afterTriggerSeconds}, which is recorded but during which another trigger can not start a capture.
+ */
+public class TriggeredCapturePublisher implements Flow.Publisher<TriggeredCapturePublisher.TriggeredCapture>, AutoCloseable {
+
+    private final Manager MANAGER;
+    private final String DEVICE_ID;
+    private final Manager.DeviceConfig DEVICE_CONFIG;
+    private final Manager.CaptureConfigDigitalTrigger CAPTURE_CONFIG;
+    private final long AFTER_TRIGGER_NANOS;
+
+    private final ExecutorService EXECUTOR = VirtualThreads.newThreadPerTaskExecutor("triggered-capture");
+    private final SubmissionPublisher<Ended> PUBLISHER;
+
+    /**
+     * Every subscriber which has not terminated, so closing the publisher can release the captures they never receive.
+     */
+    private final Set<Share> SHARES = ConcurrentHashMap.newKeySet();
+
+    private final ConcurrentHistogram REARM_GAP_NANOS = new ConcurrentHistogram();
+    private final ConcurrentHistogram TRIGGER_TO_REARM_NANOS = new ConcurrentHistogram();
+    private final ConcurrentHistogram START_LATENCY_NANOS = new ConcurrentHistogram();
+    private final ConcurrentHistogram HANDOFF_WAIT_NANOS = new ConcurrentHistogram();
+    private final LongAdder UNSUBSCRIBED_CAPTURES = new LongAdder();
+
+    private Future<?> loop;
+    private volatile boolean stopping;
+
+    /**
+     * The loop's thread while it waits for a subscriber to make room for a capture, so {@link #close()} can interrupt
+     * it. Guarded by this.
+     */
+    private Thread handoffThread;
+
+    /**
+     * The exception which stopped the publisher early. Subscribers receive it in place of onComplete, after the
+     * captures buffered for them, which {@link SubmissionPublisher#closeExceptionally} would drop.
+     */
+    private volatile Throwable failure;
+    private volatile Armed armed;
+    private volatile long captureCount;
+
+    /**
+     * @param maxBufferedCaptures maximum number of captures buffered for each subscriber, rounded up to a power of two
+     */
+    public TriggeredCapturePublisher(
+            Manager manager,
+            String deviceID,
+            Manager.DeviceConfig deviceConfig,
+            Manager.CaptureConfigDigitalTrigger captureConfig,
+            int maxBufferedCaptures
+    ) {
+        if (maxBufferedCaptures < 1) {
+            throw new IllegalArgumentException("maxBufferedCaptures must be at least 1");
+        }
+        MANAGER = manager;
+        DEVICE_ID = deviceID;
+        DEVICE_CONFIG = deviceConfig;
+        CAPTURE_CONFIG = captureConfig;
+        AFTER_TRIGGER_NANOS = (long) (captureConfig.afterTriggerSeconds * 1e9);
+        PUBLISHER = new SubmissionPublisher<>(EXECUTOR, maxBufferedCaptures);
+    }
+
+    /**
+     * Subscribers only receive the captures which end after they subscribe. Captures which end while there are no
+     * subscribers are closed right away.
+     */
+    @Override
+    public void subscribe(Flow.Subscriber<? super TriggeredCapture> subscriber) {
+        final Share share = new Share(subscriber);
+        SHARES.add(share);
+        PUBLISHER.subscribe(share);
+    }
+
+    /**
+     * Arm the first capture. Returns right away; captures keep being re-armed until {@link #close()}.
+     */
+    public synchronized void start() {
+        if (loop != null) {
+            throw new IllegalStateException("The publisher has already been started");
+        }
+        loop = EXECUTOR.submit(() -> {
+            run();
+            return null;
+        });
+    }
+
+    private void run() throws InterruptedException {
+        Armed current = null;
+        try {
+            current = arm(0);
+            while (true) {
+                final long endNanos;
+                try {
+                    endNanos = current.ENDED.get();
+                } catch (ExecutionException e) {
+                    if (stopping) {
+                        // close() cancelled the wait
+                        break;
+                    }
+                    throw e.getCause() instanceof RuntimeException runtimeException
+                            ? runtimeException
+                            : new CompletionException(e.getCause());
+                }
+                // re-arm before handing off, so the subscribers do not add to the gap
+                final Armed next;
+                try {
+                    next = stopping ? null : arm(current.INDEX + 1);
+                } catch (RuntimeException e) {
+                    // the capture which triggered is still handed off; arm() cleaned up the one which failed
+                    final Armed ended = current;
+                    current = null;
+                    try {
+                        publish(new Ended(ended.INDEX, ended.CAPTURE, ended.ARMED_NANOS, endNanos, 0));
+                    } catch (RuntimeException publishException) {
+                        e.addSuppressed(publishException);
+                    }
+                    throw e;
+                }
+                final long rearmGapNanos = next == null ? 0 : next.ARMED_NANOS - endNanos;
+                if (next != null) {
+                    REARM_GAP_NANOS.record(rearmGapNanos);
+                    TRIGGER_TO_REARM_NANOS.record(rearmGapNanos + AFTER_TRIGGER_NANOS);
+                }
+                final Armed ended = current;
+                current = next;
+                publish(new Ended(ended.INDEX, ended.CAPTURE, ended.ARMED_NANOS, endNanos, rearmGapNanos));
+                if (current == null) {
+                    break;
+                }
+            }
+            if (current != null) {
+                // armed but never triggered
+                stopAndClose(current.CAPTURE);
+            }
+            PUBLISHER.close();
+        } catch (RuntimeException | InterruptedException e) {
+            if (current != null) {
+                current.WAIT.cancel(false);
+                try {
+                    stopAndClose(current.CAPTURE);
+                } catch (RuntimeException closeException) {
+                    e.addSuppressed(closeException);
+                }
+            }
+            failure = e;
+            PUBLISHER.close();
+            throw e;
+        }
+    }
+
+    private Armed arm(long index) {
+        final long sendNanos = System.nanoTime();
+        final Capture capture = MANAGER.startCapture(DEVICE_ID, DEVICE_CONFIG, CAPTURE_CONFIG);
+        final long replyNanos = System.nanoTime();
+        START_LATENCY_NANOS.record(replyNanos - sendNanos);
+        captureCount = index + 1;
+
+        final CompletableFuture<Void> wait;
+        try {
+            wait = capture.waitForCaptureToEndAsync();
+        } catch (RuntimeException e) {
+            stopAndClose(capture);
+            throw e;
+        }
+        final Armed armed = new Armed(index, capture, replyNanos, wait);
+        this.armed = armed;
+        if (stopping) {
+            // close() may have looked at the previous capture
+            wait.cancel(false);
+        }
+        return armed;
+    }
+
+    private void publish(Ended ended) {
+        final List<Share> counted = new ArrayList<>();
+        for (Flow.Subscriber<? super Ended> subscriber : PUBLISHER.getSubscribers()) {
+            final Share share = (Share) subscriber;
+            if (!share.terminated) {
+                counted.add(share);
+            }
+        }
+        if (counted.isEmpty()) {
+            UNSUBSCRIBED_CAPTURES.increment();
+            ended.CAPTURE.close();
+            return;
+        }
+        // one reference for each subscriber, and one held while submitting
+        ended.REFERENCES.set(counted.size() + 1);
+        for (Share share : counted) {
+            share.PENDING.add(ended);
+        }
+        final boolean mayBlock;
+        synchronized (this) {
+            mayBlock = !stopping;
+            if (mayBlock) {
+                handoffThread = Thread.currentThread();
+            }
+        }
+        try {
+            final long submitNanos = System.nanoTime();
+            // a timed offer, unlike submit(), stops waiting when close() interrupts it
+            if (mayBlock) {
+                PUBLISHER.offer(ended, Long.MAX_VALUE, TimeUnit.NANOSECONDS, TriggeredCapturePublisher::dropped);
+            } else {
+                PUBLISHER.offer(ended, TriggeredCapturePublisher::dropped);
+            }
+            HANDOFF_WAIT_NANOS.record(System.nanoTime() - submitNanos);
+        } finally {
+            if (mayBlock) {
+                synchronized (this) {
+                    handoffThread = null;
+                    // clear an interrupt from close() which arrived after the offer, so it does not cancel stopAndClose()
+                    //noinspection ResultOfMethodCallIgnored
+                    Thread.interrupted();
+                }
+            }
+            // a subscriber which terminated after it was counted may have released its pending captures already
+            for (Share share : counted) {
+                if (share.terminated) {
+                    share.releasePending();
+                }
+            }
+            ended.release();
+        }
+    }
+
+    /**
+     * Called for each subscriber which had no room for the capture when close() interrupted the offer.
+     */
+    private static boolean dropped(Flow.Subscriber<? super Ended> subscriber, Ended ended) {
+        ((Share) subscriber).drop(ended);
+        return false;
+    }
+
+    private static void stopAndClose(Capture capture) {
+        try {
+            capture.stop();
+        } finally {
+            capture.close();
+        }
+    }
+
+    /**
+     * Gap before each re-arm, in nanoseconds. See the class description for how it is measured.
+     */
+    public ConcurrentHistogram.Snapshot rearmGapNanos() {
+        return REARM_GAP_NANOS.snapshot();
+    }
+
+    /**
+     * Estimated time from each trigger until the next capture was armed, in nanoseconds: the re-arm gap plus
+     * {@code afterTriggerSeconds}.
+     */
+    public ConcurrentHistogram.Snapshot triggerToRearmNanos() {
+        return TRIGGER_TO_REARM_NANOS.snapshot();
+    }
+
+    /**
+     * Round trip time of each StartCapture request, in nanoseconds.
+     */
+    public ConcurrentHistogram.Snapshot startLatencyNanos() {
+        return START_LATENCY_NANOS.snapshot();
+    }
+
+    /**
+     * Time spent blocked handing each capture to the subscribers, in nanoseconds. Non-zero values mean a subscriber
+     * had {@code maxBufferedCaptures} captures it had not requested.
+     */
+    public ConcurrentHistogram.Snapshot handoffWaitNanos() {
+        return HANDOFF_WAIT_NANOS.snapshot();
+    }
+
+    /**
+     * @return number of captures armed so far
+     */
+    public long captureCount() {
+        return captureCount;
+    }
+
+    /**
+     * @return number of captures which triggered while there were no subscribers
+     */
+    public long unsubscribedCaptureCount() {
+        return UNSUBSCRIBED_CAPTURES.sum();
+    }
+
+    /**
+     * Stop and close the armed capture, then complete the subscribers after they receive the captures which are
+     * buffered. A subscriber which has not requested its buffered captures does not hold this up; the captures it did
+     * not receive are released for it.
+     *
+     * @throws RuntimeException the exception which stopped the publisher early, for example if StartCapture failed
+     */
+    @Override
+    public void close() throws InterruptedException {
+        final Future<?> loop;
+        synchronized (this) {
+            stopping = true;
+            loop = this.loop;
+            if (handoffThread != null) {
+                handoffThread.interrupt();
+            }
+        }
+        final Armed armed = this.armed;
+        if (armed != null) {
+            armed.WAIT.cancel(false);
+        }
+        Throwable failure = null;
+        if (loop != null) {
+            try {
+                loop.get();
+            } catch (ExecutionException e) {
+                failure = e.getCause();
+            }
+        } else {
+            PUBLISHER.close();
+        }
+        EXECUTOR.shutdown();
+        //noinspection ResultOfMethodCallIgnored
+        EXECUTOR.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        // captures buffered for subscribers which did not request them can no longer be delivered
+        for (Share share : SHARES) {
+            share.terminate();
+        }
+        if (failure instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        } else if (failure != null) {
+            throw new CompletionException(failure);
+        }
+    }
+
+    /**
+     * A capture which is armed and waiting for its trigger.
+     */
+    private static class Armed {
+        private final long INDEX;
+        private final Capture CAPTURE;
+        private final long ARMED_NANOS;
+
+        /**
+         * The WaitCapture call. Cancelling it does not stop the capture.
+         */
+        private final CompletableFuture<Void> WAIT;
+
+        /**
+         * Completes with the time the WaitCapture reply arrived, taken on the gRPC thread so it is not delayed by the
+         * publisher.
+         */
+        private final CompletableFuture<Long> ENDED;
+
+        private Armed(long index, Capture capture, long armedNanos, CompletableFuture<Void> wait) {
+            INDEX = index;
+            CAPTURE = capture;
+            ARMED_NANOS = armedNanos;
+            WAIT = wait;
+            ENDED = wait.thenApply(ignored -> System.nanoTime());
+        }
+    }
+
+    /**
+     * A capture which triggered and ended, shared by the subscribers it is handed to.
+     */
+    private static class Ended {
+        private final long INDEX;
+        private final Capture CAPTURE;
+        private final long ARMED_NANOS;
+        private final long END_NANOS;
+        private final long REARM_GAP_NANOS;
+
+        /**
+         * Number of subscribers which have not released it yet, plus one while it is being submitted.
+         */
+        private final AtomicInteger REFERENCES = new AtomicInteger();
+
+        private Ended(long index, Capture capture, long armedNanos, long endNanos, long rearmGapNanos) {
+            INDEX = index;
+            CAPTURE = capture;
+            ARMED_NANOS = armedNanos;
+            END_NANOS = endNanos;
+            REARM_GAP_NANOS = rearmGapNanos;
+        }
+
+        private void release() {
+            if (REFERENCES.decrementAndGet() == 0) {
+                CAPTURE.close();
+            }
+        }
+    }
+
+    /**
+     * Wraps a subscriber to keep track of its share of each capture: the ones it was counted for and has not received,
+     * and the ones it received and has not closed.
+     */
+    private class Share implements Flow.Subscriber<Ended> {
+        private final Flow.Subscriber<? super TriggeredCapture> SUBSCRIBER;
+        private final Set<Ended> PENDING = ConcurrentHashMap.newKeySet();
+        private final Set<Ended> HELD = ConcurrentHashMap.newKeySet();
+        private volatile Flow.Subscription subscription;
+        private volatile boolean terminated;
+
+        private Share(Flow.Subscriber<? super TriggeredCapture> subscriber) {
+            SUBSCRIBER = subscriber;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            SUBSCRIBER.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    subscription.request(n);
+                }
+
+                @Override
+                public void cancel() {
+                    subscription.cancel();
+                    terminate();
+                }
+            });
+        }
+
+        @Override
+        public void onNext(Ended ended) {
+            if (!PENDING.remove(ended)) {
+                // submitted before this subscriber was counted, or after it terminated
+                subscription.request(1);
+                return;
+            }
+            HELD.add(ended);
+            try {
+                SUBSCRIBER.onNext(new TriggeredCapture(ended, this));
+            } catch (RuntimeException | Error e) {
+                // the publisher cancels the subscription when this throws
+                terminate();
+                release(ended);
+                throw e;
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            terminate();
+            SUBSCRIBER.onError(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            terminate();
+            final Throwable failure = TriggeredCapturePublisher.this.failure;
+            if (failure != null) {
+                SUBSCRIBER.onError(failure);
+            } else {
+                SUBSCRIBER.onComplete();
+            }
+        }
+
+        private void terminate() {
+            terminated = true;
+            SHARES.remove(this);
+            releasePending();
+        }
+
+        private void drop(Ended ended) {
+            if (PENDING.remove(ended)) {
+                ended.release();
+            }
+        }
+
+        private void releasePending() {
+            for (Ended ended : PENDING) {
+                if (PENDING.remove(ended)) {
+                    ended.release();
+                }
+            }
+        }
+
+        private void release(Ended ended) {
+            if (HELD.remove(ended)) {
+                ended.release();
+            }
+        }
+    }
+
+    /**
+     * A digital trigger capture which triggered and ended, as received by one subscriber.
+     */
+    public static class TriggeredCapture implements AutoCloseable {
+        private final Ended ENDED;
+        private final Share SHARE;
+
+        private TriggeredCapture(Ended ended, Share share) {
+            ENDED = ended;
+            SHARE = share;
+        }
+
+        /**
+         * @return 0 for the first capture armed, 1 for the next, and so on
+         */
+        public long index() {
+            return ENDED.INDEX;
+        }
+
+        /**
+         * The capture has ended, so it can be exported right away.
+         */
+        public Capture capture() {
+            return ENDED.CAPTURE;
+        }
+
+        /**
+         * @return time from the StartCapture reply until the WaitCapture reply, which includes waiting for the trigger
+         */
+        public Duration armedTime() {
+            return Duration.ofNanos(ENDED.END_NANOS - ENDED.ARMED_NANOS);
+        }
+
+        /**
+         * @return gap between the end of this capture and the next one being armed, or {@link Duration#ZERO} for the
+         * last capture
+         */
+        public Duration rearmGapAfter() {
+            return Duration.ofNanos(ENDED.REARM_GAP_NANOS);
+        }
+
+        /**
+         * Close the capture in Logic 2 after every subscriber which received it has called this. Calling it again does
+         * nothing.
+         */
+        @Override
+        public void close() {
+            SHARE.release(ENDED);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("triggered capture %d: armed for %s, re-armed %s later", index(), armedTime(), rearmGapAfter());
+        }
+    }
+
+}
@@ -0,0 +1,40 @@
+package xyz.froud.saleae.automation;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates executors which use virtual threads when the JVM supports them.
+ * <p>
+ * The project targets Java 17, so {@link Executors}{@code .newVirtualThreadPerTaskExecutor()} is looked up by
+ * reflection. On older JVMs, or when virtual threads are a disabled preview feature, a cached pool of daemon platform
+ * threads is used instead.
+ */
+final class VirtualThreads {
+
+    private VirtualThreads() {
+    }
+
+    /**
+     * @param namePrefix name prefix for the platform threads created if virtual threads are not available
+     */
+    static ExecutorService newThreadPerTaskExecutor(String namePrefix) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return Executors.newCachedThreadPool(daemonThreadFactory(namePrefix));
+        }
+    }
+
+    static ThreadFactory daemonThreadFactory(String namePrefix) {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return runnable -> {
+            final Thread thread = new Thread(runnable, namePrefix + "-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+}
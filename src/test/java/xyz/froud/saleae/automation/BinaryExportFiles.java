@@ -0,0 +1,80 @@
+package xyz.froud.saleae.automation;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Writes files in the format of {@link Capture#exportRawDataBinary}, so tests can build exports by hand.
+ */
+final class BinaryExportFiles {
+
+    private BinaryExportFiles() {
+    }
+
+    static void writeDigital(Path file, int initialState, double beginTime, double endTime, double... transitions) throws IOException {
+        final ByteBuffer buffer = header(44 + transitions.length * Double.BYTES, 0)
+                .putInt(initialState)
+                .putDouble(beginTime)
+                .putDouble(endTime)
+                .putLong(transitions.length);
+        for (double transition : transitions) {
+            buffer.putDouble(transition);
+        }
+        Files.write(file, buffer.array());
+    }
+
+    static void writeAnalog(Path file, double beginTime, long sampleRate, long downsample, float... samples) throws IOException {
+        final ByteBuffer buffer = header(48 + samples.length * Float.BYTES, 1)
+                .putDouble(beginTime)
+                .putLong(sampleRate)
+                .putLong(downsample)
+                .putLong(samples.length);
+        for (float sample : samples) {
+            buffer.putFloat(sample);
+        }
+        Files.write(file, buffer.array());
+    }
+
+    private static ByteBuffer header(int size, int type) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN)
+                .put("<SALEAE>".getBytes(StandardCharsets.US_ASCII))
+                .putInt(0) // version
+                .putInt(type);
+    }
+
+    /**
+     * Builds one digital channel by setting its level at increasing times. Setting the level it already has adds no
+     * transition.
+     */
+    static class DigitalSignal {
+        private final int INITIAL_STATE;
+        private double[] transitions = new double[64];
+        private int transitionCount;
+        private int state;
+
+        DigitalSignal(int initialState) {
+            INITIAL_STATE = initialState;
+            state = initialState;
+        }
+
+        void set(double time, int newState) {
+            if (newState != state) {
+                if (transitionCount == transitions.length) {
+                    transitions = Arrays.copyOf(transitions, transitionCount * 2);
+                }
+                transitions[transitionCount++] = time;
+                state = newState;
+            }
+        }
+
+        void write(Path file, double beginTime, double endTime) throws IOException {
+            writeDigital(file, INITIAL_STATE, beginTime, endTime, Arrays.copyOf(transitions, transitionCount));
+        }
+    }
+
+}
@@ -0,0 +1,114 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import saleae.LogicChannels;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Round trips captures through an archive, including a digital trigger capture whose samples start before time 0.
+ */
+class CaptureArchiveTest {
+
+    private static final Instant START = Instant.parse("2024-01-02T03:04:05Z");
+    private static final double EPSILON = 1e-9;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void simulatedCaptureRoundTrip() throws Exception {
+        final Path export = Files.createDirectory(directory.resolve("export"));
+        final Manager.DeviceConfig deviceConfig = new Manager.DeviceConfig();
+        deviceConfig.digitalChannels = List.of(0, 1);
+        deviceConfig.analogChannels = List.of(0);
+        deviceConfig.digitalSampleRate = 10_000_000;
+        deviceConfig.analogSampleRate = 100_000;
+        final Manager.CaptureConfigTimed captureConfig = new Manager.CaptureConfigTimed();
+        captureConfig.bufferSizeMegabytes = 16;
+        captureConfig.durationSeconds = 0.05;
+
+        try (SimulatedLogic2Server server = new SimulatedLogic2Server();
+             Manager manager = new Manager(server.startInProcess())) {
+            server.timeScale = 0;
+            try (Capture capture = manager.startCapture(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID, deviceConfig, captureConfig)) {
+                capture.waitForCaptureToEnd();
+                capture.exportRawDataBinary(export.toString(), LogicChannels.getDefaultInstance(), 1);
+            }
+        }
+
+        final CaptureArchive archive = CaptureArchive.open(directory.resolve("archive"));
+        final CaptureArchive.Entry appended = archive.append("timed", "device", deviceConfig, START, export);
+        assertEquals(0, appended.TIME_ORIGIN_SECONDS, EPSILON);
+        assertEquals(0.05, appended.DURATION_SECONDS, 1e-6);
+
+        final SortedMap<Integer, RawBinaryReader.DigitalChannel> digital = RawBinaryReader.mapDigitalDirectory(export);
+        final CaptureArchive.Entry reopened = CaptureArchive.open(directory.resolve("archive")).entry("timed");
+        for (int channelIndex : deviceConfig.digitalChannels) {
+            final RawBinaryReader.DigitalChannel channel = digital.get(channelIndex);
+            final List<Double> expected = new ArrayList<>();
+            for (long i = 0; i < channel.TRANSITION_COUNT; i++) {
+                expected.add(channel.transitionTime(i));
+            }
+            final List<Double> actual = new ArrayList<>();
+            reopened.forEachTransition(channelIndex, 0, 1, (time, newState) -> actual.add(time));
+            assertEquals(expected.size(), actual.size());
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), actual.get(i), 0.5 / deviceConfig.digitalSampleRate);
+            }
+        }
+
+        final RawBinaryReader.AnalogChannel analog = RawBinaryReader.mapAnalogDirectory(export).get(0);
+        final CaptureArchive.AnalogSamples samples = reopened.analogSamples(0, 0, 1);
+        assertEquals(analog.SAMPLE_COUNT, samples.SAMPLES.length);
+        for (int i = 0; i < samples.SAMPLES.length; i++) {
+            assertEquals(analog.sample(i), samples.SAMPLES[i]);
+        }
+    }
+
+    @Test
+    void triggerCaptureUsesEarliestSampleAsStartTime() throws IOException {
+        final Path export = Files.createDirectory(directory.resolve("export"));
+        // trigger at time 0, half a second of pre-trigger samples
+        BinaryExportFiles.writeDigital(export.resolve("digital_0.bin"), 0, -0.5, 1.5, -0.4, 0, 1);
+        BinaryExportFiles.writeAnalog(export.resolve("analog_0.bin"), -0.5, 10, 1, 0.5f, 1.5f);
+        final Manager.DeviceConfig deviceConfig = new Manager.DeviceConfig();
+        deviceConfig.digitalSampleRate = 1000;
+        deviceConfig.analogSampleRate = 10;
+
+        final CaptureArchive archive = CaptureArchive.open(directory.resolve("archive"));
+        archive.append("triggered", "device", deviceConfig, START, export);
+
+        final CaptureArchive.Entry entry = CaptureArchive.open(directory.resolve("archive")).entry("triggered");
+        assertEquals(-0.5, entry.TIME_ORIGIN_SECONDS, EPSILON);
+        assertEquals(2, entry.DURATION_SECONDS, EPSILON);
+        assertEquals(START.plusSeconds(2), entry.endTime());
+        assertEquals(START.plusMillis(500), entry.instant(0));
+        assertEquals(0, entry.exportTime(START.plusMillis(500)), EPSILON);
+
+        // the last 0.5 s of the capture is only found with the duration measured from the earliest sample
+        assertEquals(1, archive.entries(START.plusMillis(1700), START.plusSeconds(3)).size());
+        assertEquals(0, archive.entries(START.plusSeconds(2), START.plusSeconds(3)).size());
+
+        final List<double[]> transitions = new ArrayList<>();
+        archive.forEachTransition(0, START, START.plusMillis(600), e -> true,
+                (e, time, newState) -> transitions.add(new double[]{time, newState}));
+        assertEquals(2, transitions.size());
+        assertArrayEquals(new double[]{-0.4, 1}, transitions.get(0), EPSILON);
+        assertArrayEquals(new double[]{0, 0}, transitions.get(1), EPSILON);
+
+        final CaptureArchive.AnalogSamples samples = entry.analogSamples(0, entry.exportTime(START), entry.exportTime(START.plusMillis(150)));
+        assertEquals(-0.5, samples.FIRST_SAMPLE_TIME, EPSILON);
+        assertArrayEquals(new float[]{0.5f, 1.5f}, samples.SAMPLES);
+    }
+}
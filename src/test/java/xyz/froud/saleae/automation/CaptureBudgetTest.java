@@ -0,0 +1,104 @@
+package xyz.froud.saleae.automation;
+
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInfo;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks admission order, cancellation, and that a result which arrives after a cancel is not leaked.
+ */
+class CaptureBudgetTest {
+
+    private static CaptureBudget budget(TestInfo testInfo, long ceilingMegabytes) {
+        final CaptureBudget budget = CaptureBudget.forEndpoint(CaptureBudgetTest.class.getName() + '.' + testInfo.getDisplayName());
+        budget.setCeilingMegabytes(ceilingMegabytes);
+        return budget;
+    }
+
+    @Test
+    void admitsInOrderWhenBudgetIsReleased(TestInfo testInfo) {
+        final CaptureBudget budget = budget(testInfo, 100);
+        final CompletableFuture<Void> first = budget.reserveAsync(60);
+        final CompletableFuture<Void> large = budget.reserveAsync(60);
+        final CompletableFuture<Void> small = budget.reserveAsync(10);
+        assertTrue(first.isDone());
+        // the small one fits, but waits behind the large one so the large one is not starved
+        assertFalse(large.isDone());
+        assertFalse(small.isDone());
+        assertEquals(2, budget.getWaitingCount());
+
+        budget.release(60);
+        assertTrue(large.isDone());
+        assertTrue(small.isDone());
+        assertEquals(70, budget.getCommittedMegabytes());
+        assertEquals(0, budget.getWaitingCount());
+    }
+
+    @Test
+    void cancelWhileWaitingGivesUpItsPlace(TestInfo testInfo) {
+        final CaptureBudget budget = budget(testInfo, 100);
+        budget.reserveAsync(100);
+        final CompletableFuture<Void> cancelled = budget.reserveAsync(50);
+        final CompletableFuture<Void> next = budget.reserveAsync(50);
+
+        assertTrue(cancelled.cancel(false));
+        assertEquals(1, budget.getWaitingCount());
+
+        budget.release(50);
+        assertTrue(next.isDone());
+        assertEquals(100, budget.getCommittedMegabytes());
+    }
+
+    @Test
+    void failedCallReleasesBudget(TestInfo testInfo) {
+        final CaptureBudget budget = budget(testInfo, 100);
+        final CompletableFuture<String> result = budget.admitAsync(40,
+                () -> CompletableFuture.failedFuture(Status.UNAVAILABLE.asRuntimeException()), value -> {
+                });
+        assertTrue(result.isCompletedExceptionally());
+        assertEquals(0, budget.getCommittedMegabytes());
+    }
+
+    @Test
+    void resultArrivingAfterCancelIsDiscarded(TestInfo testInfo) {
+        final CaptureBudget budget = budget(testInfo, 100);
+        // like a call whose reply is already on its way when the cancel arrives
+        final CompletableFuture<String> inFlight = new CompletableFuture<>() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return false;
+            }
+        };
+        final List<String> discarded = new ArrayList<>();
+        final CompletableFuture<String> result = budget.admitAsync(40, () -> inFlight, discarded::add);
+
+        assertTrue(result.cancel(false));
+        inFlight.complete("capture");
+
+        assertEquals(List.of("capture"), discarded);
+        // the discarded result owns the budget and releases it when it is closed
+        assertEquals(40, budget.getCommittedMegabytes());
+    }
+
+    @Test
+    void waitingLongerThanMaxWaitFails(TestInfo testInfo) {
+        final CaptureBudget budget = budget(testInfo, 100);
+        budget.maxWait = Duration.ofMillis(50);
+        budget.reserveAsync(100);
+
+        final StatusRuntimeException e = assertThrows(StatusRuntimeException.class, () -> budget.admit(10, () -> "capture"));
+        assertEquals(Status.Code.RESOURCE_EXHAUSTED, e.getStatus().getCode());
+        assertEquals(0, budget.getWaitingCount());
+    }
+}
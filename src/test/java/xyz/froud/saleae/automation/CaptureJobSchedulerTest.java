@@ -0,0 +1,156 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that cancelling a job frees its device whether the job is queued, dispatched but not started, or running.
+ */
+class CaptureJobSchedulerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    /**
+     * Holds submitted tasks until the test runs them, so a job can be cancelled after it is dispatched but before its
+     * thread starts.
+     */
+    private static class HeldExecutor extends AbstractExecutorService {
+        final Queue<Runnable> TASKS = new ArrayDeque<>();
+        boolean shutdown;
+
+        @Override
+        public synchronized void execute(Runnable command) {
+            TASKS.add(command);
+        }
+
+        synchronized Runnable next() {
+            return TASKS.poll();
+        }
+
+        void runNext() {
+            final Runnable task = next();
+            assertNotNull(task, "no task was dispatched");
+            task.run();
+        }
+
+        @Override
+        public synchronized void shutdown() {
+            shutdown = true;
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            shutdown();
+            return List.of();
+        }
+
+        @Override
+        public synchronized boolean isShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public synchronized boolean isTerminated() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return true;
+        }
+    }
+
+    @Test
+    void cancelAfterDispatchBeforeStartFreesDevice() throws Exception {
+        final HeldExecutor executor = new HeldExecutor();
+        final CaptureJobScheduler scheduler = new CaptureJobScheduler(1, executor);
+        final CaptureJobScheduler.ScheduledJob<String> first = scheduler.submit("device", () -> "first");
+        final CaptureJobScheduler.ScheduledJob<String> second = scheduler.submit("device", () -> "second");
+        assertEquals(1, scheduler.runningJobs());
+        assertEquals(1, scheduler.queueDepth("device"));
+
+        assertTrue(first.future().cancel(true));
+        executor.runNext();
+
+        assertThrows(CancellationException.class, () -> first.future().join());
+        assertEquals(1, scheduler.runningJobs());
+        assertEquals(0, scheduler.queueDepth("device"));
+
+        executor.runNext();
+        assertEquals("second", second.future().get(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        assertEquals(0, scheduler.runningJobs());
+        assertTimeoutPreemptively(TIMEOUT, scheduler::close);
+    }
+
+    @Test
+    void cancelQueuedJobRemovesIt() throws Exception {
+        final HeldExecutor executor = new HeldExecutor();
+        final CaptureJobScheduler scheduler = new CaptureJobScheduler(1, executor);
+        scheduler.submit("device", () -> "first");
+        final CaptureJobScheduler.ScheduledJob<String> second = scheduler.submit("device", () -> "second");
+
+        assertTrue(second.future().cancel(false));
+        assertEquals(0, scheduler.queueDepth());
+
+        executor.runNext();
+        assertNull(executor.next());
+        assertEquals(0, scheduler.runningJobs());
+        assertTimeoutPreemptively(TIMEOUT, scheduler::close);
+    }
+
+    @Test
+    void cancelRunningJobInterruptsIt() throws Exception {
+        final CaptureJobScheduler scheduler = new CaptureJobScheduler(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch interrupted = new CountDownLatch(1);
+        final CaptureJobScheduler.ScheduledJob<Void> job = scheduler.submit("device", () -> {
+            started.countDown();
+            try {
+                Thread.sleep(Long.MAX_VALUE);
+            } catch (InterruptedException e) {
+                interrupted.countDown();
+            }
+            return null;
+        });
+        assertTrue(started.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+
+        assertTrue(job.future().cancel(true));
+
+        assertTrue(interrupted.await(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        assertTimeoutPreemptively(TIMEOUT, scheduler::close);
+        assertEquals(0, scheduler.runningJobs());
+    }
+
+    @Test
+    void otherDevicesKeepRunningWhenJobFails() throws Exception {
+        final CaptureJobScheduler scheduler = new CaptureJobScheduler(2);
+        final CaptureJobScheduler.ScheduledJob<String> failing = scheduler.submit("a", () -> {
+            throw new IllegalStateException("failed");
+        });
+        final CaptureJobScheduler.ScheduledJob<String> other = scheduler.submit("b", () -> "b");
+
+        final ExecutionException e = assertThrows(ExecutionException.class,
+                () -> failing.future().get(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        assertTrue(e.getCause() instanceof IllegalStateException);
+        assertEquals("b", other.future().get(TIMEOUT.toSeconds(), TimeUnit.SECONDS));
+        assertTimeoutPreemptively(TIMEOUT, scheduler::close);
+        assertFalse(failing.future().isCancelled());
+    }
+}
@@ -0,0 +1,92 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the block index lookups with a linear scan, around block boundaries and at exact transition times.
+ */
+class DigitalTransitionIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private DigitalTransitionIndex index(int initialState, double... transitions) throws IOException {
+        final Path file = directory.resolve("digital_0.bin");
+        BinaryExportFiles.writeDigital(file, initialState, 0, 1e6, transitions);
+        return new DigitalTransitionIndex(RawBinaryReader.mapDigital(file));
+    }
+
+    private static long linearCountBefore(double[] transitions, double time, boolean inclusive) {
+        long count = 0;
+        for (double transition : transitions) {
+            if (transition < time || (inclusive && transition == time)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void matchesLinearScan() throws IOException {
+        final Random random = new Random(3);
+        final double[] transitions = new double[3 * DigitalTransitionIndex.BLOCK_SIZE + 17];
+        double time = 0;
+        for (int i = 0; i < transitions.length; i++) {
+            time += 1 + random.nextInt(10);
+            transitions[i] = time;
+        }
+        final DigitalTransitionIndex index = index(1, transitions);
+
+        final double[] queries = new double[2000];
+        for (int i = 0; i < queries.length; i++) {
+            // half of the queries land exactly on a transition, including the first ones of each block
+            queries[i] = i % 2 == 0
+                    ? transitions[i % 4 == 0 ? (i / 4 % 4) * DigitalTransitionIndex.BLOCK_SIZE : random.nextInt(transitions.length)]
+                    : random.nextDouble() * (time + 20) - 10;
+        }
+        for (double query : queries) {
+            final long before = linearCountBefore(transitions, query, false);
+            final long atOrBefore = linearCountBefore(transitions, query, true);
+            assertEquals(before, index.countBefore(query), () -> "countBefore " + query);
+            assertEquals(atOrBefore, index.countAtOrBefore(query), () -> "countAtOrBefore " + query);
+            assertEquals(1 ^ (int) (atOrBefore & 1), index.stateAt(query));
+            if (atOrBefore < transitions.length) {
+                assertEquals(transitions[(int) atOrBefore], index.nextEdgeAfter(query));
+            } else {
+                assertTrue(Double.isNaN(index.nextEdgeAfter(query)));
+            }
+            final double end = query + 50;
+            assertEquals(linearCountBefore(transitions, end, false) - before, index.edgesBetween(query, end));
+        }
+    }
+
+    @Test
+    void edges() throws IOException {
+        final DigitalTransitionIndex index = index(0, 1, 2, 3);
+        assertEquals(0, index.stateAt(0.5));
+        assertEquals(1, index.stateAt(1));
+        assertEquals(0, index.stateAt(2.5));
+        assertEquals(1, index.stateAt(10));
+        assertEquals(2, index.edgesBetween(1, 3));
+        assertEquals(0, index.edgesBetween(3, 1));
+        assertEquals(2, index.nextEdgeAfter(1));
+        assertTrue(Double.isNaN(index.nextEdgeAfter(3)));
+    }
+
+    @Test
+    void noTransitions() throws IOException {
+        final DigitalTransitionIndex index = index(1);
+        assertEquals(0, index.countBefore(5));
+        assertEquals(0, index.countAtOrBefore(5));
+        assertEquals(1, index.stateAt(5));
+        assertTrue(Double.isNaN(index.nextEdgeAfter(0)));
+    }
+}
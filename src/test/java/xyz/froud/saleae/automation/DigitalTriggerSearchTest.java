@@ -0,0 +1,156 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import saleae.DigitalTriggerLinkedChannelState;
+import saleae.DigitalTriggerType;
+import xyz.froud.saleae.automation.BinaryExportFiles.DigitalSignal;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Searches hand-written transitions with and without glitch filters, and checks that a parallel search of random
+ * transitions finds the same matches as a sequential one.
+ */
+class DigitalTriggerSearchTest {
+
+    private static final double GLITCH_SECONDS = 1e-3;
+
+    @TempDir
+    Path directory;
+
+    private Map<Integer, DigitalTransitionIndex> write(double endTime, DigitalSignal... signals) throws IOException {
+        for (int i = 0; i < signals.length; i++) {
+            signals[i].write(directory.resolve("digital_" + i + ".bin"), 0, endTime);
+        }
+        return DigitalTransitionIndex.forDirectory(directory);
+    }
+
+    private static DigitalSignal signal(int initialState, double... transitions) {
+        final DigitalSignal signal = new DigitalSignal(initialState);
+        int state = initialState;
+        for (double transition : transitions) {
+            state ^= 1;
+            signal.set(transition, state);
+        }
+        return signal;
+    }
+
+    private static Manager.CaptureConfigDigitalTrigger trigger(DigitalTriggerType type) {
+        final Manager.CaptureConfigDigitalTrigger trigger = new Manager.CaptureConfigDigitalTrigger();
+        trigger.digitalTriggerType = type;
+        trigger.triggerChannelIndex = 0;
+        return trigger;
+    }
+
+    private static Manager.CaptureConfigDigitalTrigger.LinkedChannel linked(int channelIndex, DigitalTriggerLinkedChannelState state) {
+        final Manager.CaptureConfigDigitalTrigger.LinkedChannel linked = new Manager.CaptureConfigDigitalTrigger.LinkedChannel();
+        linked.channelIndex = channelIndex;
+        linked.state = state;
+        return linked;
+    }
+
+    private static List<Manager.GlitchFilter> glitchFilters(int... channelIndexes) {
+        return Arrays.stream(channelIndexes).mapToObj(channelIndex -> {
+            final Manager.GlitchFilter glitchFilter = new Manager.GlitchFilter();
+            glitchFilter.channelIndex = channelIndex;
+            glitchFilter.pulseWidthSeconds = GLITCH_SECONDS;
+            return glitchFilter;
+        }).toList();
+    }
+
+    private static void assertMatches(List<DigitalTriggerSearch.Match> matches, double... startAndEndTimes) {
+        assertEquals(startAndEndTimes.length / 2, matches.size(), matches::toString);
+        for (int i = 0; i < matches.size(); i++) {
+            assertEquals(startAndEndTimes[2 * i], matches.get(i).START_TIME, matches::toString);
+            assertEquals(startAndEndTimes[2 * i + 1], matches.get(i).TIME, matches::toString);
+        }
+    }
+
+    @Test
+    void risingEdgeIgnoresGlitch() throws IOException {
+        final Map<Integer, DigitalTransitionIndex> channels = write(5, signal(0, 1, 1.0005, 2, 3));
+        final Manager.CaptureConfigDigitalTrigger trigger = trigger(DigitalTriggerType.DIGITAL_TRIGGER_TYPE_RISING);
+
+        assertMatches(new DigitalTriggerSearch(trigger, List.of(), channels).findAll(), 1, 1, 2, 2);
+        assertMatches(new DigitalTriggerSearch(trigger, glitchFilters(0), channels).findAll(), 2, 2);
+    }
+
+    @Test
+    void pulseAcrossGlitchIsOnePulse() throws IOException {
+        final Map<Integer, DigitalTransitionIndex> channels = write(5, signal(0, 1, 1.5, 1.5002, 2));
+        final Manager.CaptureConfigDigitalTrigger trigger = trigger(DigitalTriggerType.DIGITAL_TRIGGER_TYPE_PULSE_HIGH);
+        trigger.minPulseWidthSeconds = 0.5;
+        trigger.maxPulseWidthSeconds = 2;
+
+        // without the filter, the glitch splits it into pulses of 0.5 s and 0.4998 s
+        assertMatches(new DigitalTriggerSearch(trigger, List.of(), channels).findAll(), 1, 1.5);
+        assertMatches(new DigitalTriggerSearch(trigger, glitchFilters(0), channels).findAll(), 1, 2);
+
+        trigger.maxPulseWidthSeconds = 0.9;
+        assertMatches(new DigitalTriggerSearch(trigger, glitchFilters(0), channels).findAll());
+    }
+
+    @Test
+    void linkedChannelGlitchAtTriggerIsFiltered() throws IOException {
+        final Map<Integer, DigitalTransitionIndex> channels = write(5,
+                signal(0, 2, 3),
+                signal(1, 1.9999, 2.00005));
+        final Manager.CaptureConfigDigitalTrigger trigger = trigger(DigitalTriggerType.DIGITAL_TRIGGER_TYPE_RISING);
+        trigger.linkedChannels = List.of(linked(1, DigitalTriggerLinkedChannelState.DIGITAL_TRIGGER_LINKED_CHANNEL_STATE_HIGH));
+
+        assertMatches(new DigitalTriggerSearch(trigger, List.of(), channels).findAll());
+        assertMatches(new DigitalTriggerSearch(trigger, glitchFilters(1), channels).findAll(), 2, 2);
+    }
+
+    @Test
+    void parallelMatchesSequential() throws IOException {
+        final Random random = new Random(20);
+        final DigitalSignal[] signals = new DigitalSignal[2];
+        double endTime = 0;
+        for (int channel = 0; channel < signals.length; channel++) {
+            signals[channel] = new DigitalSignal(0);
+            double time = 0;
+            int state = 0;
+            for (int i = 0; i < 20_000; i++) {
+                // a mix of glitches, which the filter removes, and stable stretches
+                time += GLITCH_SECONDS * (random.nextInt(3) == 0 ? 0.1 + random.nextDouble() * 0.8 : 1 + random.nextDouble() * 10);
+                state ^= 1;
+                signals[channel].set(time, state);
+            }
+            endTime = Math.max(endTime, time + 1);
+        }
+        final Map<Integer, DigitalTransitionIndex> channels = write(endTime, signals);
+
+        final ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (DigitalTriggerType type : List.of(DigitalTriggerType.DIGITAL_TRIGGER_TYPE_RISING, DigitalTriggerType.DIGITAL_TRIGGER_TYPE_PULSE_LOW)) {
+                final Manager.CaptureConfigDigitalTrigger trigger = trigger(type);
+                trigger.minPulseWidthSeconds = 2 * GLITCH_SECONDS;
+                trigger.maxPulseWidthSeconds = 8 * GLITCH_SECONDS;
+                trigger.linkedChannels = List.of(linked(1, DigitalTriggerLinkedChannelState.DIGITAL_TRIGGER_LINKED_CHANNEL_STATE_LOW));
+                final DigitalTriggerSearch search = new DigitalTriggerSearch(trigger, glitchFilters(0, 1), channels);
+
+                final List<DigitalTriggerSearch.Match> sequential = search.findAll();
+                assertTrue(sequential.size() > 100, () -> type + " found only " + sequential.size() + " matches");
+                final List<DigitalTriggerSearch.Match> parallel = search.findAllParallel(pool, 16);
+                assertEquals(sequential.size(), parallel.size(), type::toString);
+                for (int i = 0; i < sequential.size(); i++) {
+                    assertEquals(sequential.get(i).START_TIME, parallel.get(i).START_TIME, type::toString);
+                    assertEquals(sequential.get(i).TIME, parallel.get(i).TIME, type::toString);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
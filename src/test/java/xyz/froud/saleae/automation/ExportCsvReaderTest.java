@@ -0,0 +1,163 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+import saleae.RadixType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Parses small hand-written exports, including quoting, line endings, and the radixes a data table can use.
+ */
+class ExportCsvReaderTest {
+
+    private static final double EPSILON = 1e-12;
+
+    private static ReadableByteChannel channel(String csv) {
+        return Channels.newChannel(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Returns one byte per read, so records are split across refills of the buffer.
+     */
+    private static ReadableByteChannel trickle(String csv) {
+        final byte[] bytes = csv.getBytes(StandardCharsets.UTF_8);
+        return new ReadableByteChannel() {
+            int position;
+
+            @Override
+            public int read(ByteBuffer destination) {
+                if (position == bytes.length) {
+                    return -1;
+                }
+                destination.put(bytes[position++]);
+                return 1;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    void digital() throws IOException {
+        final String csv = "\uFEFFTime [s],Channel 0,Channel 1\r\n"
+                + "0.000000000,0,1\r\n"
+                + "1.5e-3,1,1\r\n"
+                + "\r\n"
+                + "0.25,1,0";
+        try (ExportCsvReader.Digital reader = ExportCsvReader.openDigital(trickle(csv), false)) {
+            assertArrayEquals(new String[]{"Time [s]", "Channel 0", "Channel 1"}, reader.header());
+            assertArrayEquals(new String[]{"Channel 0", "Channel 1"}, reader.channelNames());
+            final ExportCsvReader.DigitalRow row = reader.row();
+
+            assertTrue(reader.next());
+            assertEquals(0, row.timeSeconds, EPSILON);
+            assertEquals(0b10, row.states);
+
+            assertTrue(reader.next());
+            assertEquals(1.5e-3, row.timeSeconds, EPSILON);
+            assertEquals(1, row.state(0));
+            assertEquals(1, row.state(1));
+
+            assertTrue(reader.next());
+            assertEquals(0.25, row.timeSeconds, EPSILON);
+            assertEquals(0b01, row.states);
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void analogWithIso8601Timestamps() throws IOException {
+        final String csv = "Time [s],Channel 0\n"
+                + "2024-01-02T03:04:05.123456789Z,-1.25\n";
+        try (ExportCsvReader.Analog reader = ExportCsvReader.openAnalog(channel(csv), true)) {
+            final ExportCsvReader.AnalogRow row = reader.row();
+            assertTrue(reader.next());
+            final Instant expected = Instant.parse("2024-01-02T03:04:05.123456789Z");
+            assertEquals(expected.getEpochSecond() * 1_000_000_000L + expected.getNano(), row.epochNanos);
+            assertTrue(Double.isNaN(row.timeSeconds));
+            assertEquals(-1.25f, row.VOLTS[0]);
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void wrongColumnCountFails() throws IOException {
+        try (ExportCsvReader.Digital reader = ExportCsvReader.openDigital(channel("Time [s],Channel 0\n0,1,1\n"), false)) {
+            assertThrows(IOException.class, reader::next);
+        }
+    }
+
+    @Test
+    void dataTableQuotedFields() throws IOException {
+        final String csv = "name,type,start_time,duration,data,note\n"
+                + "Async Serial,data,0.5,0.001,0x41,\"a, \"\"quoted\"\"\nnote\"\n"
+                + "Async Serial,error,0.75,,0b101,\n";
+        try (ExportCsvReader.DataTable reader = ExportCsvReader.openDataTable(channel(csv), false)) {
+            final int data = reader.columnIndex("data");
+            final int note = reader.columnIndex("note");
+            assertEquals(-1, reader.columnIndex("missing"));
+
+            assertTrue(reader.next());
+            assertTrue(reader.nameEquals("Async Serial"));
+            assertTrue(reader.typeEquals("data"));
+            assertEquals(0.5, reader.startTimeSeconds(), EPSILON);
+            assertEquals(0.001, reader.durationSeconds(), EPSILON);
+            assertEquals(0x41, reader.columnAsLong(data));
+            assertEquals("a, \"quoted\"\nnote", reader.columnAsString(note));
+
+            assertTrue(reader.next());
+            assertTrue(reader.typeEquals("error"));
+            assertTrue(Double.isNaN(reader.durationSeconds()));
+            assertEquals(0b101, reader.columnAsLong(data));
+            assertTrue(reader.isEmpty(note));
+
+            assertFalse(reader.next());
+        }
+    }
+
+    @Test
+    void dataTableWithoutStartTimeFails() {
+        assertThrows(IOException.class, () -> ExportCsvReader.openDataTable(channel("name,data\n"), false));
+    }
+
+    @Test
+    void singleCharacterUsesExportRadix() throws IOException {
+        final String csv = "start_time,data\n"
+                + "0,5\n"
+                + "1,A\n"
+                + "2,65\n";
+        try (ExportCsvReader.DataTable reader = ExportCsvReader.openDataTable(channel(csv), false)) {
+            assertTrue(reader.next());
+            assertEquals(5, reader.columnAsLong(1));
+            assertEquals(5, reader.columnAsLong(1, RadixType.RADIX_TYPE_DECIMAL));
+            assertEquals('5', reader.columnAsLong(1, RadixType.RADIX_TYPE_ASCII));
+
+            assertTrue(reader.next());
+            assertEquals('A', reader.columnAsLong(1));
+            assertEquals('A', reader.columnAsLong(1, RadixType.RADIX_TYPE_ASCII));
+
+            assertTrue(reader.next());
+            assertEquals(65, reader.columnAsLong(1, RadixType.RADIX_TYPE_ASCII));
+        }
+    }
+}
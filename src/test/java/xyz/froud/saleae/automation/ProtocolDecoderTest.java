@@ -0,0 +1,261 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import xyz.froud.saleae.automation.BinaryExportFiles.DigitalSignal;
+import xyz.froud.saleae.automation.ProtocolDecoder.Frame;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+/**
+ * Decodes generated traffic, checks the frames against what was generated, and checks that decoding in small parallel
+ * chunks gives exactly the same frames as decoding on one thread.
+ */
+class ProtocolDecoderTest {
+
+    /**
+     * Small enough that every capture is split into many chunks.
+     */
+    private static final long MIN_CHUNK_TRANSITIONS = 64;
+
+    /**
+     * One microsecond. Every edge is on a multiple of this.
+     */
+    private static final double UNIT = 1e-6;
+
+    private static ForkJoinPool pool;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void startPool() {
+        pool = new ForkJoinPool(4);
+    }
+
+    @AfterAll
+    static void stopPool() {
+        pool.shutdown();
+    }
+
+    private Map<Integer, DigitalTransitionIndex> write(double endTime, DigitalSignal... signals) throws IOException {
+        for (int i = 0; i < signals.length; i++) {
+            signals[i].write(directory.resolve("digital_" + i + ".bin"), 0, endTime);
+        }
+        return DigitalTransitionIndex.forDirectory(directory);
+    }
+
+    private static void assertSameFrames(List<Frame> expected, List<Frame> actual) {
+        assertEquals(expected.size(), actual.size(), "frame count");
+        for (int i = 0; i < expected.size(); i++) {
+            final Frame e = expected.get(i);
+            final Frame a = actual.get(i);
+            final String message = "frame " + i + ": expected " + e + " but was " + a;
+            assertEquals(e.TYPE, a.TYPE, message);
+            assertEquals(e.START_TIME, a.START_TIME, message);
+            assertEquals(e.END_TIME, a.END_TIME, message);
+            assertEquals(e.DATA, a.DATA, message);
+            assertEquals(e.MISO, a.MISO, message);
+            assertEquals(e.FLAGS, a.FLAGS, message);
+        }
+    }
+
+    private static void assertParallelMatchesSequential(ProtocolDecoder decoder, double endTime) {
+        // otherwise there is only one chunk and the test proves nothing
+        assertFalse(Double.isNaN(decoder.resyncPointAtOrAfter(endTime / 2, Double.POSITIVE_INFINITY)));
+        assertSameFrames(decoder.decode(), decoder.decodeParallel(pool, MIN_CHUNK_TRANSITIONS));
+    }
+
+    @Test
+    void asyncSerial() throws IOException {
+        final Random random = new Random(18);
+        final DigitalSignal input = new DigitalSignal(1);
+        final List<Frame> expected = new ArrayList<>();
+        long tick = 10;
+        for (int frame = 0; frame < 3000; frame++) {
+            final int data = random.nextInt(256);
+            final boolean parityError = random.nextInt(10) == 0;
+            final double start = tick * UNIT;
+            input.set(tick++ * UNIT, 0);
+            for (int bit = 0; bit < 8; bit++) {
+                input.set(tick++ * UNIT, (data >> bit) & 1);
+            }
+            input.set(tick++ * UNIT, (Integer.bitCount(data) & 1) ^ (parityError ? 1 : 0));
+            input.set(tick++ * UNIT, 1);
+            expected.add(new Frame("data", start, start + 11 * UNIT, data, 0, parityError ? Frame.PARITY_ERROR : 0));
+            // back to back, a short gap, or long enough to resync
+            tick += random.nextInt(3) == 0 ? 0 : random.nextInt(40);
+        }
+        final double endTime = (tick + 10) * UNIT;
+
+        final AsyncSerialDecoder decoder = new AsyncSerialDecoder(new Capture.AnalyzerSettings()
+                .put("Input Channel", 0)
+                .put("Bit Rate (Bits/s)", 1_000_000)
+                .put("Parity Bit", "Even Parity Bit"), write(endTime, input));
+        final List<Frame> frames = decoder.decode();
+        assertEquals(expected.size(), frames.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).DATA, frames.get(i).DATA);
+            assertEquals(expected.get(i).FLAGS, frames.get(i).FLAGS);
+            assertEquals(expected.get(i).START_TIME, frames.get(i).START_TIME, UNIT / 100);
+        }
+        assertParallelMatchesSequential(decoder, endTime);
+    }
+
+    /**
+     * Mode 0, most significant bit first. Each transaction holds one to four words.
+     */
+    private static double spiTraffic(Random random, DigitalSignal clock, DigitalSignal mosi, DigitalSignal miso, DigitalSignal enable, List<Frame> expected) {
+        long tick = 5;
+        for (int transaction = 0; transaction < 800; transaction++) {
+            enable.set(tick * UNIT, 0);
+            expected.add(new Frame("enable", tick * UNIT, tick * UNIT, 0, 0, 0));
+            tick++;
+            final int words = 1 + random.nextInt(4);
+            for (int word = 0; word < words; word++) {
+                final int mosiWord = random.nextInt(256);
+                final int misoWord = random.nextInt(256);
+                final double wordStart = (tick + 1) * UNIT;
+                for (int bit = 7; bit >= 0; bit--) {
+                    mosi.set(tick * UNIT, (mosiWord >> bit) & 1);
+                    miso.set(tick * UNIT, (misoWord >> bit) & 1);
+                    clock.set(++tick * UNIT, 1);
+                    clock.set(++tick * UNIT, 0);
+                }
+                expected.add(new Frame("result", wordStart, (tick - 1) * UNIT, mosiWord, misoWord, 0));
+            }
+            tick++;
+            enable.set(tick * UNIT, 1);
+            expected.add(new Frame("disable", tick * UNIT, tick * UNIT, 0, 0, 0));
+            tick += 2 + random.nextInt(20);
+        }
+        return (tick + 5) * UNIT;
+    }
+
+    @Test
+    void spiWithEnable() throws IOException {
+        final DigitalSignal clock = new DigitalSignal(0);
+        final DigitalSignal mosi = new DigitalSignal(0);
+        final DigitalSignal miso = new DigitalSignal(0);
+        final DigitalSignal enable = new DigitalSignal(1);
+        final List<Frame> expected = new ArrayList<>();
+        final double endTime = spiTraffic(new Random(18), clock, mosi, miso, enable, expected);
+
+        final SpiDecoder decoder = new SpiDecoder(new Capture.AnalyzerSettings()
+                .put("Clock", 0)
+                .put("MOSI", 1)
+                .put("MISO", 2)
+                .put("Enable", 3), write(endTime, clock, mosi, miso, enable));
+        assertSameFrames(expected, decoder.decode());
+        assertParallelMatchesSequential(decoder, endTime);
+    }
+
+    @Test
+    void spiWithoutEnable() throws IOException {
+        final DigitalSignal clock = new DigitalSignal(0);
+        final DigitalSignal mosi = new DigitalSignal(0);
+        final DigitalSignal miso = new DigitalSignal(0);
+        final DigitalSignal enable = new DigitalSignal(1);
+        final List<Frame> expected = new ArrayList<>();
+        final double endTime = spiTraffic(new Random(18), clock, mosi, miso, enable, expected);
+        expected.removeIf(frame -> !frame.TYPE.equals("result"));
+
+        final SpiDecoder decoder = new SpiDecoder(new Capture.AnalyzerSettings()
+                .put("Clock", 0)
+                .put("MOSI", 1)
+                .put("MISO", 2)
+                .put("Enable", "None"), write(endTime, clock, mosi, miso));
+        assertSameFrames(expected, decoder.decode());
+        assertParallelMatchesSequential(decoder, endTime);
+    }
+
+    private static class I2cBus {
+        final DigitalSignal SDA = new DigitalSignal(1);
+        final DigitalSignal SCL = new DigitalSignal(1);
+        final List<Frame> EXPECTED = new ArrayList<>();
+        long tick = 5;
+
+        private double next() {
+            return tick++ * UNIT;
+        }
+
+        /**
+         * A start, or a repeated start when SCL is low.
+         */
+        void start() {
+            SDA.set(next(), 1);
+            SCL.set(next(), 1);
+            final double time = next();
+            SDA.set(time, 0);
+            EXPECTED.add(new Frame("start", time, time, 0, 0, 0));
+            SCL.set(next(), 0);
+        }
+
+        /**
+         * @return time of the rising SCL edge
+         */
+        private double bit(int value) {
+            SDA.set(next(), value);
+            final double rise = next();
+            SCL.set(rise, 1);
+            SCL.set(next(), 0);
+            return rise;
+        }
+
+        void write(String type, int value, boolean nak, int flags) {
+            final double start = bit((value >> 7) & 1);
+            for (int i = 6; i >= 0; i--) {
+                bit((value >> i) & 1);
+            }
+            final double end = bit(nak ? 1 : 0);
+            final long data = type.equals("address") ? value >> 1 : value;
+            EXPECTED.add(new Frame(type, start, end, data, 0, flags | (nak ? Frame.NAK : 0)));
+        }
+
+        void stop() {
+            SDA.set(next(), 0);
+            SCL.set(next(), 1);
+            final double time = next();
+            SDA.set(time, 1);
+            EXPECTED.add(new Frame("stop", time, time, 0, 0, 0));
+        }
+    }
+
+    @Test
+    void i2c() throws IOException {
+        final Random random = new Random(18);
+        final I2cBus bus = new I2cBus();
+        for (int transaction = 0; transaction < 600; transaction++) {
+            final int messages = random.nextInt(4) == 0 ? 2 : 1;
+            for (int message = 0; message < messages; message++) {
+                bus.start();
+                final boolean read = random.nextBoolean();
+                bus.write("address", random.nextInt(128) << 1 | (read ? 1 : 0), random.nextInt(8) == 0, read ? Frame.READ : 0);
+                final int bytes = random.nextInt(5);
+                for (int i = 0; i < bytes; i++) {
+                    bus.write("data", random.nextInt(256), random.nextInt(8) == 0, 0);
+                }
+            }
+            bus.stop();
+            bus.tick += 5 + random.nextInt(50);
+        }
+        final double endTime = (bus.tick + 5) * UNIT;
+
+        final I2cDecoder decoder = new I2cDecoder(new Capture.AnalyzerSettings()
+                .put("SDA", 0)
+                .put("SCL", 1), write(endTime, bus.SDA, bus.SCL));
+        assertSameFrames(bus.EXPECTED, decoder.decode());
+        assertParallelMatchesSequential(decoder, endTime);
+    }
+}
@@ -0,0 +1,130 @@
+package xyz.froud.saleae.automation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.SortedMap;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Maps hand-written binary export files and checks the headers, values, and the errors for malformed files.
+ */
+class RawBinaryReaderTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void digital() throws IOException {
+        final Path file = directory.resolve("digital_3.bin");
+        BinaryExportFiles.writeDigital(file, 1, -0.25, 2, 0.5, 0.75, 1.5);
+
+        final RawBinaryReader.DigitalChannel channel = RawBinaryReader.mapDigital(file);
+        assertEquals(1, channel.INITIAL_STATE);
+        assertEquals(-0.25, channel.BEGIN_TIME);
+        assertEquals(2, channel.END_TIME);
+        assertEquals(3, channel.TRANSITION_COUNT);
+        assertEquals(1, channel.segmentCount());
+        assertEquals(0.75, channel.transitionTime(1));
+        assertEquals(0, channel.stateAfterTransition(0));
+        assertEquals(1, channel.stateAfterTransition(1));
+        assertEquals(0, channel.stateAfterTransition(2));
+        assertEquals(1.5, channel.segment(0).get(2));
+    }
+
+    @Test
+    void cursor() throws IOException {
+        final Path file = directory.resolve("digital_0.bin");
+        BinaryExportFiles.writeDigital(file, 0, 0, 1, 0.1, 0.2, 0.3);
+        final RawBinaryReader.TransitionCursor cursor = RawBinaryReader.mapDigital(file).cursor();
+
+        assertTrue(cursor.next());
+        assertEquals(0, cursor.index());
+        assertEquals(0.1, cursor.time());
+        assertEquals(1, cursor.state());
+
+        cursor.seek(2);
+        assertTrue(cursor.next());
+        assertEquals(0.3, cursor.time());
+        assertEquals(1, cursor.state());
+        assertFalse(cursor.next());
+        assertTrue(Double.isNaN(cursor.time()));
+    }
+
+    @Test
+    void emptyDigital() throws IOException {
+        final Path file = directory.resolve("digital_0.bin");
+        BinaryExportFiles.writeDigital(file, 1, 0, 1);
+        final RawBinaryReader.DigitalChannel channel = RawBinaryReader.mapDigital(file);
+        assertEquals(0, channel.TRANSITION_COUNT);
+        assertFalse(channel.cursor().next());
+    }
+
+    @Test
+    void analog() throws IOException {
+        final Path file = directory.resolve("analog_1.bin");
+        BinaryExportFiles.writeAnalog(file, 0.5, 1000, 10, 1.0f, -2.5f, 3.25f);
+
+        final RawBinaryReader.AnalogChannel channel = RawBinaryReader.mapAnalog(file);
+        assertEquals(0.5, channel.BEGIN_TIME);
+        assertEquals(1000, channel.SAMPLE_RATE);
+        assertEquals(10, channel.DOWNSAMPLE);
+        assertEquals(3, channel.SAMPLE_COUNT);
+        assertEquals(100, channel.effectiveSampleRate());
+        assertEquals(-2.5f, channel.sample(1));
+        assertEquals(0.52, channel.sampleTime(2), 1e-12);
+        final float[] samples = new float[3];
+        channel.samples().get(samples);
+        assertArrayEquals(new float[]{1.0f, -2.5f, 3.25f}, samples);
+    }
+
+    @Test
+    void mapsDirectory() throws IOException {
+        BinaryExportFiles.writeDigital(directory.resolve("digital_10.bin"), 0, 0, 1, 0.5);
+        BinaryExportFiles.writeDigital(directory.resolve("digital_2.bin"), 1, 0, 1);
+        BinaryExportFiles.writeAnalog(directory.resolve("analog_0.bin"), 0, 10, 1, 0);
+        Files.writeString(directory.resolve("digital_x.bin"), "not an export");
+
+        final SortedMap<Integer, RawBinaryReader.DigitalChannel> digital = RawBinaryReader.mapDigitalDirectory(directory);
+        assertArrayEquals(new Integer[]{2, 10}, digital.keySet().toArray(new Integer[0]));
+        assertEquals(1, digital.get(10).TRANSITION_COUNT);
+        assertEquals(1, RawBinaryReader.mapAnalogDirectory(directory).size());
+    }
+
+    @Test
+    void wrongTypeFails() throws IOException {
+        final Path file = directory.resolve("analog_0.bin");
+        BinaryExportFiles.writeAnalog(file, 0, 10, 1, 0);
+        assertThrows(IOException.class, () -> RawBinaryReader.mapDigital(file));
+    }
+
+    @Test
+    void notAnExportFails() throws IOException {
+        final Path file = directory.resolve("digital_0.bin");
+        final byte[] bytes = new byte[64];
+        Arrays.fill(bytes, (byte) 'x');
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> RawBinaryReader.mapDigital(file));
+    }
+
+    @Test
+    void truncatedFileFails() throws IOException {
+        final Path file = directory.resolve("digital_0.bin");
+        BinaryExportFiles.writeDigital(file, 0, 0, 1, 0.1, 0.2);
+        final byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 1));
+        assertThrows(IOException.class, () -> RawBinaryReader.mapDigital(file));
+
+        Files.write(file, Arrays.copyOf(bytes, 20));
+        assertThrows(IOException.class, () -> RawBinaryReader.mapDigital(file));
+    }
+}
@@ -0,0 +1,144 @@
+package xyz.froud.saleae.automation;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+import saleae.AddAnalyzerRequest;
+import saleae.CaptureConfiguration;
+import saleae.ExportDataTableCsvRequest;
+import saleae.ExportRawDataBinaryRequest;
+import saleae.ExportRawDataCsvRequest;
+import saleae.LogicChannels;
+import saleae.LogicDeviceConfiguration;
+import saleae.ManagerGrpc;
+import saleae.ManagerGrpc.ManagerBlockingStub;
+import saleae.ManualCaptureMode;
+import saleae.SaveCaptureRequest;
+import saleae.StartCaptureRequest;
+import saleae.StopCaptureRequest;
+
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the simulator reports invalid requests with their status over gRPC, instead of UNKNOWN.
+ */
+class SimulatedLogic2ServerTest {
+
+    private static final long MISSING_CAPTURE_ID = 123456;
+
+    @TempDir
+    Path directory;
+
+    private SimulatedLogic2Server server;
+    private ManagedChannel channel;
+    private ManagerBlockingStub stub;
+
+    @BeforeEach
+    void start() throws Exception {
+        server = new SimulatedLogic2Server();
+        channel = server.startInProcess();
+        stub = ManagerGrpc.newBlockingStub(channel).withDeadlineAfter(10, TimeUnit.SECONDS);
+    }
+
+    @AfterEach
+    void stop() throws Exception {
+        channel.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+        server.close();
+    }
+
+    private long startCapture() {
+        return stub.startCapture(StartCaptureRequest.newBuilder()
+                .setDeviceId(SimulatedLogic2Server.SIMULATED_LOGIC_PRO_16_ID)
+                .setLogicDeviceConfiguration(LogicDeviceConfiguration.newBuilder()
+                        .setLogicChannels(LogicChannels.newBuilder().addDigitalChannels(0))
+                        .setDigitalSampleRate(10_000_000))
+                .setCaptureConfiguration(CaptureConfiguration.newBuilder()
+                        .setBufferSizeMegabytes(16)
+                        .setManualCaptureMode(ManualCaptureMode.getDefaultInstance()))
+                .build()
+        ).getCaptureInfo().getCaptureId();
+    }
+
+    private static void assertStatus(Status.Code expected, Executable call) {
+        final StatusRuntimeException e = assertThrows(StatusRuntimeException.class, call);
+        assertEquals(expected, e.getStatus().getCode(), e.getStatus().toString());
+    }
+
+    @Test
+    void saveCaptureOfMissingCapture() {
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.saveCapture(SaveCaptureRequest.newBuilder()
+                .setCaptureId(MISSING_CAPTURE_ID)
+                .setFilepath(directory.resolve("capture.sal").toString())
+                .build()));
+    }
+
+    @Test
+    void addAnalyzerToMissingCapture() {
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.addAnalyzer(AddAnalyzerRequest.newBuilder()
+                .setCaptureId(MISSING_CAPTURE_ID)
+                .setAnalyzerName("SPI")
+                .build()));
+    }
+
+    @Test
+    void stopMissingCapture() {
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.stopCapture(StopCaptureRequest.newBuilder()
+                .setCaptureId(MISSING_CAPTURE_ID)
+                .build()));
+    }
+
+    @Test
+    void exportRawDataBinaryToMissingDirectory() {
+        final long captureID = startCapture();
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.exportRawDataBinary(ExportRawDataBinaryRequest.newBuilder()
+                .setCaptureId(captureID)
+                .setDirectory(directory.resolve("missing").toString())
+                .build()));
+    }
+
+    @Test
+    void exportRawDataBinaryOfChannelNotRecorded() {
+        final long captureID = startCapture();
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.exportRawDataBinary(ExportRawDataBinaryRequest.newBuilder()
+                .setCaptureId(captureID)
+                .setDirectory(directory.toString())
+                .setLogicChannels(LogicChannels.newBuilder().addDigitalChannels(5))
+                .build()));
+    }
+
+    @Test
+    void exportRawDataCsvOfMissingCapture() {
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.exportRawDataCsv(ExportRawDataCsvRequest.newBuilder()
+                .setCaptureId(MISSING_CAPTURE_ID)
+                .setDirectory(directory.toString())
+                .build()));
+    }
+
+    @Test
+    void exportRawDataCsvOfAnalogChannelNotRecorded() {
+        final long captureID = startCapture();
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.exportRawDataCsv(ExportRawDataCsvRequest.newBuilder()
+                .setCaptureId(captureID)
+                .setDirectory(directory.toString())
+                .setLogicChannels(LogicChannels.newBuilder().addAnalogChannels(0))
+                .build()));
+    }
+
+    @Test
+    void exportDataTableCsvOfMissingCapture() {
+        assertStatus(Status.Code.INVALID_ARGUMENT, () -> stub.exportDataTableCsv(ExportDataTableCsvRequest.newBuilder()
+                .setCaptureId(MISSING_CAPTURE_ID)
+                .setFilepath(directory.resolve("table.csv").toString())
+                .build()));
+    }
+
+}
@@ -0,0 +1,875 @@
+package xyz.froud.saleae.automation;
+
+import io.grpc.ManagedChannel;
+import io.grpc.Server;
+import io.grpc.Status;
+import io.grpc.StatusRuntimeException;
+import io.grpc.inprocess.InProcessChannelBuilder;
+import io.grpc.inprocess.InProcessServerBuilder;
+import io.grpc.stub.StreamObserver;
+import saleae.AddAnalyzerReply;
+import saleae.AddAnalyzerRequest;
+import saleae.AddHighLevelAnalyzerReply;
+import saleae.AddHighLevelAnalyzerRequest;
+import saleae.AppInfo;
+import saleae.CaptureConfiguration;
+import saleae.CaptureInfo;
+import saleae.CloseCaptureReply;
+import saleae.CloseCaptureRequest;
+import saleae.DataTableAnalyzerConfiguration;
+import saleae.Device;
+import saleae.DeviceType;
+import saleae.ExportDataTableCsvReply;
+import saleae.ExportDataTableCsvRequest;
+import saleae.ExportRawDataBinaryReply;
+import saleae.ExportRawDataBinaryRequest;
+import saleae.ExportRawDataCsvReply;
+import saleae.ExportRawDataCsvRequest;
+import saleae.GetAppInfoReply;
+import saleae.GetAppInfoRequest;
+import saleae.GetDevicesReply;
+import saleae.GetDevicesRequest;
+import saleae.LegacyExportAnalyzerReply;
+import saleae.LegacyExportAnalyzerRequest;
+import saleae.LoadCaptureReply;
+import saleae.LoadCaptureRequest;
+import saleae.LogicChannels;
+import saleae.LogicDeviceConfiguration;
+import saleae.ManagerGrpc;
+import saleae.RadixType;
+import saleae.RemoveAnalyzerReply;
+import saleae.RemoveAnalyzerRequest;
+import saleae.RemoveHighLevelAnalyzerReply;
+import saleae.RemoveHighLevelAnalyzerRequest;
+import saleae.SaveCaptureReply;
+import saleae.SaveCaptureRequest;
+import saleae.StartCaptureReply;
+import saleae.StartCaptureRequest;
+import saleae.StopCaptureReply;
+import saleae.StopCaptureRequest;
+import saleae.ThisApiVersion;
+import saleae.Version;
+import saleae.WaitCaptureReply;
+import saleae.WaitCaptureRequest;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process stand-in for the Logic 2 software, for running tests and benchmarks without hardware or the Logic 2 app.
+ * <p>
+ * Captures run on a simulated clock, and the export requests write real files in the same formats as Logic 2, filled
+ * with data from {@link #digitalSignal} and {@link #analogSignal}. Every reply is delayed by {@link #latency}.
+ * <pre>{@code
+ * try (SimulatedLogic2Server server = new SimulatedLogic2Server();
+ *      Manager manager = new Manager(server.startInProcess())) {
+ *     ...
+ * }
+ * }</pre>
+ * The public fields may be changed while the server is running.
+ */
+public class SimulatedLogic2Server extends ManagerGrpc.ManagerImplBase implements AutoCloseable {
+
+    public static final String SIMULATED_LOGIC_PRO_16_ID = "F4241";
+    public static final String SIMULATED_LOGIC_PRO_8_ID = "F4242";
+
+    private static final DateTimeFormatter ISO_8601 = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSSSSSSSxxx");
+
+    /**
+     * Time between receiving a request and sending its reply. For exports, this is in addition to the time taken to
+     * write the files.
+     */
+    public volatile Duration latency = Duration.ZERO;
+
+    /**
+     * Wall clock seconds per simulated second. For example 0.01 makes a 1-second timed capture end after 10
+     * milliseconds. Does not change the amount of exported data.
+     */
+    public volatile double timeScale = 1;
+
+    /**
+     * Simulated seconds between starting a digital trigger capture and finding the trigger.
+     */
+    public volatile double triggerDelaySeconds = 0.01;
+
+    /**
+     * Devices returned by GetDevices. Starting a capture on any other device ID fails.
+     */
+    public volatile List<Device> devices = List.of(
+            Device.newBuilder()
+                    .setDeviceId(SIMULATED_LOGIC_PRO_16_ID)
+                    .setDeviceType(DeviceType.DEVICE_TYPE_LOGIC_PRO_16)
+                    .setIsSimulation(true)
+                    .build(),
+            Device.newBuilder()
+                    .setDeviceId(SIMULATED_LOGIC_PRO_8_ID)
+                    .setDeviceType(DeviceType.DEVICE_TYPE_LOGIC_PRO_8)
+                    .setIsSimulation(true)
+                    .build()
+    );
+
+    /**
+     * Generates digital data for exports. The default is a square wave whose frequency is 1 kHz divided by (channel
+     * index + 1).
+     */
+    public volatile DigitalSignal digitalSignal = squareWave(1000);
+
+    /**
+     * Generates analog data for exports. The default is a 0 to 3.3 V sine wave whose frequency is 100 Hz times
+     * (channel index + 1).
+     */
+    public volatile AnalogSignal analogSignal = sineWave(100, 1.65, 1.65);
+
+    /**
+     * Number of rows written for each analyzer by ExportDataTableCsv.
+     */
+    public volatile int dataTableRowsPerAnalyzer = 1000;
+
+    /**
+     * Digital signal for a simulated capture.
+     */
+    @FunctionalInterface
+    public interface DigitalSignal {
+        /**
+         * @return 0 or 1, the state of the channel at time zero
+         */
+        default int initialState(int channelIndex) {
+            return 0;
+        }
+
+        /**
+         * @return time in seconds of the first transition after {@code afterSeconds}. Must be greater than
+         * {@code afterSeconds}.
+         */
+        double nextTransition(int channelIndex, double afterSeconds);
+    }
+
+    /**
+     * Analog signal for a simulated capture.
+     */
+    @FunctionalInterface
+    public interface AnalogSignal {
+        float volts(int channelIndex, double timeSeconds);
+    }
+
+    /**
+     * @param baseFrequencyHertz frequency of channel 0. Channel {@code n} has frequency
+     * {@code baseFrequencyHertz / (n + 1)}.
+     */
+    public static DigitalSignal squareWave(double baseFrequencyHertz) {
+        return (channelIndex, afterSeconds) -> {
+            final double halfPeriod = (channelIndex + 1) / (2 * baseFrequencyHertz);
+            final double next = (Math.floor(afterSeconds / halfPeriod) + 1) * halfPeriod;
+            // the division can round down when afterSeconds is itself a transition
+            return next > afterSeconds ? next : next + halfPeriod;
+        };
+    }
+
+    /**
+     * @param baseFrequencyHertz frequency of channel 0. Channel {@code n} has frequency
+     * {@code baseFrequencyHertz * (n + 1)}.
+     */
+    public static AnalogSignal sineWave(double baseFrequencyHertz, double amplitudeVolts, double offsetVolts) {
+        return (channelIndex, timeSeconds) -> (float) (offsetVolts
+                + amplitudeVolts * Math.sin(2 * Math.PI * baseFrequencyHertz * (channelIndex + 1) * timeSeconds));
+    }
+
+    private final Map<Long, SimulatedCapture> CAPTURES = new ConcurrentHashMap<>();
+    private final AtomicLong NEXT_ID = new AtomicLong(1);
+    private final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(VirtualThreads.daemonThreadFactory("simulated-logic2-timer"));
+    private final ExecutorService EXPORT_EXECUTOR = Executors.newCachedThreadPool(VirtualThreads.daemonThreadFactory("simulated-logic2-export"));
+    private Server server;
+    private String serverName;
+
+    /**
+     * Start serving on an in-process transport.
+     *
+     * @return a channel connected to this server, to give to {@link Manager#Manager(ManagedChannel)}
+     */
+    public synchronized ManagedChannel startInProcess() throws IOException {
+        if (server != null) {
+            throw new IllegalStateException("The server has already been started");
+        }
+        final String name = InProcessServerBuilder.generateName();
+        server = InProcessServerBuilder.forName(name)
+                .directExecutor()
+                .addService(this)
+                .build()
+                .start();
+        serverName = name;
+        return newInProcessChannel(name);
+    }
+
+    /**
+     * @return another channel connected to this server. {@link #startInProcess()} must have been called.
+     */
+    public synchronized ManagedChannel newInProcessChannel() {
+        if (server == null) {
+            throw new IllegalStateException("The server has not been started");
+        }
+        return newInProcessChannel(serverName);
+    }
+
+    private static ManagedChannel newInProcessChannel(String name) {
+        // in-process channels all have the authority "localhost", which would share one DeviceListCache between servers
+        return InProcessChannelBuilder.forName(name).overrideAuthority(name).directExecutor().build();
+    }
+
+    /**
+     * @return number of captures which have been started or loaded and not closed
+     */
+    public int openCaptureCount() {
+        return CAPTURES.size();
+    }
+
+    @Override
+    public void close() throws InterruptedException {
+        synchronized (this) {
+            if (server != null) {
+                server.shutdownNow().awaitTermination(5, TimeUnit.SECONDS);
+            }
+        }
+        TIMER.shutdownNow();
+        EXPORT_EXECUTOR.shutdownNow();
+    }
+
+    private <T> void reply(StreamObserver<T> observer, T value) {
+        final long latencyNanos = latency.toNanos();
+        final Runnable send = () -> {
+            observer.onNext(value);
+            observer.onCompleted();
+        };
+        if (latencyNanos <= 0) {
+            send.run();
+        } else {
+            TIMER.schedule(send, latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private <T> void fail(StreamObserver<T> observer, Status status) {
+        final long latencyNanos = latency.toNanos();
+        if (latencyNanos <= 0) {
+            observer.onError(status.asRuntimeException());
+        } else {
+            TIMER.schedule(() -> observer.onError(status.asRuntimeException()), latencyNanos, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Like the other checks, this fails the call instead of throwing, because gRPC reports an exception thrown by a
+     * handler as UNKNOWN instead of its status.
+     *
+     * @return the capture, or null if it does not exist and the call was failed
+     */
+    private SimulatedCapture capture(long captureID, StreamObserver<?> responseObserver) {
+        final SimulatedCapture capture = CAPTURES.get(captureID);
+        if (capture == null) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Capture " + captureID + " does not exist"));
+        }
+        return capture;
+    }
+
+    @Override
+    public void getAppInfo(GetAppInfoRequest request, StreamObserver<GetAppInfoReply> responseObserver) {
+        reply(responseObserver, GetAppInfoReply.newBuilder()
+                .setAppInfo(AppInfo.newBuilder()
+                        .setApiVersion(Version.newBuilder().setMajor(ThisApiVersion.THIS_API_VERSION_MAJOR.getNumber()))
+                        .setApplicationVersion("simulated")
+                        .setLaunchPid(ProcessHandle.current().pid()))
+                .build());
+    }
+
+    @Override
+    public void getDevices(GetDevicesRequest request, StreamObserver<GetDevicesReply> responseObserver) {
+        final GetDevicesReply.Builder reply = GetDevicesReply.newBuilder();
+        for (Device device : devices) {
+            if (request.getIncludeSimulationDevices() || !device.getIsSimulation()) {
+                reply.addDevices(device);
+            }
+        }
+        reply(responseObserver, reply.build());
+    }
+
+    @Override
+    public void startCapture(StartCaptureRequest request, StreamObserver<StartCaptureReply> responseObserver) {
+        if (devices.stream().noneMatch(device -> device.getDeviceId().equals(request.getDeviceId()))) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Device " + request.getDeviceId() + " not found"));
+            return;
+        }
+        final SimulatedCapture capture = new SimulatedCapture(
+                NEXT_ID.getAndIncrement(),
+                request.getLogicDeviceConfiguration(),
+                request.getCaptureConfiguration()
+        );
+        CAPTURES.put(capture.ID, capture);
+
+        final CaptureConfiguration config = request.getCaptureConfiguration();
+        final double simulatedSeconds = switch (config.getCaptureModeCase()) {
+            case TIMED_CAPTURE_MODE -> config.getTimedCaptureMode().getDurationSeconds();
+            case DIGITAL_CAPTURE_MODE -> triggerDelaySeconds + config.getDigitalCaptureMode().getAfterTriggerSeconds();
+            default -> Double.NaN; // manual capture runs until StopCapture
+        };
+        if (!Double.isNaN(simulatedSeconds)) {
+            TIMER.schedule(() -> capture.end(simulatedSeconds), (long) (simulatedSeconds * timeScale * 1e9), TimeUnit.NANOSECONDS);
+        }
+
+        reply(responseObserver, StartCaptureReply.newBuilder()
+                .setCaptureInfo(CaptureInfo.newBuilder().setCaptureId(capture.ID))
+                .build());
+    }
+
+    @Override
+    public void stopCapture(StopCaptureRequest request, StreamObserver<StopCaptureReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        capture.end((System.nanoTime() - capture.START_NANOS) / 1e9 / timeScale);
+        reply(responseObserver, StopCaptureReply.getDefaultInstance());
+    }
+
+    @Override
+    public void waitCapture(WaitCaptureRequest request, StreamObserver<WaitCaptureReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        capture.ENDED.thenRun(() -> reply(responseObserver, WaitCaptureReply.getDefaultInstance()));
+    }
+
+    @Override
+    public void loadCapture(LoadCaptureRequest request, StreamObserver<LoadCaptureReply> responseObserver) {
+        if (!Files.isRegularFile(Path.of(request.getFilepath()))) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("File not found: " + request.getFilepath()));
+            return;
+        }
+        final SimulatedCapture capture = new SimulatedCapture(
+                NEXT_ID.getAndIncrement(),
+                LogicDeviceConfiguration.newBuilder()
+                        .setLogicChannels(LogicChannels.newBuilder().addDigitalChannels(0))
+                        .setDigitalSampleRate(10_000_000)
+                        .build(),
+                CaptureConfiguration.getDefaultInstance()
+        );
+        capture.end(1);
+        CAPTURES.put(capture.ID, capture);
+        reply(responseObserver, LoadCaptureReply.newBuilder()
+                .setCaptureInfo(CaptureInfo.newBuilder().setCaptureId(capture.ID))
+                .build());
+    }
+
+    @Override
+    public void saveCapture(SaveCaptureRequest request, StreamObserver<SaveCaptureReply> responseObserver) {
+        if (capture(request.getCaptureId(), responseObserver) == null) {
+            return;
+        }
+        runExport(responseObserver, SaveCaptureReply.getDefaultInstance(), () ->
+                Files.writeString(Path.of(request.getFilepath()), "simulated capture " + request.getCaptureId())
+        );
+    }
+
+    @Override
+    public void closeCapture(CloseCaptureRequest request, StreamObserver<CloseCaptureReply> responseObserver) {
+        final SimulatedCapture capture = CAPTURES.remove(request.getCaptureId());
+        if (capture == null) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Capture " + request.getCaptureId() + " does not exist"));
+            return;
+        }
+        capture.end((System.nanoTime() - capture.START_NANOS) / 1e9 / timeScale);
+        reply(responseObserver, CloseCaptureReply.getDefaultInstance());
+    }
+
+    @Override
+    public void addAnalyzer(AddAnalyzerRequest request, StreamObserver<AddAnalyzerReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        final long analyzerID = NEXT_ID.getAndIncrement();
+        capture.ANALYZERS.put(analyzerID, request.getAnalyzerLabel());
+        reply(responseObserver, AddAnalyzerReply.newBuilder().setAnalyzerId(analyzerID).build());
+    }
+
+    @Override
+    public void removeAnalyzer(RemoveAnalyzerRequest request, StreamObserver<RemoveAnalyzerReply> responseObserver) {
+        // Capture.removeAnalyzer does not send the capture ID, so search every capture
+        CAPTURES.values().forEach(capture -> capture.ANALYZERS.remove(request.getAnalyzerId()));
+        reply(responseObserver, RemoveAnalyzerReply.getDefaultInstance());
+    }
+
+    @Override
+    public void addHighLevelAnalyzer(AddHighLevelAnalyzerRequest request, StreamObserver<AddHighLevelAnalyzerReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        if (!capture.ANALYZERS.containsKey(request.getInputAnalyzerId())) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Input analyzer " + request.getInputAnalyzerId() + " does not exist"));
+            return;
+        }
+        final long analyzerID = NEXT_ID.getAndIncrement();
+        capture.ANALYZERS.put(analyzerID, request.getHlaLabel());
+        reply(responseObserver, AddHighLevelAnalyzerReply.newBuilder().setAnalyzerId(analyzerID).build());
+    }
+
+    @Override
+    public void removeHighLevelAnalyzer(RemoveHighLevelAnalyzerRequest request, StreamObserver<RemoveHighLevelAnalyzerReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        capture.ANALYZERS.remove(request.getAnalyzerId());
+        reply(responseObserver, RemoveHighLevelAnalyzerReply.getDefaultInstance());
+    }
+
+    @Override
+    public void exportRawDataBinary(ExportRawDataBinaryRequest request, StreamObserver<ExportRawDataBinaryReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        final Path directory = exportDirectory(request.getDirectory(), responseObserver);
+        if (directory == null) {
+            return;
+        }
+        final LogicChannels channels = channelsToExport(capture, request.getLogicChannels(), responseObserver);
+        if (channels == null) {
+            return;
+        }
+        final long downsample = Math.max(1, request.getAnalogDownsampleRatio());
+        runExport(responseObserver, ExportRawDataBinaryReply.getDefaultInstance(), () -> {
+            final double duration = capture.ENDED.join();
+            for (int channel : channels.getDigitalChannelsList()) {
+                writeDigitalBinary(directory.resolve("digital_" + channel + ".bin"), channel, duration, capture.CONFIG.getDigitalSampleRate());
+            }
+            for (int channel : channels.getAnalogChannelsList()) {
+                writeAnalogBinary(directory.resolve("analog_" + channel + ".bin"), channel, duration, capture.CONFIG.getAnalogSampleRate(), downsample);
+            }
+        });
+    }
+
+    @Override
+    public void exportRawDataCsv(ExportRawDataCsvRequest request, StreamObserver<ExportRawDataCsvReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        final Path directory = exportDirectory(request.getDirectory(), responseObserver);
+        if (directory == null) {
+            return;
+        }
+        final LogicChannels channels = channelsToExport(capture, request.getLogicChannels(), responseObserver);
+        if (channels == null) {
+            return;
+        }
+        final long downsample = Math.max(1, request.getAnalogDownsampleRatio());
+        runExport(responseObserver, ExportRawDataCsvReply.getDefaultInstance(), () -> {
+            final double duration = capture.ENDED.join();
+            final TimestampFormat timestampFormat = new TimestampFormat(request.getIso8601Timestamp(), capture.START_INSTANT);
+            if (channels.getDigitalChannelsCount() > 0) {
+                writeDigitalCsv(directory.resolve("digital.csv"), channels.getDigitalChannelsList(), duration, capture.CONFIG.getDigitalSampleRate(), timestampFormat);
+            }
+            if (channels.getAnalogChannelsCount() > 0) {
+                writeAnalogCsv(directory.resolve("analog.csv"), channels.getAnalogChannelsList(), duration, capture.CONFIG.getAnalogSampleRate(), downsample, timestampFormat);
+            }
+        });
+    }
+
+    @Override
+    public void exportDataTableCsv(ExportDataTableCsvRequest request, StreamObserver<ExportDataTableCsvReply> responseObserver) {
+        final SimulatedCapture capture = capture(request.getCaptureId(), responseObserver);
+        if (capture == null) {
+            return;
+        }
+        for (DataTableAnalyzerConfiguration analyzer : request.getAnalyzersList()) {
+            if (!capture.ANALYZERS.containsKey(analyzer.getAnalyzerId())) {
+                fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Analyzer " + analyzer.getAnalyzerId() + " does not exist"));
+                return;
+            }
+        }
+        runExport(responseObserver, ExportDataTableCsvReply.getDefaultInstance(), () -> {
+            final double duration = capture.ENDED.join();
+            writeDataTableCsv(request, capture, duration);
+        });
+    }
+
+    @Override
+    public void legacyExportAnalyzer(LegacyExportAnalyzerRequest request, StreamObserver<LegacyExportAnalyzerReply> responseObserver) {
+        runExport(responseObserver, LegacyExportAnalyzerReply.getDefaultInstance(), () -> {
+            try (BufferedWriter writer = Files.newBufferedWriter(Path.of(request.getFilepath()))) {
+                writer.write("Time [s],Value\n");
+                for (int row = 0; row < dataTableRowsPerAnalyzer; row++) {
+                    writer.write(formatFixed(row * 1e-3) + "," + formatValue(row & 0xFF, request.getRadixType()) + "\n");
+                }
+            }
+        });
+    }
+
+    /**
+     * @return the directory, or null if it does not exist and the call was failed
+     */
+    private Path exportDirectory(String directory, StreamObserver<?> responseObserver) {
+        final Path path = Path.of(directory);
+        if (!Files.isDirectory(path)) {
+            fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Directory does not exist: " + directory));
+            return null;
+        }
+        return path;
+    }
+
+    /**
+     * @return the requested channels, or every recorded channel if none were requested, or null if a requested channel
+     * was not recorded and the call was failed
+     */
+    private LogicChannels channelsToExport(SimulatedCapture capture, LogicChannels requested, StreamObserver<?> responseObserver) {
+        final LogicChannels recorded = capture.CONFIG.getLogicChannels();
+        if (requested.getDigitalChannelsCount() == 0 && requested.getAnalogChannelsCount() == 0) {
+            return recorded;
+        }
+        for (int channel : requested.getDigitalChannelsList()) {
+            if (!recorded.getDigitalChannelsList().contains(channel)) {
+                fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Digital channel " + channel + " was not recorded"));
+                return null;
+            }
+        }
+        for (int channel : requested.getAnalogChannelsList()) {
+            if (!recorded.getAnalogChannelsList().contains(channel)) {
+                fail(responseObserver, Status.INVALID_ARGUMENT.withDescription("Analog channel " + channel + " was not recorded"));
+                return null;
+            }
+        }
+        return requested;
+    }
+
+    @FunctionalInterface
+    private interface ExportAction {
+        void run() throws IOException;
+    }
+
+    /**
+     * Write the export files on a background thread, then reply.
+     */
+    private <T> void runExport(StreamObserver<T> responseObserver, T reply, ExportAction action) {
+        EXPORT_EXECUTOR.execute(() -> {
+            try {
+                action.run();
+                reply(responseObserver, reply);
+            } catch (StatusRuntimeException e) {
+                fail(responseObserver, e.getStatus());
+            } catch (IOException | RuntimeException e) {
+                fail(responseObserver, Status.INTERNAL.withDescription(e.toString()).withCause(e));
+            }
+        });
+    }
+
+    private void writeDigitalBinary(Path file, int channel, double duration, int sampleRate) throws IOException {
+        final DigitalSignal signal = digitalSignal;
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put("<SALEAE>".getBytes(StandardCharsets.US_ASCII))
+                    .putInt(0) // version
+                    .putInt(0) // type
+                    .putInt(signal.initialState(channel))
+                    .putDouble(0) // begin time
+                    .putDouble(duration)
+                    .putLong(0); // transition count, filled in at the end
+            final int countOffset = buffer.position() - Long.BYTES;
+
+            long count = 0;
+            double exactTime = 0;
+            while (true) {
+                exactTime = nextTransition(signal, channel, exactTime);
+                final double time = roundToSample(exactTime, sampleRate);
+                if (!(time < duration)) {
+                    break;
+                }
+                if (buffer.remaining() < Double.BYTES) {
+                    writeFully(fileChannel, buffer);
+                }
+                buffer.putDouble(time);
+                count++;
+            }
+            writeFully(fileChannel, buffer);
+
+            buffer.putLong(count).flip();
+            fileChannel.write(buffer, countOffset);
+        }
+    }
+
+    private void writeAnalogBinary(Path file, int channel, double duration, int sampleRate, long downsample) throws IOException {
+        final AnalogSignal signal = analogSignal;
+        final double exportedRate = (double) sampleRate / downsample;
+        final long sampleCount = (long) (duration * exportedRate);
+        try (FileChannel fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            final ByteBuffer buffer = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put("<SALEAE>".getBytes(StandardCharsets.US_ASCII))
+                    .putInt(0) // version
+                    .putInt(1) // type
+                    .putDouble(0) // begin time
+                    .putLong(sampleRate)
+                    .putLong(downsample)
+                    .putLong(sampleCount);
+            for (long i = 0; i < sampleCount; i++) {
+                if (buffer.remaining() < Float.BYTES) {
+                    writeFully(fileChannel, buffer);
+                }
+                buffer.putFloat(signal.volts(channel, i / exportedRate));
+            }
+            writeFully(fileChannel, buffer);
+        }
+    }
+
+    private static void writeFully(FileChannel fileChannel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            fileChannel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static double nextTransition(DigitalSignal signal, int channel, double afterSeconds) {
+        final double next = signal.nextTransition(channel, afterSeconds);
+        if (!(next > afterSeconds)) {
+            throw new IllegalStateException("The digital signal's next transition after " + afterSeconds + " s is at " + next + " s");
+        }
+        return next;
+    }
+
+    /**
+     * Only the exported times are rounded. The signal is always asked for the transition after the exact time of the
+     * previous one, so rounding can't make it return the same transition twice.
+     */
+    private static double roundToSample(double seconds, int sampleRate) {
+        return sampleRate > 0 ? Math.round(seconds * sampleRate) / (double) sampleRate : seconds;
+    }
+
+    private void writeDigitalCsv(Path file, List<Integer> channels, double duration, int sampleRate, TimestampFormat timestampFormat) throws IOException {
+        final DigitalSignal signal = digitalSignal;
+        final int channelCount = channels.size();
+        final int[] states = new int[channelCount];
+        final double[] exactNextTimes = new double[channelCount];
+        final double[] nextTimes = new double[channelCount];
+        for (int i = 0; i < channelCount; i++) {
+            states[i] = signal.initialState(channels.get(i));
+            exactNextTimes[i] = nextTransition(signal, channels.get(i), 0);
+            nextTimes[i] = roundToSample(exactNextTimes[i], sampleRate);
+        }
+
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("Time [s]");
+            for (int channel : channels) {
+                writer.write(",Channel " + channel);
+            }
+            writer.write('\n');
+
+            final StringBuilder line = new StringBuilder();
+            double time = 0;
+            while (true) {
+                line.setLength(0);
+                timestampFormat.append(line, time);
+                for (int state : states) {
+                    line.append(',').append(state);
+                }
+                line.append('\n');
+                writer.append(line);
+
+                time = Double.POSITIVE_INFINITY;
+                for (double nextTime : nextTimes) {
+                    time = Math.min(time, nextTime);
+                }
+                if (!(time < duration)) {
+                    break;
+                }
+                for (int i = 0; i < channelCount; i++) {
+                    if (nextTimes[i] == time) {
+                        states[i] ^= 1;
+                        exactNextTimes[i] = nextTransition(signal, channels.get(i), exactNextTimes[i]);
+                        nextTimes[i] = roundToSample(exactNextTimes[i], sampleRate);
+                    }
+                }
+            }
+        }
+    }
+
+    private void writeAnalogCsv(Path file, List<Integer> channels, double duration, int sampleRate, long downsample, TimestampFormat timestampFormat) throws IOException {
+        final AnalogSignal signal = analogSignal;
+        final double exportedRate = (double) sampleRate / downsample;
+        final long sampleCount = (long) (duration * exportedRate);
+        try (BufferedWriter writer = Files.newBufferedWriter(file)) {
+            writer.write("Time [s]");
+            for (int channel : channels) {
+                writer.write(",Channel " + channel);
+            }
+            writer.write('\n');
+
+            final StringBuilder line = new StringBuilder();
+            for (long i = 0; i < sampleCount; i++) {
+                final double time = i / exportedRate;
+                line.setLength(0);
+                timestampFormat.append(line, time);
+                for (int channel : channels) {
+                    line.append(',').append(signal.volts(channel, time));
+                }
+                line.append('\n');
+                writer.append(line);
+            }
+        }
+    }
+
+    private void writeDataTableCsv(ExportDataTableCsvRequest request, SimulatedCapture capture, double duration) throws IOException {
+        final List<String> columns = request.getExportColumnsCount() > 0 ? request.getExportColumnsList() : List.of("data");
+        final String query = request.getFilter().getQuery().toLowerCase(Locale.ROOT);
+        final List<String> queryColumns = request.getFilter().getColumnsList();
+        final TimestampFormat timestampFormat = new TimestampFormat(request.getIso8601Timestamp(), capture.START_INSTANT);
+        final int rowsPerAnalyzer = dataTableRowsPerAnalyzer;
+
+        try (BufferedWriter writer = Files.newBufferedWriter(Path.of(request.getFilepath()))) {
+            writer.write("name,type,start_time,duration");
+            for (String column : columns) {
+                writer.write(",\"" + column + "\"");
+            }
+            writer.write('\n');
+
+            final StringBuilder line = new StringBuilder();
+            final List<String> values = new ArrayList<>(columns.size());
+            for (int row = 0; row < rowsPerAnalyzer; row++) {
+                final double startTime = duration * row / rowsPerAnalyzer;
+                for (DataTableAnalyzerConfiguration analyzer : request.getAnalyzersList()) {
+                    final String name = capture.ANALYZERS.get(analyzer.getAnalyzerId());
+                    final String type = row % 10 == 0 ? "start" : "data";
+                    values.clear();
+                    for (String column : columns) {
+                        values.add(type.equals("data") ? formatValue((row * 7 + column.length()) & 0xFF, analyzer.getRadixType()) : "");
+                    }
+                    if (!query.isEmpty() && !matchesQuery(query, queryColumns, name, type, columns, values)) {
+                        continue;
+                    }
+                    line.setLength(0);
+                    line.append('"').append(name).append("\",\"").append(type).append("\",");
+                    timestampFormat.append(line, startTime);
+                    line.append(',').append(formatFixed(duration / rowsPerAnalyzer / 2));
+                    for (String value : values) {
+                        line.append(',').append(value);
+                    }
+                    line.append('\n');
+                    writer.append(line);
+                }
+            }
+        }
+    }
+
+    private static boolean matchesQuery(String query, List<String> queryColumns, String name, String type, List<String> columns, List<String> values) {
+        if (queryColumns.isEmpty() || queryColumns.contains("name")) {
+            if (name.toLowerCase(Locale.ROOT).contains(query)) {
+                return true;
+            }
+        }
+        if (queryColumns.isEmpty() || queryColumns.contains("type")) {
+            if (type.contains(query)) {
+                return true;
+            }
+        }
+        for (int i = 0; i < columns.size(); i++) {
+            if ((queryColumns.isEmpty() || queryColumns.contains(columns.get(i)))
+                    && values.get(i).toLowerCase(Locale.ROOT).contains(query)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String formatValue(int value, RadixType radix) {
+        return switch (radix) {
+            case RADIX_TYPE_BINARY -> "0b" + String.format("%8s", Integer.toBinaryString(value)).replace(' ', '0');
+            case RADIX_TYPE_DECIMAL -> Integer.toString(value);
+            case RADIX_TYPE_ASCII -> value >= 0x21 && value < 0x7F && value != '"' && value != ',' ? Character.toString(value) : String.format("0x%02X", value);
+            default -> String.format("0x%02X", value);
+        };
+    }
+
+    /**
+     * @return time in seconds with nine decimal places, like Logic 2 writes it
+     */
+    private static String formatFixed(double seconds) {
+        return appendFixed(new StringBuilder(), seconds).toString();
+    }
+
+    private static StringBuilder appendFixed(StringBuilder builder, double seconds) {
+        final long nanos = Math.round(seconds * 1e9);
+        final String fraction = Long.toString(nanos % 1_000_000_000L);
+        builder.append(nanos / 1_000_000_000L).append('.');
+        for (int i = fraction.length(); i < 9; i++) {
+            builder.append('0');
+        }
+        return builder.append(fraction);
+    }
+
+    /**
+     * Writes either capture-relative or ISO 8601 wall clock timestamps.
+     */
+    private static class TimestampFormat {
+        final boolean ISO_8601_TIMESTAMPS;
+        final Instant START;
+
+        TimestampFormat(boolean iso8601Timestamps, Instant start) {
+            ISO_8601_TIMESTAMPS = iso8601Timestamps;
+            START = start;
+        }
+
+        void append(StringBuilder builder, double seconds) {
+            if (ISO_8601_TIMESTAMPS) {
+                builder.append(ISO_8601.format(OffsetDateTime.ofInstant(START.plusNanos(Math.round(seconds * 1e9)), ZoneOffset.UTC)));
+            } else {
+                appendFixed(builder, seconds);
+            }
+        }
+    }
+
+    private static class SimulatedCapture {
+        final long ID;
+        final LogicDeviceConfiguration CONFIG;
+        final CaptureConfiguration CAPTURE_CONFIG;
+        final long START_NANOS = System.nanoTime();
+        final Instant START_INSTANT = Instant.now();
+        final Map<Long, String> ANALYZERS = new ConcurrentHashMap<>();
+
+        /**
+         * Completed with the simulated duration in seconds when the capture ends.
+         */
+        final CompletableFuture<Double> ENDED = new CompletableFuture<>();
+
+        SimulatedCapture(long id, LogicDeviceConfiguration config, CaptureConfiguration captureConfig) {
+            ID = id;
+            CONFIG = config;
+            CAPTURE_CONFIG = captureConfig;
+        }
+
+        void end(double durationSeconds) {
+            ENDED.complete(durationSeconds);
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package xyz.froud.saleae.automation;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link AnalogKernels} using the incubating Vector API with the preferred vector size of the CPU, for example 8 floats
+ * with AVX2 or 16 with AVX-512. Only loaded by {@link AnalogKernels#best()} when the jdk.incubator.vector module is
+ * present. It is in its own source set, the only one compiled with the incubator module, and packaged in the main jar.
+ * <p>
+ * Sums are kept in float lanes for one array of samples, then added to the double sums of the accumulator.
+ */
+final class VectorAnalogKernels implements AnalogKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void accumulate(float[] samples, int length, AnalogAnalysis.Accumulator accumulator) {
+        FloatVector min = FloatVector.broadcast(SPECIES, Float.POSITIVE_INFINITY);
+        FloatVector max = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+        FloatVector sum = FloatVector.zero(SPECIES);
+        FloatVector sumSquares = FloatVector.zero(SPECIES);
+        final int upperBound = SPECIES.loopBound(length);
+        int i = 0;
+        for (; i < upperBound; i += SPECIES.length()) {
+            final FloatVector v = FloatVector.fromArray(SPECIES, samples, i);
+            min = min.min(v);
+            max = max.max(v);
+            sum = sum.add(v);
+            sumSquares = v.fma(v, sumSquares);
+        }
+        float scalarMin = Math.min(accumulator.min, min.reduceLanes(VectorOperators.MIN));
+        float scalarMax = Math.max(accumulator.max, max.reduceLanes(VectorOperators.MAX));
+        double scalarSum = sum.reduceLanes(VectorOperators.ADD);
+        double scalarSumSquares = sumSquares.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            final float sample = samples[i];
+            scalarMin = Math.min(scalarMin, sample);
+            scalarMax = Math.max(scalarMax, sample);
+            scalarSum += sample;
+            scalarSumSquares += (double) sample * sample;
+        }
+        accumulator.min = scalarMin;
+        accumulator.max = scalarMax;
+        accumulator.sum += scalarSum;
+        accumulator.sumSquares += scalarSumSquares;
+        accumulator.count += length;
+    }
+
+    @Override
+    public int indexAbove(float[] samples, int from, int to, float threshold) {
+        int i = from;
+        for (; i <= to - SPECIES.length(); i += SPECIES.length()) {
+            final VectorMask<Float> mask = FloatVector.fromArray(SPECIES, samples, i).compare(VectorOperators.GT, threshold);
+            if (mask.anyTrue()) {
+                return i + mask.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            if (samples[i] > threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexBelow(float[] samples, int from, int to, float threshold) {
+        int i = from;
+        for (; i <= to - SPECIES.length(); i += SPECIES.length()) {
+            final VectorMask<Float> mask = FloatVector.fromArray(SPECIES, samples, i).compare(VectorOperators.LT, threshold);
+            if (mask.anyTrue()) {
+                return i + mask.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            if (samples[i] < threshold) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int indexOfMax(float[] samples, int from, int to) {
+        // first find the largest value, then where it is
+        FloatVector max = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+        int i = from;
+        for (; i <= to - SPECIES.length(); i += SPECIES.length()) {
+            max = max.max(FloatVector.fromArray(SPECIES, samples, i));
+        }
+        float scalarMax = max.reduceLanes(VectorOperators.MAX);
+        for (; i < to; i++) {
+            scalarMax = Math.max(scalarMax, samples[i]);
+        }
+        i = from;
+        for (; i <= to - SPECIES.length(); i += SPECIES.length()) {
+            final VectorMask<Float> mask = FloatVector.fromArray(SPECIES, samples, i).compare(VectorOperators.EQ, scalarMax);
+            if (mask.anyTrue()) {
+                return i + mask.firstTrue();
+            }
+        }
+        for (; i < to; i++) {
+            if (samples[i] == scalarMax) {
+                return i;
+            }
+        }
+        return from;
+    }
+
+    @Override
+    public boolean isVectorized() {
+        return true;
+    }
+
+}